@@ -89,6 +89,15 @@ import java.util.Vector;
  *             </code>
  *         </pre>
  *     </li>
+ *     <li>
+ *         The threads used for capturing are kept between sessions. When the application won't
+ *         capture anymore, e.g. in onDestroy, release them.
+ *         <pre>
+ *             <code>
+ *                 ExecutionContext.getInstance().shutdown();
+ *             </code>
+ *         </pre>
+ *     </li>
  * </ol>
  *
  * @author Han Lin
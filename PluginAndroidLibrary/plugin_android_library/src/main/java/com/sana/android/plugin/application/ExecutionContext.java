@@ -0,0 +1,170 @@
+package com.sana.android.plugin.application;
+
+import com.sana.android.plugin.data.event.NotificationDispatcher;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads shared by all the events and listeners of the library, kept
+ * across capture sessions. Events and listeners submit their long running
+ * loops, e.g. polling a stream, and their periodic tasks here instead of
+ * creating and shutting down executors of their own on every
+ * prepare/stop cycle.
+ *
+ * Loops run on a pool that creates threads as needed and keeps idle ones
+ * for {@link #IDLE_THREAD_TIMEOUT} seconds, so the next session reuses
+ * them. Periodic tasks share {@link #TIMER_THREAD_COUNT} threads, however
+ * many listeners are running, so they must only trigger work and hand
+ * anything that takes time to {@link #submit(Runnable)}, the way
+ * {@link com.sana.android.plugin.data.listener.TimedListener} does. Nothing
+ * is ever shut down implicitly: call {@link #shutdown()} once the
+ * application is done capturing. The threads are daemon threads, so they
+ * never keep the process alive.
+ */
+public class ExecutionContext {
+    private static final String IO_THREAD_NAME_FORMAT = "ExecutionContext-io-%d";
+    private static final String TIMER_THREAD_NAME_FORMAT =
+            "ExecutionContext-timer-%d";
+
+    public static final long IDLE_THREAD_TIMEOUT = 60;
+    public static final int TIMER_THREAD_COUNT = 2;
+
+    private static ExecutionContext sharedInstance;
+
+    private final ThreadPoolExecutor ioThreads;
+    private final ScheduledThreadPoolExecutor timerThreads;
+
+    private ExecutionContext() {
+        this.ioThreads = new ThreadPoolExecutor(
+                0,
+                Integer.MAX_VALUE,
+                ExecutionContext.IDLE_THREAD_TIMEOUT,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                ExecutionContext.createThreadFactory(
+                        ExecutionContext.IO_THREAD_NAME_FORMAT)
+        );
+        this.timerThreads = new ScheduledThreadPoolExecutor(
+                ExecutionContext.TIMER_THREAD_COUNT,
+                ExecutionContext.createThreadFactory(
+                        ExecutionContext.TIMER_THREAD_NAME_FORMAT)
+        );
+    }
+
+    private static ThreadFactory createThreadFactory(final String nameFormat) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(
+                        runnable,
+                        String.format(nameFormat, threadCount.incrementAndGet())
+                );
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * @return The shared context, created if needed, e.g. again after
+     *         {@link #shutdown()}.
+     */
+    public static synchronized ExecutionContext getInstance() {
+        if (ExecutionContext.sharedInstance == null) {
+            ExecutionContext.sharedInstance = new ExecutionContext();
+        }
+        return ExecutionContext.sharedInstance;
+    }
+
+    /**
+     * Run a task on a thread of its own, reused from a previous task if one
+     * is idle.
+     *
+     * @param task    The task, typically a loop reading from a device.
+     * @return The future of the task, to wait for it with
+     *         {@link #await(java.util.concurrent.Future, long, java.util.concurrent.TimeUnit)}.
+     */
+    public Future<?> submit(Runnable task) {
+        return this.ioThreads.submit(task);
+    }
+
+    /**
+     * Run a task periodically on one of the timer threads, see
+     * {@link ScheduledThreadPoolExecutor#scheduleAtFixedRate(Runnable, long, long, TimeUnit)}.
+     * Cancel the returned future to stop it.
+     * The timer threads are shared, so a task that blocks or runs long
+     * delays every other periodic task; submit such work instead.
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(
+            Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return this.timerThreads.scheduleAtFixedRate(
+                task, initialDelay, period, unit);
+    }
+
+    /**
+     * Wait for a task submitted to the context to end, the way
+     * {@link java.util.concurrent.ExecutorService#awaitTermination(long, TimeUnit)}
+     * waits for a whole executor.
+     *
+     * @param task    The future of the task, or null.
+     * @return False if the task was still running after the timeout.
+     */
+    public static boolean await(Future<?> task, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if (task == null) {
+            return true;
+        }
+        try {
+            task.get(timeout, unit);
+        } catch (ExecutionException e) {
+            // The task ended, by throwing.
+        } catch (TimeoutException e) {
+            return false;
+        } catch (CancellationException e) {
+            // The task won't run again.
+        }
+        return true;
+    }
+
+    /**
+     * Stop the shared threads, including the workers of the
+     * {@link NotificationDispatcher}. Running tasks finish but no new task
+     * is accepted. The next call to {@link #getInstance()} creates a new
+     * context.
+     */
+    public void shutdown() {
+        synchronized (ExecutionContext.class) {
+            if (ExecutionContext.sharedInstance == this) {
+                ExecutionContext.sharedInstance = null;
+            }
+        }
+        this.ioThreads.shutdown();
+        this.timerThreads.shutdown();
+        NotificationDispatcher.shutdown();
+    }
+
+    /**
+     * Wait for the tasks still running after {@link #shutdown()}.
+     *
+     * @return False if some were still running after the timeout.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean result = this.ioThreads.awaitTermination(timeout, unit);
+        long remaining = Math.max(0, deadline - System.nanoTime());
+        return this.timerThreads.awaitTermination(remaining, TimeUnit.NANOSECONDS)
+                && result;
+    }
+}
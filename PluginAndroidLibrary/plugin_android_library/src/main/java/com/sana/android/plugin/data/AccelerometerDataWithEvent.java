@@ -1,18 +1,46 @@
 package com.sana.android.plugin.data;
 
+import android.util.Log;
+
+import com.sana.android.plugin.data.buffer.SensorSampleFile;
+import com.sana.android.plugin.data.buffer.SensorSamples;
+import com.sana.android.plugin.data.dsp.MotionFeatureExtractor;
+import com.sana.android.plugin.data.dsp.MotionFeatures;
 import com.sana.android.plugin.data.event.AccelerometerDataEvent;
 import com.sana.android.plugin.data.event.BaseDataEvent;
 import com.sana.android.plugin.data.listener.DataListener;
+import com.sana.android.plugin.data.listener.SensorSampleListener;
 import com.sana.android.plugin.data.listener.TimedListener;
+import com.sana.android.plugin.errors.InvalidArgumentError;
 
+import java.io.IOException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Created by mashiro on 10/3/2014.
+ *
+ * If a {@link SensorSampleFile} is given, every sample is also appended to
+ * it as it arrives, so the whole capture can be read back at full
+ * resolution while only one sample per interval is kept in memory.
  */
 public class AccelerometerDataWithEvent implements DataWithEvent {
-    private class InternalEventListener extends TimedListener {
+    private static final String LOG_TAG = "AccelerometerDataWithEvent";
+    private static final String RECORDING_FAILED_MSG_FORMAT =
+            "Unable to record to %s, discarding the following samples.";
+
+    /**
+     * Keeps the last sample received and records it once per interval,
+     * along with the {@link MotionFeatures} of every sample of the
+     * interval. It receives the samples as primitives, so only the recorded
+     * samples and features become objects.
+     */
+    private class InternalEventListener
+            extends TimedListener implements SensorSampleListener {
+        private final MotionFeatureExtractor extractor = new MotionFeatureExtractor();
+        private SensorSamples lastSamples;
+        private boolean isRecordingClosed;
+
         public InternalEventListener() {
         }
 
@@ -23,18 +51,74 @@ public class AccelerometerDataWithEvent implements DataWithEvent {
         ) {
             super(sender, interval, intervalUnit);
         }
+        @Override
+        public synchronized void putSamples(SensorSamples samples) {
+            this.extractor.add(samples);
+            this.lastSamples = samples;
+            // Samples may still be delivered after the recording is closed.
+            if (recording != null && recordingError == null && !this.isRecordingClosed) {
+                try {
+                    recording.append(samples);
+                } catch (IOException e) {
+                    this.stopRecording(e);
+                } catch (InvalidArgumentError e) {
+                    // The timestamps went back, which the file can't hold.
+                    IOException error = new IOException(e.getMessage());
+                    error.initCause(e);
+                    this.stopRecording(error);
+                }
+            }
+        }
+
+        /**
+         * Close the recording once no sample is being appended to it.
+         */
+        private synchronized void closeRecording() {
+            this.isRecordingClosed = true;
+            try {
+                recording.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, String.format(
+                        RECORDING_FAILED_MSG_FORMAT, recording.getFile()), e);
+            }
+        }
+
+        private void stopRecording(IOException error) {
+            Log.e(LOG_TAG, String.format(
+                    RECORDING_FAILED_MSG_FORMAT, recording.getFile()), error);
+            recordingError = error;
+        }
+
         @Override
         public void processData(Object sender, Object[] data) {
-            if (data.length > 0 &&
-                    data instanceof AccelerometerDataEvent.AccelerometerData[]) {
-                recordedData.offer(
-                        (AccelerometerDataEvent.AccelerometerData) data[data.length - 1]);
+            SensorSamples samples;
+            MotionFeatures features;
+            synchronized (this) {
+                samples = this.lastSamples;
+                this.lastSamples = null;
+                features = this.extractor.takeFeatures();
+            }
+            if (features != null) {
+                recordedFeatures.offer(features);
+            }
+            if (samples != null) {
+                int last = samples.getCount() - 1;
+                recordedData.offer(new AccelerometerDataEvent.AccelerometerData(
+                        samples.getX()[last],
+                        samples.getY()[last],
+                        samples.getZ()[last],
+                        samples.getTimestamps()[last],
+                        samples.getFirstSequenceNumber() + last
+                ));
             }
         }
     }
     private LinkedBlockingQueue<AccelerometerDataEvent.AccelerometerData> recordedData;
+    private LinkedBlockingQueue<MotionFeatures> recordedFeatures;
     private AccelerometerDataEvent event;
     private InternalEventListener listener;
+    private SensorSampleFile recording;
+    private volatile IOException recordingError;
 
     /**
      *
@@ -51,13 +135,59 @@ public class AccelerometerDataWithEvent implements DataWithEvent {
             long updateInterval,
             TimeUnit updateIntervalUnit
     ) {
+        this(sender, updateInterval, updateIntervalUnit, null);
+    }
+
+    /**
+     * @param recording    The file every sample is appended to, or null. It
+     *                     is closed when this instance is disposed.
+     */
+    public AccelerometerDataWithEvent(
+            Object sender,
+            long updateInterval,
+            TimeUnit updateIntervalUnit,
+            SensorSampleFile recording
+    ) {
+        this.recording = recording;
         recordedData =
                 new LinkedBlockingQueue<AccelerometerDataEvent.AccelerometerData>();
+        recordedFeatures = new LinkedBlockingQueue<MotionFeatures>();
         event = new AccelerometerDataEvent(sender);
         listener = new InternalEventListener(sender, updateInterval, updateIntervalUnit);
+        event.addListener(listener);
         listener.startListening();
     }
 
+    /**
+     * @return The file the samples are recorded to, or null.
+     */
+    public SensorSampleFile getRecording() {
+        return recording;
+    }
+
+    /**
+     * @return The error that stopped the recording, or null.
+     */
+    public IOException getRecordingError() {
+        return recordingError;
+    }
+
+    /**
+     * @return The last sample of the oldest interval not taken yet, or null
+     *         if there are none.
+     */
+    public AccelerometerDataEvent.AccelerometerData pollData() {
+        return recordedData.poll();
+    }
+
+    /**
+     * @return The features of the oldest interval not taken yet, or null
+     *         if there are none.
+     */
+    public MotionFeatures pollFeatures() {
+        return recordedFeatures.poll();
+    }
+
     @Override
     public BaseDataEvent getEvent() {
         return event;
@@ -67,5 +197,9 @@ public class AccelerometerDataWithEvent implements DataWithEvent {
     public void dispose() throws InterruptedException {
         listener.stopListening();
         event.stopEvent();
+        event.dispose();
+        if (recording != null) {
+            listener.closeRecording();
+        }
     }
 }
@@ -6,12 +6,14 @@ import android.util.Log;
 import com.sana.android.plugin.communication.MimeType;
 import com.sana.android.plugin.data.BinaryData;
 import com.sana.android.plugin.data.event.BytePollingDataEvent;
+import com.sana.android.plugin.data.event.ChannelPollingDataEvent;
 import com.sana.android.plugin.hardware.Feature;
 
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.net.URISyntaxException;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * A binary data class that incorporates polling data event.
@@ -51,11 +53,32 @@ public class BinaryDataWithPollingEvent extends BinaryData {
         this.event = new BytePollingDataEvent(sender, inStream, packetSize);
     }
 
+    /**
+     * Same as the input stream version, but the event reads from a channel
+     * through a {@link ChannelPollingDataEvent}. Prefer it for sources that
+     * deliver data faster than a few notifications at a time, e.g. files.
+     *
+     * @param channel The channel from which the event polls data from.
+     */
+    public BinaryDataWithPollingEvent(
+            Feature source,
+            MimeType type,
+            Uri uriToData,
+            Object sender,
+            ReadableByteChannel channel,
+            int packetSize
+    ) throws FileNotFoundException, URISyntaxException {
+        super(source, type, uriToData);
+        this.sender = sender;
+        this.event = new ChannelPollingDataEvent(sender, channel, packetSize);
+    }
+
     @Override
     public BytePollingDataEvent getEvent() { return this.event; }
 
     @Override
     public void dispose() throws InterruptedException {
         this.event.stopEvent();
+        this.event.dispose();
     }
 }
@@ -55,5 +55,6 @@ public class BinaryDataWithPushingEvent extends BinaryData {
     @Override
     public void dispose() throws InterruptedException {
         this.event.stopEvent();
+        this.event.dispose();
     }
 }
@@ -0,0 +1,33 @@
+package com.sana.android.plugin.data;
+
+import com.sana.android.plugin.data.event.BaseDataEvent;
+import com.sana.android.plugin.data.event.InertialDataEvent;
+
+/**
+ * The data of a fused inertial capture: the frames aligned from several
+ * sensors are only available through the {@link InertialDataEvent}.
+ */
+public class InertialDataWithEvent implements DataWithEvent {
+    private InertialDataEvent event;
+
+    /**
+     * @param sensorTypes    The types of the captured sensors, the first one
+     *                       being the reference.
+     * @param frameRate      The number of frames per second, or 0 for a
+     *                       frame per sample of the reference sensor.
+     */
+    public InertialDataWithEvent(Object sender, int[] sensorTypes, int frameRate) {
+        this.event = new InertialDataEvent(sender, sensorTypes, frameRate);
+    }
+
+    @Override
+    public BaseDataEvent getEvent() {
+        return this.event;
+    }
+
+    @Override
+    public void dispose() throws InterruptedException {
+        this.event.stopEvent();
+        this.event.dispose();
+    }
+}
@@ -46,5 +46,6 @@ public class UsbHostDeviceDataWithEvent extends BinaryData {
     @Override
     public void dispose() throws InterruptedException {
         this.event.stopEvent();
+        this.event.dispose();
     }
 }
@@ -0,0 +1,195 @@
+package com.sana.android.plugin.data.buffer;
+
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.errors.InvalidInvocationError;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed-size buffer leased from a {@link ChunkPool}. A chunk is reference
+ * counted so that several listeners can read the same bytes without copying
+ * them: every holder calls {@link #retain()} before keeping the chunk and
+ * {@link #release()} once it is done with it. When the last reference is
+ * released the chunk goes back to its pool and must no longer be used.
+ *
+ * The bytes of a chunk are the first {@link #getLength()} bytes of its
+ * buffer. Heap chunks also expose their backing array through
+ * {@link #array()}. Direct chunks don't have one and must be read through
+ * {@link #getBuffer()} or {@link #getBytes(int, byte[], int, int)}.
+ *
+ * A chunk also carries when its first byte was captured and its sequence
+ * number in the stream of the event that notified it. The producer sets the
+ * capture time, the event sets the sequence number.
+ */
+public final class Chunk {
+    private static final String INVALID_LENGTH_MSG_FORMAT =
+            "Length must be between 0 and %d. Received %d.";
+    private static final String RELEASED_MSG =
+            "The chunk has already been released to its pool.";
+    private static final String NO_ARRAY_MSG =
+            "A direct chunk has no backing array.";
+
+    private final ChunkPool pool;
+    private final ByteBuffer buffer;
+    private final byte[] array;
+    private final AtomicInteger referenceCount;
+    private int length;
+    private long captureTimeNanos;
+    private long sequenceNumber;
+
+    Chunk(ChunkPool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.array = buffer.isDirect() ? null : buffer.array();
+        this.referenceCount = new AtomicInteger(1);
+        this.length = 0;
+    }
+
+    /**
+     * Prepare the chunk for a new lease. Only called by the pool.
+     */
+    void reset() {
+        this.referenceCount.set(1);
+        this.length = 0;
+        this.captureTimeNanos = 0;
+        this.sequenceNumber = 0;
+        this.buffer.clear();
+    }
+
+    public ChunkPool getPool() {
+        return this.pool;
+    }
+
+    public int getCapacity() {
+        return this.buffer.capacity();
+    }
+
+    /**
+     * @return The number of bytes held by the chunk.
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Set the number of bytes held by the chunk, i.e. how much of it has
+     * been filled by its producer.
+     */
+    public void setLength(int length) {
+        if (length < 0 || length > this.buffer.capacity()) {
+            throw new InvalidArgumentError(String.format(
+                    Chunk.INVALID_LENGTH_MSG_FORMAT,
+                    this.buffer.capacity(),
+                    length
+            ));
+        }
+        this.length = length;
+    }
+
+    /**
+     * @return When the first byte of the chunk was captured, from
+     *         {@link System#nanoTime()}, or 0 if the producer didn't say.
+     */
+    public long getCaptureTimeNanos() {
+        return this.captureTimeNanos;
+    }
+
+    public void setCaptureTimeNanos(long captureTimeNanos) {
+        this.captureTimeNanos = captureTimeNanos;
+    }
+
+    /**
+     * @return The position of the chunk in the stream of the event that
+     *         notified it.
+     */
+    public long getSequenceNumber() {
+        return this.sequenceNumber;
+    }
+
+    public void setSequenceNumber(long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public boolean isDirect() {
+        return this.array == null;
+    }
+
+    /**
+     * @return The backing array of a heap chunk. The bytes start at index 0.
+     */
+    public byte[] array() {
+        if (this.array == null) {
+            throw new InvalidInvocationError(Chunk.NO_ARRAY_MSG);
+        }
+        return this.array;
+    }
+
+    /**
+     * @return The buffer holding the bytes. Its position and limit belong to
+     *         the current holder, so readers sharing the chunk should work on
+     *         a {@link ByteBuffer#duplicate()}.
+     */
+    public ByteBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Copy bytes out of the chunk, whether it is direct or not.
+     *
+     * @param offset         The position of the first byte in the chunk.
+     * @param destination    The array to copy to.
+     * @param destOffset     The position in the array of the first copy.
+     * @param count          The number of bytes to copy.
+     */
+    public void getBytes(int offset, byte[] destination, int destOffset, int count) {
+        if (this.array != null) {
+            System.arraycopy(this.array, offset, destination, destOffset, count);
+        } else {
+            ByteBuffer view = this.buffer.duplicate();
+            view.limit(offset + count);
+            view.position(offset);
+            view.get(destination, destOffset, count);
+        }
+    }
+
+    /**
+     * Add a reference to the chunk. The caller must call {@link #release()}
+     * once it no longer needs the chunk.
+     *
+     * @return This chunk.
+     */
+    public Chunk retain() {
+        while (true) {
+            int count = this.referenceCount.get();
+            if (count <= 0) {
+                throw new InvalidInvocationError(Chunk.RELEASED_MSG);
+            }
+            if (this.referenceCount.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Give up a reference to the chunk. The chunk is returned to its pool
+     * when the last reference is released.
+     */
+    public void release() {
+        int count = this.referenceCount.decrementAndGet();
+        if (count == 0) {
+            this.pool.recycle(this);
+        } else if (count < 0) {
+            this.referenceCount.incrementAndGet();
+            throw new InvalidInvocationError(Chunk.RELEASED_MSG);
+        }
+    }
+
+    /**
+     * @return The number of holders of the chunk, 0 once it is back in its
+     *         pool.
+     */
+    public int getReferenceCount() {
+        return this.referenceCount.get();
+    }
+}
@@ -0,0 +1,223 @@
+package com.sana.android.plugin.data.buffer;
+
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.metrics.Gauge;
+import com.sana.android.plugin.metrics.MetricsRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leases fixed-size {@link Chunk}s and takes them back when they are
+ * released, so that data events don't allocate a new buffer for every
+ * update. A pool keeps at most {@link #getMaxPooled()} idle chunks. When it
+ * has none left a new chunk is allocated, which is counted as a miss, and
+ * chunks released while the pool is full are left to the garbage collector.
+ *
+ * Events share the pools returned by {@link #getShared(int)} and
+ * {@link #getSharedDirect(int)}. They round the requested size up to a power
+ * of two so that events with similar buffer sizes end up sharing a pool.
+ * Their usage is reported to the {@link MetricsRegistry} under
+ * "pool.heap.&lt;chunk size&gt;" and "pool.direct.&lt;chunk size&gt;".
+ */
+public class ChunkPool {
+    private static final String INVALID_POOL_MSG_FORMAT =
+            "Chunk size and pool size must be positive. Received %d and %d.";
+    private static final String HEAP_METRICS_SCOPE_FORMAT = "pool.heap.%d";
+    private static final String DIRECT_METRICS_SCOPE_FORMAT = "pool.direct.%d";
+
+    public static final int DEFAULT_MAX_POOLED = 32;
+    public static final int MIN_SHARED_CHUNK_SIZE = 64;
+
+    private static final Map<Integer, ChunkPool> sharedHeapPools =
+            new HashMap<Integer, ChunkPool>();
+    private static final Map<Integer, ChunkPool> sharedDirectPools =
+            new HashMap<Integer, ChunkPool>();
+
+    private final int chunkSize;
+    private final int maxPooled;
+    private final boolean isDirect;
+    private final ArrayBlockingQueue<Chunk> idleChunks;
+    private final AtomicInteger leasedCount;
+    private final AtomicLong leaseCount;
+    private final AtomicLong missCount;
+
+    /**
+     * @param chunkSize    The capacity of every chunk in bytes.
+     * @param maxPooled    The maximum number of idle chunks kept for reuse.
+     * @param isDirect     Whether the chunks are backed by direct
+     *                     {@link ByteBuffer}s instead of byte arrays.
+     */
+    public ChunkPool(int chunkSize, int maxPooled, boolean isDirect) {
+        if (chunkSize <= 0 || maxPooled <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    ChunkPool.INVALID_POOL_MSG_FORMAT, chunkSize, maxPooled));
+        }
+        this.chunkSize = chunkSize;
+        this.maxPooled = maxPooled;
+        this.isDirect = isDirect;
+        this.idleChunks = new ArrayBlockingQueue<Chunk>(maxPooled);
+        this.leasedCount = new AtomicInteger();
+        this.leaseCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+    }
+
+    /**
+     * @param minimumSize    The minimum capacity of the chunks.
+     * @return The shared pool of heap chunks for the size class of the given
+     *         size.
+     */
+    public static ChunkPool getShared(int minimumSize) {
+        return ChunkPool.getShared(ChunkPool.sharedHeapPools, minimumSize, false);
+    }
+
+    /**
+     * @param minimumSize    The minimum capacity of the chunks.
+     * @return The shared pool of direct chunks for the size class of the
+     *         given size.
+     */
+    public static ChunkPool getSharedDirect(int minimumSize) {
+        return ChunkPool.getShared(ChunkPool.sharedDirectPools, minimumSize, true);
+    }
+
+    private static ChunkPool getShared(
+            Map<Integer, ChunkPool> pools, int minimumSize, boolean isDirect) {
+        int sizeClass = ChunkPool.getSizeClass(minimumSize);
+        synchronized (pools) {
+            ChunkPool pool = pools.get(sizeClass);
+            if (pool == null) {
+                pool = new ChunkPool(
+                        sizeClass, ChunkPool.DEFAULT_MAX_POOLED, isDirect);
+                pool.registerMetrics(String.format(
+                        isDirect
+                                ? ChunkPool.DIRECT_METRICS_SCOPE_FORMAT
+                                : ChunkPool.HEAP_METRICS_SCOPE_FORMAT,
+                        sizeClass
+                ));
+                pools.put(sizeClass, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * @return The chunk size of the shared pool serving the given size, i.e.
+     *         the smallest power of two that is not smaller than it or
+     *         {@link #MIN_SHARED_CHUNK_SIZE}.
+     */
+    public static int getSizeClass(int size) {
+        if (size <= ChunkPool.MIN_SHARED_CHUNK_SIZE) {
+            return ChunkPool.MIN_SHARED_CHUNK_SIZE;
+        }
+        int sizeClass = Integer.highestOneBit(size);
+        return (sizeClass == size || sizeClass << 1 <= 0) ? size : sizeClass << 1;
+    }
+
+    /**
+     * Report the usage of this pool to the {@link MetricsRegistry}. Shared
+     * pools do it when they are created.
+     *
+     * @param scope    The scope of the pool's metrics.
+     */
+    public void registerMetrics(String scope) {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.gauge(MetricsRegistry.getName(scope, "leased"), new Gauge() {
+            @Override
+            public long getValue() {
+                return ChunkPool.this.getLeasedCount();
+            }
+        });
+        registry.gauge(MetricsRegistry.getName(scope, "pooled"), new Gauge() {
+            @Override
+            public long getValue() {
+                return ChunkPool.this.getPooledCount();
+            }
+        });
+        registry.gauge(MetricsRegistry.getName(scope, "leases"), new Gauge() {
+            @Override
+            public long getValue() {
+                return ChunkPool.this.getLeaseCount();
+            }
+        });
+        registry.gauge(MetricsRegistry.getName(scope, "misses"), new Gauge() {
+            @Override
+            public long getValue() {
+                return ChunkPool.this.getMissCount();
+            }
+        });
+    }
+
+    /**
+     * Lease a chunk with a length of 0 and a reference count of 1. The caller
+     * must eventually call {@link Chunk#release()}.
+     */
+    public Chunk lease() {
+        Chunk chunk = this.idleChunks.poll();
+        if (chunk == null) {
+            this.missCount.incrementAndGet();
+            chunk = new Chunk(
+                    this,
+                    this.isDirect
+                            ? ByteBuffer.allocateDirect(this.chunkSize)
+                            : ByteBuffer.allocate(this.chunkSize)
+            );
+        } else {
+            chunk.reset();
+        }
+        this.leaseCount.incrementAndGet();
+        this.leasedCount.incrementAndGet();
+        return chunk;
+    }
+
+    /**
+     * Take back a chunk whose last reference has been released.
+     */
+    void recycle(Chunk chunk) {
+        this.leasedCount.decrementAndGet();
+        this.idleChunks.offer(chunk);
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    public int getMaxPooled() {
+        return this.maxPooled;
+    }
+
+    public boolean isDirect() {
+        return this.isDirect;
+    }
+
+    /**
+     * @return The number of chunks currently leased and not yet released.
+     */
+    public int getLeasedCount() {
+        return this.leasedCount.get();
+    }
+
+    /**
+     * @return The number of idle chunks waiting to be leased again.
+     */
+    public int getPooledCount() {
+        return this.idleChunks.size();
+    }
+
+    /**
+     * @return The total number of leases made from this pool.
+     */
+    public long getLeaseCount() {
+        return this.leaseCount.get();
+    }
+
+    /**
+     * @return The number of leases that had to allocate a new chunk.
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+}
@@ -0,0 +1,90 @@
+package com.sana.android.plugin.data.buffer;
+
+/**
+ * A batch of frames aligned from several three axis sensors, e.g. an
+ * accelerometer, a gyroscope and a magnetometer. Every frame has one
+ * timestamp and the x, y and z values of every sensor at that time, stored
+ * in primitive arrays: the values of frame <code>i</code> are the
+ * {@link #getChannelCount()} floats of {@link #getValues()} starting at
+ * <code>i * getChannelCount()</code>, sensor by sensor in the order of
+ * {@link #getSensorTypes()}. A sensor that had no sample yet has NaN
+ * values.
+ *
+ * A batch is shared between all the listeners of the event that notified
+ * it, so it must not be modified.
+ */
+public final class SensorFrames {
+    public static final int AXIS_COUNT = 3;
+
+    private final int[] sensorTypes;
+    private final long[] timestamps;
+    private final float[] values;
+    private final int count;
+    private final long firstSequenceNumber;
+
+    /**
+     * @param sensorTypes            The types of the sensors, as in
+     *                               {@link android.hardware.Sensor#getType()}.
+     * @param count                  The number of frames in the arrays.
+     * @param firstSequenceNumber    The position of the first frame among
+     *                               the frames of its source.
+     */
+    public SensorFrames(
+            int[] sensorTypes,
+            long[] timestamps,
+            float[] values,
+            int count,
+            long firstSequenceNumber
+    ) {
+        this.sensorTypes = sensorTypes;
+        this.timestamps = timestamps;
+        this.values = values;
+        this.count = count;
+        this.firstSequenceNumber = firstSequenceNumber;
+    }
+
+    public int[] getSensorTypes() {
+        return this.sensorTypes;
+    }
+
+    /**
+     * @return The number of values per frame.
+     */
+    public int getChannelCount() {
+        return SensorFrames.AXIS_COUNT * this.sensorTypes.length;
+    }
+
+    /**
+     * @return The times in nanoseconds of the frames, on the clock of
+     *         {@link android.hardware.SensorEvent#timestamp}.
+     */
+    public long[] getTimestamps() {
+        return this.timestamps;
+    }
+
+    public float[] getValues() {
+        return this.values;
+    }
+
+    /**
+     * @param frame     The index of the frame in the batch.
+     * @param sensor    The index of the sensor in {@link #getSensorTypes()}.
+     * @param axis      0, 1 or 2 for x, y and z.
+     */
+    public float getValue(int frame, int sensor, int axis) {
+        return this.values[frame * this.getChannelCount()
+                + sensor * SensorFrames.AXIS_COUNT + axis];
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return The sequence number of the first frame. The others follow
+     *         without gaps.
+     */
+    public long getFirstSequenceNumber() {
+        return this.firstSequenceNumber;
+    }
+}
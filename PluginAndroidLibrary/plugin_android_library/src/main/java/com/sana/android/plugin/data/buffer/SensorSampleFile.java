@@ -0,0 +1,274 @@
+package com.sana.android.plugin.data.buffer;
+
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.errors.InvalidInvocationError;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * A file of three axis sensor samples, e.g. accelerations, written and read
+ * through memory mappings so that a long recording stays out of the heap
+ * and every sample is kept.
+ *
+ * Every sample is a fixed width record of {@link #RECORD_SIZE} bytes: the
+ * timestamp as a long followed by x, y and z as floats, little endian. The
+ * file grows by segments of <code>segmentRecords</code> records, each
+ * mapped once when the first of its records is written or read, so
+ * appending a sample is a few stores into memory and the operating system
+ * writes the pages back in the background. {@link #close()} forces them to
+ * the storage device and truncates the unused end of the last segment, so
+ * a closed file is just its records and can be reopened to read or append.
+ * A file that wasn't closed, e.g. after a crash, still ends with the
+ * zero-filled rest of its last segment; records that are all zeros are cut
+ * from the end when the file is opened, so a sample with a zero timestamp
+ * and zero values can't be the last one of a file.
+ *
+ * The timestamps must not decrease, which lets {@link #readRange(long, long)}
+ * find a time range by binary search instead of scanning the recording.
+ * The methods are synchronized, so a recording can be read while it is
+ * being written.
+ */
+public class SensorSampleFile {
+    public static final int RECORD_SIZE = 20;
+    public static final int DEFAULT_SEGMENT_RECORDS = 65536;
+    private static final int X_OFFSET = 8;
+    private static final int Y_OFFSET = 12;
+    private static final int Z_OFFSET = 16;
+    private static final String INVALID_SEGMENT_MSG_FORMAT =
+            "Records per segment must be positive and fit in one mapping." +
+                    " Received %d.";
+    private static final String DECREASING_TIMESTAMP_MSG_FORMAT =
+            "Timestamps must not decrease. Received %d after %d.";
+    private static final String INVALID_RANGE_MSG_FORMAT =
+            "Records %d to %d are out of the %d recorded.";
+    private static final String RANGE_TOO_LARGE_MSG_FORMAT =
+            "%d records are too many to read at once.";
+    private static final String CLOSED_MSG = "The file is closed.";
+
+    private final File file;
+    private final RandomAccessFile access;
+    private final FileChannel channel;
+    private final int segmentRecords;
+    private final ArrayList<MappedByteBuffer> segments;
+    private long count;
+    private long lastTimestamp;
+    private boolean isClosed;
+
+    public SensorSampleFile(File file) throws IOException {
+        this(file, SensorSampleFile.DEFAULT_SEGMENT_RECORDS);
+    }
+
+    /**
+     * Open the file, keeping the records it already has but not the
+     * zero-filled end of a file that wasn't closed.
+     *
+     * @param file              The file to record to.
+     * @param segmentRecords    The number of records the file grows by.
+     */
+    public SensorSampleFile(File file, int segmentRecords) throws IOException {
+        if (segmentRecords <= 0
+                || segmentRecords > Integer.MAX_VALUE / SensorSampleFile.RECORD_SIZE) {
+            throw new InvalidArgumentError(String.format(
+                    SensorSampleFile.INVALID_SEGMENT_MSG_FORMAT, segmentRecords));
+        }
+        this.file = file;
+        this.segmentRecords = segmentRecords;
+        this.segments = new ArrayList<MappedByteBuffer>();
+        this.access = new RandomAccessFile(file, "rw");
+        this.channel = this.access.getChannel();
+        long count = this.channel.size() / SensorSampleFile.RECORD_SIZE;
+        while (count > 0 && this.isZero(count - 1)) {
+            --count;
+        }
+        this.count = count;
+        this.lastTimestamp = this.count == 0
+                ? Long.MIN_VALUE
+                : this.getTimestamp(this.count - 1);
+        this.isClosed = false;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return The number of records in the file.
+     */
+    public synchronized long getCount() {
+        return this.count;
+    }
+
+    public synchronized void append(float x, float y, float z, long timestamp)
+            throws IOException {
+        this.checkOpen();
+        this.appendRecord(x, y, z, timestamp);
+    }
+
+    public synchronized void append(SensorSamples samples) throws IOException {
+        this.checkOpen();
+        float[] x = samples.getX();
+        float[] y = samples.getY();
+        float[] z = samples.getZ();
+        long[] timestamps = samples.getTimestamps();
+        for (int i = 0; i < samples.getCount(); ++i) {
+            this.appendRecord(x[i], y[i], z[i], timestamps[i]);
+        }
+    }
+
+    private void appendRecord(float x, float y, float z, long timestamp)
+            throws IOException {
+        if (timestamp < this.lastTimestamp) {
+            throw new InvalidArgumentError(String.format(
+                    SensorSampleFile.DECREASING_TIMESTAMP_MSG_FORMAT,
+                    timestamp, this.lastTimestamp));
+        }
+        MappedByteBuffer segment = this.getSegment(this.count);
+        int position = this.getPosition(this.count);
+        segment.putLong(position, timestamp);
+        segment.putFloat(position + SensorSampleFile.X_OFFSET, x);
+        segment.putFloat(position + SensorSampleFile.Y_OFFSET, y);
+        segment.putFloat(position + SensorSampleFile.Z_OFFSET, z);
+        ++this.count;
+        this.lastTimestamp = timestamp;
+    }
+
+    /**
+     * @return The index of the first record taken at or after the given
+     *         time, or {@link #getCount()} if there is none.
+     */
+    public synchronized long indexOf(long timestamp) throws IOException {
+        this.checkOpen();
+        long low = 0;
+        long high = this.count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (this.getTimestamp(middle) < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param startTimestamp    The first time of the range.
+     * @param endTimestamp      The time the range ends before.
+     * @return The samples taken in the range, in the order they were
+     *         recorded. Their sequence numbers are their indexes in the file.
+     */
+    public synchronized SensorSamples readRange(long startTimestamp, long endTimestamp)
+            throws IOException {
+        long first = this.indexOf(startTimestamp);
+        long end = Math.max(first, this.indexOf(endTimestamp));
+        if (end - first > Integer.MAX_VALUE) {
+            throw new InvalidArgumentError(String.format(
+                    SensorSampleFile.RANGE_TOO_LARGE_MSG_FORMAT, end - first));
+        }
+        return this.read(first, (int) (end - first));
+    }
+
+    /**
+     * @param first    The index of the first record to read.
+     * @param count    The number of records to read.
+     */
+    public synchronized SensorSamples read(long first, int count) throws IOException {
+        this.checkOpen();
+        if (first < 0 || count < 0 || first + count > this.count) {
+            throw new InvalidArgumentError(String.format(
+                    SensorSampleFile.INVALID_RANGE_MSG_FORMAT,
+                    first, first + count, this.count));
+        }
+        float[] x = new float[count];
+        float[] y = new float[count];
+        float[] z = new float[count];
+        long[] timestamps = new long[count];
+        for (int i = 0; i < count; ++i) {
+            MappedByteBuffer segment = this.getSegment(first + i);
+            int position = this.getPosition(first + i);
+            timestamps[i] = segment.getLong(position);
+            x[i] = segment.getFloat(position + SensorSampleFile.X_OFFSET);
+            y[i] = segment.getFloat(position + SensorSampleFile.Y_OFFSET);
+            z[i] = segment.getFloat(position + SensorSampleFile.Z_OFFSET);
+        }
+        return new SensorSamples(x, y, z, timestamps, count, first);
+    }
+
+    /**
+     * Write the records appended so far to the storage device.
+     */
+    public synchronized void force() {
+        this.checkOpen();
+        for (MappedByteBuffer segment : this.segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Write the records to the storage device, cut the file after the last
+     * one and close it. Does nothing if the file is already closed.
+     */
+    public synchronized void close() throws IOException {
+        if (this.isClosed) {
+            return;
+        }
+        this.force();
+        this.isClosed = true;
+        this.segments.clear();
+        try {
+            this.channel.truncate(this.count * SensorSampleFile.RECORD_SIZE);
+        } finally {
+            this.access.close();
+        }
+    }
+
+    private void checkOpen() {
+        if (this.isClosed) {
+            throw new InvalidInvocationError(SensorSampleFile.CLOSED_MSG);
+        }
+    }
+
+    private boolean isZero(long index) throws IOException {
+        MappedByteBuffer segment = this.getSegment(index);
+        int position = this.getPosition(index);
+        // The bits of the floats, so that -0 isn't taken for unwritten.
+        return segment.getLong(position) == 0
+                && segment.getInt(position + SensorSampleFile.X_OFFSET) == 0
+                && segment.getInt(position + SensorSampleFile.Y_OFFSET) == 0
+                && segment.getInt(position + SensorSampleFile.Z_OFFSET) == 0;
+    }
+
+    private long getTimestamp(long index) throws IOException {
+        return this.getSegment(index).getLong(this.getPosition(index));
+    }
+
+    private int getPosition(long index) {
+        return (int) (index % this.segmentRecords) * SensorSampleFile.RECORD_SIZE;
+    }
+
+    /**
+     * @return The segment holding the record at the given index, mapping it
+     *         and the ones before it if needed. Mapping a segment past the
+     *         end of the file grows the file.
+     */
+    private MappedByteBuffer getSegment(long index) throws IOException {
+        int segmentIndex = (int) (index / this.segmentRecords);
+        long segmentSize = (long) this.segmentRecords * SensorSampleFile.RECORD_SIZE;
+        while (this.segments.size() <= segmentIndex) {
+            MappedByteBuffer segment = this.channel.map(
+                    FileChannel.MapMode.READ_WRITE,
+                    this.segments.size() * segmentSize,
+                    segmentSize
+            );
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            this.segments.add(segment);
+        }
+        return this.segments.get(segmentIndex);
+    }
+}
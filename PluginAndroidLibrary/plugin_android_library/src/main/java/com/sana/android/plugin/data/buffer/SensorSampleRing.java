@@ -0,0 +1,189 @@
+package com.sana.android.plugin.data.buffer;
+
+import com.sana.android.plugin.errors.InvalidArgumentError;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed-size circular buffer of three axis sensor samples, held in one
+ * primitive array per axis and one for the timestamps, so storing a sample
+ * doesn't allocate. It has exactly one producer, typically the thread
+ * delivering the {@link android.hardware.SensorEvent}s, and one consumer,
+ * which takes the samples in batches with {@link #poll(int)}. The consumer
+ * can wait for samples with {@link #awaitSamples(int, long, TimeUnit)}
+ * instead of polling, and the producer only takes a lock when it has to
+ * wake the consumer up.
+ *
+ * The producer never waits: when the buffer is full, new samples are
+ * dropped and counted by {@link #getDroppedCount()}. Every sample offered
+ * takes a sequence number, stored or not, so the dropped ones leave gaps
+ * that the consumer can detect. A batch never spans a gap: {@link #poll(int)}
+ * stops before it, and the next batch starts with the sequence number of
+ * the first sample stored after the drops.
+ */
+public final class SensorSampleRing {
+    private static final String INVALID_CAPACITY_MSG_FORMAT =
+            "Capacity must be positive. Received %d.";
+
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+    private final long[] timestamps;
+    private final long[] sequenceNumbers;
+    private final int capacity;
+    // The number of samples ever stored and taken. Each is only written by
+    // one side, which publishes the samples it stored or freed with it.
+    private volatile long writeCount;
+    private volatile long readCount;
+    private volatile long droppedCount;
+    // The number of samples the consumer is waiting for, or 0 if it isn't
+    // waiting. Guarded by this for writing.
+    private volatile int awaitedCount;
+    private boolean isWakeUpPending;
+
+    public SensorSampleRing(int capacity) {
+        if (capacity <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    SensorSampleRing.INVALID_CAPACITY_MSG_FORMAT, capacity));
+        }
+        this.capacity = capacity;
+        this.x = new float[capacity];
+        this.y = new float[capacity];
+        this.z = new float[capacity];
+        this.timestamps = new long[capacity];
+        this.sequenceNumbers = new long[capacity];
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Store a sample. Only called by the producer.
+     *
+     * @return False if the buffer was full and the sample was dropped.
+     */
+    public boolean offer(float x, float y, float z, long timestamp) {
+        long write = this.writeCount;
+        if (write - this.readCount == this.capacity) {
+            this.droppedCount++;
+            return false;
+        }
+        int index = (int) (write % this.capacity);
+        this.x[index] = x;
+        this.y[index] = y;
+        this.z[index] = z;
+        this.timestamps[index] = timestamp;
+        // Every sample offered so far, dropped or not, precedes this one.
+        this.sequenceNumbers[index] = write + this.droppedCount;
+        this.writeCount = write + 1;
+        int awaitedCount = this.awaitedCount;
+        if (awaitedCount > 0 && write + 1 - this.readCount >= awaitedCount) {
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait until at least <code>count</code> samples are stored, the
+     * timeout elapses or {@link #wakeUp()} is called. Only called by the
+     * consumer.
+     *
+     * @param count      The number of samples to wait for.
+     * @param timeout    How long to wait at most, or 0 to wait without a
+     *                   timeout.
+     * @return True if the samples are stored.
+     */
+    public synchronized boolean awaitSamples(int count, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        this.awaitedCount = count;
+        try {
+            // The count is published before the size is checked, so a
+            // sample stored in between notifies.
+            while (this.size() < count && !this.isWakeUpPending) {
+                if (timeout == 0) {
+                    this.wait();
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+        } finally {
+            this.awaitedCount = 0;
+            this.isWakeUpPending = false;
+        }
+        return this.size() >= count;
+    }
+
+    /**
+     * Make the current or next call to
+     * {@link #awaitSamples(int, long, TimeUnit)} return, e.g. when the
+     * consumer has to stop.
+     */
+    public synchronized void wakeUp() {
+        this.isWakeUpPending = true;
+        this.notifyAll();
+    }
+
+    /**
+     * @return The number of samples waiting to be taken.
+     */
+    public int size() {
+        return (int) (this.writeCount - this.readCount);
+    }
+
+    /**
+     * Take the oldest samples, at most <code>maxCount</code> of them and
+     * only up to the first samples dropped after them. Only called by the
+     * consumer. The samples are copied into arrays of their own, so the
+     * returned batch can be shared.
+     *
+     * @return The samples, or null if there are none.
+     */
+    public SensorSamples poll(int maxCount) {
+        long read = this.readCount;
+        int count = (int) Math.min(maxCount, this.writeCount - read);
+        if (count <= 0) {
+            return null;
+        }
+        long firstSequenceNumber = this.sequenceNumbers[(int) (read % this.capacity)];
+        for (int i = 1; i < count; ++i) {
+            int index = (int) ((read + i) % this.capacity);
+            if (this.sequenceNumbers[index] != firstSequenceNumber + i) {
+                count = i;
+                break;
+            }
+        }
+        float[] x = new float[count];
+        float[] y = new float[count];
+        float[] z = new float[count];
+        long[] timestamps = new long[count];
+        int start = (int) (read % this.capacity);
+        int head = Math.min(count, this.capacity - start);
+        System.arraycopy(this.x, start, x, 0, head);
+        System.arraycopy(this.y, start, y, 0, head);
+        System.arraycopy(this.z, start, z, 0, head);
+        System.arraycopy(this.timestamps, start, timestamps, 0, head);
+        if (head < count) {
+            System.arraycopy(this.x, 0, x, head, count - head);
+            System.arraycopy(this.y, 0, y, head, count - head);
+            System.arraycopy(this.z, 0, z, head, count - head);
+            System.arraycopy(this.timestamps, 0, timestamps, head, count - head);
+        }
+        this.readCount = read + count;
+        return new SensorSamples(x, y, z, timestamps, count, firstSequenceNumber);
+    }
+
+    /**
+     * @return The number of samples dropped because the buffer was full.
+     */
+    public long getDroppedCount() {
+        return this.droppedCount;
+    }
+}
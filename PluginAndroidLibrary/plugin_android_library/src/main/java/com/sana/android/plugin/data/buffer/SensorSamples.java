@@ -0,0 +1,74 @@
+package com.sana.android.plugin.data.buffer;
+
+/**
+ * A batch of three axis sensor samples, e.g. accelerations, stored as one
+ * primitive array per axis plus one for the timestamps instead of one
+ * object per sample. Sample <code>i</code> is made of
+ * <code>getX()[i]</code>, <code>getY()[i]</code>, <code>getZ()[i]</code>
+ * and <code>getTimestamps()[i]</code> for <code>i</code> below
+ * {@link #getCount()}; the arrays may be longer.
+ *
+ * A batch is shared between all the listeners of the event that notified
+ * it, so it must not be modified.
+ */
+public final class SensorSamples {
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+    private final long[] timestamps;
+    private final int count;
+    private final long firstSequenceNumber;
+
+    /**
+     * @param count                  The number of samples in the arrays.
+     * @param firstSequenceNumber    The position of the first sample among
+     *                               the samples of its source.
+     */
+    public SensorSamples(
+            float[] x,
+            float[] y,
+            float[] z,
+            long[] timestamps,
+            int count,
+            long firstSequenceNumber
+    ) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.timestamps = timestamps;
+        this.count = count;
+        this.firstSequenceNumber = firstSequenceNumber;
+    }
+
+    public float[] getX() {
+        return this.x;
+    }
+
+    public float[] getY() {
+        return this.y;
+    }
+
+    public float[] getZ() {
+        return this.z;
+    }
+
+    /**
+     * @return The times in nanoseconds at which the samples were taken, as
+     *         reported by {@link android.hardware.SensorEvent#timestamp}.
+     */
+    public long[] getTimestamps() {
+        return this.timestamps;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return The sequence number of the first sample. The others follow
+     *         without gaps.
+     */
+    public long getFirstSequenceNumber() {
+        return this.firstSequenceNumber;
+    }
+}
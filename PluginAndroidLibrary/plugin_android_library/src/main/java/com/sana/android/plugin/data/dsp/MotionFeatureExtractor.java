@@ -0,0 +1,141 @@
+package com.sana.android.plugin.data.dsp;
+
+import com.sana.android.plugin.data.buffer.SensorSamples;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summarizes a stream of accelerations into {@link MotionFeatures}, one
+ * interval at a time, so a capture can report a few numbers per interval
+ * instead of every sample.
+ *
+ * Every sample updates the statistics of the three axes and of the
+ * magnitude, a {@link ZeroCrossingCounter} and a {@link StepDetector} in
+ * constant time and without creating any object. The last two see the
+ * magnitude minus its mean since the start of the capture, which converges
+ * to gravity whatever the orientation of the device.
+ * {@link #takeFeatures()} ends the interval. Instances are not thread safe.
+ */
+public class MotionFeatureExtractor {
+    /**
+     * How far the magnitude must swing past gravity to cross it, in m/s^2.
+     */
+    public static final double DEFAULT_HYSTERESIS = 0.5;
+    /**
+     * How far above gravity the magnitude must peak to be a step, in m/s^2.
+     */
+    public static final double DEFAULT_STEP_THRESHOLD = 1.5;
+    /**
+     * The shortest time between two steps, in milliseconds; faster than
+     * running cadence.
+     */
+    public static final long DEFAULT_MIN_STEP_INTERVAL = 250;
+    private static final long NO_SAMPLE = Long.MIN_VALUE;
+
+    private final RunningStatistics[] axes;
+    private final RunningStatistics magnitude;
+    // Never reset, the baseline the magnitude is centered on.
+    private final RunningStatistics gravity;
+    private final ZeroCrossingCounter zeroCrossings;
+    private final StepDetector steps;
+    private long intervalStartNanos;
+    private long lastNanos;
+
+    public MotionFeatureExtractor() {
+        this(
+                MotionFeatureExtractor.DEFAULT_HYSTERESIS,
+                MotionFeatureExtractor.DEFAULT_STEP_THRESHOLD,
+                MotionFeatureExtractor.DEFAULT_MIN_STEP_INTERVAL,
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * @param hysteresis         See {@link ZeroCrossingCounter}.
+     * @param stepThreshold      See {@link StepDetector}.
+     * @param minStepInterval    See {@link StepDetector}.
+     * @param unit               The unit of the step interval.
+     */
+    public MotionFeatureExtractor(
+            double hysteresis,
+            double stepThreshold,
+            long minStepInterval,
+            TimeUnit unit
+    ) {
+        this.axes = new RunningStatistics[]{
+                new RunningStatistics(), new RunningStatistics(), new RunningStatistics()
+        };
+        this.magnitude = new RunningStatistics();
+        this.gravity = new RunningStatistics();
+        this.zeroCrossings = new ZeroCrossingCounter(hysteresis);
+        this.steps = new StepDetector(stepThreshold, unit.toNanos(minStepInterval));
+        this.intervalStartNanos = MotionFeatureExtractor.NO_SAMPLE;
+        this.lastNanos = MotionFeatureExtractor.NO_SAMPLE;
+    }
+
+    public void add(float x, float y, float z, long timestampNanos) {
+        if (this.intervalStartNanos == MotionFeatureExtractor.NO_SAMPLE) {
+            this.intervalStartNanos = timestampNanos;
+        }
+        this.lastNanos = timestampNanos;
+        this.axes[0].add(x);
+        this.axes[1].add(y);
+        this.axes[2].add(z);
+        double magnitude = Math.sqrt(x * x + y * y + z * z);
+        this.magnitude.add(magnitude);
+        this.gravity.add(magnitude);
+        double centered = magnitude - this.gravity.getMean();
+        this.zeroCrossings.add(centered);
+        this.steps.add(centered, timestampNanos);
+    }
+
+    public void add(SensorSamples samples) {
+        float[] x = samples.getX();
+        float[] y = samples.getY();
+        float[] z = samples.getZ();
+        long[] timestamps = samples.getTimestamps();
+        for (int i = 0; i < samples.getCount(); ++i) {
+            this.add(x[i], y[i], z[i], timestamps[i]);
+        }
+    }
+
+    /**
+     * End the current interval.
+     *
+     * @return The features of the samples added since the last call, or
+     *         null if there are none.
+     */
+    public MotionFeatures takeFeatures() {
+        if (this.magnitude.getCount() == 0) {
+            return null;
+        }
+        double[] means = new double[this.axes.length];
+        double[] variances = new double[this.axes.length];
+        for (int i = 0; i < this.axes.length; ++i) {
+            means[i] = this.axes[i].getMean();
+            variances[i] = this.axes[i].getVariance();
+        }
+        MotionFeatures features = new MotionFeatures(
+                this.magnitude.getCount(),
+                this.intervalStartNanos,
+                this.lastNanos,
+                means,
+                variances,
+                this.magnitude.getMean(),
+                this.magnitude.getStandardDeviation(),
+                this.magnitude.getRms(),
+                this.magnitude.getMax(),
+                this.zeroCrossings.getCrossingCount(),
+                this.steps.getStepCount(),
+                this.steps.getMaxPeakValue()
+        );
+        for (RunningStatistics axis : this.axes) {
+            axis.reset();
+        }
+        this.magnitude.reset();
+        this.zeroCrossings.resetCount();
+        this.steps.resetCount();
+        this.intervalStartNanos = this.lastNanos;
+        return features;
+    }
+}
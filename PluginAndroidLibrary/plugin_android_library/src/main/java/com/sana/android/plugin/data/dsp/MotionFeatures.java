@@ -0,0 +1,130 @@
+package com.sana.android.plugin.data.dsp;
+
+/**
+ * A summary of the accelerations of one interval, computed by a
+ * {@link MotionFeatureExtractor}. The magnitude features are
+ * orientation independent; the zero crossings and steps are counted on the
+ * magnitude minus its mean over the whole capture, i.e. minus gravity.
+ * Accelerations are in the unit of the samples, m/s^2 for Android sensors.
+ */
+public final class MotionFeatures {
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final long sampleCount;
+    private final long startNanos;
+    private final long endNanos;
+    private final double[] axisMeans;
+    private final double[] axisVariances;
+    private final double magnitudeMean;
+    private final double magnitudeStandardDeviation;
+    private final double magnitudeRms;
+    private final double magnitudeMax;
+    private final long zeroCrossingCount;
+    private final long stepCount;
+    private final double maxStepPeak;
+
+    MotionFeatures(
+            long sampleCount,
+            long startNanos,
+            long endNanos,
+            double[] axisMeans,
+            double[] axisVariances,
+            double magnitudeMean,
+            double magnitudeStandardDeviation,
+            double magnitudeRms,
+            double magnitudeMax,
+            long zeroCrossingCount,
+            long stepCount,
+            double maxStepPeak
+    ) {
+        this.sampleCount = sampleCount;
+        this.startNanos = startNanos;
+        this.endNanos = endNanos;
+        this.axisMeans = axisMeans;
+        this.axisVariances = axisVariances;
+        this.magnitudeMean = magnitudeMean;
+        this.magnitudeStandardDeviation = magnitudeStandardDeviation;
+        this.magnitudeRms = magnitudeRms;
+        this.magnitudeMax = magnitudeMax;
+        this.zeroCrossingCount = zeroCrossingCount;
+        this.stepCount = stepCount;
+        this.maxStepPeak = maxStepPeak;
+    }
+
+    public long getSampleCount() {
+        return this.sampleCount;
+    }
+
+    /**
+     * @return The timestamp the interval starts at: that of the last sample
+     *         of the previous interval, or of the first sample of the
+     *         capture.
+     */
+    public long getStartNanos() {
+        return this.startNanos;
+    }
+
+    /**
+     * @return The timestamp of the last sample of the interval.
+     */
+    public long getEndNanos() {
+        return this.endNanos;
+    }
+
+    /**
+     * @param axis    0, 1 or 2 for x, y or z.
+     */
+    public double getMean(int axis) {
+        return this.axisMeans[axis];
+    }
+
+    /**
+     * @param axis    0, 1 or 2 for x, y or z.
+     */
+    public double getVariance(int axis) {
+        return this.axisVariances[axis];
+    }
+
+    public double getMagnitudeMean() {
+        return this.magnitudeMean;
+    }
+
+    public double getMagnitudeStandardDeviation() {
+        return this.magnitudeStandardDeviation;
+    }
+
+    public double getMagnitudeRms() {
+        return this.magnitudeRms;
+    }
+
+    public double getMagnitudeMax() {
+        return this.magnitudeMax;
+    }
+
+    public long getZeroCrossingCount() {
+        return this.zeroCrossingCount;
+    }
+
+    /**
+     * @return The zero crossings per second, or 0 if the interval has no
+     *         duration.
+     */
+    public double getZeroCrossingRate() {
+        long duration = this.endNanos - this.startNanos;
+        return duration <= 0
+                ? 0
+                : this.zeroCrossingCount * MotionFeatures.NANOS_PER_SECOND / duration;
+    }
+
+    public long getStepCount() {
+        return this.stepCount;
+    }
+
+    /**
+     * @return The height of the highest step above gravity, or 0 if there
+     *         was none.
+     */
+    public double getMaxStepPeak() {
+        return this.maxStepPeak;
+    }
+}
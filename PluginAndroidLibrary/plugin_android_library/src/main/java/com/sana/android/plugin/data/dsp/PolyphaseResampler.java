@@ -0,0 +1,349 @@
+package com.sana.android.plugin.data.dsp;
+
+import com.sana.android.plugin.errors.InvalidArgumentError;
+
+/**
+ * Converts a stream of samples from one sample rate to another, e.g. 44100 Hz
+ * audio to the 4000 Hz enough for heart and lung sounds, one buffer at a
+ * time while it is being captured.
+ *
+ * The ratio of the rates is reduced to <code>up / down</code>. The resampler
+ * conceptually inserts <code>up - 1</code> zeros between input samples,
+ * low-pass filters the result below the lower of the two Nyquist
+ * frequencies and keeps every <code>down</code>th sample. The filter, a
+ * windowed sinc, is split into <code>up</code> phases so that only the
+ * taps falling on real input samples are computed: every output sample
+ * costs <code>tapsPerPhase</code> multiplications per channel, whatever
+ * the rates.
+ *
+ * The last input samples are kept between calls, so a stream can be fed in
+ * buffers of any size and gives the same output as if it was resampled at
+ * once. Interleaved channels are resampled separately and stay
+ * interleaved. The output is delayed by about <code>tapsPerPhase / 2</code>
+ * input samples. Instances are not thread safe.
+ */
+public class PolyphaseResampler {
+    /**
+     * The default filter length, in samples of the lower of the two rates.
+     */
+    public static final int DEFAULT_TAPS_PER_PHASE = 32;
+    private static final String INVALID_RATES_MSG_FORMAT =
+            "Sample rates and taps must be positive. Received %d Hz, %d Hz" +
+                    " and %d taps.";
+    private static final String INVALID_CHANNELS_MSG_FORMAT =
+            "The number of channels must be positive. Received %d.";
+    private static final String PARTIAL_FRAME_MSG_FORMAT =
+            "Received %d samples, not a whole number of %d channel frames.";
+    // Fraction of the lower Nyquist frequency passed by the filter.
+    private static final double PASSBAND = 0.9;
+
+    private final int inputRate;
+    private final int outputRate;
+    private final int up;
+    private final int down;
+    private final int channels;
+    private final int tapsPerPhase;
+    // coefficients[p][k] is tap p + k * up of the filter.
+    private final float[][] coefficients;
+    // The last tapsPerPhase samples of every channel, twice, newest last.
+    private final float[][] history;
+    private int writePosition;
+    // Position of the next output sample after the newest input sample, in
+    // samples of the rate upsampled by up.
+    private int phase;
+
+    public PolyphaseResampler(int inputRate, int outputRate) {
+        this(inputRate, outputRate, 1);
+    }
+
+    public PolyphaseResampler(int inputRate, int outputRate, int channels) {
+        this(inputRate, outputRate, channels,
+                PolyphaseResampler.getDefaultTapsPerPhase(inputRate, outputRate));
+    }
+
+    /**
+     * @param inputRate       The sample rate of the input, in Hz.
+     * @param outputRate      The sample rate of the output, in Hz.
+     * @param channels        The number of interleaved channels.
+     * @param tapsPerPhase    The length of the filter in input samples. Longer
+     *                        filters have a sharper cutoff and cost more.
+     *                        The other constructors use
+     *                        {@link #DEFAULT_TAPS_PER_PHASE} output samples
+     *                        when decimating.
+     */
+    public PolyphaseResampler(
+            int inputRate, int outputRate, int channels, int tapsPerPhase) {
+        if (inputRate <= 0 || outputRate <= 0 || tapsPerPhase <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    PolyphaseResampler.INVALID_RATES_MSG_FORMAT,
+                    inputRate, outputRate, tapsPerPhase));
+        }
+        if (channels <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    PolyphaseResampler.INVALID_CHANNELS_MSG_FORMAT, channels));
+        }
+        int divisor = PolyphaseResampler.gcd(inputRate, outputRate);
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        this.up = outputRate / divisor;
+        this.down = inputRate / divisor;
+        this.channels = channels;
+        this.tapsPerPhase = tapsPerPhase;
+        this.coefficients = this.designFilter();
+        this.history = new float[channels][2 * tapsPerPhase];
+        this.writePosition = 0;
+        this.phase = 0;
+    }
+
+    /**
+     * When decimating, the filter must span as many input samples as
+     * {@link #DEFAULT_TAPS_PER_PHASE} output samples to keep its transition
+     * band narrow compared to the output rate.
+     */
+    private static int getDefaultTapsPerPhase(int inputRate, int outputRate) {
+        if (outputRate <= 0 || inputRate <= outputRate) {
+            return PolyphaseResampler.DEFAULT_TAPS_PER_PHASE;
+        }
+        int ratio = (inputRate + outputRate - 1) / outputRate;
+        return PolyphaseResampler.DEFAULT_TAPS_PER_PHASE * ratio;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+        return a;
+    }
+
+    /**
+     * A Hamming windowed sinc at the rate upsampled by <code>up</code>,
+     * scaled so that every phase has a gain of about one.
+     */
+    private float[][] designFilter() {
+        int length = this.up * this.tapsPerPhase;
+        float[] window = WindowFunction.HAMMING.getCoefficients(length);
+        // Cutoff as a fraction of the upsampled rate.
+        double cutoff = PolyphaseResampler.PASSBAND
+                * 0.5 / Math.max(this.up, this.down);
+        double center = (length - 1) / 2.0;
+        double[] taps = new double[length];
+        double sum = 0;
+        for (int i = 0; i < length; ++i) {
+            double x = 2 * cutoff * (i - center);
+            double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+            taps[i] = 2 * cutoff * sinc * window[i];
+            sum += taps[i];
+        }
+        float[][] result = new float[this.up][this.tapsPerPhase];
+        for (int i = 0; i < length; ++i) {
+            result[i % this.up][i / this.up] = (float) (taps[i] * this.up / sum);
+        }
+        return result;
+    }
+
+    public int getInputRate() {
+        return this.inputRate;
+    }
+
+    public int getOutputRate() {
+        return this.outputRate;
+    }
+
+    public int getChannels() {
+        return this.channels;
+    }
+
+    /**
+     * @param inputLength    A number of input samples, all channels
+     *                       included.
+     * @return The largest number of samples a call with that many input
+     *         samples can produce.
+     */
+    public int getMaxOutputLength(int inputLength) {
+        long frames = inputLength / this.channels;
+        long outputFrames = (frames * this.up + this.down - 1) / this.down + 1;
+        return (int) (outputFrames * this.channels);
+    }
+
+    /**
+     * Forget the previous input, e.g. before resampling another recording.
+     */
+    public void reset() {
+        for (float[] channelHistory : this.history) {
+            for (int i = 0; i < channelHistory.length; ++i) {
+                channelHistory[i] = 0;
+            }
+        }
+        this.writePosition = 0;
+        this.phase = 0;
+    }
+
+    /**
+     * Resample interleaved float samples.
+     *
+     * @param input           The input samples.
+     * @param inputOffset     The position of the first input sample.
+     * @param inputLength     The number of input samples, a multiple of the
+     *                        number of channels.
+     * @param output          Receives the resampled samples. Must have room
+     *                        for {@link #getMaxOutputLength(int)} samples.
+     * @param outputOffset    Where to write the first output sample.
+     * @return The number of samples written to the output.
+     */
+    public int process(
+            float[] input,
+            int inputOffset,
+            int inputLength,
+            float[] output,
+            int outputOffset
+    ) {
+        this.checkFrames(inputLength);
+        int written = outputOffset;
+        for (int i = inputOffset; i < inputOffset + inputLength; i += this.channels) {
+            for (int channel = 0; channel < this.channels; ++channel) {
+                this.push(channel, input[i + channel]);
+            }
+            written = this.advance(output, written);
+        }
+        return written - outputOffset;
+    }
+
+    /**
+     * Resample interleaved 16 bit samples. The output is clipped to the
+     * range of a short.
+     *
+     * @see #process(float[], int, int, float[], int)
+     */
+    public int process(
+            short[] input,
+            int inputOffset,
+            int inputLength,
+            short[] output,
+            int outputOffset
+    ) {
+        this.checkFrames(inputLength);
+        int written = outputOffset;
+        for (int i = inputOffset; i < inputOffset + inputLength; i += this.channels) {
+            for (int channel = 0; channel < this.channels; ++channel) {
+                this.push(channel, input[i + channel]);
+            }
+            while (this.phase < this.up) {
+                for (int channel = 0; channel < this.channels; ++channel) {
+                    output[written++] = PolyphaseResampler.toShort(
+                            this.filter(channel));
+                }
+                this.phase += this.down;
+            }
+            this.phase -= this.up;
+        }
+        return written - outputOffset;
+    }
+
+    /**
+     * Resample interleaved 16 bit little endian samples, as recorded by
+     * {@link android.media.AudioRecord} with
+     * {@link android.media.AudioFormat#ENCODING_PCM_16BIT}.
+     *
+     * @param inputLength    The number of input bytes, a multiple of two
+     *                       bytes per channel.
+     * @param output         Must have room for
+     *                       <code>2 * getMaxOutputLength(inputLength / 2)</code>
+     *                       bytes.
+     * @return The number of bytes written to the output.
+     * @see #process(float[], int, int, float[], int)
+     */
+    public int processPcm16(
+            byte[] input,
+            int inputOffset,
+            int inputLength,
+            byte[] output,
+            int outputOffset
+    ) {
+        if (inputLength % 2 != 0) {
+            throw new InvalidArgumentError(String.format(
+                    PolyphaseResampler.PARTIAL_FRAME_MSG_FORMAT,
+                    inputLength, this.channels));
+        }
+        this.checkFrames(inputLength / 2);
+        int written = outputOffset;
+        int end = inputOffset + inputLength;
+        for (int i = inputOffset; i < end; i += 2 * this.channels) {
+            for (int channel = 0; channel < this.channels; ++channel) {
+                int position = i + 2 * channel;
+                this.push(channel, (short) ((input[position + 1] << 8)
+                        | (input[position] & 0xff)));
+            }
+            while (this.phase < this.up) {
+                for (int channel = 0; channel < this.channels; ++channel) {
+                    short sample = PolyphaseResampler.toShort(this.filter(channel));
+                    output[written++] = (byte) sample;
+                    output[written++] = (byte) (sample >> 8);
+                }
+                this.phase += this.down;
+            }
+            this.phase -= this.up;
+        }
+        return written - outputOffset;
+    }
+
+    private void checkFrames(int inputLength) {
+        if (inputLength % this.channels != 0) {
+            throw new InvalidArgumentError(String.format(
+                    PolyphaseResampler.PARTIAL_FRAME_MSG_FORMAT,
+                    inputLength, this.channels));
+        }
+    }
+
+    private void push(int channel, float sample) {
+        float[] channelHistory = this.history[channel];
+        channelHistory[this.writePosition] = sample;
+        channelHistory[this.writePosition + this.tapsPerPhase] = sample;
+        if (channel == this.channels - 1
+                && ++this.writePosition == this.tapsPerPhase) {
+            this.writePosition = 0;
+        }
+    }
+
+    /**
+     * Write the output samples falling before the next input sample.
+     */
+    private int advance(float[] output, int written) {
+        while (this.phase < this.up) {
+            for (int channel = 0; channel < this.channels; ++channel) {
+                output[written++] = this.filter(channel);
+            }
+            this.phase += this.down;
+        }
+        this.phase -= this.up;
+        return written;
+    }
+
+    /**
+     * @return The output sample of the channel at the current phase.
+     */
+    private float filter(int channel) {
+        float[] taps = this.coefficients[this.phase];
+        float[] channelHistory = this.history[channel];
+        // The newest sample is just before the write position, in the
+        // second half.
+        int newest = this.writePosition + this.tapsPerPhase - 1;
+        float result = 0;
+        for (int k = 0; k < this.tapsPerPhase; ++k) {
+            result += taps[k] * channelHistory[newest - k];
+        }
+        return result;
+    }
+
+    private static short toShort(float sample) {
+        int rounded = Math.round(sample);
+        if (rounded > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (rounded < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return (short) rounded;
+    }
+}
@@ -0,0 +1,92 @@
+package com.sana.android.plugin.data.dsp;
+
+/**
+ * The mean, variance, root mean square and range of a stream of values,
+ * updated in constant time and without storing the values.
+ *
+ * The variance is computed with Welford's method, which updates the mean
+ * and the sum of squared differences from it at every value instead of
+ * subtracting the squared mean from the mean of squares at the end. The
+ * latter loses most of its precision when the variance is small next to
+ * the mean, e.g. the jitter of an accelerometer held still under 9.81
+ * m/s^2 of gravity. Instances are not thread safe.
+ */
+public class RunningStatistics {
+    private long count;
+    private double mean;
+    // The sum of the squared differences from the mean.
+    private double squaredDeviations;
+    private double sumOfSquares;
+    private double min;
+    private double max;
+
+    public RunningStatistics() {
+        this.reset();
+    }
+
+    public void add(double value) {
+        ++this.count;
+        double delta = value - this.mean;
+        this.mean += delta / this.count;
+        this.squaredDeviations += delta * (value - this.mean);
+        this.sumOfSquares += value * value;
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+    }
+
+    /**
+     * Forget every value added so far.
+     */
+    public void reset() {
+        this.count = 0;
+        this.mean = 0;
+        this.squaredDeviations = 0;
+        this.sumOfSquares = 0;
+        this.min = Double.POSITIVE_INFINITY;
+        this.max = Double.NEGATIVE_INFINITY;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return The mean of the values, or 0 if there are none.
+     */
+    public double getMean() {
+        return this.mean;
+    }
+
+    /**
+     * @return The population variance of the values, or 0 if there are
+     *         none.
+     */
+    public double getVariance() {
+        return this.count == 0 ? 0 : this.squaredDeviations / this.count;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(this.getVariance());
+    }
+
+    /**
+     * @return The root mean square of the values, or 0 if there are none.
+     */
+    public double getRms() {
+        return this.count == 0 ? 0 : Math.sqrt(this.sumOfSquares / this.count);
+    }
+
+    /**
+     * @return The smallest value, or positive infinity if there are none.
+     */
+    public double getMin() {
+        return this.min;
+    }
+
+    /**
+     * @return The largest value, or negative infinity if there are none.
+     */
+    public double getMax() {
+        return this.max;
+    }
+}
@@ -0,0 +1,303 @@
+package com.sana.android.plugin.data.dsp;
+
+import com.sana.android.plugin.data.buffer.SensorFrames;
+import com.sana.android.plugin.data.buffer.SensorSamples;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the samples of several three axis sensors into frames ordered by
+ * timestamp, each holding the values of every sensor at the time of the
+ * frame. The values of a sensor are linearly interpolated between its two
+ * samples around that time, or held from its nearest sample before its
+ * first or after its last one.
+ *
+ * The frames are taken either at every sample of the first sensor, the
+ * reference, or at a common rate starting from the first sample of the
+ * reference. A frame is only made once every sensor has a sample at or
+ * after its time, so it is never extrapolated, unless a sensor lags more
+ * than <code>maxSkew</code> behind the newest sample or the aligner is
+ * flushed.
+ *
+ * The samples of a sensor must be added in the order of their timestamps.
+ * An aligner is not thread safe.
+ */
+public class SensorFrameAligner {
+    private static final String INVALID_ARGUMENT_MSG_FORMAT =
+            "Expecting at least one sensor and a frame period and maximum skew" +
+                    " not negative. Received %d, %d and %d.";
+    private static final int INITIAL_CAPACITY = 64;
+    // A sensor keeps at most this many samples waiting for frames, e.g.
+    // while the reference sensor is silent.
+    private static final int MAX_PENDING_SAMPLES = 8192;
+    private static final long NO_FRAME = Long.MIN_VALUE;
+
+    /**
+     * The samples of one sensor not yet behind the last frame.
+     */
+    private static class Stream {
+        private long[] timestamps = new long[SensorFrameAligner.INITIAL_CAPACITY];
+        private float[] x = new float[SensorFrameAligner.INITIAL_CAPACITY];
+        private float[] y = new float[SensorFrameAligner.INITIAL_CAPACITY];
+        private float[] z = new float[SensorFrameAligner.INITIAL_CAPACITY];
+        private int count;
+        // The sample last used as the lower bound of an interpolation.
+        private int cursor;
+
+        /**
+         * @return The number of old samples discarded to make room.
+         */
+        private int add(SensorSamples samples) {
+            int required = this.count + samples.getCount();
+            if (required > this.timestamps.length) {
+                int size = Math.max(required, 2 * this.timestamps.length);
+                this.timestamps = Stream.grow(this.timestamps, size, this.count);
+                this.x = Stream.grow(this.x, size, this.count);
+                this.y = Stream.grow(this.y, size, this.count);
+                this.z = Stream.grow(this.z, size, this.count);
+            }
+            System.arraycopy(
+                    samples.getTimestamps(), 0, this.timestamps, this.count,
+                    samples.getCount());
+            System.arraycopy(samples.getX(), 0, this.x, this.count, samples.getCount());
+            System.arraycopy(samples.getY(), 0, this.y, this.count, samples.getCount());
+            System.arraycopy(samples.getZ(), 0, this.z, this.count, samples.getCount());
+            this.count = required;
+            if (this.count <= SensorFrameAligner.MAX_PENDING_SAMPLES) {
+                return 0;
+            }
+            int discarded = this.count - SensorFrameAligner.MAX_PENDING_SAMPLES / 2;
+            this.discardBefore(discarded);
+            return discarded;
+        }
+
+        private static long[] grow(long[] array, int size, int count) {
+            long[] grown = new long[size];
+            System.arraycopy(array, 0, grown, 0, count);
+            return grown;
+        }
+
+        private static float[] grow(float[] array, int size, int count) {
+            float[] grown = new float[size];
+            System.arraycopy(array, 0, grown, 0, count);
+            return grown;
+        }
+
+        private long getNewest() {
+            return this.timestamps[this.count - 1];
+        }
+
+        /**
+         * Write the values at time <code>t</code> into <code>out</code>.
+         * The times must not decrease from one call to the next.
+         */
+        private void interpolate(long t, float[] out, int offset) {
+            if (this.count == 0) {
+                out[offset] = Float.NaN;
+                out[offset + 1] = Float.NaN;
+                out[offset + 2] = Float.NaN;
+                return;
+            }
+            while (this.cursor + 1 < this.count
+                    && this.timestamps[this.cursor + 1] <= t) {
+                ++this.cursor;
+            }
+            int i = this.cursor;
+            if (t <= this.timestamps[i] || i + 1 == this.count) {
+                out[offset] = this.x[i];
+                out[offset + 1] = this.y[i];
+                out[offset + 2] = this.z[i];
+                return;
+            }
+            float weight = (float) (t - this.timestamps[i])
+                    / (this.timestamps[i + 1] - this.timestamps[i]);
+            out[offset] = this.x[i] + weight * (this.x[i + 1] - this.x[i]);
+            out[offset + 1] = this.y[i] + weight * (this.y[i + 1] - this.y[i]);
+            out[offset + 2] = this.z[i] + weight * (this.z[i + 1] - this.z[i]);
+        }
+
+        /**
+         * Forget the samples before the given index.
+         */
+        private void discardBefore(int index) {
+            if (index <= 0) {
+                return;
+            }
+            int remaining = this.count - index;
+            System.arraycopy(this.timestamps, index, this.timestamps, 0, remaining);
+            System.arraycopy(this.x, index, this.x, 0, remaining);
+            System.arraycopy(this.y, index, this.y, 0, remaining);
+            System.arraycopy(this.z, index, this.z, 0, remaining);
+            this.count = remaining;
+            this.cursor = Math.max(0, this.cursor - index);
+        }
+    }
+
+    private final int[] sensorTypes;
+    private final Stream[] streams;
+    private final long framePeriodNanos;
+    private final long maxSkewNanos;
+    // With a frame period, the time of the next frame. Otherwise the index
+    // of the next reference sample to make a frame of.
+    private long nextFrameNanos;
+    private int nextReferenceSample;
+    private long nextSequenceNumber;
+    // Grown as needed and copied into every batch of frames.
+    private long[] frameTimestamps;
+    private float[] frameValues;
+
+    /**
+     * @param sensorTypes    The types of the sensors, the first one being
+     *                       the reference.
+     * @param framePeriod    The time between two frames, or 0 to make a
+     *                       frame at every sample of the reference sensor.
+     * @param maxSkew        How far a sensor may lag behind the newest
+     *                       sample before frames are made without it.
+     * @param unit           The unit of the period and skew.
+     */
+    public SensorFrameAligner(
+            int[] sensorTypes, long framePeriod, long maxSkew, TimeUnit unit) {
+        if (sensorTypes.length == 0 || framePeriod < 0 || maxSkew < 0) {
+            throw new InvalidArgumentError(String.format(
+                    SensorFrameAligner.INVALID_ARGUMENT_MSG_FORMAT,
+                    sensorTypes.length, framePeriod, maxSkew));
+        }
+        this.sensorTypes = sensorTypes.clone();
+        this.streams = new Stream[sensorTypes.length];
+        for (int i = 0; i < this.streams.length; ++i) {
+            this.streams[i] = new Stream();
+        }
+        this.framePeriodNanos = unit.toNanos(framePeriod);
+        this.maxSkewNanos = unit.toNanos(maxSkew);
+        this.nextFrameNanos = SensorFrameAligner.NO_FRAME;
+        this.frameTimestamps = new long[SensorFrameAligner.INITIAL_CAPACITY];
+        this.frameValues = new float[
+                SensorFrameAligner.INITIAL_CAPACITY * this.getChannelCount()];
+    }
+
+    public int[] getSensorTypes() {
+        return this.sensorTypes.clone();
+    }
+
+    private int getChannelCount() {
+        return SensorFrames.AXIS_COUNT * this.sensorTypes.length;
+    }
+
+    /**
+     * @param sensor     The index of the sensor in the types given to the
+     *                   constructor.
+     * @param samples    Its new samples.
+     */
+    public void add(int sensor, SensorSamples samples) {
+        int discarded = this.streams[sensor].add(samples);
+        if (sensor == 0) {
+            this.nextReferenceSample = Math.max(0, this.nextReferenceSample - discarded);
+        }
+    }
+
+    /**
+     * Make the frames whose samples have all arrived.
+     *
+     * @param flush    Whether to also make the frames up to the newest
+     *                 sample without waiting for the other sensors, e.g.
+     *                 at the end of the capture.
+     * @return The new frames, or null if there are none.
+     */
+    public SensorFrames poll(boolean flush) {
+        long newest = Long.MIN_VALUE;
+        for (Stream stream : this.streams) {
+            if (stream.count > 0) {
+                newest = Math.max(newest, stream.getNewest());
+            }
+        }
+        Stream reference = this.streams[0];
+        int channelCount = this.getChannelCount();
+        int frameCount = 0;
+        while (true) {
+            long t;
+            if (this.framePeriodNanos == 0) {
+                if (this.nextReferenceSample >= reference.count) {
+                    break;
+                }
+                t = reference.timestamps[this.nextReferenceSample];
+            } else {
+                if (reference.count == 0) {
+                    break;
+                }
+                if (this.nextFrameNanos == SensorFrameAligner.NO_FRAME) {
+                    this.nextFrameNanos = reference.timestamps[0];
+                }
+                t = this.nextFrameNanos;
+                if (t > newest) {
+                    break;
+                }
+            }
+            if (!flush && newest - t <= this.maxSkewNanos && !this.isCovered(t)) {
+                break;
+            }
+            if (frameCount == this.frameTimestamps.length) {
+                this.frameTimestamps = Stream.grow(
+                        this.frameTimestamps, 2 * frameCount, frameCount);
+                this.frameValues = Stream.grow(
+                        this.frameValues,
+                        2 * frameCount * channelCount,
+                        frameCount * channelCount
+                );
+            }
+            this.frameTimestamps[frameCount] = t;
+            for (int i = 0; i < this.streams.length; ++i) {
+                this.streams[i].interpolate(
+                        t,
+                        this.frameValues,
+                        frameCount * channelCount + i * SensorFrames.AXIS_COUNT
+                );
+            }
+            ++frameCount;
+            if (this.framePeriodNanos == 0) {
+                ++this.nextReferenceSample;
+            } else {
+                this.nextFrameNanos += this.framePeriodNanos;
+            }
+        }
+        this.discardUsedSamples();
+        if (frameCount == 0) {
+            return null;
+        }
+        long[] timestamps = new long[frameCount];
+        float[] values = new float[frameCount * channelCount];
+        System.arraycopy(this.frameTimestamps, 0, timestamps, 0, frameCount);
+        System.arraycopy(this.frameValues, 0, values, 0, values.length);
+        SensorFrames frames = new SensorFrames(
+                this.sensorTypes, timestamps, values, frameCount, this.nextSequenceNumber);
+        this.nextSequenceNumber += frameCount;
+        return frames;
+    }
+
+    /**
+     * @return True if every sensor has a sample at or after <code>t</code>.
+     */
+    private boolean isCovered(long t) {
+        for (Stream stream : this.streams) {
+            if (stream.count == 0 || stream.getNewest() < t) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forget the samples before the ones the next frame may need.
+     */
+    private void discardUsedSamples() {
+        for (int i = 0; i < this.streams.length; ++i) {
+            Stream stream = this.streams[i];
+            int used = stream.cursor;
+            if (i == 0 && this.framePeriodNanos == 0) {
+                used = Math.min(used, this.nextReferenceSample);
+                this.nextReferenceSample -= used;
+            }
+            stream.discardBefore(used);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.sana.android.plugin.data.dsp;
+
+import com.sana.android.plugin.errors.InvalidArgumentError;
+
+/**
+ * Detects the peaks of a signal centered on zero, e.g. the magnitude of the
+ * acceleration minus gravity, and counts those far enough apart as steps.
+ *
+ * A peak starts when the signal rises above <code>threshold</code>, and
+ * ends with its highest value when the signal falls back below zero. A peak
+ * starting less than <code>minInterval</code> after the last step, e.g. the
+ * bounce of a heel strike, is not counted. Instances are not thread safe.
+ */
+public class StepDetector {
+    private static final String INVALID_ARGUMENT_MSG_FORMAT =
+            "Threshold and minimum interval must not be negative. Received %f" +
+                    " and %d.";
+    private static final long NO_STEP = Long.MIN_VALUE;
+
+    private final double threshold;
+    private final long minIntervalNanos;
+    private boolean inPeak;
+    private double peakValue;
+    private long peakNanos;
+    private long lastStepNanos;
+    private long stepCount;
+    private double maxPeakValue;
+
+    /**
+     * @param threshold            The height a peak must reach.
+     * @param minIntervalNanos     The shortest time between two steps.
+     */
+    public StepDetector(double threshold, long minIntervalNanos) {
+        if (threshold < 0 || minIntervalNanos < 0) {
+            throw new InvalidArgumentError(String.format(
+                    StepDetector.INVALID_ARGUMENT_MSG_FORMAT,
+                    threshold, minIntervalNanos));
+        }
+        this.threshold = threshold;
+        this.minIntervalNanos = minIntervalNanos;
+        this.lastStepNanos = StepDetector.NO_STEP;
+        this.resetCount();
+    }
+
+    /**
+     * @param value             The centered value.
+     * @param timestampNanos    The time of the value.
+     * @return True if the value ends a step.
+     */
+    public boolean add(double value, long timestampNanos) {
+        if (!this.inPeak) {
+            if (value > this.threshold && (this.lastStepNanos == StepDetector.NO_STEP
+                    || timestampNanos - this.lastStepNanos >= this.minIntervalNanos)) {
+                this.inPeak = true;
+                this.peakValue = value;
+                this.peakNanos = timestampNanos;
+            }
+            return false;
+        }
+        if (value > this.peakValue) {
+            this.peakValue = value;
+            this.peakNanos = timestampNanos;
+            return false;
+        }
+        if (value >= 0) {
+            return false;
+        }
+        this.inPeak = false;
+        this.lastStepNanos = this.peakNanos;
+        ++this.stepCount;
+        this.maxPeakValue = Math.max(this.maxPeakValue, this.peakValue);
+        return true;
+    }
+
+    public long getStepCount() {
+        return this.stepCount;
+    }
+
+    /**
+     * @return The time of the top of the last step, or
+     *         {@link Long#MIN_VALUE} if there was none.
+     */
+    public long getLastStepNanos() {
+        return this.lastStepNanos;
+    }
+
+    /**
+     * @return The height of the highest step since the count was reset, or
+     *         0 if there was none.
+     */
+    public double getMaxPeakValue() {
+        return this.maxPeakValue;
+    }
+
+    /**
+     * Restart the count, keeping track of a peak in progress and of the
+     * time of the last step.
+     */
+    public void resetCount() {
+        this.stepCount = 0;
+        this.maxPeakValue = 0;
+    }
+}
@@ -0,0 +1,45 @@
+package com.sana.android.plugin.data.dsp;
+
+/**
+ * Tapering functions applied to a window of samples before spectral
+ * analysis, to reduce the leakage caused by cutting the signal at the
+ * window's edges.
+ */
+public enum WindowFunction {
+    /**
+     * Leaves the samples untouched.
+     */
+    RECTANGULAR,
+    /**
+     * 0.5 - 0.5 cos(2 pi n / (N - 1)). Reaches zero at both ends.
+     */
+    HANN,
+    /**
+     * 0.54 - 0.46 cos(2 pi n / (N - 1)). Doesn't reach zero at the ends but
+     * has a lower first side lobe than {@link #HANN}.
+     */
+    HAMMING;
+
+    /**
+     * @param size    The number of samples in the window.
+     * @return The weight of every sample of the window.
+     */
+    public float[] getCoefficients(int size) {
+        float[] coefficients = new float[size];
+        for (int n = 0; n < size; ++n) {
+            double phase = size == 1 ? 0 : 2 * Math.PI * n / (size - 1);
+            switch (this) {
+                case HANN:
+                    coefficients[n] = (float) (0.5 - 0.5 * Math.cos(phase));
+                    break;
+                case HAMMING:
+                    coefficients[n] = (float) (0.54 - 0.46 * Math.cos(phase));
+                    break;
+                default:
+                    coefficients[n] = 1;
+                    break;
+            }
+        }
+        return coefficients;
+    }
+}
@@ -0,0 +1,58 @@
+package com.sana.android.plugin.data.dsp;
+
+import com.sana.android.plugin.errors.InvalidArgumentError;
+
+/**
+ * Counts the times a signal centered on zero changes sign. A crossing is
+ * only counted once the signal goes beyond <code>hysteresis</code> on the
+ * other side, so the noise of a signal hovering around zero is not taken
+ * for oscillations. Instances are not thread safe.
+ */
+public class ZeroCrossingCounter {
+    private static final String INVALID_HYSTERESIS_MSG_FORMAT =
+            "Hysteresis must not be negative. Received %f.";
+
+    private final double hysteresis;
+    // -1 or 1 once the signal left the band around zero, 0 before.
+    private int sign;
+    private long crossingCount;
+
+    public ZeroCrossingCounter(double hysteresis) {
+        if (hysteresis < 0) {
+            throw new InvalidArgumentError(String.format(
+                    ZeroCrossingCounter.INVALID_HYSTERESIS_MSG_FORMAT, hysteresis));
+        }
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * @return True if the value completes a crossing.
+     */
+    public boolean add(double value) {
+        int sign;
+        if (value > this.hysteresis) {
+            sign = 1;
+        } else if (value < -this.hysteresis) {
+            sign = -1;
+        } else {
+            return false;
+        }
+        boolean crossed = this.sign != 0 && sign != this.sign;
+        this.sign = sign;
+        if (crossed) {
+            ++this.crossingCount;
+        }
+        return crossed;
+    }
+
+    public long getCrossingCount() {
+        return this.crossingCount;
+    }
+
+    /**
+     * Restart the count, keeping the side of zero the signal is on.
+     */
+    public void resetCount() {
+        this.crossingCount = 0;
+    }
+}
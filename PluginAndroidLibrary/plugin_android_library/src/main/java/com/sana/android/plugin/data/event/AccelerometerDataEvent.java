@@ -3,18 +3,52 @@ package com.sana.android.plugin.data.event;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
+import android.os.Debug;
+import android.util.Log;
 
+import com.sana.android.plugin.application.ExecutionContext;
+import com.sana.android.plugin.data.buffer.SensorSampleRing;
+import com.sana.android.plugin.data.buffer.SensorSamples;
 import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.metrics.Counter;
+import com.sana.android.plugin.metrics.Gauge;
+import com.sana.android.plugin.metrics.Histogram;
+import com.sana.android.plugin.metrics.MetricsRegistry;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Created by mashiro on 10/3/2014.
+ *
+ * The samples are stored in a {@link SensorSampleRing} as they arrive,
+ * without creating any object, and notified in batches of
+ * {@link SensorSamples}. Listeners implementing
+ * {@link com.sana.android.plugin.data.listener.SensorSampleListener} receive
+ * the batches as they are; {@link AccelerometerData} objects are only
+ * created for the other listeners. If the ring is full, e.g. because the
+ * listeners are slowing the event down, new samples are dropped and counted
+ * by the <code>samplesDropped</code> metric of the event.
+ *
+ * The notification loop sleeps until a sample arrives, then waits for a
+ * full batch of <code>maxBatchSize</code> samples for at most
+ * <code>maxBatchDelay</code>, so it wakes up once per batch rather than
+ * once per sample and never while the sensor is silent. The CPU time it
+ * spends, as measured by {@link Debug#threadCpuTimeNanos()}, is reported by
+ * the <code>deliveryCpuNanos</code> metric of the event, along with the
+ * number of batches and their sizes.
+ *
+ * When the sensor batches its samples in a hardware FIFO, see
+ * {@link #setFifoBatching(int)}, the samples arrive in bursts, one per
+ * report latency. Each burst is then notified as one batch: the loop waits
+ * for the burst to end rather than for a deadline.
  */
 public class AccelerometerDataEvent extends BaseDataEvent implements SensorEventListener, Runnable {
+    /**
+     * One accelerometer sample. Besides the acceleration it keeps the time
+     * the sensor took it and its sequence number among the samples of the
+     * event, so missing samples can be detected and streams aligned later.
+     */
     public static class AccelerometerData {
         private static final int INDEX_X = 0;
         private static final int INDEX_Y = 1;
@@ -26,8 +60,45 @@ public class AccelerometerDataEvent extends BaseDataEvent implements SensorEvent
         private float x;
         private float y;
         private float z;
+        private long timestamp;
+        private long sequenceNumber;
 
         public AccelerometerData(SensorEvent event) {
+            this(event, 0);
+        }
+
+        /**
+         * @param event             The sensor event holding the sample.
+         * @param sequenceNumber    The position of the sample among the
+         *                          samples of its event.
+         */
+        public AccelerometerData(SensorEvent event, long sequenceNumber) {
+            this(
+                    event.values[INDEX_X],
+                    event.values[INDEX_Y],
+                    event.values[INDEX_Z],
+                    event.timestamp,
+                    sequenceNumber
+            );
+            checkSensorType(event);
+        }
+
+        /**
+         * @param timestamp         When the sample was taken, see
+         *                          {@link #getTimestamp()}.
+         * @param sequenceNumber    The position of the sample among the
+         *                          samples of its event.
+         */
+        public AccelerometerData(
+                float x, float y, float z, long timestamp, long sequenceNumber) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.timestamp = timestamp;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        private static void checkSensorType(SensorEvent event) {
             if (event.sensor.getType() != Sensor.TYPE_ACCELEROMETER) {
                 throw new InvalidArgumentError(
                         String.format(
@@ -37,9 +108,6 @@ public class AccelerometerDataEvent extends BaseDataEvent implements SensorEvent
                         )
                 );
             }
-            this.x = event.values[INDEX_X];
-            this.y = event.values[INDEX_Y];
-            this.z = event.values[INDEX_Z];
         }
 
         public float getX() {
@@ -54,42 +122,186 @@ public class AccelerometerDataEvent extends BaseDataEvent implements SensorEvent
             return this.z;
         }
 
+        /**
+         * @return The time in nanoseconds at which the sample was taken, as
+         *         reported by {@link SensorEvent#timestamp}.
+         */
+        public long getTimestamp() {
+            return this.timestamp;
+        }
+
+        public long getSequenceNumber() {
+            return this.sequenceNumber;
+        }
+
         @Override
         public String toString() {
             return String.format("(%f, %f, %f)", x, y, z);
         }
     }
 
-    private static final long SHUTDOWN_TIMEOUT = 5;
-    private static final TimeUnit SHUTDOWN_TIMEOUT_UNIT = TimeUnit.SECONDS;
+    private static final String LOG_TAG = "AccelerometerDataEvent";
+    private static final String INVALID_BATCH_MSG_FORMAT =
+            "Batch size must be positive and at most the ring capacity %d," +
+                    " and delay not negative. Received %d and %d.";
+    private static final String TERMINATION_TIMEOUT_MSG =
+            "Timeout happened while waiting for the notification loop to stop.";
+    private static final String INTERRUPTED_MSG =
+            "Notification loop interrupted.";
+    private static final long TERMINATION_TIMEOUT = 5;
+    private static final TimeUnit TERMINATION_TIMEOUT_UNIT = TimeUnit.SECONDS;
 
-    private ExecutorService notificationMasterThread;
-    private LinkedBlockingQueue<AccelerometerData> queuedData;
+    public static final int DEFAULT_RING_CAPACITY = 4096;
+    public static final int MAX_BATCH_SIZE = 256;
+    public static final long DEFAULT_MAX_BATCH_DELAY = 20;
+    public static final TimeUnit DEFAULT_MAX_BATCH_DELAY_UNIT = TimeUnit.MILLISECONDS;
+    // How long without a sample ends a burst. The samples of a burst are
+    // delivered back to back.
+    private static final long BURST_GAP = 5;
+    private static final TimeUnit BURST_GAP_UNIT = TimeUnit.MILLISECONDS;
 
-    private boolean running;
+    private final SensorSampleRing samples;
+    // Only changed before the event starts.
+    private int maxBatchSize;
+    private long maxBatchDelayNanos;
+    private boolean isFifoBatching;
+    private Future<?> notificationTask;
+    private final Counter deliveryCpuTime;
+    private final Histogram batchSizes;
+
+    // Read by the notification loop, which runs on a shared thread and must
+    // see the event stop to give the thread back.
+    private volatile boolean running;
 
     public AccelerometerDataEvent(Object sender) {
+        this(sender, AccelerometerDataEvent.DEFAULT_RING_CAPACITY);
+    }
+
+    /**
+     * @param ringCapacity    The number of samples kept until they are
+     *                        notified.
+     */
+    public AccelerometerDataEvent(Object sender, int ringCapacity) {
+        this(
+                sender,
+                ringCapacity,
+                AccelerometerDataEvent.MAX_BATCH_SIZE,
+                AccelerometerDataEvent.DEFAULT_MAX_BATCH_DELAY,
+                AccelerometerDataEvent.DEFAULT_MAX_BATCH_DELAY_UNIT
+        );
+    }
+
+    /**
+     * @param ringCapacity     The number of samples kept until they are
+     *                         notified.
+     * @param maxBatchSize     The maximum number of samples per
+     *                         notification.
+     * @param maxBatchDelay    How long to wait for a full batch after the
+     *                         first sample of a batch arrived, or 0 to
+     *                         notify the samples as soon as they arrive.
+     * @param unit             The unit of the delay.
+     */
+    public AccelerometerDataEvent(
+            Object sender,
+            int ringCapacity,
+            int maxBatchSize,
+            long maxBatchDelay,
+            TimeUnit unit
+    ) {
         super(sender);
-        this.notificationMasterThread = Executors.newSingleThreadExecutor();
-        queuedData = new LinkedBlockingQueue<AccelerometerData>();
+        this.samples = new SensorSampleRing(ringCapacity);
+        if (maxBatchSize <= 0 || maxBatchSize > ringCapacity || maxBatchDelay < 0) {
+            throw new InvalidArgumentError(String.format(
+                    AccelerometerDataEvent.INVALID_BATCH_MSG_FORMAT,
+                    ringCapacity, maxBatchSize, maxBatchDelay));
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayNanos = unit.toNanos(maxBatchDelay);
         this.running = false;
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        this.deliveryCpuTime = registry.counter(
+                this.getMetricName("deliveryCpuNanos"));
+        this.batchSizes = registry.histogram(this.getMetricName("batchSize"));
+        registry.gauge(
+                this.getMetricName("samplesDropped"),
+                new Gauge() {
+                    @Override
+                    public long getValue() {
+                        return AccelerometerDataEvent.this.samples.getDroppedCount();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Notify the samples burst by burst, for a sensor registered with a
+     * maximum report latency so that it delivers the content of its
+     * hardware FIFO at once. Must be called before {@link #startEvent()}.
+     *
+     * @param fifoSize    The number of samples the FIFO holds, see
+     *                    {@link Sensor#getFifoMaxEventCount()}. Bursts are
+     *                    split into batches of at most this many samples,
+     *                    and of at most half the ring capacity so that the
+     *                    ring has room for the rest of the burst.
+     */
+    public void setFifoBatching(int fifoSize) {
+        this.isFifoBatching = true;
+        this.maxBatchSize = Math.max(
+                1, Math.min(fifoSize, this.samples.getCapacity() / 2));
+        this.maxBatchDelayNanos = AccelerometerDataEvent.BURST_GAP_UNIT.toNanos(
+                AccelerometerDataEvent.BURST_GAP);
+    }
+
+    public boolean isFifoBatching() {
+        return this.isFifoBatching;
     }
 
     @Override
     public void startEvent() {
         this.running = true;
-        this.notificationMasterThread.submit(this);
+        this.notificationTask = ExecutionContext.getInstance().submit(this);
     }
 
+    /**
+     * Stop the notification loop and wait for it to notify the samples it
+     * has taken, for at most {@link #TERMINATION_TIMEOUT} seconds.
+     */
     @Override
     public void stopEvent() throws InterruptedException {
         this.running = false;
-        this.notificationMasterThread.shutdown();
+        this.samples.wakeUp();
+        if (!ExecutionContext.await(
+                this.notificationTask,
+                AccelerometerDataEvent.TERMINATION_TIMEOUT,
+                AccelerometerDataEvent.TERMINATION_TIMEOUT_UNIT)) {
+            Log.d(
+                    AccelerometerDataEvent.LOG_TAG,
+                    AccelerometerDataEvent.TERMINATION_TIMEOUT_MSG
+            );
+        }
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
-        this.queuedData.offer(new AccelerometerData(event));
+        AccelerometerData.checkSensorType(event);
+        this.offerSample(
+                event.values[AccelerometerData.INDEX_X],
+                event.values[AccelerometerData.INDEX_Y],
+                event.values[AccelerometerData.INDEX_Z],
+                event.timestamp
+        );
+    }
+
+    /**
+     * Store a sample as if the sensor had delivered it, e.g. one replayed
+     * from a recording. Must be called from a single thread, the one that
+     * would otherwise receive the {@link SensorEvent}s.
+     *
+     * @param timestamp    When the sample was taken, in nanoseconds.
+     * @return False if the ring was full and the sample was dropped.
+     */
+    public boolean offerSample(float x, float y, float z, long timestamp) {
+        return this.samples.offer(x, y, z, timestamp);
     }
 
     @Override
@@ -99,13 +311,76 @@ public class AccelerometerDataEvent extends BaseDataEvent implements SensorEvent
 
     @Override
     public void run() {
-        while (this.running) {
-            int count = this.queuedData.size();
-            AccelerometerData[] newData = new AccelerometerData[count];
-            for (int i = 0; i < count; ++i) {
-                newData[i] = this.queuedData.poll();
+        long cpuNanos = Debug.threadCpuTimeNanos();
+        try {
+            while (this.running) {
+                // Sleep until the first sample of the batch, then give the
+                // others until the deadline to arrive.
+                if (!this.samples.awaitSamples(1, 0, TimeUnit.NANOSECONDS)) {
+                    continue;
+                }
+                if (this.isFifoBatching) {
+                    this.awaitEndOfBurst();
+                } else if (this.maxBatchDelayNanos > 0) {
+                    this.samples.awaitSamples(
+                            this.maxBatchSize,
+                            this.maxBatchDelayNanos,
+                            TimeUnit.NANOSECONDS
+                    );
+                }
+                SensorSamples batch = this.samples.poll(this.maxBatchSize);
+                if (batch != null) {
+                    this.batchSizes.record(batch.getCount());
+                    this.notifyListeners(batch);
+                }
+                long now = Debug.threadCpuTimeNanos();
+                // -1 where the time isn't available.
+                if (now >= 0 && cpuNanos >= 0) {
+                    this.deliveryCpuTime.add(now - cpuNanos);
+                }
+                cpuNanos = now;
             }
-            this.notifyListeners(newData);
+        } catch (InterruptedException e) {
+            Log.d(
+                    AccelerometerDataEvent.LOG_TAG,
+                    AccelerometerDataEvent.INTERRUPTED_MSG,
+                    e
+            );
+        }
+    }
+
+    /**
+     * Wait until no sample arrived for a burst gap, or a full batch is
+     * waiting.
+     */
+    private void awaitEndOfBurst() throws InterruptedException {
+        int size = this.samples.size();
+        while (size < this.maxBatchSize && this.running) {
+            this.samples.awaitSamples(
+                    this.maxBatchSize, this.maxBatchDelayNanos, TimeUnit.NANOSECONDS);
+            int newSize = this.samples.size();
+            if (newSize == size) {
+                return;
+            }
+            size = newSize;
+        }
+    }
+
+    /**
+     * @return One {@link AccelerometerData} per sample.
+     */
+    @Override
+    protected Object[] toObjects(SensorSamples samples) {
+        AccelerometerData[] objects = new AccelerometerData[samples.getCount()];
+        for (int i = 0; i < objects.length; ++i) {
+            objects[i] = new AccelerometerData(
+                    samples.getX()[i],
+                    samples.getY()[i],
+                    samples.getZ()[i],
+                    samples.getTimestamps()[i],
+                    samples.getFirstSequenceNumber() + i
+            );
         }
+        return objects;
     }
 }
@@ -0,0 +1,136 @@
+package com.sana.android.plugin.data.event;
+
+import com.sana.android.plugin.errors.InvalidArgumentError;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the notification chunk size of a {@link BytePollingDataEvent} so
+ * that listeners are notified about once per target interval, whatever the
+ * byte rate of the source. The rate is estimated from the chunks already
+ * notified with an exponentially weighted moving average, and the next
+ * chunk size is the number of bytes expected in one interval, kept between
+ * the minimum and the maximum size.
+ *
+ * The interval is also a latency budget: a chunk that has been filling for
+ * longer than the interval is notified as it is.
+ *
+ * A sizer belongs to one event and is only updated from its polling thread.
+ * The getters may be called from any thread.
+ */
+public class AdaptiveChunkSizer {
+    private static final String INVALID_SIZES_MSG_FORMAT =
+            "Expecting 0 < minimum size <= maximum size. Received %d and %d.";
+    private static final String INVALID_INTERVAL_MSG_FORMAT =
+            "Target interval must be positive. Received %d.";
+    // Weight of the newest rate sample in the moving average.
+    private static final double SMOOTHING_FACTOR = 0.25;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final int minChunkSize;
+    private final int maxChunkSize;
+    private final long targetIntervalNanos;
+    private volatile int chunkSize;
+    private volatile double byteRate;
+    private volatile long resizeCount;
+
+    /**
+     * @param minChunkSize      The smallest chunk size in bytes. It is also
+     *                          the size of the first chunk.
+     * @param maxChunkSize      The largest chunk size in bytes.
+     * @param targetInterval    The time between notifications to aim at.
+     * @param unit              The unit of the interval.
+     */
+    public AdaptiveChunkSizer(
+            int minChunkSize, int maxChunkSize, long targetInterval, TimeUnit unit) {
+        if (minChunkSize <= 0 || maxChunkSize < minChunkSize) {
+            throw new InvalidArgumentError(String.format(
+                    AdaptiveChunkSizer.INVALID_SIZES_MSG_FORMAT,
+                    minChunkSize,
+                    maxChunkSize
+            ));
+        }
+        if (targetInterval <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    AdaptiveChunkSizer.INVALID_INTERVAL_MSG_FORMAT, targetInterval));
+        }
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.targetIntervalNanos = unit.toNanos(targetInterval);
+        this.chunkSize = minChunkSize;
+        this.byteRate = 0;
+        this.resizeCount = 0;
+    }
+
+    /**
+     * Account for a notified chunk and pick the size of the next one. Called
+     * by the event after every notification.
+     *
+     * @param length             The number of bytes in the notified chunk.
+     * @param chunkStartNanos    When the event started filling the chunk,
+     *                           from {@link System#nanoTime()}.
+     * @param chunkEndNanos      When the chunk was notified.
+     * @return The size of the next chunk.
+     */
+    public int onChunkNotified(int length, long chunkStartNanos, long chunkEndNanos) {
+        if (chunkEndNanos > chunkStartNanos) {
+            double rate = length * AdaptiveChunkSizer.NANOS_PER_SECOND
+                    / (chunkEndNanos - chunkStartNanos);
+            this.byteRate = this.byteRate == 0
+                    ? rate
+                    : this.byteRate
+                            + AdaptiveChunkSizer.SMOOTHING_FACTOR * (rate - this.byteRate);
+            long target = (long) (this.byteRate * this.targetIntervalNanos
+                    / AdaptiveChunkSizer.NANOS_PER_SECOND);
+            int size = (int) Math.max(
+                    this.minChunkSize, Math.min(this.maxChunkSize, target));
+            if (size != this.chunkSize) {
+                this.chunkSize = size;
+                ++this.resizeCount;
+            }
+        }
+        return this.chunkSize;
+    }
+
+    /**
+     * @return True if a chunk started at the given time has used up the
+     *         latency budget and should be notified.
+     */
+    public boolean isOverdue(long chunkStartNanos, long nowNanos) {
+        return nowNanos - chunkStartNanos >= this.targetIntervalNanos;
+    }
+
+    public int getMinChunkSize() {
+        return this.minChunkSize;
+    }
+
+    public int getMaxChunkSize() {
+        return this.maxChunkSize;
+    }
+
+    public long getTargetInterval(TimeUnit unit) {
+        return unit.convert(this.targetIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return The size of the chunk currently being filled.
+     */
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * @return The estimated byte rate of the source in bytes per second, or
+     *         0 before the first chunk.
+     */
+    public double getByteRate() {
+        return this.byteRate;
+    }
+
+    /**
+     * @return The number of times the chunk size has changed.
+     */
+    public long getResizeCount() {
+        return this.resizeCount;
+    }
+}
@@ -0,0 +1,81 @@
+package com.sana.android.plugin.data.event;
+
+import com.sana.android.plugin.errors.InvalidArgumentError;
+
+/**
+ * Decides what happens to an update when a listener falls behind, i.e. when
+ * its lane in the {@link NotificationDispatcher} is full. A policy is
+ * attached to a listener through
+ * {@link BaseDataEvent#addListener(com.sana.android.plugin.data.listener.DataListener, BackpressurePolicy)}.
+ * Every update a policy discards is counted and can be read from
+ * {@link BaseDataEvent#getDroppedCount(com.sana.android.plugin.data.listener.DataListener)}.
+ *
+ * Only {@link #BLOCK} can slow down the event. With any other policy a slow
+ * listener loses updates instead of stalling the capture.
+ */
+public final class BackpressurePolicy {
+    private static final String INVALID_INTERVAL_MSG_FORMAT =
+            "Sample interval must be positive. Received %d.";
+
+    public enum Kind {
+        /** Wait until the listener has room. Nothing is lost. */
+        BLOCK,
+        /** Discard the oldest pending update to make room for the new one. */
+        DROP_OLDEST,
+        /** Discard the new update. */
+        DROP_NEWEST,
+        /**
+         * Only keep every n-th update. The kept updates are discarded as
+         * with {@link #DROP_NEWEST} if the listener still can't keep up.
+         */
+        SAMPLE_EVERY_N,
+        /** Replace all the pending updates with the new one. */
+        COALESCE_LATEST
+    }
+
+    public static final BackpressurePolicy BLOCK =
+            new BackpressurePolicy(Kind.BLOCK, 1);
+    public static final BackpressurePolicy DROP_OLDEST =
+            new BackpressurePolicy(Kind.DROP_OLDEST, 1);
+    public static final BackpressurePolicy DROP_NEWEST =
+            new BackpressurePolicy(Kind.DROP_NEWEST, 1);
+    public static final BackpressurePolicy COALESCE_LATEST =
+            new BackpressurePolicy(Kind.COALESCE_LATEST, 1);
+
+    private Kind kind;
+    private int sampleInterval;
+
+    private BackpressurePolicy(Kind kind, int sampleInterval) {
+        this.kind = kind;
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * @param interval    Deliver one update out of this many.
+     * @return A {@link Kind#SAMPLE_EVERY_N} policy.
+     */
+    public static BackpressurePolicy sampleEveryN(int interval) {
+        if (interval <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    BackpressurePolicy.INVALID_INTERVAL_MSG_FORMAT, interval));
+        }
+        return new BackpressurePolicy(Kind.SAMPLE_EVERY_N, interval);
+    }
+
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * @return The n of {@link Kind#SAMPLE_EVERY_N}, or 1 for the other kinds.
+     */
+    public int getSampleInterval() {
+        return this.sampleInterval;
+    }
+
+    @Override
+    public String toString() {
+        return this.kind == Kind.SAMPLE_EVERY_N
+                ? this.kind + "(" + this.sampleInterval + ")" : this.kind.toString();
+    }
+}
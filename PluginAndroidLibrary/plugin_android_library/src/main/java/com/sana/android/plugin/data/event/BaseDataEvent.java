@@ -2,30 +2,197 @@ package com.sana.android.plugin.data.event;
 
 import android.util.Log;
 
+import com.sana.android.plugin.data.buffer.Chunk;
+import com.sana.android.plugin.data.buffer.ChunkPool;
+import com.sana.android.plugin.data.buffer.SensorFrames;
+import com.sana.android.plugin.data.buffer.SensorSamples;
+import com.sana.android.plugin.data.listener.ByteDataListener;
 import com.sana.android.plugin.data.listener.DataListener;
+import com.sana.android.plugin.data.listener.SensorFrameListener;
+import com.sana.android.plugin.data.listener.SensorSampleListener;
+import com.sana.android.plugin.data.listener.TimestampedDataListener;
+import com.sana.android.plugin.metrics.Counter;
+import com.sana.android.plugin.metrics.Gauge;
+import com.sana.android.plugin.metrics.MetricsRegistry;
 
-import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Vector;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The base abstract data event class. It provides support for updating clients
  * new data as they are captured by the sensors. Concrete implementations should
  * override the {@link #startEvent()} and {@link #stopEvent()} methods and use
  * the {@link #notifyListeners(Object[])} methods to get the listeners notified.
+ * Events producing raw bytes should prefer
+ * {@link #notifyListeners(byte[], int, int)} so that listeners implementing
+ * {@link com.sana.android.plugin.data.listener.ByteDataListener} get the bytes
+ * without boxing. Events that read their bytes straight into a pooled
+ * {@link com.sana.android.plugin.data.buffer.Chunk} should use
+ * {@link #notifyListeners(com.sana.android.plugin.data.buffer.Chunk)}, which
+ * shares the chunk between the listeners without copying it. Sensor events
+ * should notify batches of {@link com.sana.android.plugin.data.buffer.SensorSamples}
+ * with {@link #notifyListeners(com.sana.android.plugin.data.buffer.SensorSamples)},
+ * so that sample objects are only created for the listeners that need them.
+ * Events fusing several sensors do the same with
+ * {@link com.sana.android.plugin.data.buffer.SensorFrames}.
+ *
+ * Every event reports its metrics to the {@link MetricsRegistry} under
+ * {@link #getMetricsScope()}: the number of bytes and chunks notified, the
+ * total of updates dropped, and for each listener its pending updates,
+ * drops and the latency from notification until the listener took the
+ * update.
+ *
+ * Every update is stamped with the time it was captured and a sequence
+ * number, which listeners implementing
+ * {@link com.sana.android.plugin.data.listener.TimestampedDataListener}
+ * receive along with it. Events that know when their data was captured
+ * should pass it to the notification methods taking a capture time or set
+ * it on their chunks. Otherwise the time of notification is used.
  *
  * @author Han Lin
  */
 public abstract class BaseDataEvent {
     private static final String LOG_TAG = "BaseDataEvent";
-    private Vector<DataListener> listeners;
-    private ExecutorService notificationThread;
+    private static final String FATAL_INTERRUPTION_MSG =
+            "Interrupted while waiting for a listener to accept an update.";
+    private static final ListenerLane[] NO_LANES = new ListenerLane[0];
+    private static final String METRICS_KIND_PREFIX = "event.";
+    private static final String LISTENER_METRICS_FORMAT = "listener.%s-%x";
+
+    // Copy-on-write snapshot of the registered listeners. It is replaced,
+    // never modified, under registryLock so that notifications can iterate
+    // it without locking or copying.
+    private volatile ListenerLane[] lanes;
+    private final Object registryLock;
+    private NotificationDispatcher dispatcher;
+    // The shared pool last used to copy byte updates, cached to avoid a
+    // lookup per update.
+    private ChunkPool chunkPool;
+    private boolean isDisposed;
     private Object sender;
+    private final String metricsScope;
+    private final Counter bytesIn;
+    private final Counter chunksIn;
+    private final AtomicLong nextSequenceNumber;
+
+    /**
+     * An object update with its capture time and sequence number, shared by
+     * all the lanes it is put into.
+     */
+    private static final class ObjectUpdate {
+        private final Object[] data;
+        private final long captureTimeNanos;
+        private final long sequenceNumber;
+
+        private ObjectUpdate(Object[] data, long captureTimeNanos, long sequenceNumber) {
+            this.data = data;
+            this.captureTimeNanos = captureTimeNanos;
+            this.sequenceNumber = sequenceNumber;
+        }
+    }
+
+    /**
+     * Delivers the updates of this event to one listener. Byte updates are
+     * put into the lane as chunks and only for
+     * {@link com.sana.android.plugin.data.listener.ByteDataListener}s. The
+     * lane holds a reference to every chunk it has yet to deliver.
+     */
+    private static class ListenerLane extends NotificationDispatcher.Lane {
+        private DataListener listener;
+        private String metricsScope;
+
+        public ListenerLane(
+                NotificationDispatcher dispatcher,
+                DataListener listener,
+                BackpressurePolicy policy,
+                boolean isDemandDriven,
+                String eventScope
+        ) {
+            super(dispatcher, policy, isDemandDriven);
+            this.listener = listener;
+            this.metricsScope = MetricsRegistry.getName(
+                    eventScope,
+                    String.format(
+                            BaseDataEvent.LISTENER_METRICS_FORMAT,
+                            listener.getClass().getSimpleName(),
+                            System.identityHashCode(listener)
+                    )
+            );
+        }
+
+        private void registerMetrics(MetricsRegistry registry) {
+            this.setLatencyHistogram(registry.histogram(
+                    MetricsRegistry.getName(this.metricsScope, "latencyNanos")));
+            registry.gauge(
+                    MetricsRegistry.getName(this.metricsScope, "pending"),
+                    new Gauge() {
+                        @Override
+                        public long getValue() {
+                            return ListenerLane.this.getPendingCount();
+                        }
+                    }
+            );
+            registry.gauge(
+                    MetricsRegistry.getName(this.metricsScope, "dropped"),
+                    new Gauge() {
+                        @Override
+                        public long getValue() {
+                            return ListenerLane.this.getDroppedCount();
+                        }
+                    }
+            );
+        }
+
+        @Override
+        protected void deliver(Object update) {
+            if (update instanceof Chunk) {
+                Chunk chunk = (Chunk) update;
+                try {
+                    if (this.listener instanceof TimestampedDataListener) {
+                        ((TimestampedDataListener) this.listener).putBytes(
+                                chunk.array(),
+                                0,
+                                chunk.getLength(),
+                                chunk.getCaptureTimeNanos(),
+                                chunk.getSequenceNumber()
+                        );
+                    } else {
+                        ((ByteDataListener) this.listener).putBytes(
+                                chunk.array(), 0, chunk.getLength());
+                    }
+                } finally {
+                    chunk.release();
+                }
+            } else if (update instanceof SensorSamples) {
+                ((SensorSampleListener) this.listener).putSamples(
+                        (SensorSamples) update);
+            } else if (update instanceof SensorFrames) {
+                ((SensorFrameListener) this.listener).putFrames(
+                        (SensorFrames) update);
+            } else if (update instanceof ObjectUpdate) {
+                ObjectUpdate objectUpdate = (ObjectUpdate) update;
+                if (this.listener instanceof TimestampedDataListener) {
+                    ((TimestampedDataListener) this.listener).putData(
+                            objectUpdate.data,
+                            objectUpdate.captureTimeNanos,
+                            objectUpdate.sequenceNumber
+                    );
+                } else {
+                    this.listener.putData(objectUpdate.data);
+                }
+            } else {
+                this.listener.putData((Object[]) update);
+            }
+        }
+
+        @Override
+        protected void discard(Object update) {
+            if (update instanceof Chunk) {
+                ((Chunk) update).release();
+            }
+        }
+    }
 
     /**
      * The source of data. Although there is no restriction on who should be
@@ -36,63 +203,477 @@ public abstract class BaseDataEvent {
      */
     public BaseDataEvent(Object sender) {
         this.sender = sender;
-        this.listeners = new Vector<DataListener>();
-        this.notificationThread = Executors.newCachedThreadPool();
+        this.lanes = BaseDataEvent.NO_LANES;
+        this.registryLock = new Object();
+        this.dispatcher = NotificationDispatcher.acquire();
+        this.isDisposed = false;
+        this.nextSequenceNumber = new AtomicLong();
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        this.metricsScope = registry.createScope(
+                BaseDataEvent.METRICS_KIND_PREFIX + this.getClass().getSimpleName());
+        this.bytesIn = registry.counter(this.getMetricName("bytesIn"));
+        this.chunksIn = registry.counter(this.getMetricName("chunksIn"));
+        registry.gauge(this.getMetricName("dropped"), new Gauge() {
+            @Override
+            public long getValue() {
+                long total = 0;
+                for (ListenerLane lane : BaseDataEvent.this.lanes) {
+                    total += lane.getDroppedCount();
+                }
+                return total;
+            }
+        });
+    }
+
+    /**
+     * @return The scope under which the metrics of this event are
+     *         registered in the {@link MetricsRegistry}.
+     */
+    public String getMetricsScope() {
+        return this.metricsScope;
+    }
+
+    /**
+     * @return The full name of one of this event's metrics.
+     */
+    protected String getMetricName(String metric) {
+        return MetricsRegistry.getName(this.metricsScope, metric);
+    }
+
+    /**
+     * Account for a notification in the event's metrics. Subclasses that
+     * bypass the notification methods of this class must call it.
+     *
+     * @param byteCount    The number of bytes notified, 0 for objects.
+     */
+    protected void countUpdate(int byteCount) {
+        this.chunksIn.increment();
+        this.bytesIn.add(byteCount);
     }
 
     public Object getSender() {
         return this.sender;
     }
 
+    /**
+     * @return The sequence number for the next update. Subclasses that
+     *         bypass the notification methods of this class must use it to
+     *         number their updates.
+     */
+    protected long takeSequenceNumber() {
+        return this.nextSequenceNumber.getAndIncrement();
+    }
+
+    NotificationDispatcher getDispatcher() {
+        return this.dispatcher;
+    }
+
     /**
      * Notify the listeners of new data. Each listener will be notified
-     * by threads in a cached thread pool.
+     * by the shared {@link NotificationDispatcher}, in the order of the
+     * calls to this method. If a listener still has a full lane of
+     * undelivered updates, this method blocks until it catches up.
+     *
+     * A notification goes to the listeners registered when it starts.
+     * Listeners added or removed while it is in progress are only affected
+     * from the next notification on.
      *
      * @param data
      */
-    public void notifyListeners(final Object[] data) {
+    public void notifyListeners(Object[] data) {
+        this.notifyListeners(data, System.nanoTime());
+    }
+
+    /**
+     * Notify the listeners of new data captured at the given time, see
+     * {@link #notifyListeners(Object[])}.
+     *
+     * @param data                The new data.
+     * @param captureTimeNanos    When the first element was captured, from
+     *                            {@link System#nanoTime()}.
+     */
+    public void notifyListeners(Object[] data, long captureTimeNanos) {
         if (data.length > 0) {
-            HashSet<DataListener> addedListeners = new HashSet<DataListener>();
-            for (final DataListener listener : this.listeners) {
-                if (!addedListeners.contains(listener)) {
-                    this.notificationThread.submit(new Runnable() {
-                        @Override
-                        public void run() {
-                            listener.putData(data);
-                        }
-                    });
-                    addedListeners.add(listener);
+            this.countUpdate(0);
+            ObjectUpdate update = new ObjectUpdate(
+                    data, captureTimeNanos, this.takeSequenceNumber());
+            ListenerLane[] snapshot = this.lanes;
+            for (int i = 0; i < snapshot.length; ++i) {
+                this.putUpdate(snapshot[i], update);
+            }
+        }
+    }
+
+    /**
+     * Notify the listeners of new bytes. Listeners implementing
+     * {@link com.sana.android.plugin.data.listener.ByteDataListener} receive
+     * the bytes as they are. The other listeners receive a <code>Byte[]</code>
+     * through {@link com.sana.android.plugin.data.listener.DataListener#putData(Object[])},
+     * which is boxed once and shared between them.
+     *
+     * @param data      The array holding the new bytes. The event copies the
+     *                  given range into a pooled chunk so the caller may
+     *                  reuse the array once this method returns.
+     * @param offset    The position of the first new byte.
+     * @param length    The number of new bytes.
+     */
+    public void notifyListeners(byte[] data, int offset, int length) {
+        this.notifyListeners(data, offset, length, System.nanoTime());
+    }
+
+    /**
+     * Notify the listeners of new bytes captured at the given time, see
+     * {@link #notifyListeners(byte[], int, int)}.
+     *
+     * @param captureTimeNanos    When the first byte was captured, from
+     *                            {@link System#nanoTime()}.
+     */
+    public void notifyListeners(
+            byte[] data, int offset, int length, long captureTimeNanos) {
+        if (length > 0 && this.lanes.length > 0) {
+            Chunk chunk = this.getChunkPool(length).lease();
+            System.arraycopy(data, offset, chunk.array(), 0, length);
+            chunk.setLength(length);
+            chunk.setCaptureTimeNanos(captureTimeNanos);
+            this.notifyListeners(chunk);
+        }
+    }
+
+    /**
+     * Notify the listeners of the bytes held by a chunk. Every
+     * {@link com.sana.android.plugin.data.listener.ByteDataListener} receives
+     * the chunk's own array. The chunk stays leased until the last of them
+     * has received it, so none of the bytes are copied. The other listeners
+     * receive a <code>Byte[]</code> boxed once and shared between them.
+     *
+     * @param chunk    The chunk holding the new bytes. The event takes over
+     *                 the caller's reference, i.e. the caller must neither
+     *                 release nor modify the chunk after this call. If its
+     *                 capture time isn't set, the current time is used. Its
+     *                 sequence number is set by the event.
+     */
+    public void notifyListeners(Chunk chunk) {
+        if (chunk.getCaptureTimeNanos() == 0) {
+            chunk.setCaptureTimeNanos(System.nanoTime());
+        }
+        if (chunk.isDirect()) {
+            Chunk heapChunk = this.getChunkPool(chunk.getLength()).lease();
+            chunk.getBytes(0, heapChunk.array(), 0, chunk.getLength());
+            heapChunk.setLength(chunk.getLength());
+            heapChunk.setCaptureTimeNanos(chunk.getCaptureTimeNanos());
+            chunk.release();
+            chunk = heapChunk;
+        }
+        try {
+            if (chunk.getLength() == 0) {
+                return;
+            }
+            this.countUpdate(chunk.getLength());
+            chunk.setSequenceNumber(this.takeSequenceNumber());
+            Object[] boxed = null;
+            ListenerLane[] snapshot = this.lanes;
+            for (int i = 0; i < snapshot.length; ++i) {
+                ListenerLane lane = snapshot[i];
+                if (lane.listener instanceof ByteDataListener) {
+                    this.putUpdate(lane, chunk.retain());
+                } else {
+                    if (boxed == null) {
+                        boxed = ArrayUtils.toObject(ArrayUtils.subarray(
+                                chunk.array(), 0, chunk.getLength()));
+                    }
+                    this.putUpdate(lane, boxed);
                 }
             }
+        } finally {
+            chunk.release();
         }
     }
 
+    /**
+     * Notify the listeners of new sensor samples. Listeners implementing
+     * {@link com.sana.android.plugin.data.listener.SensorSampleListener}
+     * receive the batch as it is. The other listeners receive the objects
+     * made by {@link #toObjects(com.sana.android.plugin.data.buffer.SensorSamples)},
+     * which is called at most once per batch and only if there is such a
+     * listener. Their capture time is the timestamp of the first sample, so
+     * it comes from the sensor's clock rather than {@link System#nanoTime()}.
+     *
+     * @param samples    The new samples. The batch is shared with the
+     *                   listeners, so the caller must not modify it.
+     */
+    public void notifyListeners(SensorSamples samples) {
+        if (samples.getCount() > 0) {
+            this.notifyBatch(samples, SensorSampleListener.class);
+        }
+    }
+
+    /**
+     * Notify the listeners of new frames aligned from several sensors, see
+     * {@link #notifyListeners(com.sana.android.plugin.data.buffer.SensorSamples)}.
+     * Listeners implementing
+     * {@link com.sana.android.plugin.data.listener.SensorFrameListener}
+     * receive the batch as it is, the others the objects made by
+     * {@link #toObjects(com.sana.android.plugin.data.buffer.SensorFrames)}.
+     *
+     * @param frames    The new frames. The batch is shared with the
+     *                  listeners, so the caller must not modify it.
+     */
+    public void notifyListeners(SensorFrames frames) {
+        if (frames.getCount() > 0) {
+            this.notifyBatch(frames, SensorFrameListener.class);
+        }
+    }
+
+    /**
+     * Put a primitive batch into the lanes of the listeners of the given
+     * type, and the objects made from it into the others.
+     */
+    private void notifyBatch(
+            Object batch, Class<? extends DataListener> listenerType) {
+        this.countUpdate(0);
+        long sequenceNumber = this.takeSequenceNumber();
+        ObjectUpdate objects = null;
+        ListenerLane[] snapshot = this.lanes;
+        for (int i = 0; i < snapshot.length; ++i) {
+            ListenerLane lane = snapshot[i];
+            if (listenerType.isInstance(lane.listener)) {
+                this.putUpdate(lane, batch);
+            } else {
+                if (objects == null) {
+                    objects = this.toObjectUpdate(batch, sequenceNumber);
+                }
+                this.putUpdate(lane, objects);
+            }
+        }
+    }
+
+    /**
+     * Make the objects of a primitive batch, stamped with the timestamp of
+     * its first sample or frame.
+     */
+    private ObjectUpdate toObjectUpdate(Object batch, long sequenceNumber) {
+        if (batch instanceof SensorSamples) {
+            SensorSamples samples = (SensorSamples) batch;
+            return new ObjectUpdate(
+                    this.toObjects(samples),
+                    samples.getTimestamps()[0],
+                    sequenceNumber
+            );
+        }
+        SensorFrames frames = (SensorFrames) batch;
+        return new ObjectUpdate(
+                this.toObjects(frames),
+                frames.getTimestamps()[0],
+                sequenceNumber
+        );
+    }
+
+    /**
+     * Turn sensor samples into the objects received by the listeners that
+     * don't implement
+     * {@link com.sana.android.plugin.data.listener.SensorSampleListener}.
+     * The default implementation boxes the coordinates of every sample as
+     * <code>Float</code>s, interleaved as x, y and z. Override it to create
+     * objects of a sample class.
+     */
+    protected Object[] toObjects(SensorSamples samples) {
+        Object[] objects = new Object[3 * samples.getCount()];
+        for (int i = 0; i < samples.getCount(); ++i) {
+            objects[3 * i] = samples.getX()[i];
+            objects[3 * i + 1] = samples.getY()[i];
+            objects[3 * i + 2] = samples.getZ()[i];
+        }
+        return objects;
+    }
+
+    /**
+     * Turn frames into the objects received by the listeners that don't
+     * implement
+     * {@link com.sana.android.plugin.data.listener.SensorFrameListener}.
+     * The default implementation boxes the values of every frame as
+     * <code>Float</code>s, frame after frame. Override it to create objects
+     * of a frame class.
+     */
+    protected Object[] toObjects(SensorFrames frames) {
+        int valueCount = frames.getCount() * frames.getChannelCount();
+        Object[] objects = new Object[valueCount];
+        for (int i = 0; i < valueCount; ++i) {
+            objects[i] = frames.getValues()[i];
+        }
+        return objects;
+    }
+
+    /**
+     * @param minimumSize    The minimum chunk size.
+     * @return The shared pool this event should lease its chunks from.
+     */
+    protected ChunkPool getChunkPool(int minimumSize) {
+        ChunkPool pool = this.chunkPool;
+        if (pool == null
+                || pool.getChunkSize() != ChunkPool.getSizeClass(minimumSize)) {
+            pool = ChunkPool.getShared(minimumSize);
+            this.chunkPool = pool;
+        }
+        return pool;
+    }
+
+    private void putUpdate(ListenerLane lane, Object update) {
+        try {
+            lane.put(update);
+        } catch (InterruptedException e) {
+            lane.discard(update);
+            Thread.currentThread().interrupt();
+            Log.e(BaseDataEvent.LOG_TAG, BaseDataEvent.FATAL_INTERRUPTION_MSG, e);
+        }
+    }
+
+    /**
+     * Release the resources of this event. Updates already made are still
+     * delivered but the event must not be notified again. The threads of
+     * the {@link NotificationDispatcher} are kept for the next events, see
+     * {@link com.sana.android.plugin.application.ExecutionContext}. Calling
+     * this method more than once has no further effect.
+     */
+    public void dispose() {
+        synchronized (this.registryLock) {
+            if (this.isDisposed) {
+                return;
+            }
+            this.isDisposed = true;
+        }
+        MetricsRegistry.getInstance().unregister(this.metricsScope);
+    }
+
     /**
      * Add a listener to the event. You can add the same listener
      * object multiple times but it will only be notified once in
      * the event of an update.
      *
+     * The listener is added with {@link BackpressurePolicy#BLOCK}, so a
+     * listener that can't keep up slows down the event.
+     *
      * @param listener    The listener object.
      * @returns True if the given listener expects the same sender
      *          as the event or false.
      */
     public boolean addListener(DataListener listener) {
+        return this.addListener(listener, BackpressurePolicy.BLOCK);
+    }
+
+    /**
+     * Add a listener to the event with the given policy for when it falls
+     * behind. If the listener has already been added, it keeps the policy
+     * it was first added with.
+     *
+     * @param listener    The listener object.
+     * @param policy      What to do with new updates while the listener's
+     *                    lane is full.
+     * @returns True if the given listener expects the same sender
+     *          as the event or false.
+     */
+    public boolean addListener(DataListener listener, BackpressurePolicy policy) {
+        return this.addListener(listener, policy, false);
+    }
+
+    /**
+     * Add a listener that only receives the updates it requested through
+     * {@link #request(DataListener, long)}, see {@link DataPublisher}.
+     */
+    boolean addDemandDrivenListener(
+            DataListener listener, BackpressurePolicy policy) {
+        return this.addListener(listener, policy, true);
+    }
+
+    /**
+     * Let a demand driven listener receive <code>count</code> more updates.
+     * Does nothing if it isn't a listener of this event.
+     */
+    void request(DataListener listener, long count) {
+        ListenerLane[] snapshot = this.lanes;
+        int index = BaseDataEvent.indexOf(snapshot, listener);
+        if (index >= 0) {
+            snapshot[index].request(count);
+        }
+    }
+
+    private boolean addListener(
+            DataListener listener, BackpressurePolicy policy, boolean isDemandDriven) {
         boolean result = false;
         if (listener.getExpectedSender() == this.sender) {
-            this.listeners.add(listener);
+            synchronized (this.registryLock) {
+                ListenerLane[] current = this.lanes;
+                if (BaseDataEvent.indexOf(current, listener) < 0) {
+                    ListenerLane lane = new ListenerLane(
+                            this.dispatcher,
+                            listener,
+                            policy,
+                            isDemandDriven,
+                            this.metricsScope
+                    );
+                    lane.registerMetrics(MetricsRegistry.getInstance());
+                    ListenerLane[] updated = new ListenerLane[current.length + 1];
+                    System.arraycopy(current, 0, updated, 0, current.length);
+                    updated[current.length] = lane;
+                    this.lanes = updated;
+                }
+            }
             result = true;
         }
         return result;
     }
 
+    /**
+     * Remove the listener. Its lane is closed: the notifications it hasn't
+     * received yet are discarded, except the one being delivered, and a
+     * producer waiting for room in the lane goes on.
+     *
+     * @param listener
+     */
     public void removeListener(DataListener listener) {
-        ArrayList<DataListener> removing = new ArrayList<DataListener>();
-        removing.add(listener);
-        this.listeners.removeAll(removing);
+        synchronized (this.registryLock) {
+            ListenerLane[] current = this.lanes;
+            int index = BaseDataEvent.indexOf(current, listener);
+            if (index >= 0) {
+                current[index].close();
+                MetricsRegistry.getInstance().unregister(current[index].metricsScope);
+                ListenerLane[] updated = new ListenerLane[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(
+                        current, index + 1, updated, index, updated.length - index);
+                this.lanes = updated;
+            }
+        }
     }
 
     public void removeAllListeners() {
-        this.listeners.clear();
+        synchronized (this.registryLock) {
+            for (ListenerLane lane : this.lanes) {
+                lane.close();
+                MetricsRegistry.getInstance().unregister(lane.metricsScope);
+            }
+            this.lanes = BaseDataEvent.NO_LANES;
+        }
+    }
+
+    /**
+     * @param listener    A listener of this event.
+     * @return The number of updates discarded by the listener's
+     *         {@link BackpressurePolicy}, or 0 if it is not a listener of
+     *         this event.
+     */
+    public long getDroppedCount(DataListener listener) {
+        ListenerLane[] snapshot = this.lanes;
+        int index = BaseDataEvent.indexOf(snapshot, listener);
+        return index < 0 ? 0 : snapshot[index].getDroppedCount();
+    }
+
+    private static int indexOf(ListenerLane[] lanes, DataListener listener) {
+        for (int i = 0; i < lanes.length; ++i) {
+            if (lanes[i].listener.equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -2,21 +2,25 @@ package com.sana.android.plugin.data.event;
 
 import android.util.Log;
 
-import com.sana.android.plugin.data.BinaryDataWithPollingEvent;
-
-import org.apache.commons.lang3.ArrayUtils;
+import com.sana.android.plugin.application.ExecutionContext;
+import com.sana.android.plugin.data.buffer.Chunk;
+import com.sana.android.plugin.metrics.Gauge;
+import com.sana.android.plugin.metrics.MetricsRegistry;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
  * This is the event type that actively polls data from sensors and notifies
- * interested listeners. When the buffer of this event is full,
- * {@link #notifyListeners()} will be called.
+ * interested listeners. The event reads straight into a chunk leased from
+ * the shared {@link com.sana.android.plugin.data.buffer.ChunkPool}. When the
+ * chunk holds a full buffer of bytes it is handed to
+ * {@link #notifyListeners(com.sana.android.plugin.data.buffer.Chunk)} and a
+ * new one is leased. The size of a full buffer is either fixed or, with an
+ * {@link AdaptiveChunkSizer}, adjusted to the byte rate of the stream.
  *
  * @author Han Lin
  */
@@ -28,6 +32,8 @@ public class BytePollingDataEvent extends BaseDataEvent implements Runnable {
     private static final String LOG_TAG = "IEL.BytePollingDataEvent";
     private static final String UNEXPECTED_END_STREAM_EXCEPTION_MSG =
             "Unexpected end of input stream encountered.";
+    private static final String TERMINATION_TIMEOUT_MSG =
+            "Polling still running after the termination timeout.";
 
     public static final int BUFFER_SIZE_SINGLE = 1;
     public static final int BUFFER_SIZE_VERY_SMALL = 8;
@@ -37,9 +43,8 @@ public class BytePollingDataEvent extends BaseDataEvent implements Runnable {
 
     private InputStream incomingDataChannel;
     private int bufferSize;
-    private byte[] buffer;
-    private ExecutorService pollingThreads;
-    private int pointer;
+    private AdaptiveChunkSizer chunkSizer;
+    private Future<?> pollingTask;
 
     /**
      * @param sender
@@ -63,43 +68,132 @@ public class BytePollingDataEvent extends BaseDataEvent implements Runnable {
         super(sender);
         this.incomingDataChannel = incomingDataChannel;
         this.bufferSize = bufferSize;
-        this.buffer = new byte[bufferSize];
-        this.pollingThreads = Executors.newSingleThreadExecutor();
-        this.pointer = 0;
     }
 
+    /**
+     * Create an event whose notification size adapts to the byte rate of
+     * the stream instead of being fixed.
+     *
+     * @param sender                The source of data.
+     * @param incomingDataChannel   The input stream from which the event polls
+     *                                  data from.
+     * @param chunkSizer            Decides the size of every notification.
+     *                              It must not be shared with other events.
+     */
+    public BytePollingDataEvent(
+            Object sender,
+            InputStream incomingDataChannel,
+            AdaptiveChunkSizer chunkSizer
+    ) {
+        this(sender, incomingDataChannel, chunkSizer.getMaxChunkSize());
+        this.chunkSizer = chunkSizer;
+        this.registerChunkSizerMetrics();
+    }
+
+    private void registerChunkSizerMetrics() {
+        final AdaptiveChunkSizer sizer = this.chunkSizer;
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.gauge(this.getMetricName("chunkSize"), new Gauge() {
+            @Override
+            public long getValue() {
+                return sizer.getChunkSize();
+            }
+        });
+        registry.gauge(this.getMetricName("byteRate"), new Gauge() {
+            @Override
+            public long getValue() {
+                return (long) sizer.getByteRate();
+            }
+        });
+        registry.gauge(this.getMetricName("chunkResizes"), new Gauge() {
+            @Override
+            public long getValue() {
+                return sizer.getResizeCount();
+            }
+        });
+    }
+
+    /**
+     * For subclasses that poll another kind of source. They must override
+     * {@link #run()}, which is still run on the polling thread.
+     *
+     * @param sender        The source of data.
+     * @param bufferSize    The number of bytes per notification.
+     */
+    protected BytePollingDataEvent(Object sender, int bufferSize) {
+        this(sender, null, bufferSize);
+    }
+
+    /**
+     * @return The fixed notification size, or the maximum one in adaptive
+     *         mode.
+     */
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * @return The sizer of an adaptive event, or null.
+     */
+    public AdaptiveChunkSizer getChunkSizer() {
+        return this.chunkSizer;
+    }
+
+    /**
+     * Start polling on a thread of the shared
+     * {@link com.sana.android.plugin.application.ExecutionContext}.
+     */
     public void startEvent() {
-        this.pollingThreads.submit(this);
+        this.pollingTask = ExecutionContext.getInstance().submit(this);
     }
 
+    /**
+     * Wait for the polling to reach the end of the stream, for at most
+     * {@link #TERMINATION_TIMEOUT} seconds.
+     */
     public void stopEvent() throws InterruptedException {
-        this.pollingThreads.shutdown();
-        this.pollingThreads.awaitTermination(
+        if (!ExecutionContext.await(
+                this.pollingTask,
                 BytePollingDataEvent.TERMINATION_TIMEOUT,
-                BytePollingDataEvent.TERMINATION_TIMEOUT_UNIT
-        );
+                BytePollingDataEvent.TERMINATION_TIMEOUT_UNIT)) {
+            Log.d(
+                    BytePollingDataEvent.LOG_TAG,
+                    BytePollingDataEvent.TERMINATION_TIMEOUT_MSG
+            );
+        }
     }
 
     @Override
     public void run() {
+        AdaptiveChunkSizer sizer = this.chunkSizer;
+        int chunkSize = sizer == null ? this.bufferSize : sizer.getChunkSize();
+        Chunk chunk = this.getChunkPool(this.bufferSize).lease();
+        long chunkStartNanos = System.nanoTime();
+        int pointer = 0;
         int numBytesRead = 0;// A value of -1 indicates closed stream.
         while (numBytesRead >= 0) {
             try {
                 numBytesRead = this.incomingDataChannel.read(
-                        this.buffer, this.pointer, this.bufferSize - this.pointer);
-                this.pointer = (this.pointer + numBytesRead) % this.bufferSize;
-                Log.d(
-                        BytePollingDataEvent.LOG_TAG,
-                        String.format(
-                                "Number of bytes read: %d and current" +
-                                        " pointer position: %d",
-                                numBytesRead,
-                                this.pointer
-                        )
-                );
-
-                if (this.pointer == 0) {
-                    this.notifyListeners();
+                        chunk.array(), pointer, chunkSize - pointer);
+                if (numBytesRead <= 0) {
+                    continue;
+                }
+                if (pointer == 0) {
+                    chunk.setCaptureTimeNanos(System.nanoTime());
+                }
+                pointer += numBytesRead;
+                long nowNanos = sizer == null ? 0 : System.nanoTime();
+                if (pointer == chunkSize
+                        || (sizer != null && sizer.isOverdue(chunkStartNanos, nowNanos))) {
+                    chunk.setLength(pointer);
+                    this.notifyListeners(chunk);
+                    chunk = this.getChunkPool(this.bufferSize).lease();
+                    if (sizer != null) {
+                        chunkSize = sizer.onChunkNotified(
+                                pointer, chunkStartNanos, nowNanos);
+                        chunkStartNanos = System.nanoTime();
+                    }
+                    pointer = 0;
                 }
             } catch (IOException e) {
                 Log.d(
@@ -112,12 +206,7 @@ public class BytePollingDataEvent extends BaseDataEvent implements Runnable {
         }
 
         // Notify the listeners of remaining bytes.
-        if (this.pointer > 0) {
-            this.notifyListeners();
-        }
-    }
-
-    private void notifyListeners() {
-        this.notifyListeners(ArrayUtils.toObject(this.buffer));
+        chunk.setLength(pointer);
+        this.notifyListeners(chunk);
     }
 }
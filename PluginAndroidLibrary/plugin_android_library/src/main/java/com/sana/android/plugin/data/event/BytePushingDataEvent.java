@@ -2,9 +2,7 @@ package com.sana.android.plugin.data.event;
 
 import android.util.Log;
 
-import com.sana.android.plugin.errors.UnsupportedDeviceError;
-
-import org.apache.commons.lang3.ArrayUtils;
+import com.sana.android.plugin.data.buffer.Chunk;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -68,15 +66,14 @@ public class BytePushingDataEvent extends BaseDataEvent {
                 return -1;
             }
 
-            Byte[] data = this.readBytes(numBytesToRead);
+            Chunk chunk = this.readBytes(numBytesToRead);
+            int numBytesRead = chunk.getLength();
             if (this.isStarted) {
-                this.notifyListeners(data);
+                this.notifyListeners(chunk);
+            } else {
+                chunk.release();
             }
-            Log.d(
-                BytePushingDataEvent.LOG_TAG,
-                "Number of bytes read: " + data.length
-            );
-            return data.length;
+            return numBytesRead;
         } catch (IOException e) {
             Log.d(
                     BytePushingDataEvent.LOG_TAG,
@@ -94,31 +91,35 @@ public class BytePushingDataEvent extends BaseDataEvent {
      *                             stream. The method will attempt to read the
      *                             specified number of bytes a few times before
      *                             return the result.
-     * @return The bytes read.
+     * @return A chunk leased from the shared pool holding the bytes read.
      * @throws IOException
      */
-    private Byte[] readBytes(int numBytesToRead) throws IOException {
-        byte[] buffer = new byte[numBytesToRead];
+    private Chunk readBytes(int numBytesToRead) throws IOException {
+        Chunk chunk = this.getChunkPool(numBytesToRead).lease();
+        chunk.setCaptureTimeNanos(System.nanoTime());
+        byte[] buffer = chunk.array();
         int pointer = 0;
         int attemptCount = 0;
-        while (pointer <= numBytesToRead &&
+        while (pointer < numBytesToRead &&
                 attemptCount < BytePushingDataEvent.MAX_READING_ATTEMPT_COUNTS)
         {
             int currentSize = numBytesToRead - pointer;
-            this.incomingData.read(buffer, pointer, currentSize);
-            pointer = currentSize;
+            int numBytesRead;
+            try {
+                numBytesRead = this.incomingData.read(buffer, pointer, currentSize);
+            } catch (IOException e) {
+                chunk.release();
+                throw e;
+            }
+            if (numBytesRead < 0) {
+                break;
+            }
+            pointer += numBytesRead;
             ++attemptCount;
         }
 
-        byte[] result;
-        if (pointer < buffer.length) {
-            result = new byte[pointer];
-            System.arraycopy(buffer, 0, result, 0, pointer);
-        } else {
-            result = buffer;
-        }
-
-        return ArrayUtils.toObject(result);
+        chunk.setLength(pointer);
+        return chunk;
     }
 
     @Override
@@ -0,0 +1,200 @@
+package com.sana.android.plugin.data.event;
+
+import android.util.Log;
+
+import com.sana.android.plugin.data.buffer.Chunk;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * A polling event that reads from a NIO channel instead of an input stream.
+ * Every read asks the channel for up to {@link #getChunksPerRead()} buffers
+ * worth of bytes, so a fast source costs one system call per several
+ * notifications instead of one per notification.
+ *
+ * When the channel supports scatter reads, e.g. a
+ * {@link java.nio.channels.FileChannel} obtained from
+ * {@link java.io.FileInputStream#getChannel()}, the bytes are read straight
+ * into pooled chunks which are then passed on to the listeners as they are.
+ * Otherwise they are read into one reusable direct buffer and copied into
+ * the chunks.
+ */
+public class ChannelPollingDataEvent extends BytePollingDataEvent {
+    private static final String LOG_TAG = "ChannelPollingDataEvent";
+    private static final String UNEXPECTED_END_CHANNEL_EXCEPTION_MSG =
+            "Unexpected end of channel encountered.";
+    private static final String INVALID_CHUNKS_PER_READ_MSG_FORMAT =
+            "Chunks per read must be positive. Received %d.";
+
+    public static final int DEFAULT_CHUNKS_PER_READ = 4;
+
+    private ReadableByteChannel incomingDataChannel;
+    private int chunksPerRead;
+
+    public ChannelPollingDataEvent(
+            Object sender, ReadableByteChannel incomingDataChannel, int bufferSize) {
+        this(
+                sender,
+                incomingDataChannel,
+                bufferSize,
+                ChannelPollingDataEvent.DEFAULT_CHUNKS_PER_READ
+        );
+    }
+
+    /**
+     * @param sender                The source of data.
+     * @param incomingDataChannel   The channel the event polls data from.
+     * @param bufferSize            The number of bytes per notification.
+     * @param chunksPerRead         The maximum number of notifications
+     *                              worth of bytes asked for by each read.
+     */
+    public ChannelPollingDataEvent(
+            Object sender,
+            ReadableByteChannel incomingDataChannel,
+            int bufferSize,
+            int chunksPerRead
+    ) {
+        super(sender, bufferSize);
+        if (chunksPerRead <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    ChannelPollingDataEvent.INVALID_CHUNKS_PER_READ_MSG_FORMAT,
+                    chunksPerRead
+            ));
+        }
+        this.incomingDataChannel = incomingDataChannel;
+        this.chunksPerRead = chunksPerRead;
+    }
+
+    public int getChunksPerRead() {
+        return this.chunksPerRead;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (this.incomingDataChannel instanceof ScatteringByteChannel) {
+                this.scatterRead((ScatteringByteChannel) this.incomingDataChannel);
+            } else {
+                this.directRead();
+            }
+        } catch (IOException e) {
+            Log.d(
+                    ChannelPollingDataEvent.LOG_TAG,
+                    ChannelPollingDataEvent.UNEXPECTED_END_CHANNEL_EXCEPTION_MSG,
+                    e
+            );
+        }
+    }
+
+    /**
+     * Read into a window of pooled chunks. Full chunks at the front of the
+     * window are passed to the listeners and the window is topped up with
+     * new chunks, the partially filled one moving to the front.
+     */
+    private void scatterRead(ScatteringByteChannel channel) throws IOException {
+        int bufferSize = this.getBufferSize();
+        Chunk[] chunks = new Chunk[this.chunksPerRead];
+        ByteBuffer[] buffers = new ByteBuffer[this.chunksPerRead];
+        this.leaseChunks(chunks, buffers, 0);
+        try {
+            long numBytesRead = 0;
+            while (numBytesRead >= 0) {
+                numBytesRead = channel.read(buffers);
+                this.stampCaptureTimes(chunks, buffers);
+                int fullCount = 0;
+                while (fullCount < buffers.length
+                        && !buffers[fullCount].hasRemaining()) {
+                    chunks[fullCount].setLength(bufferSize);
+                    this.notifyListeners(chunks[fullCount]);
+                    chunks[fullCount] = null;
+                    ++fullCount;
+                }
+                if (fullCount > 0) {
+                    int keptCount = chunks.length - fullCount;
+                    System.arraycopy(chunks, fullCount, chunks, 0, keptCount);
+                    System.arraycopy(buffers, fullCount, buffers, 0, keptCount);
+                    this.leaseChunks(chunks, buffers, keptCount);
+                }
+            }
+        } finally {
+            // Only the first chunk left can be partially filled.
+            boolean isFirst = true;
+            for (int i = 0; i < chunks.length; ++i) {
+                if (chunks[i] == null) {
+                    continue;
+                }
+                if (isFirst) {
+                    chunks[i].setLength(buffers[i].position());
+                    this.notifyListeners(chunks[i]);
+                    isFirst = false;
+                } else {
+                    chunks[i].release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the capture time of the chunks that received their first bytes in
+     * the last read.
+     */
+    private void stampCaptureTimes(Chunk[] chunks, ByteBuffer[] buffers) {
+        long nowNanos = 0;
+        for (int i = 0; i < chunks.length; ++i) {
+            if (chunks[i].getCaptureTimeNanos() == 0 && buffers[i].position() > 0) {
+                if (nowNanos == 0) {
+                    nowNanos = System.nanoTime();
+                }
+                chunks[i].setCaptureTimeNanos(nowNanos);
+            }
+        }
+    }
+
+    private void leaseChunks(Chunk[] chunks, ByteBuffer[] buffers, int from) {
+        for (int i = from; i < chunks.length; ++i) {
+            chunks[i] = this.getChunkPool(this.getBufferSize()).lease();
+            buffers[i] = chunks[i].getBuffer();
+            buffers[i].limit(this.getBufferSize());
+        }
+    }
+
+    /**
+     * Read into a reusable direct buffer and copy the bytes into pooled
+     * chunks of the event's buffer size.
+     */
+    private void directRead() throws IOException {
+        int bufferSize = this.getBufferSize();
+        ByteBuffer readBuffer =
+                ByteBuffer.allocateDirect(bufferSize * this.chunksPerRead);
+        Chunk chunk = this.getChunkPool(bufferSize).lease();
+        int pointer = 0;
+        try {
+            while (this.incomingDataChannel.read(readBuffer) >= 0) {
+                long readNanos = System.nanoTime();
+                readBuffer.flip();
+                while (readBuffer.hasRemaining()) {
+                    if (pointer == 0) {
+                        chunk.setCaptureTimeNanos(readNanos);
+                    }
+                    int count = Math.min(readBuffer.remaining(), bufferSize - pointer);
+                    readBuffer.get(chunk.array(), pointer, count);
+                    pointer += count;
+                    if (pointer == bufferSize) {
+                        chunk.setLength(pointer);
+                        this.notifyListeners(chunk);
+                        chunk = this.getChunkPool(bufferSize).lease();
+                        pointer = 0;
+                    }
+                }
+                readBuffer.clear();
+            }
+        } finally {
+            chunk.setLength(pointer);
+            this.notifyListeners(chunk);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.sana.android.plugin.data.event;
+
+import com.sana.android.plugin.data.listener.DataListener;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers the updates of an event on demand: every {@link DataSubscriber}
+ * receives only as many updates as it requested through its
+ * {@link DataSubscription}, in the manner of Reactive Streams. This suits
+ * consumers that work at their own pace, e.g. an uploader that requests the
+ * next update once the previous one has been sent:
+ *
+ * <pre>
+ * new DataPublisher(event).subscribe(new DataSubscriber() {
+ *     private DataSubscription subscription;
+ *
+ *     public void onSubscribe(DataSubscription subscription) {
+ *         this.subscription = subscription;
+ *         subscription.request(1);
+ *     }
+ *
+ *     public void onNext(Object sender, Object[] data) {
+ *         upload(data);
+ *         this.subscription.request(1);
+ *     }
+ * });
+ * </pre>
+ *
+ * Updates that were not requested yet wait in the subscriber's lane of the
+ * {@link NotificationDispatcher}, without holding a worker. Once
+ * {@link NotificationDispatcher#getLaneCapacity()} of them are waiting, the
+ * subscriber's {@link BackpressurePolicy} decides: with the default,
+ * {@link BackpressurePolicy#BLOCK}, the event stops producing until the
+ * subscriber requests more, so nothing is lost and nothing piles up.
+ */
+public class DataPublisher {
+    private BaseDataEvent event;
+
+    /**
+     * Links a subscriber to the event. It is registered as a listener of
+     * the event with a demand driven lane.
+     */
+    private static class Subscription implements DataListener, DataSubscription {
+        private final BaseDataEvent event;
+        private final DataSubscriber subscriber;
+        private volatile boolean isCancelled;
+
+        private Subscription(BaseDataEvent event, DataSubscriber subscriber) {
+            this.event = event;
+            this.subscriber = subscriber;
+            this.isCancelled = false;
+        }
+
+        @Override
+        public void request(long count) {
+            if (!this.isCancelled) {
+                this.event.request(this, count);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            this.isCancelled = true;
+            this.event.removeListener(this);
+        }
+
+        @Override
+        public void putData(Object[] data) {
+            this.processData(this.event.getSender(), data);
+        }
+
+        @Override
+        public void processData(Object sender, Object[] data) {
+            if (!this.isCancelled) {
+                this.subscriber.onNext(sender, data);
+            }
+        }
+
+        @Override
+        public void setExpectedSender(Object sender) {
+        }
+
+        @Override
+        public Object getExpectedSender() {
+            return this.event.getSender();
+        }
+
+        @Override
+        public void startListening() {
+        }
+
+        @Override
+        public void stopListening() {
+            this.cancel();
+        }
+
+        @Override
+        public void stopListening(long timeout, TimeUnit unit) {
+            this.cancel();
+        }
+    }
+
+    /**
+     * @param event    The event whose updates are published.
+     */
+    public DataPublisher(BaseDataEvent event) {
+        this.event = event;
+    }
+
+    /**
+     * Subscribe with {@link BackpressurePolicy#BLOCK}.
+     *
+     * @see #subscribe(DataSubscriber, BackpressurePolicy)
+     */
+    public DataSubscription subscribe(DataSubscriber subscriber) {
+        return this.subscribe(subscriber, BackpressurePolicy.BLOCK);
+    }
+
+    /**
+     * Start delivering updates to a subscriber as it requests them. Only
+     * the updates notified after this call are delivered.
+     *
+     * @param subscriber    The subscriber.
+     * @param policy        What to do with new updates once the updates
+     *                      the subscriber didn't request yet fill its lane.
+     * @return The subscription, also passed to
+     *         {@link DataSubscriber#onSubscribe(DataSubscription)}.
+     */
+    public DataSubscription subscribe(
+            DataSubscriber subscriber, BackpressurePolicy policy) {
+        Subscription subscription = new Subscription(this.event, subscriber);
+        this.event.addDemandDrivenListener(subscription, policy);
+        subscriber.onSubscribe(subscription);
+        return subscription;
+    }
+}
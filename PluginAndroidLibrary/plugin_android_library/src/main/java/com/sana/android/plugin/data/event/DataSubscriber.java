@@ -0,0 +1,25 @@
+package com.sana.android.plugin.data.event;
+
+/**
+ * Receives the updates of an event through a {@link DataPublisher}, but only
+ * as many as it asked for through its {@link DataSubscription}.
+ */
+public interface DataSubscriber {
+    /**
+     * Called once, before any update, with the subscription through which
+     * to request updates. No update is received before the first request.
+     *
+     * @param subscription    The subscription of this subscriber.
+     */
+    public void onSubscribe(DataSubscription subscription);
+
+    /**
+     * Called with every requested update, one at a time and in order, on a
+     * worker of the {@link NotificationDispatcher}. Bytes are received
+     * boxed, as a <code>Byte[]</code>.
+     *
+     * @param sender    The source of the data.
+     * @param data      The update.
+     */
+    public void onNext(Object sender, Object[] data);
+}
@@ -0,0 +1,21 @@
+package com.sana.android.plugin.data.event;
+
+/**
+ * The link between a {@link DataSubscriber} and the event it subscribed to
+ * through a {@link DataPublisher}.
+ */
+public interface DataSubscription {
+    /**
+     * Ask for <code>count</code> more updates. The requests add up. Requesting
+     * {@link Long#MAX_VALUE} updates lifts the limit. May be called from any
+     * thread, including from {@link DataSubscriber#onNext(Object, Object[])}.
+     *
+     * @param count    The number of updates, must be positive.
+     */
+    public void request(long count);
+
+    /**
+     * Stop receiving updates. Updates not delivered yet are discarded.
+     */
+    public void cancel();
+}
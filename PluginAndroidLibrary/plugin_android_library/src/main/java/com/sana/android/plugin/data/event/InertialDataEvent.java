@@ -0,0 +1,211 @@
+package com.sana.android.plugin.data.event;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.os.Debug;
+import android.util.Log;
+
+import com.sana.android.plugin.application.ExecutionContext;
+import com.sana.android.plugin.data.buffer.SensorFrames;
+import com.sana.android.plugin.data.buffer.SensorSampleRing;
+import com.sana.android.plugin.data.buffer.SensorSamples;
+import com.sana.android.plugin.data.dsp.SensorFrameAligner;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.metrics.Counter;
+import com.sana.android.plugin.metrics.Gauge;
+import com.sana.android.plugin.metrics.MetricsRegistry;
+
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An event fusing several three axis sensors, e.g. the accelerometer, the
+ * gyroscope and the magnetometer, into frames aligned on their timestamps.
+ * It is registered as the single {@link SensorEventListener} of all of
+ * them, so one capture runs one notification loop for every sensor.
+ *
+ * The samples of every sensor are stored in a {@link SensorSampleRing} of
+ * its own as they arrive, without creating any object. The notification
+ * loop sleeps until the first sensor, the reference, delivers a batch of
+ * samples, then merges the samples of all the sensors with a
+ * {@link SensorFrameAligner} and notifies the frames as
+ * {@link SensorFrames}. The frames are taken at every sample of the
+ * reference sensor, or at a common rate if one is given, interpolating the
+ * other sensors. Listeners implementing
+ * {@link com.sana.android.plugin.data.listener.SensorFrameListener} receive
+ * the frames as they are.
+ *
+ * The event reports the samples dropped because a ring was full and the
+ * CPU time of the notification loop to the {@link MetricsRegistry}, like
+ * {@link AccelerometerDataEvent}.
+ */
+public class InertialDataEvent extends BaseDataEvent
+        implements SensorEventListener, Runnable {
+    private static final String LOG_TAG = "InertialDataEvent";
+    private static final String UNEXPECTED_SENSOR_MSG_FORMAT =
+            "Expecting SensorEvents from sensors of the types %s. " +
+                    "Received one with the type of %d.";
+    private static final String INVALID_FRAME_RATE_MSG_FORMAT =
+            "Frame rate must not be negative. Received %d.";
+    private static final String TERMINATION_TIMEOUT_MSG =
+            "Timeout happened while waiting for the notification loop to stop.";
+    private static final String INTERRUPTED_MSG =
+            "Notification loop interrupted.";
+    private static final long TERMINATION_TIMEOUT = 5;
+    private static final TimeUnit TERMINATION_TIMEOUT_UNIT = TimeUnit.SECONDS;
+    private static final long NANOS_PER_SECOND = 1000000000;
+
+    public static final int RING_CAPACITY = 4096;
+    public static final int MAX_BATCH_SIZE = 256;
+    public static final long MAX_BATCH_DELAY = 20;
+    // How long the other sensors may lag behind the newest sample before
+    // frames are made without waiting for them.
+    public static final long MAX_SKEW = 200;
+    public static final TimeUnit DELAY_UNIT = TimeUnit.MILLISECONDS;
+
+    private final int[] sensorTypes;
+    private final SensorSampleRing[] rings;
+    private final SensorFrameAligner aligner;
+    private final Counter deliveryCpuTime;
+    private Future<?> notificationTask;
+
+    // Read by the notification loop, which runs on a shared thread and must
+    // see the event stop to give the thread back.
+    private volatile boolean running;
+
+    /**
+     * @param sensorTypes    The types of the sensors, as in
+     *                       {@link Sensor#getType()}. The first one is the
+     *                       reference.
+     * @param frameRate      The number of frames per second, or 0 to make
+     *                       a frame at every sample of the reference.
+     */
+    public InertialDataEvent(Object sender, int[] sensorTypes, int frameRate) {
+        super(sender);
+        if (frameRate < 0) {
+            throw new InvalidArgumentError(String.format(
+                    InertialDataEvent.INVALID_FRAME_RATE_MSG_FORMAT, frameRate));
+        }
+        this.sensorTypes = sensorTypes.clone();
+        this.rings = new SensorSampleRing[sensorTypes.length];
+        for (int i = 0; i < this.rings.length; ++i) {
+            this.rings[i] = new SensorSampleRing(InertialDataEvent.RING_CAPACITY);
+        }
+        this.aligner = new SensorFrameAligner(
+                sensorTypes,
+                frameRate == 0 ? 0 : InertialDataEvent.NANOS_PER_SECOND / frameRate,
+                InertialDataEvent.DELAY_UNIT.toNanos(InertialDataEvent.MAX_SKEW),
+                TimeUnit.NANOSECONDS
+        );
+        this.running = false;
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        this.deliveryCpuTime = registry.counter(
+                this.getMetricName("deliveryCpuNanos"));
+        registry.gauge(this.getMetricName("samplesDropped"), new Gauge() {
+            @Override
+            public long getValue() {
+                long total = 0;
+                for (SensorSampleRing ring : InertialDataEvent.this.rings) {
+                    total += ring.getDroppedCount();
+                }
+                return total;
+            }
+        });
+    }
+
+    public int[] getSensorTypes() {
+        return this.sensorTypes.clone();
+    }
+
+    @Override
+    public void startEvent() {
+        this.running = true;
+        this.notificationTask = ExecutionContext.getInstance().submit(this);
+    }
+
+    /**
+     * Stop the notification loop and wait for it to notify the frames of
+     * the samples received so far, for at most
+     * {@link #TERMINATION_TIMEOUT} seconds.
+     */
+    @Override
+    public void stopEvent() throws InterruptedException {
+        this.running = false;
+        this.rings[0].wakeUp();
+        if (!ExecutionContext.await(
+                this.notificationTask,
+                InertialDataEvent.TERMINATION_TIMEOUT,
+                InertialDataEvent.TERMINATION_TIMEOUT_UNIT)) {
+            Log.d(InertialDataEvent.LOG_TAG, InertialDataEvent.TERMINATION_TIMEOUT_MSG);
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        int type = event.sensor.getType();
+        for (int i = 0; i < this.sensorTypes.length; ++i) {
+            if (this.sensorTypes[i] == type) {
+                this.rings[i].offer(
+                        event.values[0], event.values[1], event.values[2], event.timestamp);
+                return;
+            }
+        }
+        throw new InvalidArgumentError(String.format(
+                InertialDataEvent.UNEXPECTED_SENSOR_MSG_FORMAT,
+                Arrays.toString(this.sensorTypes),
+                type
+        ));
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+    }
+
+    @Override
+    public void run() {
+        SensorSampleRing reference = this.rings[0];
+        long cpuNanos = Debug.threadCpuTimeNanos();
+        try {
+            while (this.running) {
+                if (!reference.awaitSamples(1, 0, TimeUnit.NANOSECONDS)) {
+                    continue;
+                }
+                reference.awaitSamples(
+                        InertialDataEvent.MAX_BATCH_SIZE,
+                        InertialDataEvent.MAX_BATCH_DELAY,
+                        InertialDataEvent.DELAY_UNIT
+                );
+                this.notifyFrames(false);
+                long now = Debug.threadCpuTimeNanos();
+                // -1 where the time isn't available.
+                if (now >= 0 && cpuNanos >= 0) {
+                    this.deliveryCpuTime.add(now - cpuNanos);
+                }
+                cpuNanos = now;
+            }
+            this.notifyFrames(true);
+        } catch (InterruptedException e) {
+            Log.d(InertialDataEvent.LOG_TAG, InertialDataEvent.INTERRUPTED_MSG, e);
+        }
+    }
+
+    /**
+     * Hand the samples of every ring to the aligner and notify the frames
+     * that are ready.
+     */
+    private void notifyFrames(boolean flush) {
+        for (int i = 0; i < this.rings.length; ++i) {
+            SensorSamples samples;
+            while ((samples = this.rings[i].poll(InertialDataEvent.RING_CAPACITY)) != null) {
+                this.aligner.add(i, samples);
+            }
+        }
+        SensorFrames frames = this.aligner.poll(flush);
+        if (frames != null) {
+            this.notifyListeners(frames);
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package com.sana.android.plugin.data.event;
+
+import android.util.Log;
+
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.metrics.Histogram;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The process-wide dispatcher used by {@link BaseDataEvent} to notify its
+ * listeners. It owns a fixed number of worker threads shared by all the
+ * events. Every listener of an event gets its own {@link Lane}: updates put
+ * into a lane are delivered one at a time and in the order they were put, so
+ * a listener never sees two chunks of the same event concurrently or out of
+ * order. A lane holds at most {@link #getLaneCapacity()} pending updates.
+ * What happens when an update is put into a full lane is decided by the
+ * lane's {@link BackpressurePolicy}.
+ *
+ * The dispatcher is created with the first event and kept across capture
+ * sessions. It is shut down with the other shared threads by
+ * {@link com.sana.android.plugin.application.ExecutionContext#shutdown()}.
+ * Call {@link #configure(int, int)} before creating any event to change the
+ * worker count or the lane capacity.
+ *
+ * A lane created as demand driven only delivers as many updates as were
+ * requested through {@link Lane#request(long)}. The others stay pending, so
+ * with {@link BackpressurePolicy#BLOCK} the event stalls once the lane is
+ * full rather than a worker waiting for the listener.
+ */
+public class NotificationDispatcher {
+    private static final String LOG_TAG = "NotificationDispatcher";
+    private static final String THREAD_NAME_FORMAT = "NotificationDispatcher-%d";
+    private static final String INVALID_CONFIGURATION_MSG_FORMAT =
+            "Worker count and lane capacity must be positive. Received %d and %d.";
+    private static final String DELIVERY_FAILED_MSG =
+            "Listener threw an exception while receiving an update.";
+    private static final String REJECTED_MSG =
+            "Update dropped because the dispatcher has been shut down.";
+    private static final String INVALID_REQUEST_MSG_FORMAT =
+            "The number of requested updates must be positive. Received %d.";
+
+    public static final int DEFAULT_MAX_WORKER_COUNT = 4;
+    public static final int DEFAULT_LANE_CAPACITY = 256;
+
+    private static int workerCount = Math.max(
+            1,
+            Math.min(
+                    NotificationDispatcher.DEFAULT_MAX_WORKER_COUNT,
+                    Runtime.getRuntime().availableProcessors()
+            )
+    );
+    private static int laneCapacity = NotificationDispatcher.DEFAULT_LANE_CAPACITY;
+    private static NotificationDispatcher instance;
+
+    private ExecutorService workers;
+    private int capacity;
+
+    private NotificationDispatcher(int workerCount, int laneCapacity) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.capacity = laneCapacity;
+        this.workers = Executors.newFixedThreadPool(
+                workerCount,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(
+                                runnable,
+                                String.format(
+                                        NotificationDispatcher.THREAD_NAME_FORMAT,
+                                        threadCount.incrementAndGet()
+                                )
+                        );
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }
+        );
+    }
+
+    /**
+     * Change the configuration of the dispatcher. The new values take effect
+     * the next time the dispatcher is created, i.e. when the first event is
+     * created or after {@link #shutdown()}.
+     *
+     * @param workerCount     The number of worker threads.
+     * @param laneCapacity    The maximum number of pending updates per
+     *                        listener.
+     */
+    public static synchronized void configure(int workerCount, int laneCapacity) {
+        if (workerCount <= 0 || laneCapacity <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    NotificationDispatcher.INVALID_CONFIGURATION_MSG_FORMAT,
+                    workerCount,
+                    laneCapacity
+            ));
+        }
+        NotificationDispatcher.workerCount = workerCount;
+        NotificationDispatcher.laneCapacity = laneCapacity;
+    }
+
+    /**
+     * Get the shared dispatcher, creating it if needed.
+     */
+    static synchronized NotificationDispatcher acquire() {
+        if (NotificationDispatcher.instance == null) {
+            NotificationDispatcher.instance = new NotificationDispatcher(
+                    NotificationDispatcher.workerCount,
+                    NotificationDispatcher.laneCapacity
+            );
+        }
+        return NotificationDispatcher.instance;
+    }
+
+    /**
+     * Shut down the worker threads. Updates already put into lanes are still
+     * delivered, later ones are discarded. Events created afterwards get a
+     * new dispatcher. Called by
+     * {@link com.sana.android.plugin.application.ExecutionContext#shutdown()}.
+     */
+    public static synchronized void shutdown() {
+        if (NotificationDispatcher.instance != null) {
+            NotificationDispatcher.instance.workers.shutdown();
+            NotificationDispatcher.instance = null;
+        }
+    }
+
+    public int getLaneCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Run a task on one of the worker threads.
+     *
+     * @param task    The task to run.
+     * @return False if the dispatcher has been shut down and the task was
+     *         not accepted.
+     */
+    boolean execute(Runnable task) {
+        try {
+            this.workers.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w(NotificationDispatcher.LOG_TAG, NotificationDispatcher.REJECTED_MSG);
+            return false;
+        }
+    }
+
+    /**
+     * A serial queue of updates for one listener. Subclasses define how an
+     * update is handed to the listener.
+     */
+    public static abstract class Lane implements Runnable {
+        private NotificationDispatcher dispatcher;
+        private BackpressurePolicy policy;
+        // A ring of pending updates and the times they were put, guarded
+        // by lock.
+        private final ReentrantLock lock;
+        private final Condition notFull;
+        private final Object[] pending;
+        private final long[] putTimes;
+        private int head;
+        private int pendingCount;
+        // Set once by close, guarded by lock.
+        private boolean isClosed;
+        private AtomicBoolean scheduled;
+        private AtomicLong putCount;
+        private AtomicLong droppedCount;
+        // The number of updates the lane may still deliver, Long.MAX_VALUE
+        // for a lane that isn't demand driven. Only request adds to it and
+        // only run takes from it.
+        private final AtomicLong demand;
+        private volatile Histogram latency;
+
+        protected Lane(NotificationDispatcher dispatcher, BackpressurePolicy policy) {
+            this(dispatcher, policy, false);
+        }
+
+        /**
+         * @param isDemandDriven    Whether the lane waits for
+         *                          {@link #request(long)} before delivering
+         *                          updates.
+         */
+        protected Lane(
+                NotificationDispatcher dispatcher,
+                BackpressurePolicy policy,
+                boolean isDemandDriven
+        ) {
+            this.dispatcher = dispatcher;
+            this.policy = policy;
+            this.lock = new ReentrantLock();
+            this.notFull = this.lock.newCondition();
+            this.pending = new Object[dispatcher.capacity];
+            this.putTimes = new long[dispatcher.capacity];
+            this.head = 0;
+            this.pendingCount = 0;
+            this.scheduled = new AtomicBoolean(false);
+            this.putCount = new AtomicLong();
+            this.droppedCount = new AtomicLong();
+            this.demand = new AtomicLong(isDemandDriven ? 0 : Long.MAX_VALUE);
+        }
+
+        /**
+         * Put an update into the lane. If the lane is full the outcome
+         * depends on the lane's {@link BackpressurePolicy}. Only
+         * {@link BackpressurePolicy#BLOCK} may block. Once the lane is
+         * closed, the update is discarded.
+         *
+         * @param update    The update to be delivered.
+         * @throws InterruptedException If interrupted while waiting for space.
+         */
+        public void put(Object update) throws InterruptedException {
+            long putTime = System.nanoTime();
+            if (this.policy.getKind() == BackpressurePolicy.Kind.SAMPLE_EVERY_N
+                    && this.putCount.getAndIncrement()
+                            % this.policy.getSampleInterval() != 0) {
+                this.drop(update);
+                return;
+            }
+            this.lock.lockInterruptibly();
+            try {
+                if (this.pendingCount == this.pending.length && !this.isClosed) {
+                    switch (this.policy.getKind()) {
+                        case BLOCK:
+                            while (this.pendingCount == this.pending.length
+                                    && !this.isClosed) {
+                                this.notFull.await();
+                            }
+                            break;
+                        case DROP_OLDEST:
+                            this.drop(this.poll());
+                            break;
+                        case COALESCE_LATEST:
+                            break;
+                        default:
+                            this.drop(update);
+                            return;
+                    }
+                }
+                if (this.isClosed) {
+                    this.discard(update);
+                    return;
+                }
+                if (this.policy.getKind() == BackpressurePolicy.Kind.COALESCE_LATEST) {
+                    while (this.pendingCount > 0) {
+                        this.drop(this.poll());
+                    }
+                }
+                int tail = (this.head + this.pendingCount) % this.pending.length;
+                this.pending[tail] = update;
+                this.putTimes[tail] = putTime;
+                ++this.pendingCount;
+            } finally {
+                this.lock.unlock();
+            }
+            if (this.demand.get() > 0) {
+                this.schedule();
+            }
+        }
+
+        /**
+         * Discard the pending updates and every update put from now on, and
+         * wake up the producers waiting for space. The update being
+         * delivered, if any, still reaches the listener. Calling this
+         * method more than once has no further effect.
+         */
+        public void close() {
+            this.lock.lock();
+            try {
+                this.isClosed = true;
+                Object update;
+                while ((update = this.poll()) != null) {
+                    this.discard(update);
+                }
+                this.notFull.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * Allow a demand driven lane to deliver <code>count</code> more
+         * updates. The requests add up, up to {@link Long#MAX_VALUE}, which
+         * lifts the limit.
+         *
+         * @param count    The number of updates.
+         */
+        public void request(long count) {
+            if (count <= 0) {
+                throw new InvalidArgumentError(String.format(
+                        NotificationDispatcher.INVALID_REQUEST_MSG_FORMAT, count));
+            }
+            long current;
+            long updated;
+            do {
+                current = this.demand.get();
+                updated = current + count < 0 ? Long.MAX_VALUE : current + count;
+            } while (!this.demand.compareAndSet(current, updated));
+            if (this.getPendingCount() > 0) {
+                this.schedule();
+            }
+        }
+
+        /**
+         * @return The number of updates the lane may still deliver.
+         */
+        public long getDemand() {
+            return this.demand.get();
+        }
+
+        /**
+         * Remove the oldest pending update. The lock must be held.
+         *
+         * @return The update or null if there is none.
+         */
+        private Object poll() {
+            if (this.pendingCount == 0) {
+                return null;
+            }
+            Object update = this.pending[this.head];
+            this.pending[this.head] = null;
+            this.head = (this.head + 1) % this.pending.length;
+            --this.pendingCount;
+            this.notFull.signal();
+            return update;
+        }
+
+        public int getPendingCount() {
+            this.lock.lock();
+            try {
+                return this.pendingCount;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        public BackpressurePolicy getPolicy() {
+            return this.policy;
+        }
+
+        /**
+         * @return The number of updates discarded by the lane's policy.
+         */
+        public long getDroppedCount() {
+            return this.droppedCount.get();
+        }
+
+        /**
+         * @param latency    Records, for every delivered update, the time
+         *                   from {@link #put(Object)} until
+         *                   {@link #deliver(Object)} returned, in
+         *                   nanoseconds. Null to stop recording.
+         */
+        public void setLatencyHistogram(Histogram latency) {
+            this.latency = latency;
+        }
+
+        private void drop(Object update) {
+            if (update != null) {
+                this.droppedCount.incrementAndGet();
+                this.discard(update);
+            }
+        }
+
+        private void schedule() {
+            if (this.scheduled.compareAndSet(false, true)
+                    && !this.dispatcher.execute(this)) {
+                this.scheduled.set(false);
+                this.lock.lock();
+                try {
+                    Object update;
+                    while ((update = this.poll()) != null) {
+                        this.discard(update);
+                    }
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Deliver the pending updates in order. At most one capacity worth of
+         * updates is delivered per run so that a busy lane can't keep a
+         * worker from serving the other lanes. A demand driven lane stops
+         * when it has delivered all the requested updates.
+         */
+        @Override
+        public void run() {
+            try {
+                this.deliverPending();
+            } finally {
+                // Even if a delivery threw, so that the lane isn't stuck.
+                this.scheduled.set(false);
+                if (this.getPendingCount() > 0 && this.demand.get() > 0) {
+                    this.schedule();
+                }
+            }
+        }
+
+        private void deliverPending() {
+            int remaining = this.pending.length;
+            boolean hasPending = true;
+            while (remaining-- > 0 && hasPending && this.demand.get() > 0) {
+                Object update;
+                long putTime;
+                this.lock.lock();
+                try {
+                    putTime = this.putTimes[this.head];
+                    update = this.poll();
+                    hasPending = this.pendingCount > 0;
+                } finally {
+                    this.lock.unlock();
+                }
+                if (update == null) {
+                    break;
+                }
+                if (this.demand.get() != Long.MAX_VALUE) {
+                    this.demand.decrementAndGet();
+                }
+                try {
+                    this.deliver(update);
+                } catch (Throwable e) {
+                    // Listeners report invalid updates with Errors, e.g.
+                    // InvalidArgumentError. One bad update must neither stop
+                    // the lane nor kill the worker thread.
+                    Log.e(
+                            NotificationDispatcher.LOG_TAG,
+                            NotificationDispatcher.DELIVERY_FAILED_MSG,
+                            e
+                    );
+                }
+                Histogram latency = this.latency;
+                if (latency != null) {
+                    latency.record(System.nanoTime() - putTime);
+                }
+            }
+        }
+
+        /**
+         * Hand an update to the listener. Never called concurrently for the
+         * same lane.
+         *
+         * @param update    The update previously passed to {@link #put(Object)}.
+         */
+        protected abstract void deliver(Object update);
+
+        /**
+         * Called for every update that is put into the lane but will never
+         * be delivered, e.g. when it is dropped by the lane's policy. It may
+         * be called with the lane locked, so it must not call back into the
+         * lane. The default implementation does nothing. Override it to
+         * release the resources held by the update.
+         *
+         * @param update    The update previously passed to {@link #put(Object)}.
+         */
+        protected void discard(Object update) {
+        }
+    }
+}
@@ -0,0 +1,548 @@
+package com.sana.android.plugin.data.event;
+
+import android.util.Log;
+
+import com.sana.android.plugin.data.buffer.Chunk;
+import com.sana.android.plugin.data.buffer.SensorFrames;
+import com.sana.android.plugin.data.buffer.SensorSamples;
+import com.sana.android.plugin.data.listener.ByteDataListener;
+import com.sana.android.plugin.data.listener.DataListener;
+import com.sana.android.plugin.data.listener.SensorFrameListener;
+import com.sana.android.plugin.data.listener.SensorSampleListener;
+import com.sana.android.plugin.data.listener.TimestampedDataListener;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.errors.InvalidInvocationError;
+import com.sana.android.plugin.metrics.Counter;
+import com.sana.android.plugin.metrics.Gauge;
+import com.sana.android.plugin.metrics.MetricsRegistry;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A data event backed by a pre-allocated ring buffer with one producer and
+ * any number of listeners. Instead of queueing every update per listener,
+ * the producer copies it into the next free slot and publishes the slot's
+ * sequence number. Each listener keeps its own cursor and reads the
+ * published slots from where it left off, on the workers of the shared
+ * {@link NotificationDispatcher}.
+ *
+ * Publishing copies the update into the ring without allocating. A
+ * listener that is idle is woken up by handing one task to the dispatcher,
+ * which queues it; it then reads every slot published until it catches up,
+ * so busy listeners cost the producer nothing more. When the slowest
+ * listener is a whole ring behind, the producer waits for it to advance, so
+ * the memory used by the event is bounded by the ring size. It waits at
+ * most {@link #PRODUCER_TIMEOUT} seconds, and not at all once the event is
+ * stopped; the update is then dropped and counted in
+ * {@link #getDroppedUpdateCount()}.
+ *
+ * The producer, e.g. a polling thread, a USB reader or a sensor callback,
+ * calls one of the <code>notifyListeners</code> methods from a single
+ * thread. Updates published before {@link #startEvent()} or after
+ * {@link #stopEvent()} are ignored. Sensor batches are stored in the ring
+ * as they are, along with their objects if a listener needs them.
+ *
+ * The listeners only read the ring: they have no lane of the
+ * {@link NotificationDispatcher}, so they don't show up in the per listener
+ * metrics of {@link BaseDataEvent}, and they can't be demand driven.
+ *
+ * The sequence number of an update is the sequence number of its slot, so
+ * byte updates larger than a slot take several sequence numbers.
+ */
+public class RingBufferDataEvent extends BaseDataEvent {
+    private static final String LOG_TAG = "RingBufferDataEvent";
+    private static final String INVALID_SIZE_MSG_FORMAT =
+            "Slot count and slot size must be positive. Received %d and %d.";
+    private static final String DELIVERY_FAILED_MSG =
+            "Listener threw an exception while reading from the ring.";
+    private static final String UNSUPPORTED_POLICY_MSG_FORMAT =
+            "Only BLOCK is supported by the ring. Received %s.";
+    private static final String DRAIN_TIMEOUT_MSG =
+            "Listeners did not catch up before the event stopped.";
+    private static final String PRODUCER_TIMEOUT_MSG =
+            "The slowest listener did not free a slot in time, dropping the update.";
+    private static final String DEMAND_UNSUPPORTED_MSG =
+            "The listeners of the ring can't be demand driven.";
+    private static final Consumer[] NO_CONSUMERS = new Consumer[0];
+
+    public static final int DEFAULT_SLOT_COUNT = 64;
+    public static final int DEFAULT_SLOT_SIZE = 4096;
+
+    public static final long PRODUCER_TIMEOUT = 1;
+    private static final TimeUnit PRODUCER_TIMEOUT_UNIT = TimeUnit.SECONDS;
+    private static final long PRODUCER_WAIT_NANOS = 50000;
+    private static final int NO_SLOT = -1;
+    private static final long DRAIN_TIMEOUT = 5;
+    private static final TimeUnit DRAIN_TIMEOUT_UNIT = TimeUnit.SECONDS;
+
+    private final int slotCount;
+    private final int slotSize;
+    private final byte[][] slotBytes;
+    private final int[] slotLengths;
+    private final long[] slotCaptureTimes;
+    private final Object[][] slotObjects;
+    // The SensorSamples or SensorFrames held by each slot, if any.
+    private final Object[] slotBatches;
+    // The sequence number of the last published slot.
+    private final AtomicLong published;
+    // Only touched by the producer thread.
+    private long nextSequence;
+    private volatile Consumer[] consumers;
+    private volatile boolean isStarted;
+    private final Counter droppedUpdates;
+
+    /**
+     * Reads the ring on behalf of one listener.
+     */
+    private class Consumer implements Runnable {
+        private final DataListener listener;
+        // The sequence number of the last slot delivered to the listener.
+        private final AtomicLong cursor;
+        private final AtomicBoolean scheduled;
+
+        public Consumer(DataListener listener, long cursor) {
+            this.listener = listener;
+            this.cursor = new AtomicLong(cursor);
+            this.scheduled = new AtomicBoolean(false);
+        }
+
+        public void schedule() {
+            if (this.scheduled.compareAndSet(false, true)
+                    && !RingBufferDataEvent.this.getDispatcher().execute(this)) {
+                this.scheduled.set(false);
+            }
+        }
+
+        /**
+         * Deliver the published slots the listener hasn't seen. At most one
+         * ring worth of slots is delivered per run so that other listeners
+         * get a fair share of the workers.
+         */
+        @Override
+        public void run() {
+            long last = RingBufferDataEvent.this.published.get();
+            long sequence = this.cursor.get();
+            long end = Math.min(last, sequence + RingBufferDataEvent.this.slotCount);
+            while (sequence < end) {
+                ++sequence;
+                try {
+                    this.deliver(
+                            (int) (sequence % RingBufferDataEvent.this.slotCount),
+                            sequence
+                    );
+                } catch (RuntimeException e) {
+                    Log.e(
+                            RingBufferDataEvent.LOG_TAG,
+                            RingBufferDataEvent.DELIVERY_FAILED_MSG,
+                            e
+                    );
+                }
+                this.cursor.set(sequence);
+            }
+            this.scheduled.set(false);
+            if (RingBufferDataEvent.this.published.get() > this.cursor.get()) {
+                this.schedule();
+            }
+        }
+
+        private void deliver(int slot, long sequence) {
+            RingBufferDataEvent ring = RingBufferDataEvent.this;
+            Object batch = ring.slotBatches[slot];
+            if (batch instanceof SensorSamples
+                    && this.listener instanceof SensorSampleListener) {
+                ((SensorSampleListener) this.listener).putSamples(
+                        (SensorSamples) batch);
+                return;
+            }
+            if (batch instanceof SensorFrames
+                    && this.listener instanceof SensorFrameListener) {
+                ((SensorFrameListener) this.listener).putFrames(
+                        (SensorFrames) batch);
+                return;
+            }
+            Object[] objects = ring.slotObjects[slot];
+            if (objects == null && batch != null) {
+                // The listener was added after the batch was published.
+                objects = ring.toObjects(batch);
+            }
+            if (this.listener instanceof TimestampedDataListener) {
+                TimestampedDataListener timestampedListener =
+                        (TimestampedDataListener) this.listener;
+                if (objects != null) {
+                    timestampedListener.putData(
+                            objects, ring.slotCaptureTimes[slot], sequence);
+                } else {
+                    timestampedListener.putBytes(
+                            ring.slotBytes[slot],
+                            0,
+                            ring.slotLengths[slot],
+                            ring.slotCaptureTimes[slot],
+                            sequence
+                    );
+                }
+            } else if (objects != null) {
+                this.listener.putData(objects);
+            } else if (this.listener instanceof ByteDataListener) {
+                ((ByteDataListener) this.listener).putBytes(
+                        ring.slotBytes[slot], 0, ring.slotLengths[slot]);
+            } else {
+                this.listener.putData(ArrayUtils.toObject(ArrayUtils.subarray(
+                        ring.slotBytes[slot], 0, ring.slotLengths[slot])));
+            }
+        }
+    }
+
+    public RingBufferDataEvent(Object sender) {
+        this(
+                sender,
+                RingBufferDataEvent.DEFAULT_SLOT_COUNT,
+                RingBufferDataEvent.DEFAULT_SLOT_SIZE
+        );
+    }
+
+    /**
+     * @param sender       The source of data.
+     * @param slotCount    The number of updates the ring can hold before the
+     *                     producer has to wait for the slowest listener.
+     * @param slotSize     The number of bytes per slot. Larger byte updates
+     *                     are split over consecutive slots.
+     */
+    public RingBufferDataEvent(Object sender, int slotCount, int slotSize) {
+        super(sender);
+        if (slotCount <= 0 || slotSize <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    RingBufferDataEvent.INVALID_SIZE_MSG_FORMAT,
+                    slotCount,
+                    slotSize
+            ));
+        }
+        this.slotCount = slotCount;
+        this.slotSize = slotSize;
+        this.slotBytes = new byte[slotCount][slotSize];
+        this.slotLengths = new int[slotCount];
+        this.slotCaptureTimes = new long[slotCount];
+        this.slotObjects = new Object[slotCount][];
+        this.slotBatches = new Object[slotCount];
+        this.published = new AtomicLong(-1);
+        this.nextSequence = 0;
+        this.consumers = RingBufferDataEvent.NO_CONSUMERS;
+        this.isStarted = false;
+        this.droppedUpdates = MetricsRegistry.getInstance().counter(
+                this.getMetricName("droppedUpdates"));
+        MetricsRegistry.getInstance().gauge(
+                this.getMetricName("backlog"),
+                new Gauge() {
+                    @Override
+                    public long getValue() {
+                        return RingBufferDataEvent.this.getBacklog();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Publish bytes to the listeners. The bytes are copied into the ring so
+     * the caller may reuse the array once this method returns. Must only be
+     * called from the producer thread.
+     */
+    @Override
+    public void notifyListeners(
+            byte[] data, int offset, int length, long captureTimeNanos) {
+        if (!this.isStarted) {
+            return;
+        }
+        this.countUpdate(length);
+        int end = offset + length;
+        while (offset < end) {
+            int slot = this.claim();
+            if (slot == RingBufferDataEvent.NO_SLOT) {
+                return;
+            }
+            int count = Math.min(end - offset, this.slotSize);
+            System.arraycopy(data, offset, this.slotBytes[slot], 0, count);
+            this.slotLengths[slot] = count;
+            this.slotCaptureTimes[slot] = captureTimeNanos;
+            this.slotObjects[slot] = null;
+            this.slotBatches[slot] = null;
+            offset += count;
+            this.publish();
+        }
+    }
+
+    /**
+     * Publish the bytes of a chunk to the listeners. They are copied into the
+     * ring and the chunk is released. Must only be called from the producer
+     * thread.
+     */
+    @Override
+    public void notifyListeners(Chunk chunk) {
+        try {
+            if (!this.isStarted) {
+                return;
+            }
+            this.countUpdate(chunk.getLength());
+            long captureTimeNanos = chunk.getCaptureTimeNanos() == 0
+                    ? System.nanoTime() : chunk.getCaptureTimeNanos();
+            int offset = 0;
+            while (offset < chunk.getLength()) {
+                int slot = this.claim();
+                if (slot == RingBufferDataEvent.NO_SLOT) {
+                    return;
+                }
+                int count = Math.min(chunk.getLength() - offset, this.slotSize);
+                chunk.getBytes(offset, this.slotBytes[slot], 0, count);
+                this.slotLengths[slot] = count;
+                this.slotCaptureTimes[slot] = captureTimeNanos;
+                this.slotObjects[slot] = null;
+                this.slotBatches[slot] = null;
+                offset += count;
+                this.publish();
+            }
+        } finally {
+            chunk.release();
+        }
+    }
+
+    /**
+     * Publish objects to the listeners. The array itself is stored in the
+     * ring, so it must not be modified afterwards. Must only be called from
+     * the producer thread.
+     */
+    @Override
+    public void notifyListeners(Object[] data, long captureTimeNanos) {
+        if (!this.isStarted || data.length == 0) {
+            return;
+        }
+        this.countUpdate(0);
+        int slot = this.claim();
+        if (slot == RingBufferDataEvent.NO_SLOT) {
+            return;
+        }
+        this.slotObjects[slot] = data;
+        this.slotBatches[slot] = null;
+        this.slotLengths[slot] = 0;
+        this.slotCaptureTimes[slot] = captureTimeNanos;
+        this.publish();
+    }
+
+    /**
+     * Publish sensor samples to the listeners. The batch itself is stored in
+     * the ring and passed as it is to the listeners implementing
+     * {@link com.sana.android.plugin.data.listener.SensorSampleListener}.
+     * The others receive the objects made by
+     * {@link #toObjects(com.sana.android.plugin.data.buffer.SensorSamples)},
+     * stamped with the timestamp of the first sample. Must only be called
+     * from the producer thread.
+     */
+    @Override
+    public void notifyListeners(SensorSamples samples) {
+        if (samples.getCount() > 0) {
+            this.notifyBatch(
+                    samples, SensorSampleListener.class, samples.getTimestamps()[0]);
+        }
+    }
+
+    /**
+     * Publish sensor frames to the listeners, see
+     * {@link #notifyListeners(com.sana.android.plugin.data.buffer.SensorSamples)}.
+     */
+    @Override
+    public void notifyListeners(SensorFrames frames) {
+        if (frames.getCount() > 0) {
+            this.notifyBatch(
+                    frames, SensorFrameListener.class, frames.getTimestamps()[0]);
+        }
+    }
+
+    /**
+     * Store a primitive batch in the next slot, with its objects if one of
+     * the listeners isn't of the given type.
+     */
+    private void notifyBatch(
+            Object batch,
+            Class<? extends DataListener> listenerType,
+            long captureTimeNanos
+    ) {
+        if (!this.isStarted) {
+            return;
+        }
+        this.countUpdate(0);
+        int slot = this.claim();
+        if (slot == RingBufferDataEvent.NO_SLOT) {
+            return;
+        }
+        Object[] objects = null;
+        Consumer[] snapshot = this.consumers;
+        for (int i = 0; i < snapshot.length && objects == null; ++i) {
+            if (!listenerType.isInstance(snapshot[i].listener)) {
+                objects = this.toObjects(batch);
+            }
+        }
+        this.slotObjects[slot] = objects;
+        this.slotBatches[slot] = batch;
+        this.slotLengths[slot] = 0;
+        this.slotCaptureTimes[slot] = captureTimeNanos;
+        this.publish();
+    }
+
+    private Object[] toObjects(Object batch) {
+        return batch instanceof SensorSamples
+                ? this.toObjects((SensorSamples) batch)
+                : this.toObjects((SensorFrames) batch);
+    }
+
+    /**
+     * Wait until the next slot is free, i.e. every listener has read the
+     * update it held, for at most {@link #PRODUCER_TIMEOUT} seconds and
+     * while the event is started.
+     *
+     * @return The index of the claimed slot, or {@link #NO_SLOT} if the
+     *         update must be dropped.
+     */
+    private int claim() {
+        long wrapPoint = this.nextSequence - this.slotCount;
+        if (wrapPoint >= 0 && this.getMinimumCursor() < wrapPoint) {
+            long deadline = System.nanoTime()
+                    + RingBufferDataEvent.PRODUCER_TIMEOUT_UNIT.toNanos(
+                            RingBufferDataEvent.PRODUCER_TIMEOUT);
+            while (this.getMinimumCursor() < wrapPoint) {
+                if (!this.isStarted) {
+                    this.droppedUpdates.increment();
+                    return RingBufferDataEvent.NO_SLOT;
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    Log.w(RingBufferDataEvent.LOG_TAG, RingBufferDataEvent.PRODUCER_TIMEOUT_MSG);
+                    this.droppedUpdates.increment();
+                    return RingBufferDataEvent.NO_SLOT;
+                }
+                LockSupport.parkNanos(RingBufferDataEvent.PRODUCER_WAIT_NANOS);
+            }
+        }
+        return (int) (this.nextSequence % this.slotCount);
+    }
+
+    private void publish() {
+        this.published.set(this.nextSequence);
+        ++this.nextSequence;
+        Consumer[] snapshot = this.consumers;
+        for (int i = 0; i < snapshot.length; ++i) {
+            snapshot[i].schedule();
+        }
+    }
+
+    private long getMinimumCursor() {
+        long minimum = Long.MAX_VALUE;
+        Consumer[] snapshot = this.consumers;
+        for (int i = 0; i < snapshot.length; ++i) {
+            minimum = Math.min(minimum, snapshot[i].cursor.get());
+        }
+        return minimum;
+    }
+
+    /**
+     * Add a listener to the event. It will receive the updates published
+     * after this method returns. Since the ring is shared by all the
+     * listeners, every listener holds back the producer when it falls
+     * behind, i.e. only {@link BackpressurePolicy#BLOCK} is supported.
+     */
+    @Override
+    public boolean addListener(DataListener listener, BackpressurePolicy policy) {
+        if (policy != BackpressurePolicy.BLOCK) {
+            throw new InvalidArgumentError(String.format(
+                    RingBufferDataEvent.UNSUPPORTED_POLICY_MSG_FORMAT, policy));
+        }
+        if (listener.getExpectedSender() != this.getSender()) {
+            return false;
+        }
+        synchronized (this) {
+            Consumer[] current = this.consumers;
+            for (Consumer consumer : current) {
+                if (consumer.listener.equals(listener)) {
+                    return true;
+                }
+            }
+            Consumer[] updated = new Consumer[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] =
+                    new Consumer(listener, this.published.get());
+            this.consumers = updated;
+        }
+        return true;
+    }
+
+    @Override
+    boolean addDemandDrivenListener(
+            DataListener listener, BackpressurePolicy policy) {
+        throw new InvalidInvocationError(RingBufferDataEvent.DEMAND_UNSUPPORTED_MSG);
+    }
+
+    @Override
+    public void removeListener(DataListener listener) {
+        synchronized (this) {
+            Consumer[] current = this.consumers;
+            for (int i = 0; i < current.length; ++i) {
+                if (current[i].listener.equals(listener)) {
+                    Consumer[] updated = new Consumer[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(
+                            current, i + 1, updated, i, updated.length - i);
+                    this.consumers = updated;
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void removeAllListeners() {
+        synchronized (this) {
+            this.consumers = RingBufferDataEvent.NO_CONSUMERS;
+        }
+    }
+
+    /**
+     * @return The number of published updates the slowest listener has yet
+     *         to read.
+     */
+    public long getBacklog() {
+        Consumer[] snapshot = this.consumers;
+        return snapshot.length == 0
+                ? 0 : this.published.get() - this.getMinimumCursor();
+    }
+
+    /**
+     * @return The number of updates, or parts of byte updates, dropped
+     *         because the slowest listener didn't free a slot in time.
+     */
+    public long getDroppedUpdateCount() {
+        return this.droppedUpdates.getValue();
+    }
+
+    @Override
+    public void startEvent() {
+        this.isStarted = true;
+    }
+
+    /**
+     * Stop accepting updates and wait for the listeners to read the ones
+     * already published.
+     */
+    @Override
+    public void stopEvent() throws InterruptedException {
+        this.isStarted = false;
+        long deadline = System.nanoTime() + RingBufferDataEvent.DRAIN_TIMEOUT_UNIT
+                .toNanos(RingBufferDataEvent.DRAIN_TIMEOUT);
+        while (this.getBacklog() > 0) {
+            if (System.nanoTime() > deadline) {
+                Log.w(RingBufferDataEvent.LOG_TAG, RingBufferDataEvent.DRAIN_TIMEOUT_MSG);
+                break;
+            }
+            Thread.sleep(1);
+        }
+    }
+}
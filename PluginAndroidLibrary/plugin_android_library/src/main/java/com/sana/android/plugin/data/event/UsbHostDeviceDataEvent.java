@@ -5,11 +5,8 @@ import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
 import android.util.Log;
 
-import org.apache.commons.lang3.ArrayUtils;
-
-import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import com.sana.android.plugin.application.ExecutionContext;
+import com.sana.android.plugin.data.buffer.Chunk;
 
 /**
  * Created by quang on 10/7/14.
@@ -17,15 +14,14 @@ import java.util.concurrent.Executors;
 public class UsbHostDeviceDataEvent extends BaseDataEvent implements Runnable {
 
     private static final String LOG_TAG = "UsbHostDeviceDataEvent";
-    private static final int BUFFER_SIZE = 1000000;
+    private static final int TRANSFER_BUFFER_SIZE = 1000000;
 
-    private ExecutorService notificationMasterThread;
     private UsbDeviceConnection connection;
     private UsbEndpoint endpoint;
-    private byte[] buffer;
+    // The bytes that were left over when the connection ended.
+    private volatile byte[] buffer;
     private int bufferSize;
     private int timeout;
-    private int pointer;
 
     public UsbHostDeviceDataEvent(
             Object sender,
@@ -35,55 +31,84 @@ public class UsbHostDeviceDataEvent extends BaseDataEvent implements Runnable {
             int timeout
     ) {
         super(sender);
-        this.notificationMasterThread = Executors.newSingleThreadExecutor();
         this.connection = connection;
         this.endpoint = endpoint;
         this.bufferSize = bufferSize;
         this.timeout = timeout;
     }
 
+    /**
+     * Start the transfers on a thread of the shared
+     * {@link com.sana.android.plugin.application.ExecutionContext}.
+     */
     @Override
     public void startEvent() {
-        notificationMasterThread.submit(this);
+        ExecutionContext.getInstance().submit(this);
     }
 
+    /**
+     * The transfers end with the connection.
+     */
     @Override
     public void stopEvent() throws InterruptedException {
-        notificationMasterThread.shutdown();
     }
 
-    public void dispose() throws InterruptedException {
-        stopEvent();
+    @Override
+    public void dispose() {
         buffer = null;
+        super.dispose();
     }
 
+    /**
+     * @return The bytes of the last, incomplete buffer once the connection
+     *         has ended. They have been passed to the listeners as well.
+     */
     public byte[] getBuffer() {
-        buffer = ArrayUtils.subarray(buffer, 0, pointer);
         return buffer;
     }
 
+    /**
+     * Transfers are made into one temporary array that is reused for the
+     * whole run. It is too large to be worth keeping in a shared pool once
+     * the run ends. The bytes are then copied into pooled chunks of the
+     * event's buffer size, which are passed to the listeners as soon as they
+     * are full.
+     */
     @Override
     public void run() {
-        buffer = new byte[bufferSize];
-        pointer = 0;
+        byte[] temp = new byte[UsbHostDeviceDataEvent.TRANSFER_BUFFER_SIZE];
+        Chunk chunk = this.getChunkPool(bufferSize).lease();
+        int pointer = 0;
 
         Log.d(UsbHostDeviceDataEvent.LOG_TAG, "Listening for endpoint = " + endpoint + " at connection = " + connection);
 
         while (true) {
-            byte[] temp = new byte[BUFFER_SIZE];
-            final int numBytesRead = connection.bulkTransfer(endpoint, temp, temp.length, timeout);
+            final int numBytesRead = connection.bulkTransfer(
+                    endpoint, temp, UsbHostDeviceDataEvent.TRANSFER_BUFFER_SIZE, timeout);
             if (numBytesRead > 0) {
-                Log.d(UsbHostDeviceDataEvent.LOG_TAG, "Number of bytes read: " + numBytesRead);
-                for (int i = 0; i < numBytesRead && pointer < bufferSize; i++, pointer++)
-                    buffer[pointer] = temp[i];
-                if (pointer >= bufferSize) {
-                    notifyListeners(ArrayUtils.toObject(buffer));
-                    pointer = 0;
+                long readNanos = System.nanoTime();
+                int offset = 0;
+                while (offset < numBytesRead) {
+                    if (pointer == 0) {
+                        chunk.setCaptureTimeNanos(readNanos);
+                    }
+                    int count = Math.min(numBytesRead - offset, bufferSize - pointer);
+                    System.arraycopy(temp, offset, chunk.array(), pointer, count);
+                    offset += count;
+                    pointer += count;
+                    if (pointer >= bufferSize) {
+                        chunk.setLength(pointer);
+                        notifyListeners(chunk);
+                        chunk = this.getChunkPool(bufferSize).lease();
+                        pointer = 0;
+                    }
                 }
             } else if (numBytesRead < 0) {
                 Log.d(UsbHostDeviceDataEvent.LOG_TAG, "No more data to be read from the connection");
-                buffer = ArrayUtils.subarray(buffer, 0, pointer);
-                notifyListeners(ArrayUtils.toObject(buffer));
+                buffer = new byte[pointer];
+                System.arraycopy(chunk.array(), 0, buffer, 0, pointer);
+                chunk.setLength(pointer);
+                notifyListeners(chunk);
                 break;
             }
         }
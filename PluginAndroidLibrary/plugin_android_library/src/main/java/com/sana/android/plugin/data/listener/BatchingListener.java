@@ -0,0 +1,519 @@
+package com.sana.android.plugin.data.listener;
+
+import android.util.Log;
+
+import com.sana.android.plugin.application.ExecutionContext;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.metrics.Counter;
+import com.sana.android.plugin.metrics.Gauge;
+import com.sana.android.plugin.metrics.Histogram;
+import com.sana.android.plugin.metrics.MetricsRegistry;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A listener that processes the incoming data in batches of at most
+ * <code>maxCount</code> elements, as soon as either <code>maxCount</code>
+ * elements are waiting or <code>maxDelay</code> has passed since the oldest
+ * of them was received, whichever comes first. When the traffic is light
+ * every update is processed after at most <code>maxDelay</code>; when it is
+ * heavy the batches are full and processed as soon as they are. Unlike
+ * {@link TimedListener}, nothing is processed while nothing is received.
+ *
+ * Objects and bytes are batched separately, in two buffers each: one being
+ * filled and one handed to the background thread, a thread of the shared
+ * {@link com.sana.android.plugin.application.ExecutionContext}. When a
+ * buffer is full and the background thread is still busy with the previous
+ * batch, receiving blocks and the event's
+ * {@link com.sana.android.plugin.data.event.BackpressurePolicy} for this
+ * listener takes over. What is left is processed when the listener stops,
+ * and an update being received when it stops is cut short.
+ *
+ * The listener reports the number of elements waiting, the number of
+ * batches flushed because they were full and because they were due, how long
+ * the oldest element of every batch waited and the time spent processing
+ * the batches to the {@link com.sana.android.plugin.metrics.MetricsRegistry}
+ * until it stops listening.
+ */
+public abstract class BatchingListener implements Runnable, ByteDataListener {
+    private final static String LOG_TAG = "BatchingListener";
+    private final static String INVALID_BATCH_MSG_FORMAT =
+            "Batch size and delay must be positive. Received %d and %d.";
+    private final static String SHUTDOWN_TIMEOUT_MSG =
+            "Timeout happened while waiting for the last batches.";
+    private final static String SHUTDOWN_INTERRUPTED_MSG =
+            "Batching listener shutdown interrupted.";
+    private final static String FATAL_INTERRUPTION_MSG_FORMAT =
+            "Unable to carry out critical operation - %s";
+    private final static String PUT_BYTE_OPERATION_NAME =
+            "register incoming data.";
+    private final static String PROCESSING_FAILED_MSG =
+            "The listener failed to process a batch.";
+    private final static String FLUSH_TASK_GONE_MSG =
+            "Batch discarded, the background thread stopped.";
+    private final static String METRICS_KIND = "listener.BatchingListener";
+
+    private final static int SHUTDOWN_TIMEOUT = 5;
+    private final static TimeUnit SHUTDOWN_TIMEOUT_UNIT = TimeUnit.SECONDS;
+    private final static long NANOS_PER_MILLI = 1000000;
+    // How often a receiver waiting for the background thread checks that
+    // it still runs.
+    private final static long FLUSH_CHECK_MILLIS = 100;
+
+    private final int maxCount;
+    private final long maxDelayNanos;
+    // The buffers being filled and the ones handed to the background
+    // thread, all guarded by this. A handed buffer is busy while its count
+    // is positive, until the background thread is done with it.
+    private Object[] objectBuffer;
+    private int objectCount;
+    private long firstObjectNanos;
+    private Object[] readyObjects;
+    private int readyObjectCount;
+    private long readyObjectsNanos;
+    private byte[] byteBuffer;
+    private int byteCount;
+    private long firstByteNanos;
+    private byte[] readyBytes;
+    private int readyByteCount;
+    private long readyBytesNanos;
+    private boolean isListening;
+    // Whether a background thread runs or was submitted and hasn't decided
+    // to end yet, guarded by this.
+    private boolean isFlushing;
+    private Future<?> flushTask;
+    private Object sender;
+    private String metricsScope;
+    private Counter fullBatches;
+    private Counter dueBatches;
+    private Histogram processTime;
+    private Histogram batchLatency;
+
+    /**
+     * @param maxCount    The maximum number of objects, and separately of
+     *                    bytes, in a batch.
+     * @param maxDelay    How long the oldest element of a batch may wait
+     *                    before the batch is processed.
+     * @param unit        The unit of the delay.
+     */
+    public BatchingListener(
+            Object sender, int maxCount, long maxDelay, TimeUnit unit) {
+        if (maxCount <= 0 || maxDelay <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    BatchingListener.INVALID_BATCH_MSG_FORMAT,
+                    maxCount, maxDelay));
+        }
+        this.sender = sender;
+        this.maxCount = maxCount;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.objectBuffer = new Object[maxCount];
+        this.readyObjects = new Object[maxCount];
+        this.byteBuffer = new byte[maxCount];
+        this.readyBytes = new byte[maxCount];
+        this.isListening = false;
+        this.metricsScope = MetricsRegistry.getInstance().createScope(
+                BatchingListener.METRICS_KIND);
+        this.fullBatches = new Counter();
+        this.dueBatches = new Counter();
+        this.processTime = new Histogram();
+        this.batchLatency = new Histogram();
+    }
+
+    /**
+     * Register the metrics, kept across restarts, until the listener stops.
+     */
+    private void registerMetrics() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "fullBatches"),
+                this.fullBatches);
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "dueBatches"),
+                this.dueBatches);
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "processNanos"),
+                this.processTime);
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "batchLatencyNanos"),
+                this.batchLatency);
+        registry.gauge(
+                MetricsRegistry.getName(this.metricsScope, "pendingCount"),
+                new Gauge() {
+                    @Override
+                    public long getValue() {
+                        return BatchingListener.this.objectCount
+                                + BatchingListener.this.byteCount;
+                    }
+                }
+        );
+    }
+
+    /**
+     * @return The scope under which the metrics of this listener are
+     *         registered in the {@link MetricsRegistry}.
+     */
+    public String getMetricsScope() {
+        return this.metricsScope;
+    }
+
+    public void setExpectedSender(Object sender) {
+        this.sender = sender;
+    }
+
+    public Object getExpectedSender() {
+        return this.sender;
+    }
+
+    @Override
+    public synchronized void putData(Object[] data) {
+        if (!this.isListening) {
+            return;
+        }
+        int offset = 0;
+        // The listener may stop while waiting for the background thread,
+        // which then leaves the rest of the update out.
+        while (offset < data.length && this.isListening) {
+            if (this.objectCount == 0) {
+                this.firstObjectNanos = System.nanoTime();
+                // Let the background thread wait for it to be due.
+                this.notifyAll();
+            }
+            int count = Math.min(
+                    data.length - offset, this.maxCount - this.objectCount);
+            System.arraycopy(data, offset, this.objectBuffer, this.objectCount, count);
+            this.objectCount += count;
+            offset += count;
+            if (this.objectCount == this.maxCount) {
+                if (!this.awaitReadyObjects()) {
+                    Arrays.fill(this.objectBuffer, 0, this.objectCount, null);
+                    this.objectCount = 0;
+                    return;
+                }
+                // The background thread may have handed the batch off
+                // itself while it was due, or on stopping.
+                if (this.objectCount == this.maxCount && this.isListening) {
+                    this.handOffObjects();
+                    this.fullBatches.increment();
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void putBytes(byte[] data, int offset, int length) {
+        if (!this.isListening) {
+            return;
+        }
+        int end = offset + length;
+        while (offset < end && this.isListening) {
+            if (this.byteCount == 0) {
+                this.firstByteNanos = System.nanoTime();
+                // Let the background thread wait for it to be due.
+                this.notifyAll();
+            }
+            int count = Math.min(end - offset, this.maxCount - this.byteCount);
+            System.arraycopy(data, offset, this.byteBuffer, this.byteCount, count);
+            this.byteCount += count;
+            offset += count;
+            if (this.byteCount == this.maxCount) {
+                if (!this.awaitReadyBytes()) {
+                    this.byteCount = 0;
+                    return;
+                }
+                if (this.byteCount == this.maxCount && this.isListening) {
+                    this.handOffBytes();
+                    this.fullBatches.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for the background thread to be done with the previous batch of
+     * objects, or for the listener to stop. Must hold the lock.
+     *
+     * @return False if the background thread ended instead.
+     */
+    private boolean awaitReadyObjects() {
+        while (this.readyObjectCount > 0 && this.isListening) {
+            if (!this.awaitBackgroundThread()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean awaitReadyBytes() {
+        while (this.readyByteCount > 0 && this.isListening) {
+            if (!this.awaitBackgroundThread()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return False if the background thread ended.
+     */
+    private boolean awaitBackgroundThread() {
+        if (this.flushTask.isDone()) {
+            Log.w(BatchingListener.LOG_TAG, BatchingListener.FLUSH_TASK_GONE_MSG);
+            return false;
+        }
+        try {
+            this.wait(BatchingListener.FLUSH_CHECK_MILLIS);
+            return true;
+        } catch (InterruptedException e) {
+            // This is designed to wait indefinitely before the new data
+            // are registered. If it is interrupted, we can assume
+            // that something really bad happened, e.g. not enough memory.
+            throw new Error(String.format(
+                    BatchingListener.FATAL_INTERRUPTION_MSG_FORMAT,
+                    BatchingListener.PUT_BYTE_OPERATION_NAME
+            ));
+        }
+    }
+
+    /**
+     * Swap the objects being filled with the free buffer and wake the
+     * background thread up. Must hold the lock, with the free buffer not
+     * busy.
+     */
+    private void handOffObjects() {
+        Object[] full = this.objectBuffer;
+        this.objectBuffer = this.readyObjects;
+        this.readyObjects = full;
+        this.readyObjectCount = this.objectCount;
+        this.readyObjectsNanos = this.firstObjectNanos;
+        this.objectCount = 0;
+        this.notifyAll();
+    }
+
+    private void handOffBytes() {
+        byte[] full = this.byteBuffer;
+        this.byteBuffer = this.readyBytes;
+        this.readyBytes = full;
+        this.readyByteCount = this.byteCount;
+        this.readyBytesNanos = this.firstByteNanos;
+        this.byteCount = 0;
+        this.notifyAll();
+    }
+
+    /**
+     * Start processing the batches on a thread of the shared
+     * {@link com.sana.android.plugin.application.ExecutionContext}. Does
+     * nothing if the listener is already listening. If the background
+     * thread of the previous run is still processing its last batches, it
+     * goes on with the new ones.
+     */
+    @Override
+    public synchronized void startListening() {
+        if (this.isListening) {
+            return;
+        }
+        this.registerMetrics();
+        this.isListening = true;
+        if (!this.isFlushing) {
+            this.isFlushing = true;
+            this.flushTask = ExecutionContext.getInstance().submit(this);
+        }
+    }
+
+    @Override
+    public void stopListening() {
+        this.stopListening(
+                BatchingListener.SHUTDOWN_TIMEOUT,
+                BatchingListener.SHUTDOWN_TIMEOUT_UNIT
+        );
+    }
+
+    /**
+     * Stop receiving updates and wait for the background thread to process
+     * the remaining elements, unless it times out.
+     */
+    @Override
+    public void stopListening(long timeout, TimeUnit unit) {
+        synchronized (this) {
+            this.isListening = false;
+            this.notifyAll();
+        }
+        try {
+            if (!ExecutionContext.await(this.flushTask, timeout, unit)) {
+                Log.d(
+                        BatchingListener.LOG_TAG,
+                        BatchingListener.SHUTDOWN_TIMEOUT_MSG
+                );
+            }
+        } catch (InterruptedException e) {
+            Log.d(
+                    BatchingListener.LOG_TAG,
+                    BatchingListener.SHUTDOWN_INTERRUPTED_MSG,
+                    e
+            );
+        }
+        MetricsRegistry.getInstance().unregister(this.metricsScope);
+    }
+
+    /**
+     * The procedure of the background thread. It waits for a full batch or
+     * for the oldest pending element to be due, processes the batch and
+     * starts over until the listener stops and nothing is left.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            Object[] objects;
+            int objectCount;
+            long objectsNanos;
+            byte[] bytes;
+            int byteCount;
+            long bytesNanos;
+            synchronized (this) {
+                try {
+                    if (!this.awaitBatch()) {
+                        this.isFlushing = false;
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.isFlushing = false;
+                    return;
+                }
+                objects = this.readyObjects;
+                objectCount = this.readyObjectCount;
+                objectsNanos = this.readyObjectsNanos;
+                bytes = this.readyBytes;
+                byteCount = this.readyByteCount;
+                bytesNanos = this.readyBytesNanos;
+            }
+            try {
+                if (objectCount > 0) {
+                    this.processObjectBatch(objects, objectCount, objectsNanos);
+                }
+                if (byteCount > 0) {
+                    this.processByteBatch(bytes, byteCount, bytesNanos);
+                }
+            } finally {
+                synchronized (this) {
+                    this.readyObjectCount = 0;
+                    this.readyByteCount = 0;
+                    this.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until a batch is ready, handing off the buffers being filled
+     * once their oldest element is due or the listener stopped. Must hold
+     * the lock.
+     *
+     * @return False if the listener stopped and nothing is left.
+     */
+    private boolean awaitBatch() throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            if (this.objectCount > 0 && this.readyObjectCount == 0
+                    && (!this.isListening
+                    || now - this.firstObjectNanos >= this.maxDelayNanos)) {
+                this.handOffObjects();
+                this.dueBatches.increment();
+            }
+            if (this.byteCount > 0 && this.readyByteCount == 0
+                    && (!this.isListening
+                    || now - this.firstByteNanos >= this.maxDelayNanos)) {
+                this.handOffBytes();
+                this.dueBatches.increment();
+            }
+            if (this.readyObjectCount > 0 || this.readyByteCount > 0) {
+                return true;
+            }
+            if (!this.isListening) {
+                return false;
+            }
+            long waitNanos = Long.MAX_VALUE;
+            if (this.objectCount > 0) {
+                waitNanos = this.firstObjectNanos + this.maxDelayNanos - now;
+            }
+            if (this.byteCount > 0) {
+                waitNanos = Math.min(
+                        waitNanos, this.firstByteNanos + this.maxDelayNanos - now);
+            }
+            if (waitNanos == Long.MAX_VALUE) {
+                this.wait();
+            } else {
+                // A positive number of nanoseconds never waits indefinitely.
+                this.wait(
+                        waitNanos / BatchingListener.NANOS_PER_MILLI,
+                        (int) (waitNanos % BatchingListener.NANOS_PER_MILLI)
+                );
+            }
+        }
+    }
+
+    private void processObjectBatch(Object[] objects, int count, long firstNanos) {
+        long startNanos = System.nanoTime();
+        this.batchLatency.record(startNanos - firstNanos);
+        try {
+            if (count == this.maxCount) {
+                this.processData(this.sender, objects);
+            } else {
+                Object[] batch = new Object[count];
+                System.arraycopy(objects, 0, batch, 0, count);
+                this.processData(this.sender, batch);
+            }
+        } catch (Throwable e) {
+            // Skip the batch rather than end the background thread.
+            Log.e(BatchingListener.LOG_TAG, BatchingListener.PROCESSING_FAILED_MSG, e);
+        }
+        Arrays.fill(objects, 0, count, null);
+        this.processTime.record(System.nanoTime() - startNanos);
+    }
+
+    private void processByteBatch(byte[] bytes, int count, long firstNanos) {
+        long startNanos = System.nanoTime();
+        this.batchLatency.record(startNanos - firstNanos);
+        try {
+            this.processBytes(this.sender, bytes, 0, count);
+        } catch (Throwable e) {
+            Log.e(BatchingListener.LOG_TAG, BatchingListener.PROCESSING_FAILED_MSG, e);
+        }
+        this.processTime.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Called with each batch of bytes received through
+     * {@link #putBytes(byte[], int, int)}. The default implementation boxes
+     * the bytes and passes them to {@link #processData(Object, Object[])}.
+     * Override it to work on the primitive bytes directly. The array is
+     * reused once this method returns, so copy the bytes you need to keep.
+     *
+     * @param sender    The source of the data.
+     * @param data      The array holding the batch.
+     * @param offset    The position of the first byte of the batch.
+     * @param length    The number of bytes in the batch, between 1 and the
+     *                  maximum batch size.
+     */
+    protected void processBytes(
+            Object sender, byte[] data, int offset, int length) {
+        this.processData(
+                sender, ArrayUtils.toObject(
+                        ArrayUtils.subarray(data, offset, offset + length)));
+    }
+
+    /**
+     * Called with each batch of objects received through
+     * {@link #putData(Object[])}, never with an empty one. The array is
+     * reused once this method returns, so copy the elements you need to
+     * keep.
+     *
+     * @param data  The batch. Its length equals the maximum batch size
+     *              unless the batch was due before it was full.
+     */
+    @Override
+    public abstract void processData(Object sender, Object[] data);
+}
@@ -0,0 +1,22 @@
+package com.sana.android.plugin.data.listener;
+
+/**
+ * A {@link com.sana.android.plugin.data.listener.DataListener} that can take
+ * raw bytes without having them boxed into a <code>Byte[]</code> first. Byte
+ * oriented events such as
+ * {@link com.sana.android.plugin.data.event.BytePollingDataEvent} check for
+ * this interface and call {@link #putBytes(byte[], int, int)} instead of
+ * {@link #putData(Object[])} whenever it is implemented.
+ */
+public interface ByteDataListener extends DataListener {
+    /**
+     * Called by the data event to put bytes into the listener. The array is
+     * shared with the other listeners of the event and may be reused by the
+     * event after this method returns. Copy the bytes you need to keep.
+     *
+     * @param data      The array holding the update.
+     * @param offset    The position of the first byte of the update.
+     * @param length    The number of bytes in the update.
+     */
+    public void putBytes(byte[] data, int offset, int length);
+}
@@ -2,9 +2,20 @@ package com.sana.android.plugin.data.listener;
 
 import android.util.Log;
 
+import com.sana.android.plugin.application.ExecutionContext;
+import com.sana.android.plugin.data.buffer.Chunk;
+import com.sana.android.plugin.data.buffer.ChunkPool;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.metrics.Counter;
+import com.sana.android.plugin.metrics.Gauge;
+import com.sana.android.plugin.metrics.Histogram;
+import com.sana.android.plugin.metrics.MetricsRegistry;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.util.Arrays;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -14,11 +25,28 @@ import java.util.concurrent.TimeUnit;
  * coming in. The listener has a fixed sized buffer that holds the incoming
  * data. When the buffer is full, the listener will process the data in
  * the buffer and clear it, allowing more data to be filled into the buffer.
+ * Bytes received through {@link #putBytes(byte[], int, int)} are kept in a
+ * separate primitive buffer of the same size and handed to
+ * {@link #processBytes(Object, byte[], int, int)}.
+ *
+ * Incoming updates are copied into the current chunk with
+ * {@link System#arraycopy(Object, int, Object, int, int)}. Full chunks are
+ * queued for the background thread. Byte chunks are recycled once they
+ * have been processed. Every object chunk is a new array that
+ * {@link #processData(Object, Object[])} may keep, unless a subclass opts
+ * into recycling them with {@link #reusesObjectChunks()}, so a listener
+ * that keeps up doesn't allocate.
+ *
+ * The listener reports the number of full chunks waiting for the
+ * background thread, the number of chunks processed and the time spent
+ * processing each of them to the
+ * {@link com.sana.android.plugin.metrics.MetricsRegistry} while it is
+ * listening. The metrics are kept across restarts.
  *
  * @author Han Lin
  */
 public abstract class DataChunkListener
-        implements DataListener, Runnable {
+        implements ByteDataListener, Runnable {
     private final static String LOG_TAG = "DataChunkListener";
     private final static String RESOURCE_LEAK_WARNING_MSG =
             "Threads not properly shutdown. Potential resource leak may be caused.";
@@ -28,26 +56,110 @@ public abstract class DataChunkListener
         "Unable to carry out critical operation - %s";
     private final static String PUT_BYTE_OPERATION_NAME =
         "register incoming data.";
+    private final static String PROCESSING_FAILED_MSG =
+        "The listener failed to process a chunk.";
+    private final static String CHUNK_DISCARDED_MSG =
+        "Chunk discarded, the background thread is gone or too slow.";
+    private final static String METRICS_KIND = "listener.DataChunkListener";
+    private final static String INVALID_BUFFER_SIZE_MSG_FORMAT =
+        "Buffer size and pending capacity must be positive. Received %d and %d.";
+    // Queued after the last chunk when the listener stops.
+    private final static Object END_OF_DATA = new Object();
 
+    // How often a receiver waiting for room checks that the background
+    // thread still runs.
+    private final static long RECEIVER_CHECK_MILLIS = 100;
+    private final static long NO_DEADLINE = Long.MIN_VALUE;
     private final static int SHUTDOWN_TIMEOUT = 5;
+    public final static int DEFAULT_PENDING_CAPACITY = 64;
     private final static TimeUnit SHUTDOWN_TIMEOUT_UNIT = TimeUnit.SECONDS;
 
-    private ArrayBlockingQueue<Object> buffer;
-    private LinkedBlockingQueue<DataAppender> appendOperations;
-    private boolean isListening;
-    private ExecutorService receiverThread;
+    private final int bufferSize;
+    private final ChunkPool chunkPool;
+    // The chunks being filled, guarded by this.
+    private Object[] objectChunk;
+    private int objectCount;
+    private Chunk byteChunk;
+    // Full Object[] and Chunk instances in the order they were filled.
+    private LinkedBlockingQueue<Object> fullChunks;
+    // Processed Object[] chunks ready to be filled again.
+    private ArrayBlockingQueue<Object[]> spareObjectChunks;
+    private volatile boolean isListening;
+    private Future<?> receiverTask;
     private Object sender;
+    private String metricsScope;
+    private Counter chunksOut;
+    private Histogram processTime;
 
     /**
      * @param bufferSize   The size of the temporary buffer. This is also
      *                     the interval of update.
      */
     public DataChunkListener(Object sender, int bufferSize) {
+        this(sender, bufferSize, DataChunkListener.DEFAULT_PENDING_CAPACITY);
+    }
+
+    /**
+     * @param bufferSize         The size of the temporary buffer. This is
+     *                           also the interval of update.
+     * @param pendingCapacity    The maximum number of full chunks waiting
+     *                           for the background thread. When it is
+     *                           reached, receiving blocks and the event's
+     *                           {@link com.sana.android.plugin.data.event.BackpressurePolicy}
+     *                           for this listener takes over.
+     */
+    public DataChunkListener(Object sender, int bufferSize, int pendingCapacity) {
+        if (bufferSize <= 0 || pendingCapacity <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    DataChunkListener.INVALID_BUFFER_SIZE_MSG_FORMAT,
+                    bufferSize,
+                    pendingCapacity
+            ));
+        }
         this.sender = sender;
-        this.buffer = new ArrayBlockingQueue<Object>(bufferSize, true);
-        this.appendOperations = new LinkedBlockingQueue<DataAppender>();
+        this.bufferSize = bufferSize;
+        this.chunkPool = ChunkPool.getShared(bufferSize);
+        this.objectChunk = new Object[bufferSize];
+        this.objectCount = 0;
+        this.byteChunk = null;
+        this.fullChunks = new LinkedBlockingQueue<Object>(pendingCapacity);
+        // Every chunk is either queued, being processed or being filled.
+        this.spareObjectChunks = new ArrayBlockingQueue<Object[]>(pendingCapacity + 2);
         this.isListening = false;
-        this.receiverThread = Executors.newSingleThreadExecutor();
+        this.metricsScope = MetricsRegistry.getInstance().createScope(
+                DataChunkListener.METRICS_KIND);
+        this.chunksOut = new Counter();
+        this.processTime = new Histogram();
+    }
+
+    /**
+     * Register the metrics, kept across restarts, until the listener stops.
+     */
+    private void registerMetrics() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "chunksOut"),
+                this.chunksOut);
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "processNanos"),
+                this.processTime);
+        registry.gauge(
+                MetricsRegistry.getName(this.metricsScope, "queueDepth"),
+                new Gauge() {
+                    @Override
+                    public long getValue() {
+                        return DataChunkListener.this.fullChunks.size();
+                    }
+                }
+        );
+    }
+
+    /**
+     * @return The scope under which the metrics of this listener are
+     *         registered in the {@link MetricsRegistry}.
+     */
+    public String getMetricsScope() {
+        return this.metricsScope;
     }
 
     public void setExpectedSender(Object sender) {
@@ -60,33 +172,90 @@ public abstract class DataChunkListener
 
     @Override
     public synchronized void putData(Object[] data) {
-        Log.d(
-                DataChunkListener.LOG_TAG,
-                "Received data of length " + data.length
-        );
-        if (this.isListening) {
-            try {
-                this.appendOperations.put(new DataAppender(this.buffer, data));
-                Log.d(
-                        DataChunkListener.LOG_TAG,
-                        "DataAppender created for " + data
-                );
-            } catch (InterruptedException e) {
-                // This is designed to wait indefinitely before the new data
-                // are registered. If it is interrupted, we can assume
-                // that something really bad happened, e.g. not enough memory.
-                throw new Error(String.format(
-                    DataChunkListener.FATAL_INTERRUPTION_MSG_FORMAT,
-                    DataChunkListener.PUT_BYTE_OPERATION_NAME
-                ));
+        if (!this.isListening) {
+            return;
+        }
+        int offset = 0;
+        while (offset < data.length) {
+            int count = Math.min(
+                    data.length - offset, this.bufferSize - this.objectCount);
+            System.arraycopy(data, offset, this.objectChunk, this.objectCount, count);
+            this.objectCount += count;
+            offset += count;
+            if (this.objectCount == this.bufferSize) {
+                this.putFullChunk(this.objectChunk, DataChunkListener.NO_DEADLINE);
+                Object[] spare = this.spareObjectChunks.poll();
+                this.objectChunk = spare == null ? new Object[this.bufferSize] : spare;
+                this.objectCount = 0;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void putBytes(byte[] data, int offset, int length) {
+        if (!this.isListening) {
+            return;
+        }
+        int end = offset + length;
+        while (offset < end) {
+            if (this.byteChunk == null) {
+                this.byteChunk = this.chunkPool.lease();
+            }
+            int pointer = this.byteChunk.getLength();
+            int count = Math.min(end - offset, this.bufferSize - pointer);
+            System.arraycopy(data, offset, this.byteChunk.array(), pointer, count);
+            this.byteChunk.setLength(pointer + count);
+            offset += count;
+            if (this.byteChunk.getLength() == this.bufferSize) {
+                this.putFullChunk(this.byteChunk, DataChunkListener.NO_DEADLINE);
+                this.byteChunk = null;
+            }
+        }
+    }
+
+    /**
+     * Queue a chunk for the background thread, waiting for room. The chunk
+     * is discarded if the background thread ended or the deadline passed.
+     *
+     * @param deadlineNanos    The {@link System#nanoTime()} to give up at,
+     *                         or {@link #NO_DEADLINE}.
+     * @return False if the chunk was discarded.
+     */
+    private boolean putFullChunk(Object chunk, long deadlineNanos) {
+        try {
+            while (!this.fullChunks.offer(
+                    chunk, DataChunkListener.RECEIVER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (this.receiverTask.isDone()
+                        || (deadlineNanos != DataChunkListener.NO_DEADLINE
+                        && System.nanoTime() - deadlineNanos >= 0)) {
+                    Log.w(DataChunkListener.LOG_TAG, DataChunkListener.CHUNK_DISCARDED_MSG);
+                    if (chunk instanceof Chunk) {
+                        ((Chunk) chunk).release();
+                    }
+                    return false;
+                }
             }
+            return true;
+        } catch (InterruptedException e) {
+            // This is designed to wait indefinitely before the new data
+            // are registered. If it is interrupted, we can assume
+            // that something really bad happened, e.g. not enough memory.
+            throw new Error(String.format(
+                DataChunkListener.FATAL_INTERRUPTION_MSG_FORMAT,
+                DataChunkListener.PUT_BYTE_OPERATION_NAME
+            ));
         }
     }
 
+    /**
+     * Start processing the chunks on a thread of the shared
+     * {@link com.sana.android.plugin.application.ExecutionContext}.
+     */
     @Override
     public void startListening() {
+        this.registerMetrics();
         this.isListening = true;
-        this.receiverThread.submit(this);
+        this.receiverTask = ExecutionContext.getInstance().submit(this);
     }
 
     @Override
@@ -97,16 +266,33 @@ public abstract class DataChunkListener
         );
     }
 
+    /**
+     * Stop receiving updates. The partially filled chunks are queued after
+     * the full ones, so the background thread processes everything received
+     * before this method returns, unless it times out. If the remaining
+     * chunks can't even be queued before the timeout, they are discarded
+     * and the background thread is interrupted.
+     */
     @Override
     public void stopListening(long timeout, TimeUnit unit) {
         Log.d(
                 DataChunkListener.LOG_TAG,
                 "Stopping listener - " + this
         );
-        this.isListening = false;
-        this.receiverThread.shutdown();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            if (this.isListening) {
+                this.isListening = false;
+                if (!this.queueRemainingData(deadline)) {
+                    this.receiverTask.cancel(true);
+                }
+            }
+        }
         try {
-            if (!this.receiverThread.awaitTermination(timeout,unit)) {
+            if (!ExecutionContext.await(
+                    this.receiverTask,
+                    Math.max(0, deadline - System.nanoTime()),
+                    TimeUnit.NANOSECONDS)) {
                 Log.d(
                         DataChunkListener.LOG_TAG,
                         DataChunkListener.RESOURCE_LEAK_WARNING_MSG
@@ -119,54 +305,132 @@ public abstract class DataChunkListener
                     e
             );
         }
-        this.processRemainingData();
+        MetricsRegistry.getInstance().unregister(this.metricsScope);
+    }
+
+    /**
+     * Queue the partially filled chunks followed by the end of the data.
+     * The remaining objects are copied so that the chunk handed to
+     * {@link #processData(Object, Object[])} holds exactly them.
+     *
+     * @return False if the end of the data couldn't be queued.
+     */
+    private boolean queueRemainingData(long deadlineNanos) {
+        boolean isQueued = true;
+        if (this.objectCount > 0) {
+            Object[] remaining = new Object[this.objectCount];
+            System.arraycopy(this.objectChunk, 0, remaining, 0, this.objectCount);
+            Arrays.fill(this.objectChunk, 0, this.objectCount, null);
+            this.objectCount = 0;
+            isQueued = this.putFullChunk(remaining, deadlineNanos);
+        }
+        if (this.byteChunk != null) {
+            if (isQueued) {
+                isQueued = this.putFullChunk(this.byteChunk, deadlineNanos);
+            } else {
+                this.byteChunk.release();
+            }
+            this.byteChunk = null;
+        }
+        return isQueued
+                && this.putFullChunk(DataChunkListener.END_OF_DATA, deadlineNanos);
     }
 
     /**
      * The procedure the background thread uses to monitor incoming data.
-     * When data is available, it will be appended to the buffer.
-     * Process the data when the buffer is full and clear the buffer after
-     * that.
+     * It processes the full chunks in the order they were filled until the
+     * listener stops.
      */
     @Override
     public void run() {
-        while (this.isListening || !this.appendOperations.isEmpty()) {
-            DataAppender appendOperation = null;
+        while (true) {
+            Object chunk;
             try {
-                appendOperation = this.appendOperations.take();
-                Log.d(
-                        DataChunkListener.LOG_TAG,
-                        "AppendOperation " + appendOperation + " taken"
-                );
-                this.processAppendOperation(appendOperation);
+                chunk = this.fullChunks.take();
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-                this.processRemainingData();
+                return;
             }
+            if (chunk == DataChunkListener.END_OF_DATA) {
+                return;
+            }
+            this.processChunk(chunk);
         }
     }
 
-    private void processAppendOperation(DataAppender appendOperation) {
-        while (!appendOperation.run()) {
-            this.processData(this.sender, this.buffer.toArray());
-            this.buffer.clear();
+    /**
+     * Process one chunk, either bytes or objects, record it in the metrics
+     * and recycle it. A chunk the subclass fails to process is logged and
+     * skipped, so the following ones are still processed.
+     */
+    private void processChunk(Object chunk) {
+        long startNanos = System.nanoTime();
+        if (chunk instanceof Chunk) {
+            Chunk byteChunk = (Chunk) chunk;
+            try {
+                this.processBytes(
+                        this.sender, byteChunk.array(), 0, byteChunk.getLength());
+            } catch (Throwable e) {
+                Log.e(DataChunkListener.LOG_TAG, DataChunkListener.PROCESSING_FAILED_MSG, e);
+            } finally {
+                byteChunk.release();
+            }
+        } else {
+            Object[] objects = (Object[]) chunk;
+            try {
+                this.processData(this.sender, objects);
+            } catch (Throwable e) {
+                Log.e(DataChunkListener.LOG_TAG, DataChunkListener.PROCESSING_FAILED_MSG, e);
+            }
+            if (objects.length == this.bufferSize && this.reusesObjectChunks()) {
+                Arrays.fill(objects, null);
+                this.spareObjectChunks.offer(objects);
+            }
         }
+        this.processTime.record(System.nanoTime() - startNanos);
+        this.chunksOut.increment();
     }
 
-    private void processRemainingData() {
-        DataAppender[] appenders = this.appendOperations.toArray(new DataAppender[0]);
-        for (DataAppender appender : appenders) {
-            this.processAppendOperation(appender);
-        }
+    /**
+     * Called with each full chunk of bytes received through
+     * {@link #putBytes(byte[], int, int)}, and with the remaining bytes when
+     * the listener stops. The default implementation boxes the bytes and
+     * passes them to {@link #processData(Object, Object[])}. Override it to
+     * work on the primitive bytes directly. The array is reused once this
+     * method returns, so copy the bytes you need to keep.
+     *
+     * @param sender    The source of the data.
+     * @param data      The array holding the chunk.
+     * @param offset    The position of the first byte of the chunk.
+     * @param length    The number of bytes in the chunk. It equals the
+     *                  buffer size except for the remaining bytes.
+     */
+    protected void processBytes(
+            Object sender, byte[] data, int offset, int length) {
+        this.processData(
+                sender, ArrayUtils.toObject(
+                        ArrayUtils.subarray(data, offset, offset + length)));
+    }
 
-        if (!this.buffer.isEmpty()) {
-            this.processData(this.sender, this.buffer.toArray(new Byte[0]));
-        }
+    /**
+     * Whether the arrays handed to {@link #processData(Object, Object[])}
+     * are filled again once it returns, instead of allocating a new array
+     * per chunk. Override it to return true if the subclass doesn't keep
+     * the arrays.
+     */
+    protected boolean reusesObjectChunks() {
+        return false;
     }
 
     /**
-     * @param data  When invoked by the incoming data monitoring thread the number of data
-     *                is less than or equal to the buffer size.
+     * Called with each full chunk of objects received through
+     * {@link #putData(Object[])}, and with the remaining objects when the
+     * listener stops. The array belongs to the listener, unless
+     * {@link #reusesObjectChunks()} returns true: it is then reused once
+     * this method returns, so copy the elements you need to keep.
+     *
+     * @param data  The chunk. Its length equals the buffer size except for
+     *              the remaining objects.
      */
     @Override
     public abstract void processData(Object sender, Object[] data);
@@ -0,0 +1,401 @@
+package com.sana.android.plugin.data.listener;
+
+import android.util.Log;
+
+import com.sana.android.plugin.application.ExecutionContext;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.metrics.Counter;
+import com.sana.android.plugin.metrics.Gauge;
+import com.sana.android.plugin.metrics.Histogram;
+import com.sana.android.plugin.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A listener that writes the bytes it receives to a file, on a thread of its
+ * own taken from the shared
+ * {@link com.sana.android.plugin.application.ExecutionContext}, so the thread
+ * delivering the updates goes back to reading instead of waiting for the
+ * storage.
+ *
+ * The bytes are copied into one of two buffers of <code>flushSize</code>
+ * bytes. When it is full, the buffers are swapped and the full one is
+ * written through a {@link FileChannel} by the writer thread while the
+ * other one is being filled. If the writer is still busy with the previous
+ * buffer, receiving blocks until it is done, and the event's
+ * {@link com.sana.android.plugin.data.event.BackpressurePolicy} for this
+ * listener takes over. What is left is written when the listener stops.
+ *
+ * Every <code>flushesPerSync</code> writes, and when the file is closed, the
+ * file is forced to the storage device with
+ * {@link FileChannel#force(boolean)}. A value of 0 leaves that to the
+ * operating system.
+ *
+ * Objects received through {@link #putData(Object[])} must be
+ * {@link Byte}s. If writing fails, the error is logged, the remaining
+ * updates are discarded and the error is available from {@link #getError()}.
+ */
+public class FileSinkListener implements Runnable, ByteDataListener {
+    private final static String LOG_TAG = "FileSinkListener";
+    private final static String INVALID_SIZE_MSG_FORMAT =
+            "Flush size must be positive and flushes per sync not negative." +
+                    " Received %d and %d.";
+    private final static String UNSUPPORTED_ELEMENT_MSG_FORMAT =
+            "Only bytes can be written to a file. Received %s.";
+    private final static String WRITE_FAILED_MSG_FORMAT =
+            "Unable to write to %s, discarding the following updates.";
+    private final static String SHUTDOWN_TIMEOUT_MSG =
+            "Timeout happened while waiting for the file to be written.";
+    private final static String FATAL_INTERRUPTION_MSG =
+            "Interrupted while waiting for the writer thread.";
+    private final static String WRITER_INTERRUPTED_MSG =
+            "The writer thread was interrupted.";
+    private final static String WRITER_GONE_MSG =
+            "The writer thread stopped before writing the pending bytes.";
+    private final static String METRICS_KIND = "listener.FileSinkListener";
+    // How often a receiver waiting for the writer checks that it still runs.
+    private final static long WRITER_CHECK_MILLIS = 100;
+    private final static int SHUTDOWN_TIMEOUT = 5;
+    private final static TimeUnit SHUTDOWN_TIMEOUT_UNIT = TimeUnit.SECONDS;
+    public final static int DEFAULT_FLUSH_SIZE = 65536;
+
+    private final File file;
+    private final boolean append;
+    private final int flushesPerSync;
+    // The buffer being filled, and the one being written. Both are guarded
+    // by this, except that the writer thread reads writeBuffer without the
+    // lock while writeCount is positive.
+    private byte[] fillBuffer;
+    private int fillCount;
+    private byte[] writeBuffer;
+    private int writeCount;
+    private boolean isClosing;
+    private volatile boolean isListening;
+    private volatile IOException error;
+    private FileChannel channel;
+    private Future<?> writerTask;
+    private Object sender;
+    private String metricsScope;
+    private Counter bytesWritten;
+    private Histogram writeTime;
+    private Histogram syncTime;
+
+    public FileSinkListener(Object sender, File file) {
+        this(sender, file, false, FileSinkListener.DEFAULT_FLUSH_SIZE, 0);
+    }
+
+    /**
+     * @param file              The file to write to.
+     * @param append            Whether to keep the current content of the
+     *                          file.
+     * @param flushSize         The number of bytes written at once.
+     * @param flushesPerSync    How many writes to do between two calls to
+     *                          {@link FileChannel#force(boolean)}, or 0 to
+     *                          never force the writes.
+     */
+    public FileSinkListener(
+            Object sender,
+            File file,
+            boolean append,
+            int flushSize,
+            int flushesPerSync
+    ) {
+        if (flushSize <= 0 || flushesPerSync < 0) {
+            throw new InvalidArgumentError(String.format(
+                    FileSinkListener.INVALID_SIZE_MSG_FORMAT,
+                    flushSize, flushesPerSync));
+        }
+        this.sender = sender;
+        this.file = file;
+        this.append = append;
+        this.flushesPerSync = flushesPerSync;
+        this.fillBuffer = new byte[flushSize];
+        this.writeBuffer = new byte[flushSize];
+        this.fillCount = 0;
+        this.writeCount = 0;
+        this.isClosing = false;
+        this.isListening = false;
+        this.metricsScope = MetricsRegistry.getInstance().createScope(
+                FileSinkListener.METRICS_KIND);
+        this.bytesWritten = new Counter();
+        this.writeTime = new Histogram();
+        this.syncTime = new Histogram();
+    }
+
+    /**
+     * Register the metrics, kept across restarts, until the listener stops.
+     */
+    private void registerMetrics() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "bytesWritten"),
+                this.bytesWritten);
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "writeNanos"),
+                this.writeTime);
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "syncNanos"),
+                this.syncTime);
+        registry.gauge(
+                MetricsRegistry.getName(this.metricsScope, "pendingBytes"),
+                new Gauge() {
+                    @Override
+                    public long getValue() {
+                        return FileSinkListener.this.fillCount
+                                + FileSinkListener.this.writeCount;
+                    }
+                }
+        );
+    }
+
+    /**
+     * @return The scope under which the metrics of this listener are
+     *         registered in the {@link MetricsRegistry}.
+     */
+    public String getMetricsScope() {
+        return this.metricsScope;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return The error that stopped the writes, or null.
+     */
+    public IOException getError() {
+        return this.error;
+    }
+
+    @Override
+    public void setExpectedSender(Object sender) {
+        this.sender = sender;
+    }
+
+    @Override
+    public Object getExpectedSender() {
+        return this.sender;
+    }
+
+    /**
+     * Open the file and start the writer thread.
+     */
+    @Override
+    public synchronized void startListening() {
+        if (this.isListening) {
+            return;
+        }
+        this.registerMetrics();
+        this.fillCount = 0;
+        this.writeCount = 0;
+        this.isClosing = false;
+        this.error = null;
+        try {
+            // A restart appends to what the previous run wrote.
+            this.channel = new FileOutputStream(
+                    this.file, this.append || this.writerTask != null).getChannel();
+        } catch (IOException e) {
+            this.fail(e);
+            return;
+        }
+        this.isListening = true;
+        this.writerTask = ExecutionContext.getInstance().submit(this);
+    }
+
+    /**
+     * Write what is left, wait for the writer thread and close the file.
+     */
+    @Override
+    public void stopListening() {
+        this.stopListening(
+                FileSinkListener.SHUTDOWN_TIMEOUT,
+                FileSinkListener.SHUTDOWN_TIMEOUT_UNIT
+        );
+    }
+
+    @Override
+    public void stopListening(long timeout, TimeUnit unit) {
+        synchronized (this) {
+            if (this.isListening) {
+                this.isListening = false;
+                if (this.fillCount > 0) {
+                    this.handOff();
+                }
+                this.isClosing = true;
+                this.notifyAll();
+            }
+        }
+        try {
+            if (!ExecutionContext.await(this.writerTask, timeout, unit)) {
+                Log.d(
+                        FileSinkListener.LOG_TAG,
+                        FileSinkListener.SHUTDOWN_TIMEOUT_MSG
+                );
+            }
+        } catch (InterruptedException e) {
+            Log.d(
+                    FileSinkListener.LOG_TAG,
+                    FileSinkListener.FATAL_INTERRUPTION_MSG,
+                    e
+            );
+        }
+        MetricsRegistry.getInstance().unregister(this.metricsScope);
+    }
+
+    @Override
+    public synchronized void putBytes(byte[] data, int offset, int length) {
+        if (!this.isListening) {
+            return;
+        }
+        while (length > 0) {
+            int count = Math.min(length, this.fillBuffer.length - this.fillCount);
+            System.arraycopy(data, offset, this.fillBuffer, this.fillCount, count);
+            this.fillCount += count;
+            offset += count;
+            length -= count;
+            if (this.fillCount == this.fillBuffer.length) {
+                this.handOff();
+            }
+        }
+    }
+
+    @Override
+    public void putData(Object[] data) {
+        byte[] bytes = new byte[data.length];
+        for (int i = 0; i < data.length; ++i) {
+            if (!(data[i] instanceof Byte)) {
+                throw new InvalidArgumentError(String.format(
+                        FileSinkListener.UNSUPPORTED_ELEMENT_MSG_FORMAT, data[i]));
+            }
+            bytes[i] = (Byte) data[i];
+        }
+        this.putBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Does nothing, the updates are written as they are received.
+     */
+    @Override
+    public void processData(Object sender, Object[] data) {
+    }
+
+    /**
+     * Swap the buffers once the writer is done with the previous one. Must
+     * hold the lock. Gives up if the writer thread is gone.
+     */
+    private void handOff() {
+        while (this.writeCount > 0 && this.error == null) {
+            if (this.writerTask.isDone()) {
+                this.error = new IOException(FileSinkListener.WRITER_GONE_MSG);
+                break;
+            }
+            try {
+                this.wait(FileSinkListener.WRITER_CHECK_MILLIS);
+            } catch (InterruptedException e) {
+                throw new Error(FileSinkListener.FATAL_INTERRUPTION_MSG, e);
+            }
+        }
+        if (this.error != null) {
+            // Discard, the writer is gone.
+            this.fillCount = 0;
+            return;
+        }
+        byte[] full = this.fillBuffer;
+        this.fillBuffer = this.writeBuffer;
+        this.writeBuffer = full;
+        this.writeCount = this.fillCount;
+        this.fillCount = 0;
+        this.notifyAll();
+    }
+
+    /**
+     * Write the full buffers until the listener stops.
+     */
+    @Override
+    public void run() {
+        int flushes = 0;
+        try {
+            while (true) {
+                byte[] buffer;
+                int count;
+                synchronized (this) {
+                    while (this.writeCount == 0 && !this.isClosing) {
+                        this.wait();
+                    }
+                    if (this.writeCount == 0) {
+                        break;
+                    }
+                    buffer = this.writeBuffer;
+                    count = this.writeCount;
+                }
+                long startNanos = System.nanoTime();
+                ByteBuffer source = ByteBuffer.wrap(buffer, 0, count);
+                while (source.hasRemaining()) {
+                    this.channel.write(source);
+                }
+                this.writeTime.record(System.nanoTime() - startNanos);
+                this.bytesWritten.add(count);
+                if (this.flushesPerSync > 0 && ++flushes == this.flushesPerSync) {
+                    flushes = 0;
+                    this.sync();
+                }
+                synchronized (this) {
+                    this.writeCount = 0;
+                    this.notifyAll();
+                }
+            }
+            if (this.flushesPerSync > 0) {
+                this.sync();
+            }
+        } catch (IOException e) {
+            this.fail(e);
+        } catch (InterruptedException e) {
+            // Let the receivers waiting for this thread give up.
+            InterruptedIOException error = new InterruptedIOException(
+                    FileSinkListener.WRITER_INTERRUPTED_MSG);
+            error.initCause(e);
+            this.fail(error);
+        } finally {
+            this.close();
+        }
+    }
+
+    private void sync() throws IOException {
+        long startNanos = System.nanoTime();
+        this.channel.force(false);
+        this.syncTime.record(System.nanoTime() - startNanos);
+    }
+
+    private void fail(IOException e) {
+        Log.e(
+                FileSinkListener.LOG_TAG,
+                String.format(FileSinkListener.WRITE_FAILED_MSG_FORMAT, this.file),
+                e
+        );
+        synchronized (this) {
+            this.error = e;
+            this.isListening = false;
+            this.writeCount = 0;
+            this.notifyAll();
+        }
+    }
+
+    private void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            Log.e(
+                    FileSinkListener.LOG_TAG,
+                    String.format(FileSinkListener.WRITE_FAILED_MSG_FORMAT, this.file),
+                    e
+            );
+        }
+    }
+}
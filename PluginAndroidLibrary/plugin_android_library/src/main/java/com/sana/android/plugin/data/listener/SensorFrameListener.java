@@ -0,0 +1,22 @@
+package com.sana.android.plugin.data.listener;
+
+import com.sana.android.plugin.data.buffer.SensorFrames;
+
+/**
+ * A {@link com.sana.android.plugin.data.listener.DataListener} that can take
+ * frames aligned from several sensors as primitive arrays. Events fusing
+ * sensors such as
+ * {@link com.sana.android.plugin.data.event.InertialDataEvent} check for this
+ * interface and call {@link #putFrames(SensorFrames)} instead of
+ * {@link #putData(Object[])} whenever it is implemented.
+ */
+public interface SensorFrameListener extends DataListener {
+    /**
+     * Called by the data event to put frames into the listener. The frames
+     * are shared with the other listeners of the event and must not be
+     * modified.
+     *
+     * @param frames    The new frames, at least one.
+     */
+    public void putFrames(SensorFrames frames);
+}
@@ -0,0 +1,22 @@
+package com.sana.android.plugin.data.listener;
+
+import com.sana.android.plugin.data.buffer.SensorSamples;
+
+/**
+ * A {@link com.sana.android.plugin.data.listener.DataListener} that can take
+ * sensor samples as primitive arrays without having one object created per
+ * sample first. Sensor events such as
+ * {@link com.sana.android.plugin.data.event.AccelerometerDataEvent} check for
+ * this interface and call {@link #putSamples(SensorSamples)} instead of
+ * {@link #putData(Object[])} whenever it is implemented.
+ */
+public interface SensorSampleListener extends DataListener {
+    /**
+     * Called by the data event to put samples into the listener. The
+     * samples are shared with the other listeners of the event and must
+     * not be modified.
+     *
+     * @param samples    The new samples, at least one.
+     */
+    public void putSamples(SensorSamples samples);
+}
@@ -3,50 +3,191 @@ package com.sana.android.plugin.data.listener;
 import android.os.Debug;
 import android.util.Log;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
+import com.sana.android.plugin.application.ExecutionContext;
+import com.sana.android.plugin.metrics.Counter;
+import com.sana.android.plugin.metrics.Gauge;
+import com.sana.android.plugin.metrics.Histogram;
+import com.sana.android.plugin.metrics.MetricsRegistry;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This is the base abstract listener that listens for updates by a fixed time interval.
  * It has a worker thread that schedules task by the given time interval.
+ * Bytes received through {@link #putBytes(byte[], int, int)} are collected in
+ * a primitive buffer and handed to {@link #processBytes(Object, byte[], int, int)}
+ * once per interval.
+ *
+ * Updates are appended to the current buffers with
+ * {@link System#arraycopy(Object, int, Object, int, int)} under a single
+ * lock acquisition each. Every interval the buffers are swapped with a
+ * second pair, so the cost of an interval grows with the number of updates
+ * rather than with the number of elements in them.
+ *
+ * At most <code>capacity</code> objects, and separately bytes, are held
+ * between two intervals. Receiving never blocks: an update that doesn't fit
+ * is dropped and counted, and the flow control is left to the event's
+ * {@link com.sana.android.plugin.data.event.BackpressurePolicy} for this
+ * listener. Updates received while the listener isn't listening are
+ * ignored.
+ *
+ * The listener reports the number of objects and bytes waiting for the next
+ * interval, how long the oldest of them waited, the updates dropped and the
+ * time spent processing them to the
+ * {@link com.sana.android.plugin.metrics.MetricsRegistry} while it is
+ * listening. The metrics are kept across restarts.
+ *
+ * The intervals are triggered by the timer threads of the shared
+ * {@link com.sana.android.plugin.application.ExecutionContext} and processed
+ * on its io threads, so a slow listener doesn't delay the intervals of the
+ * others, and a listener can be started again after it stopped. An interval
+ * is only submitted once the previous one of the same listener is done, so
+ * the intervals of a listener never overlap; ticks that come while one is
+ * still processed are skipped.
  *
  * @author Han Lin
  */
-public abstract class TimedListener implements Runnable, DataListener {
+public abstract class TimedListener implements Runnable, ByteDataListener {
     private final static String LOG_TAG =
             "TimedListener";
     private final static String SHUTDOWN_INTERRUPTED_EXCEPTION_MSG =
             "Timed listener shutdown interrupted.";
     private final static String SHUTDOWN_TIMEOUT_MSG =
             "Timeout happened while shutting down the listener.";
-    private final static String FATAL_INTERRUPTION_MSG_FORMAT =
-            "Unable to carry out critical operation - %s";
-    private final static String PUT_BYTE_OPERATION_NAME =
-            "register incoming data.";
+    private final static String METRICS_KIND = "listener.TimedListener";
 
     private final static int SHUTDOWN_TIMEOUT = 5;
+    private final static int INITIAL_BUFFER_SIZE = 64;
+    private final static Object[] NO_OBJECTS = new Object[0];
+    public final static int DEFAULT_CAPACITY = 65536;
     private final static TimeUnit SHUTDOWN_TIMEOUT_UNIT = TimeUnit.SECONDS;
 
     private long interval;
     private TimeUnit timeUnit;
-    private ScheduledExecutorService scheduledThread;
-    private LinkedBlockingQueue<Object> buffer;
+    private ScheduledFuture<?> scheduledTask;
+    // Held while an interval is processed, so stopping can wait for it.
+    private final ReentrantLock runLock = new ReentrantLock();
+    // Set from the tick that submits an interval until the interval is done.
+    private final AtomicBoolean isIntervalPending = new AtomicBoolean();
+    // Runs on a timer thread and only submits the interval to an io thread.
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            if (TimedListener.this.isIntervalPending.compareAndSet(false, true)) {
+                ExecutionContext.getInstance().submit(TimedListener.this);
+            }
+        }
+    };
+    // The buffers being filled, guarded by this, and the ones drained at
+    // the previous interval, only touched by the scheduled thread.
+    private Object[] objectBuffer;
+    private int objectCount;
+    private Object[] drainedObjects;
+    private byte[] byteBuffer;
+    private int byteCount;
+    private byte[] drainedBytes;
+    private int capacity;
     private Object sender;
+    private String metricsScope;
+    private Histogram processTime;
+    private Histogram batchLatency;
+    private Counter droppedUpdates;
+    private volatile boolean isListening;
+    // When the oldest update waiting for the next interval was received,
+    // or 0 if nothing is waiting.
+    private long firstPendingNanos;
 
-    public TimedListener() {}
+    public TimedListener() {
+        this.capacity = TimedListener.DEFAULT_CAPACITY;
+        this.createMetrics();
+    }
 
     /**
      * @param interval   Is the time interval's value
      * @param unit        The time interval's unit.
      */
     public TimedListener(Object sender, long interval, TimeUnit unit) {
+        this(sender, interval, unit, TimedListener.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param interval   Is the time interval's value
+     * @param unit       The time interval's unit.
+     * @param capacity   The maximum number of objects, and separately of
+     *                   bytes, held between two intervals. Updates that
+     *                   would exceed it are dropped.
+     */
+    public TimedListener(
+            Object sender, long interval, TimeUnit unit, int capacity) {
         this.sender = sender;
         this.interval = interval;
         this.timeUnit = unit;
-        this.scheduledThread = Executors.newSingleThreadScheduledExecutor();
-        this.buffer = new LinkedBlockingQueue<Object>();
+        this.capacity = capacity;
+        this.createMetrics();
+    }
+
+    private void createMetrics() {
+        this.metricsScope = MetricsRegistry.getInstance().createScope(
+                TimedListener.METRICS_KIND);
+        this.processTime = new Histogram();
+        this.batchLatency = new Histogram();
+        this.droppedUpdates = new Counter();
+    }
+
+    /**
+     * Register the metrics, kept across restarts, until the listener stops.
+     */
+    private void registerMetrics() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "processNanos"),
+                this.processTime);
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "batchLatencyNanos"),
+                this.batchLatency);
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "dropped"),
+                this.droppedUpdates);
+        registry.gauge(
+                MetricsRegistry.getName(this.metricsScope, "queueDepth"),
+                new Gauge() {
+                    @Override
+                    public long getValue() {
+                        return TimedListener.this.objectCount;
+                    }
+                }
+        );
+        registry.gauge(
+                MetricsRegistry.getName(this.metricsScope, "pendingBytes"),
+                new Gauge() {
+                    @Override
+                    public long getValue() {
+                        return TimedListener.this.byteCount;
+                    }
+                }
+        );
+    }
+
+    /**
+     * @return The scope under which the metrics of this listener are
+     *         registered in the {@link MetricsRegistry}.
+     */
+    public String getMetricsScope() {
+        return this.metricsScope;
+    }
+
+    /**
+     * @return The number of updates dropped because the capacity was
+     *         reached.
+     */
+    public long getDroppedCount() {
+        return this.droppedUpdates.getValue();
     }
 
     public void setExpectedSender(Object sender) {
@@ -57,50 +198,137 @@ public abstract class TimedListener implements Runnable, DataListener {
         return this.sender;
     }
 
+    /**
+     * Hand the objects and bytes received since the previous interval to
+     * {@link #processObjects(Object, Object[], int)} and
+     * {@link #processBytes(Object, byte[], int, int)}, one batch each. The
+     * buffers being filled are swapped with the ones drained at the previous
+     * interval, so receiving goes on while the batches are processed.
+     * Does nothing once the listener stopped.
+     */
     @Override
     public void run() {
+        this.runLock.lock();
         try {
-            int currentSize = this.buffer.size();
-            Object[] bufferedObjects = new Object[currentSize];
-            for (int i = 0; i < currentSize; ++i) {
-                    bufferedObjects[i] = this.buffer.take();
+            if (this.isListening) {
+                this.processInterval();
             }
-            this.processData(this.sender, bufferedObjects);
-        } catch (InterruptedException e) {
-            this.processRemainingData();
+        } finally {
+            this.runLock.unlock();
+            this.isIntervalPending.set(false);
         }
     }
 
-    private void processRemainingData() {
-        Object[] remaining = this.buffer.toArray(new Object[0]);
-        this.processData(this.sender, remaining);
+    private void processInterval() {
+        long firstPendingNanos;
+        Object[] objects;
+        int objectCount;
+        byte[] bytes;
+        int byteCount;
+        synchronized (this) {
+            firstPendingNanos = this.firstPendingNanos;
+            this.firstPendingNanos = 0;
+            objects = this.objectBuffer;
+            objectCount = this.objectCount;
+            this.objectBuffer = this.drainedObjects;
+            this.drainedObjects = objects;
+            this.objectCount = 0;
+            bytes = this.byteBuffer;
+            byteCount = this.byteCount;
+            this.byteBuffer = this.drainedBytes;
+            this.drainedBytes = bytes;
+            this.byteCount = 0;
+        }
+        long startNanos = System.nanoTime();
+        if (firstPendingNanos != 0) {
+            this.batchLatency.record(startNanos - firstPendingNanos);
+        }
+        // Only report an empty update if there were no bytes either.
+        if (objectCount > 0) {
+            this.processObjects(this.sender, objects, objectCount);
+            Arrays.fill(objects, 0, objectCount, null);
+        } else if (byteCount == 0) {
+            this.processData(this.sender, TimedListener.NO_OBJECTS);
+        }
+        if (byteCount > 0) {
+            this.processBytes(this.sender, bytes, 0, byteCount);
+        }
+        this.processTime.record(System.nanoTime() - startNanos);
+    }
+
+    private void markPending() {
+        if (this.firstPendingNanos == 0) {
+            this.firstPendingNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return The size to grow a buffer to so that it holds the required
+     *         number of elements.
+     */
+    private static int getGrownSize(int currentSize, int required) {
+        return Math.max(
+                required,
+                Math.max(TimedListener.INITIAL_BUFFER_SIZE, currentSize * 2)
+        );
+    }
+
+    @Override
+    public synchronized void putBytes(byte[] data, int offset, int length) {
+        if (!this.isListening) {
+            return;
+        }
+        // Drop the update if it doesn't fit, unless it alone is larger than
+        // the capacity.
+        if (this.byteCount > 0 && this.byteCount + length > this.capacity) {
+            this.droppedUpdates.increment();
+            return;
+        }
+        int required = this.byteCount + length;
+        if (this.byteBuffer == null || this.byteBuffer.length < required) {
+            byte[] grown = new byte[TimedListener.getGrownSize(
+                    this.byteBuffer == null ? 0 : this.byteBuffer.length, required)];
+            if (this.byteCount > 0) {
+                System.arraycopy(this.byteBuffer, 0, grown, 0, this.byteCount);
+            }
+            this.byteBuffer = grown;
+        }
+        System.arraycopy(data, offset, this.byteBuffer, this.byteCount, length);
+        this.byteCount = required;
+        this.markPending();
     }
 
     @Override
     public synchronized void putData(Object[] data) {
-        Log.d(
-                TimedListener.LOG_TAG,
-                "Received data of length " + data.length
-        );
-        for (Object element : data) {
-            try {
-                this.buffer.put(element);
-            } catch (InterruptedException e) {
-                // This is designed to wait indefinitely before the new data
-                // are registered. If it is interrupted, we can assume
-                // that something really bad happened, e.g. not enough memory.
-                throw new Error(String.format(
-                        TimedListener.FATAL_INTERRUPTION_MSG_FORMAT,
-                        TimedListener.PUT_BYTE_OPERATION_NAME
-                ));
+        // Same as putBytes, for objects.
+        if (!this.isListening) {
+            return;
+        }
+        if (this.objectCount > 0
+                && this.objectCount + data.length > this.capacity) {
+            this.droppedUpdates.increment();
+            return;
+        }
+        int required = this.objectCount + data.length;
+        if (this.objectBuffer == null || this.objectBuffer.length < required) {
+            Object[] grown = new Object[TimedListener.getGrownSize(
+                    this.objectBuffer == null ? 0 : this.objectBuffer.length, required)];
+            if (this.objectCount > 0) {
+                System.arraycopy(this.objectBuffer, 0, grown, 0, this.objectCount);
             }
+            this.objectBuffer = grown;
         }
+        System.arraycopy(data, 0, this.objectBuffer, this.objectCount, data.length);
+        this.objectCount = required;
+        this.markPending();
     }
 
     @Override
     public void startListening() {
-        this.scheduledThread.scheduleAtFixedRate(
-                this, this.interval, this.interval, this.timeUnit);
+        this.registerMetrics();
+        this.isListening = true;
+        this.scheduledTask = ExecutionContext.getInstance().scheduleAtFixedRate(
+                this.tick, this.interval, this.interval, this.timeUnit);
     }
 
     @Override
@@ -111,11 +339,19 @@ public abstract class TimedListener implements Runnable, DataListener {
         );
     }
 
+    /**
+     * Stop the intervals and wait for the one being processed, if any.
+     */
     @Override
     public void stopListening(long timeout, TimeUnit unit) {
-        this.scheduledThread.shutdown();
+        this.isListening = false;
+        if (this.scheduledTask != null) {
+            this.scheduledTask.cancel(false);
+        }
         try {
-            if (!this.scheduledThread.awaitTermination(timeout,unit)) {
+            if (this.runLock.tryLock(timeout, unit)) {
+                this.runLock.unlock();
+            } else {
                 Log.d(
                         TimedListener.LOG_TAG,
                         TimedListener.SHUTDOWN_TIMEOUT_MSG
@@ -128,13 +364,56 @@ public abstract class TimedListener implements Runnable, DataListener {
                     e
             );
         }
+        MetricsRegistry.getInstance().unregister(this.metricsScope);
+    }
+
+    /**
+     * Called once per interval with the objects received through
+     * {@link #putData(Object[])} since the previous interval. It is not
+     * called for intervals without objects. The default implementation
+     * copies the objects into an array of their exact size, which
+     * {@link #processData(Object, Object[])} may keep. Override it to work
+     * on the drained buffer directly, without that copy. The buffer is
+     * cleared once this method returns and filled again after the next
+     * interval, so copy the objects you need to keep.
+     *
+     * @param sender    The source of the data.
+     * @param data      The buffer holding the objects from its start.
+     * @param count     The number of objects.
+     */
+    protected void processObjects(Object sender, Object[] data, int count) {
+        Object[] batch = new Object[count];
+        System.arraycopy(data, 0, batch, 0, count);
+        this.processData(sender, batch);
+    }
+
+    /**
+     * Called once per interval with the bytes received through
+     * {@link #putBytes(byte[], int, int)} since the previous interval. It is
+     * not called for intervals without bytes. The default implementation
+     * boxes the bytes and passes them to {@link #processData(Object, Object[])}.
+     * Override it to work on the primitive bytes directly. The array is
+     * filled again after the next interval, so copy the bytes you need to
+     * keep.
+     *
+     * @param sender    The source of the data.
+     * @param data      The array holding the bytes.
+     * @param offset    The position of the first byte.
+     * @param length    The number of bytes.
+     */
+    protected void processBytes(
+            Object sender, byte[] data, int offset, int length) {
+        this.processData(
+                sender, ArrayUtils.toObject(
+                        ArrayUtils.subarray(data, offset, offset + length)));
     }
 
     /**
-     * You may need to handle race condition if your specified time interval is
-     * too small and this method is expected to take some time. This is because
-     * the worker thread schedules the task using
-     * {@link java.util.concurrent.ScheduledExecutorService#scheduleWithFixedDelay(Runnable, long, long, java.util.concurrent.TimeUnit)}.
+     * Called on an io thread of the
+     * {@link com.sana.android.plugin.application.ExecutionContext}, never
+     * for two intervals of the same listener at once. If it takes longer
+     * than the interval, the ticks in between are skipped and their updates
+     * are processed with the next interval.
      */
     @Override
     public abstract void processData(Object sender, Object[] data);
@@ -0,0 +1,47 @@
+package com.sana.android.plugin.data.listener;
+
+/**
+ * A {@link com.sana.android.plugin.data.listener.ByteDataListener} that also
+ * receives when every update was captured and where it falls in the event's
+ * stream. Events check for this interface and call the methods below
+ * instead of {@link #putBytes(byte[], int, int)} and
+ * {@link #putData(Object[])} whenever it is implemented.
+ *
+ * Capture times are in nanoseconds on the monotonic clock of
+ * {@link System#nanoTime()}, so they can be compared between events and
+ * with the time of delivery. Sequence numbers start at 0 and grow by one
+ * per update of an event. A gap means that updates were dropped on the way
+ * to the listener, e.g. by its
+ * {@link com.sana.android.plugin.data.event.BackpressurePolicy}.
+ */
+public interface TimestampedDataListener extends ByteDataListener {
+    /**
+     * Called by the data event to put bytes into the listener, see
+     * {@link #putBytes(byte[], int, int)}.
+     *
+     * @param data                The array holding the update.
+     * @param offset              The position of the first byte of the update.
+     * @param length              The number of bytes in the update.
+     * @param captureTimeNanos    When the first byte was captured.
+     * @param sequenceNumber      The position of the update in the event's
+     *                            stream.
+     */
+    public void putBytes(
+            byte[] data,
+            int offset,
+            int length,
+            long captureTimeNanos,
+            long sequenceNumber
+    );
+
+    /**
+     * Called by the data event to put data into the listener, see
+     * {@link #putData(Object[])}.
+     *
+     * @param data                The data update.
+     * @param captureTimeNanos    When the first element was captured.
+     * @param sequenceNumber      The position of the update in the event's
+     *                            stream.
+     */
+    public void putData(Object[] data, long captureTimeNanos, long sequenceNumber);
+}
@@ -0,0 +1,295 @@
+package com.sana.android.plugin.data.listener;
+
+import com.sana.android.plugin.data.dsp.WindowFunction;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.metrics.Counter;
+import com.sana.android.plugin.metrics.Histogram;
+import com.sana.android.plugin.metrics.MetricsRegistry;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A listener that cuts the incoming samples into windows of a fixed size,
+ * starting a new window every <code>hop</code> samples. With a hop smaller
+ * than the window size the windows overlap, e.g. windows of 2048 samples
+ * with a hop of 512 share 1536 samples with the previous window, as usually
+ * done for spectral analysis. With a larger hop samples are skipped.
+ *
+ * The samples are kept in a circular buffer of floats in which every sample
+ * is written twice, once in each half. Every window is therefore a
+ * contiguous range of the buffer and is handed to
+ * {@link #processWindow(Object, float[], int, int)} as it is: the overlap
+ * is never copied again. If a {@link WindowFunction} is set, the weighted
+ * samples are written into a scratch array of the window size instead.
+ *
+ * Bytes are decoded according to the listener's {@link SampleFormat}.
+ * Objects are converted by {@link #toSample(Object)}. Windows are processed
+ * on the thread delivering the updates, i.e. on the workers of the event's
+ * {@link com.sana.android.plugin.data.event.NotificationDispatcher}.
+ */
+public abstract class WindowedListener implements ByteDataListener {
+    private final static String INVALID_WINDOW_MSG_FORMAT =
+            "Window size and hop must be positive. Received %d and %d.";
+    private final static String UNSUPPORTED_ELEMENT_MSG_FORMAT =
+            "Can't convert %s to a sample. Override toSample to support it.";
+    private final static String METRICS_KIND = "listener.WindowedListener";
+
+    /**
+     * How bytes received through {@link #putBytes(byte[], int, int)} are
+     * turned into samples. Samples are scaled to [-1, 1). Interleaved
+     * channels are windowed as one stream.
+     */
+    public enum SampleFormat {
+        /**
+         * One signed byte per sample.
+         */
+        SIGNED_8BIT,
+        /**
+         * Two bytes per sample, little endian, as recorded by
+         * {@link android.media.AudioRecord} with
+         * {@link android.media.AudioFormat#ENCODING_PCM_16BIT}.
+         */
+        PCM_16BIT
+    }
+
+    private final int windowSize;
+    private final int hop;
+    private final SampleFormat sampleFormat;
+    // Null for WindowFunction.RECTANGULAR.
+    private final float[] coefficients;
+    private final float[] weightedWindow;
+    // Holds the last windowSize samples twice: samples[i] equals
+    // samples[i + windowSize].
+    private final float[] samples;
+    private int writePosition;
+    private int sampleCount;
+    private int samplesUntilWindow;
+    // The low byte of a 16 bit sample split between two updates, or -1.
+    private int pendingLowByte;
+    private volatile boolean isListening;
+    private Object sender;
+    private String metricsScope;
+    private Counter windowsOut;
+    private Histogram processTime;
+
+    /**
+     * @param windowSize    The number of samples in a window.
+     * @param hop           The number of samples between the starts of two
+     *                      consecutive windows.
+     */
+    public WindowedListener(Object sender, int windowSize, int hop) {
+        this(sender, windowSize, hop, WindowFunction.RECTANGULAR);
+    }
+
+    public WindowedListener(
+            Object sender, int windowSize, int hop, WindowFunction function) {
+        this(sender, windowSize, hop, function, SampleFormat.SIGNED_8BIT);
+    }
+
+    /**
+     * @param windowSize      The number of samples in a window.
+     * @param hop             The number of samples between the starts of two
+     *                        consecutive windows.
+     * @param function        The function applied to every window.
+     * @param sampleFormat    How to decode incoming bytes.
+     */
+    public WindowedListener(
+            Object sender,
+            int windowSize,
+            int hop,
+            WindowFunction function,
+            SampleFormat sampleFormat
+    ) {
+        if (windowSize <= 0 || hop <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    WindowedListener.INVALID_WINDOW_MSG_FORMAT, windowSize, hop));
+        }
+        this.sender = sender;
+        this.windowSize = windowSize;
+        this.hop = hop;
+        this.sampleFormat = sampleFormat;
+        if (function == WindowFunction.RECTANGULAR) {
+            this.coefficients = null;
+            this.weightedWindow = null;
+        } else {
+            this.coefficients = function.getCoefficients(windowSize);
+            this.weightedWindow = new float[windowSize];
+        }
+        this.samples = new float[2 * windowSize];
+        this.writePosition = 0;
+        this.sampleCount = 0;
+        this.samplesUntilWindow = windowSize;
+        this.pendingLowByte = -1;
+        this.isListening = false;
+        this.metricsScope = MetricsRegistry.getInstance().createScope(
+                WindowedListener.METRICS_KIND);
+        this.windowsOut = new Counter();
+        this.processTime = new Histogram();
+    }
+
+    /**
+     * Register the metrics, kept across restarts, until the listener stops.
+     */
+    private void registerMetrics() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "windowsOut"),
+                this.windowsOut);
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "processNanos"),
+                this.processTime);
+    }
+
+    /**
+     * @return The scope under which the metrics of this listener are
+     *         registered in the {@link MetricsRegistry}.
+     */
+    public String getMetricsScope() {
+        return this.metricsScope;
+    }
+
+    public int getWindowSize() {
+        return this.windowSize;
+    }
+
+    public int getHop() {
+        return this.hop;
+    }
+
+    public SampleFormat getSampleFormat() {
+        return this.sampleFormat;
+    }
+
+    @Override
+    public void setExpectedSender(Object sender) {
+        this.sender = sender;
+    }
+
+    @Override
+    public Object getExpectedSender() {
+        return this.sender;
+    }
+
+    @Override
+    public void startListening() {
+        this.registerMetrics();
+        this.isListening = true;
+    }
+
+    /**
+     * Stop receiving updates. Samples that don't make up a whole window are
+     * discarded.
+     */
+    @Override
+    public void stopListening() {
+        this.isListening = false;
+        MetricsRegistry.getInstance().unregister(this.metricsScope);
+    }
+
+    @Override
+    public void stopListening(long timeout, TimeUnit unit) {
+        this.stopListening();
+    }
+
+    @Override
+    public synchronized void putBytes(byte[] data, int offset, int length) {
+        if (!this.isListening) {
+            return;
+        }
+        int end = offset + length;
+        if (this.sampleFormat == SampleFormat.SIGNED_8BIT) {
+            for (int i = offset; i < end; ++i) {
+                this.addSample(data[i] / 128f);
+            }
+            return;
+        }
+        int i = offset;
+        if (this.pendingLowByte >= 0 && i < end) {
+            this.addSample((short) ((data[i++] << 8) | this.pendingLowByte) / 32768f);
+            this.pendingLowByte = -1;
+        }
+        for (; i + 1 < end; i += 2) {
+            this.addSample((short) ((data[i + 1] << 8) | (data[i] & 0xff)) / 32768f);
+        }
+        if (i < end) {
+            this.pendingLowByte = data[i] & 0xff;
+        }
+    }
+
+    @Override
+    public synchronized void putData(Object[] data) {
+        if (!this.isListening) {
+            return;
+        }
+        for (Object element : data) {
+            this.addSample(this.toSample(element));
+        }
+    }
+
+    private void addSample(float sample) {
+        this.samples[this.writePosition] = sample;
+        this.samples[this.writePosition + this.windowSize] = sample;
+        if (++this.writePosition == this.windowSize) {
+            this.writePosition = 0;
+        }
+        if (this.sampleCount < this.windowSize) {
+            ++this.sampleCount;
+        }
+        if (--this.samplesUntilWindow <= 0 && this.sampleCount == this.windowSize) {
+            this.samplesUntilWindow = this.hop;
+            this.emitWindow();
+        }
+    }
+
+    private void emitWindow() {
+        long startNanos = System.nanoTime();
+        // The oldest sample is at the write position.
+        if (this.coefficients == null) {
+            this.processWindow(
+                    this.sender, this.samples, this.writePosition, this.windowSize);
+        } else {
+            for (int i = 0; i < this.windowSize; ++i) {
+                this.weightedWindow[i] =
+                        this.samples[this.writePosition + i] * this.coefficients[i];
+            }
+            this.processWindow(this.sender, this.weightedWindow, 0, this.windowSize);
+        }
+        this.processTime.record(System.nanoTime() - startNanos);
+        this.windowsOut.increment();
+    }
+
+    /**
+     * Convert an element received through {@link #putData(Object[])} into
+     * a sample. The default implementation supports {@link Number}s.
+     * Override it for other types, e.g. to take one axis of accelerometer
+     * data.
+     */
+    protected float toSample(Object element) {
+        if (element instanceof Number) {
+            return ((Number) element).floatValue();
+        }
+        throw new InvalidArgumentError(String.format(
+                WindowedListener.UNSUPPORTED_ELEMENT_MSG_FORMAT, element));
+    }
+
+    /**
+     * Called with every window, oldest sample first. The array belongs to
+     * the listener and is overwritten by the following samples, so copy what
+     * you need to keep. The default implementation boxes the window and
+     * passes it to {@link #processData(Object, Object[])}. Override it to
+     * work on the samples directly.
+     *
+     * @param sender     The source of the data.
+     * @param samples    The array holding the window.
+     * @param offset     The position of the first sample of the window.
+     * @param length     The window size.
+     */
+    protected void processWindow(
+            Object sender, float[] samples, int offset, int length) {
+        this.processData(
+                sender, ArrayUtils.toObject(
+                        ArrayUtils.subarray(samples, offset, offset + length)));
+    }
+}
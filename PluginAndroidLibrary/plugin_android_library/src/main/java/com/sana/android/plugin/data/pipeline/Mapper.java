@@ -0,0 +1,13 @@
+package com.sana.android.plugin.data.pipeline;
+
+/**
+ * Transforms every element passing through a {@link Pipeline}, see
+ * {@link Pipeline#map(Mapper)}.
+ */
+public interface Mapper {
+    /**
+     * @param element    The element received by the stage.
+     * @return The element passed on to the next stage.
+     */
+    public Object map(Object element);
+}
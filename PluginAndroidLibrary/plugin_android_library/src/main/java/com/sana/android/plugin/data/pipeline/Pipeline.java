@@ -0,0 +1,480 @@
+package com.sana.android.plugin.data.pipeline;
+
+import com.sana.android.plugin.data.dsp.PolyphaseResampler;
+import com.sana.android.plugin.data.listener.ByteDataListener;
+import com.sana.android.plugin.data.listener.DataListener;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.errors.InvalidInvocationError;
+import com.sana.android.plugin.metrics.Counter;
+import com.sana.android.plugin.metrics.MetricsRegistry;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A chain of operators between an event and its listeners. Add the pipeline
+ * to an event like any other listener. It runs every update through its
+ * {@link Stage}s on the delivering thread and passes what comes out to its
+ * own listeners, so cheap reductions happen before the data reaches the
+ * queues of slow consumers:
+ *
+ * <pre>
+ * Pipeline pipeline = new Pipeline(device)
+ *         .filter(isValid)
+ *         .decimate(4)
+ *         .window(256, 128)
+ *         .map(toRms)
+ *         .to(recorder, display);
+ * event.addListener(pipeline);
+ * pipeline.startListening();
+ * </pre>
+ *
+ * All the stages run in one pass over the elements of an update: each
+ * element goes through the whole chain before the next one is read, and
+ * only the elements reaching the end are copied, once, into the array
+ * handed to the listeners. Passing several listeners to
+ * {@link #to(DataListener...)} fans the output out to all of them; a
+ * listener can itself be a pipeline with its own stages. To merge several
+ * events into one pipeline, add one {@link #input(Object)} per event.
+ *
+ * Bytes are boxed once when they enter a pipeline with stages. A pipeline
+ * without stages passes them on to its
+ * {@link com.sana.android.plugin.data.listener.ByteDataListener}s as they
+ * are. The stages must be set up before the pipeline starts listening.
+ */
+public class Pipeline implements ByteDataListener {
+    private static final String INVALID_FACTOR_MSG_FORMAT =
+            "Decimation factor must be positive. Received %d.";
+    private static final String INVALID_WINDOW_MSG_FORMAT =
+            "Window size and hop must be positive. Received %d and %d.";
+    private static final String ALREADY_LISTENING_MSG =
+            "The pipeline can't be changed while it is listening.";
+    private static final String METRICS_KIND = "listener.Pipeline";
+    private static final int INITIAL_OUTPUT_SIZE = 64;
+
+    private final ArrayList<Stage> stages;
+    private final ArrayList<DataListener> listeners;
+    private final Collector collector;
+    private volatile boolean isListening;
+    private Object sender;
+    private String metricsScope;
+    private Counter elementsIn;
+    private Counter elementsOut;
+
+    /**
+     * The last stage of every pipeline. Collects the elements reaching the
+     * end of the chain during an update.
+     */
+    private static class Collector extends Stage {
+        private Object[] elements = new Object[Pipeline.INITIAL_OUTPUT_SIZE];
+        private int count = 0;
+
+        @Override
+        protected void accept(Object element) {
+            if (this.count == this.elements.length) {
+                Object[] grown = new Object[this.elements.length * 2];
+                System.arraycopy(this.elements, 0, grown, 0, this.count);
+                this.elements = grown;
+            }
+            this.elements[this.count++] = element;
+        }
+
+        /**
+         * @return The collected elements, or null if there are none.
+         */
+        private Object[] take() {
+            if (this.count == 0) {
+                return null;
+            }
+            Object[] result = new Object[this.count];
+            System.arraycopy(this.elements, 0, result, 0, this.count);
+            for (int i = 0; i < this.count; ++i) {
+                this.elements[i] = null;
+            }
+            this.count = 0;
+            return result;
+        }
+    }
+
+    private static class MapStage extends Stage {
+        private final Mapper mapper;
+
+        private MapStage(Mapper mapper) {
+            this.mapper = mapper;
+        }
+
+        @Override
+        protected void accept(Object element) {
+            this.emit(this.mapper.map(element));
+        }
+    }
+
+    private static class FilterStage extends Stage {
+        private final Predicate predicate;
+
+        private FilterStage(Predicate predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        protected void accept(Object element) {
+            if (this.predicate.accept(element)) {
+                this.emit(element);
+            }
+        }
+    }
+
+    private static class DecimateStage extends Stage {
+        private final int factor;
+        private int skipped;
+
+        private DecimateStage(int factor) {
+            this.factor = factor;
+            this.skipped = factor - 1;
+        }
+
+        @Override
+        protected void accept(Object element) {
+            if (++this.skipped == this.factor) {
+                this.skipped = 0;
+                this.emit(element);
+            }
+        }
+    }
+
+    /**
+     * Keeps the last elements twice, like
+     * {@link com.sana.android.plugin.data.listener.WindowedListener}, so
+     * every window is copied out of the ring in one call.
+     */
+    private static class WindowStage extends Stage {
+        private final int size;
+        private final int hop;
+        private final Object[] ring;
+        private int writePosition;
+        private int count;
+        private int untilWindow;
+
+        private WindowStage(int size, int hop) {
+            this.size = size;
+            this.hop = hop;
+            this.ring = new Object[2 * size];
+            this.writePosition = 0;
+            this.count = 0;
+            this.untilWindow = size;
+        }
+
+        @Override
+        protected void accept(Object element) {
+            this.ring[this.writePosition] = element;
+            this.ring[this.writePosition + this.size] = element;
+            if (++this.writePosition == this.size) {
+                this.writePosition = 0;
+            }
+            if (this.count < this.size) {
+                ++this.count;
+            }
+            if (--this.untilWindow <= 0 && this.count == this.size) {
+                this.untilWindow = this.hop;
+                Object[] window = new Object[this.size];
+                System.arraycopy(this.ring, this.writePosition, window, 0, this.size);
+                this.emit(window);
+            }
+        }
+    }
+
+    private static class ResampleStage extends Stage {
+        private final PolyphaseResampler resampler;
+        private final float[] input = new float[1];
+        private final float[] output;
+
+        private ResampleStage(PolyphaseResampler resampler) {
+            this.resampler = resampler;
+            this.output = new float[resampler.getMaxOutputLength(1)];
+        }
+
+        @Override
+        protected void accept(Object element) {
+            this.input[0] = ((Number) element).floatValue();
+            int count = this.resampler.process(this.input, 0, 1, this.output, 0);
+            for (int i = 0; i < count; ++i) {
+                this.emit(this.output[i]);
+            }
+        }
+    }
+
+    /**
+     * Feeds another event into the pipeline, see {@link Pipeline#input(Object)}.
+     */
+    private class Input implements ByteDataListener {
+        private Object sender;
+
+        private Input(Object sender) {
+            this.sender = sender;
+        }
+
+        @Override
+        public void putBytes(byte[] data, int offset, int length) {
+            Pipeline.this.putBytes(data, offset, length);
+        }
+
+        @Override
+        public void putData(Object[] data) {
+            Pipeline.this.putData(data);
+        }
+
+        @Override
+        public void processData(Object sender, Object[] data) {
+            Pipeline.this.processData(sender, data);
+        }
+
+        @Override
+        public void setExpectedSender(Object sender) {
+            this.sender = sender;
+        }
+
+        @Override
+        public Object getExpectedSender() {
+            return this.sender;
+        }
+
+        @Override
+        public void startListening() {
+        }
+
+        @Override
+        public void stopListening() {
+        }
+
+        @Override
+        public void stopListening(long timeout, TimeUnit unit) {
+        }
+    }
+
+    /**
+     * @param sender    The source of the data, see
+     *                  {@link DataListener#setExpectedSender(Object)}.
+     */
+    public Pipeline(Object sender) {
+        this.sender = sender;
+        this.stages = new ArrayList<Stage>();
+        this.listeners = new ArrayList<DataListener>();
+        this.collector = new Collector();
+        this.isListening = false;
+        this.metricsScope = MetricsRegistry.getInstance().createScope(
+                Pipeline.METRICS_KIND);
+        this.elementsIn = new Counter();
+        this.elementsOut = new Counter();
+    }
+
+    /**
+     * Replace every element by the result of the mapper.
+     */
+    public Pipeline map(Mapper mapper) {
+        return this.then(new MapStage(mapper));
+    }
+
+    /**
+     * Drop the elements the predicate doesn't accept.
+     */
+    public Pipeline filter(Predicate predicate) {
+        return this.then(new FilterStage(predicate));
+    }
+
+    /**
+     * Keep one element out of every <code>factor</code>, starting with the
+     * first one. No low-pass filter is applied beforehand.
+     */
+    public Pipeline decimate(int factor) {
+        if (factor <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    Pipeline.INVALID_FACTOR_MSG_FORMAT, factor));
+        }
+        return this.then(new DecimateStage(factor));
+    }
+
+    /**
+     * Group the elements into windows of <code>size</code> elements,
+     * starting a new one every <code>hop</code> elements. Every window is
+     * passed on as one element, an <code>Object[]</code>, so the following
+     * stages can e.g. reduce each window to a single value.
+     */
+    public Pipeline window(int size, int hop) {
+        if (size <= 0 || hop <= 0) {
+            throw new InvalidArgumentError(String.format(
+                    Pipeline.INVALID_WINDOW_MSG_FORMAT, size, hop));
+        }
+        return this.then(new WindowStage(size, hop));
+    }
+
+    /**
+     * Convert the elements, {@link Number}s sampled at
+     * <code>inputRate</code>, into {@link Float}s sampled at
+     * <code>outputRate</code>, see {@link PolyphaseResampler}. Unlike
+     * {@link #decimate(int)}, the elements are low-pass filtered first, so
+     * frequencies above the new Nyquist frequency don't fold back into the
+     * output.
+     */
+    public Pipeline resample(int inputRate, int outputRate) {
+        return this.then(new ResampleStage(
+                new PolyphaseResampler(inputRate, outputRate)));
+    }
+
+    /**
+     * Append a custom stage.
+     */
+    public Pipeline then(Stage stage) {
+        this.checkNotListening();
+        if (!this.stages.isEmpty()) {
+            this.stages.get(this.stages.size() - 1).setNext(stage);
+        }
+        stage.setNext(this.collector);
+        this.stages.add(stage);
+        return this;
+    }
+
+    /**
+     * Send the output of the pipeline to the given listeners. They are
+     * started and stopped together with the pipeline.
+     */
+    public Pipeline to(DataListener... listeners) {
+        this.checkNotListening();
+        for (DataListener listener : listeners) {
+            this.listeners.add(listener);
+        }
+        return this;
+    }
+
+    /**
+     * @param sender    The sender of another event to merge into this
+     *                  pipeline.
+     * @return A listener to add to that event. Its updates go through the
+     *         pipeline like the pipeline's own, one update at a time.
+     */
+    public DataListener input(Object sender) {
+        return new Input(sender);
+    }
+
+    private void checkNotListening() {
+        if (this.isListening) {
+            throw new InvalidInvocationError(Pipeline.ALREADY_LISTENING_MSG);
+        }
+    }
+
+    /**
+     * @return The scope under which the number of elements entering and
+     *         leaving the pipeline are registered in the
+     *         {@link MetricsRegistry}.
+     */
+    public String getMetricsScope() {
+        return this.metricsScope;
+    }
+
+    @Override
+    public synchronized void putBytes(byte[] data, int offset, int length) {
+        if (!this.isListening || length == 0) {
+            return;
+        }
+        if (!this.stages.isEmpty()) {
+            this.run(ArrayUtils.toObject(
+                    ArrayUtils.subarray(data, offset, offset + length)));
+            return;
+        }
+        this.elementsIn.add(length);
+        this.elementsOut.add(length);
+        Object[] boxed = null;
+        for (DataListener listener : this.listeners) {
+            if (listener instanceof ByteDataListener) {
+                ((ByteDataListener) listener).putBytes(data, offset, length);
+            } else {
+                if (boxed == null) {
+                    boxed = ArrayUtils.toObject(
+                            ArrayUtils.subarray(data, offset, offset + length));
+                }
+                listener.putData(boxed);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void putData(Object[] data) {
+        if (this.isListening) {
+            this.run(data);
+        }
+    }
+
+    /**
+     * Run an update through the pipeline, like an update received from the
+     * event.
+     */
+    @Override
+    public synchronized void processData(Object sender, Object[] data) {
+        this.run(data);
+    }
+
+    private void run(Object[] data) {
+        this.elementsIn.add(data.length);
+        Object[] output;
+        if (this.stages.isEmpty()) {
+            output = data.length == 0 ? null : data;
+        } else {
+            Stage head = this.stages.get(0);
+            for (Object element : data) {
+                head.accept(element);
+            }
+            output = this.collector.take();
+        }
+        if (output == null) {
+            return;
+        }
+        this.elementsOut.add(output.length);
+        for (DataListener listener : this.listeners) {
+            listener.putData(output);
+        }
+    }
+
+    @Override
+    public void setExpectedSender(Object sender) {
+        this.sender = sender;
+    }
+
+    @Override
+    public Object getExpectedSender() {
+        return this.sender;
+    }
+
+    @Override
+    public void startListening() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "elementsIn"),
+                this.elementsIn);
+        registry.register(
+                MetricsRegistry.getName(this.metricsScope, "elementsOut"),
+                this.elementsOut);
+        for (DataListener listener : this.listeners) {
+            listener.startListening();
+        }
+        this.isListening = true;
+    }
+
+    @Override
+    public void stopListening() {
+        this.isListening = false;
+        for (DataListener listener : this.listeners) {
+            listener.stopListening();
+        }
+        MetricsRegistry.getInstance().unregister(this.metricsScope);
+    }
+
+    @Override
+    public void stopListening(long timeout, TimeUnit unit) {
+        this.isListening = false;
+        for (DataListener listener : this.listeners) {
+            listener.stopListening(timeout, unit);
+        }
+        MetricsRegistry.getInstance().unregister(this.metricsScope);
+    }
+}
@@ -0,0 +1,13 @@
+package com.sana.android.plugin.data.pipeline;
+
+/**
+ * Selects the elements passing through a {@link Pipeline}, see
+ * {@link Pipeline#filter(Predicate)}.
+ */
+public interface Predicate {
+    /**
+     * @param element    The element received by the stage.
+     * @return Whether the element is passed on to the next stage.
+     */
+    public boolean accept(Object element);
+}
@@ -0,0 +1,32 @@
+package com.sana.android.plugin.data.pipeline;
+
+/**
+ * One operator of a {@link Pipeline}. The stages of a pipeline are chained
+ * and run one element at a time: a stage receives an element through
+ * {@link #accept(Object)} and calls {@link #emit(Object)} for every
+ * element it produces, which runs the next stage right away. A whole
+ * update therefore goes through all the stages in a single pass, without
+ * intermediate arrays or queues.
+ *
+ * Stages are called from one thread at a time. A stage instance belongs to
+ * a single pipeline.
+ */
+public abstract class Stage {
+    private Stage next;
+
+    /**
+     * Process one element.
+     */
+    protected abstract void accept(Object element);
+
+    /**
+     * Pass an element on to the next stage.
+     */
+    protected final void emit(Object element) {
+        this.next.accept(element);
+    }
+
+    void setNext(Stage next) {
+        this.next = next;
+    }
+}
@@ -1,6 +1,7 @@
 package com.sana.android.plugin.hardware;
 
 import android.content.ContentResolver;
+import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaPlayer;
 import android.os.Environment;
@@ -9,7 +10,9 @@ import com.sana.android.plugin.application.CommManager;
 import com.sana.android.plugin.communication.MimeType;
 import com.sana.android.plugin.data.BinaryDataWithPollingEvent;
 import com.sana.android.plugin.data.DataWithEvent;
+import com.sana.android.plugin.data.dsp.PolyphaseResampler;
 import com.sana.android.plugin.data.event.BytePollingDataEvent;
+import com.sana.android.plugin.data.listener.FileSinkListener;
 import org.apache.commons.io.IOUtils;
 import java.io.File;
 import java.io.FileInputStream;
@@ -36,6 +39,9 @@ public class AudioRecordUncompressedDevice implements GeneralDevice {
     private String AUDIO_RECORDER_FOLDER;
     private String AUDIO_RECORDER_TEMP_FILE;
     private int RECORDER_SAMPLERATE;
+    // The sample rate written to the file, see
+    // CaptureSetting#getTargetSampleRate().
+    private int outputSampleRate;
     private int RECORDER_CHANNELS;
     private int RECORDER_AUDIO_ENCODING;
     private int audioSource;
@@ -112,6 +118,13 @@ public class AudioRecordUncompressedDevice implements GeneralDevice {
         if(null != recorder){
             isRecording = false;
             recorder.stop();
+            // Wait for the last buffer to be written before building the
+            // wave file.
+            try {
+                recordingThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
             recorder.release();
             recorder = null;
             recordingThread = null;
@@ -154,6 +167,9 @@ public class AudioRecordUncompressedDevice implements GeneralDevice {
         this.AUDIO_RECORDER_FOLDER = setting.getOutputFolderName();
         this.AUDIO_RECORDER_TEMP_FILE = setting.getTempFileName();
         this.RECORDER_SAMPLERATE = setting.getRecorderSampleRate();
+        this.outputSampleRate = setting.getTargetSampleRate() == null
+                ? this.RECORDER_SAMPLERATE
+                : setting.getTargetSampleRate();
         this.RECORDER_CHANNELS = setting.getRecorderChannels();
         this.RECORDER_AUDIO_ENCODING = setting.getAudioEncoder();
         this.audioSource = setting.getAudioSource();
@@ -163,37 +179,47 @@ public class AudioRecordUncompressedDevice implements GeneralDevice {
         File file = new File(getTempFilename());
         file.delete();
     }
+    private int getChannelCount() {
+        return RECORDER_CHANNELS == AudioFormat.CHANNEL_IN_MONO ? 1 : 2;
+    }
+
+    /**
+     * Write the recorded samples to the temporary file. If a target sample
+     * rate is set they are resampled on the way, so the file never holds
+     * the full rate recording. The writes happen on the thread of a
+     * {@link FileSinkListener}, so this thread goes straight back to
+     * reading from the recorder.
+     */
     private void writeAudioDataToFile(){
         byte data[] = new byte[bufferSize];
-        String filename = getTempFilename();
-        FileOutputStream os = null;
-
-        try {
-            os = new FileOutputStream(filename);
-        } catch (FileNotFoundException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+        PolyphaseResampler resampler = null;
+        byte resampled[] = null;
+        if (outputSampleRate != RECORDER_SAMPLERATE) {
+            resampler = new PolyphaseResampler(
+                    RECORDER_SAMPLERATE, outputSampleRate, getChannelCount());
+            resampled = new byte[2 * resampler.getMaxOutputLength(bufferSize / 2)];
         }
+        String filename = getTempFilename();
+        FileSinkListener sink = new FileSinkListener(this, new File(filename));
+        sink.startListening();
 
         int read = 0;
 
-        if(null != os){
+        if(null == sink.getError()){
             while(isRecording){
                 read = recorder.read(data, 0, bufferSize);
-                if(AudioRecord.ERROR_INVALID_OPERATION != read){
-                    try {
-                        os.write(data);
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                if(read > 0){
+                    if (resampler == null) {
+                        sink.putBytes(data, 0, read);
+                    } else {
+                        int length = resampler.processPcm16(
+                                data, 0, read, resampled, 0);
+                        sink.putBytes(resampled, 0, length);
                     }
                 }
             }
-            try {
-                os.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
         }
+        sink.stopListening();
     }
 
     private String getTempFilename(){
@@ -216,9 +242,9 @@ public class AudioRecordUncompressedDevice implements GeneralDevice {
         FileOutputStream out = null;
         long totalAudioLen = 0;
         long totalDataLen = totalAudioLen + 36;
-        long longSampleRate = RECORDER_SAMPLERATE;
-        int channels = 2;
-        long byteRate = RECORDER_BPP * RECORDER_SAMPLERATE * channels/8;
+        long longSampleRate = outputSampleRate;
+        int channels = getChannelCount();
+        long byteRate = RECORDER_BPP * outputSampleRate * channels/8;
 
         byte[] data = new byte[bufferSize];
 
@@ -284,7 +310,7 @@ public class AudioRecordUncompressedDevice implements GeneralDevice {
         header[29] = (byte) ((byteRate >> 8) & 0xff);
         header[30] = (byte) ((byteRate >> 16) & 0xff);
         header[31] = (byte) ((byteRate >> 24) & 0xff);
-        header[32] = (byte) (2 * 16 / 8);  // block align
+        header[32] = (byte) (channels * 16 / 8);  // block align
         header[33] = 0;
         header[34] = RECORDER_BPP;  // bits per sample
         header[35] = 0;
@@ -1,21 +1,67 @@
 package com.sana.android.plugin.hardware;
 
 import android.hardware.Sensor;
+import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Build;
 import android.util.Log;
 
 import com.sana.android.plugin.data.AccelerometerDataWithEvent;
 import com.sana.android.plugin.data.DataWithEvent;
+import com.sana.android.plugin.data.buffer.SensorSampleFile;
 import com.sana.android.plugin.data.event.AccelerometerDataEvent;
 import com.sana.android.plugin.errors.InvalidCaptureSettingsError;
 
+import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Created by mashiro on 10/3/2014.
+ *
+ * If the capture setting has a sensor report latency, the accelerometer is
+ * registered in batched mode: the sensor keeps its samples in its hardware
+ * FIFO and delivers them in bursts, each notified as one batch by the
+ * {@link AccelerometerDataEvent}. Where batching isn't supported, i.e.
+ * before Android 4.4 or for a sensor without a FIFO, every sample is
+ * delivered as it is taken.
+ *
+ * If the capture setting has a sensor recording file, every sample is also
+ * appended to it through a {@link SensorSampleFile}.
  */
 public class BuiltinAccelerometerDevice implements GeneralDevice {
     private static final String LOG_TAG = "BuiltinAccelerometerDevice";
+    private static final String BATCHING_UNSUPPORTED_MSG =
+            "Sensor batching unsupported, delivering every sample.";
+    private static final String RECORDING_UNAVAILABLE_MSG_FORMAT =
+            "Unable to open the sensor recording file %s.";
+
+    /**
+     * The sensor batching API of Android 4.4, kept apart so that the
+     * device class still loads on earlier versions.
+     */
+    private static class SensorBatching {
+        /**
+         * @return The number of samples the FIFO of the sensor holds, 0 if
+         *         it has none.
+         */
+        private static int getFifoSize(Sensor sensor) {
+            return sensor.getFifoMaxEventCount();
+        }
+
+        /**
+         * @return True if the sensor was registered in batched mode.
+         */
+        private static boolean registerListener(
+                SensorManager manager,
+                SensorEventListener listener,
+                Sensor sensor,
+                int reportLatency
+        ) {
+            return manager.registerListener(
+                    listener, sensor, SensorManager.SENSOR_DELAY_FASTEST, reportLatency);
+        }
+    }
+
     private static final long UPDATE_INTERVAL = 1;
     private static final TimeUnit UPDATE_INTERVAL_TIME_UNIT = TimeUnit.SECONDS;
     private CaptureSetting setting;
@@ -25,16 +71,60 @@ public class BuiltinAccelerometerDevice implements GeneralDevice {
     @Override
     public DataWithEvent prepare() {
         savedData = new AccelerometerDataWithEvent(
-                this, UPDATE_INTERVAL, UPDATE_INTERVAL_TIME_UNIT);
+                this, UPDATE_INTERVAL, UPDATE_INTERVAL_TIME_UNIT, this.openRecording());
 
-        setting.getSensorManager().registerListener(
-                (AccelerometerDataEvent) savedData.getEvent(),
-                senAccelerometer ,
-                SensorManager.SENSOR_DELAY_FASTEST
-        );
+        AccelerometerDataEvent event = (AccelerometerDataEvent) savedData.getEvent();
+        if (!this.registerBatched(event)) {
+            setting.getSensorManager().registerListener(
+                    event,
+                    senAccelerometer ,
+                    SensorManager.SENSOR_DELAY_FASTEST
+            );
+        }
         return savedData;
     }
 
+    /**
+     * @return The file to record the samples to, or null if none is set.
+     */
+    private SensorSampleFile openRecording() {
+        if (setting.getSensorRecordingFile() == null) {
+            return null;
+        }
+        try {
+            return new SensorSampleFile(setting.getSensorRecordingFile());
+        } catch (IOException e) {
+            throw new InvalidCaptureSettingsError(String.format(
+                    RECORDING_UNAVAILABLE_MSG_FORMAT,
+                    setting.getSensorRecordingFile()), e);
+        }
+    }
+
+    /**
+     * Register the event in batched mode if a report latency is set and the
+     * sensor supports it.
+     *
+     * @return False if the event must be registered for every sample.
+     */
+    private boolean registerBatched(AccelerometerDataEvent event) {
+        Integer reportLatency = setting.getSensorReportLatency();
+        if (reportLatency == null || reportLatency <= 0) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT
+                || SensorBatching.getFifoSize(senAccelerometer) == 0
+                || !SensorBatching.registerListener(
+                        setting.getSensorManager(),
+                        event,
+                        senAccelerometer,
+                        reportLatency)) {
+            Log.d(LOG_TAG, BATCHING_UNSUPPORTED_MSG);
+            return false;
+        }
+        event.setFifoBatching(SensorBatching.getFifoSize(senAccelerometer));
+        return true;
+    }
+
     @Override
     public void begin() {
         this.savedData.getEvent().startEvent();
@@ -42,6 +132,8 @@ public class BuiltinAccelerometerDevice implements GeneralDevice {
 
     @Override
     public void stop() {
+        setting.getSensorManager().unregisterListener(
+                (AccelerometerDataEvent) savedData.getEvent());
         try {
             this.savedData.dispose();
         } catch (InterruptedException e) {
@@ -0,0 +1,110 @@
+package com.sana.android.plugin.hardware;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.util.Log;
+
+import com.sana.android.plugin.data.DataWithEvent;
+import com.sana.android.plugin.data.InertialDataWithEvent;
+import com.sana.android.plugin.data.event.InertialDataEvent;
+import com.sana.android.plugin.errors.InvalidCaptureSettingsError;
+
+import java.util.ArrayList;
+
+/**
+ * Captures the built-in three axis sensors listed in the capture setting,
+ * e.g. the accelerometer, the gyroscope and the magnetometer, as one stream
+ * of frames aligned on their timestamps. A single
+ * {@link InertialDataEvent} is registered with every sensor, so capturing
+ * several sensors costs one notification loop instead of one capture per
+ * sensor. Sensors the device doesn't have are left out; the first of the
+ * remaining ones is the reference the frames are aligned on.
+ */
+public class BuiltinInertialDevice implements GeneralDevice {
+    private static final String LOG_TAG = "BuiltinInertialDevice";
+    private static final String MISSING_SENSOR_MSG_FORMAT =
+            "No sensor of the type %d, capturing without it.";
+    private static final String NO_SENSOR_MSG =
+            "None of the sensors to capture is available.";
+
+    private CaptureSetting setting;
+    private Sensor[] sensors;
+    private InertialDataWithEvent savedData;
+
+    @Override
+    public DataWithEvent prepare() {
+        int[] sensorTypes = new int[this.sensors.length];
+        for (int i = 0; i < sensorTypes.length; ++i) {
+            sensorTypes[i] = this.sensors[i].getType();
+        }
+        Integer frameRate = this.setting.getInertialFrameRate();
+        this.savedData = new InertialDataWithEvent(
+                this, sensorTypes, frameRate == null ? 0 : frameRate);
+        InertialDataEvent event = (InertialDataEvent) this.savedData.getEvent();
+        for (Sensor sensor : this.sensors) {
+            this.setting.getSensorManager().registerListener(
+                    event, sensor, SensorManager.SENSOR_DELAY_FASTEST);
+        }
+        return this.savedData;
+    }
+
+    @Override
+    public void begin() {
+        this.savedData.getEvent().startEvent();
+    }
+
+    @Override
+    public void stop() {
+        this.setting.getSensorManager().unregisterListener(
+                (InertialDataEvent) this.savedData.getEvent());
+        try {
+            this.savedData.dispose();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void reset() {
+        if (this.savedData != null) {
+            try {
+                this.savedData.dispose();
+            } catch (InterruptedException e) {
+                Log.e(
+                        LOG_TAG,
+                        "Operation interrupted while disposing the previous data.",
+                        e
+                );
+            }
+        }
+        this.savedData = null;
+    }
+
+    @Override
+    public void setCaptureSetting(CaptureSetting setting) {
+        validateCaptureSetting(setting);
+        this.setting = setting;
+        ArrayList<Sensor> available = new ArrayList<Sensor>();
+        for (int type : setting.getInertialSensorTypes()) {
+            Sensor sensor = setting.getSensorManager().getDefaultSensor(type);
+            if (sensor == null) {
+                Log.w(LOG_TAG, String.format(MISSING_SENSOR_MSG_FORMAT, type));
+            } else {
+                available.add(sensor);
+            }
+        }
+        if (available.size() == 0) {
+            throw new InvalidCaptureSettingsError(NO_SENSOR_MSG);
+        }
+        this.sensors = available.toArray(new Sensor[available.size()]);
+    }
+
+    private void validateCaptureSetting(CaptureSetting setting) {
+        if (setting.getSensorManager() == null) {
+            throw new InvalidCaptureSettingsError("Required attribute sensorManager is missing.");
+        }
+        if (setting.getInertialSensorTypes() == null) {
+            throw new InvalidCaptureSettingsError("Required attribute inertialSensorTypes is missing.");
+        }
+    }
+}
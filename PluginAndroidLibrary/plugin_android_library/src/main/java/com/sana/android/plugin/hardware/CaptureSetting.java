@@ -2,6 +2,7 @@ package com.sana.android.plugin.hardware;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.hardware.Sensor;
 import android.hardware.SensorManager;
 import android.media.AudioFormat;
 import android.media.MediaRecorder;
@@ -32,8 +33,14 @@ public class CaptureSetting {
     private String tempFileName = null;
     private Integer recorderSampleRate;
     private Integer recorderChannels;
+    private Integer targetSampleRate;
     private String outputFolderName = null;
     private File outputFolder;
+    private Boolean useChannelPolling;
+    private Integer sensorReportLatency;
+    private File sensorRecordingFile;
+    private int[] inertialSensorTypes;
+    private Integer inertialFrameRate;
 
     public static CaptureSetting defaultSetting(Feature source, MimeType type
     ) {
@@ -74,6 +81,19 @@ public class CaptureSetting {
                         Environment.DIRECTORY_PICTURES);
                 this.fileExtention = ".jpg";
                 break;
+            case GYROSCOPE:
+                this.inertialSensorTypes = new int[]{Sensor.TYPE_GYROSCOPE};
+                break;
+            case MAGNETOMETER:
+                this.inertialSensorTypes = new int[]{Sensor.TYPE_MAGNETIC_FIELD};
+                break;
+            case INERTIAL:
+                this.inertialSensorTypes = new int[]{
+                        Sensor.TYPE_ACCELEROMETER,
+                        Sensor.TYPE_GYROSCOPE,
+                        Sensor.TYPE_MAGNETIC_FIELD
+                };
+                break;
             default:
                 break;
         }
@@ -117,6 +137,17 @@ public class CaptureSetting {
         return this;
     }
 
+    /**
+     * @return The sample rate recordings are converted to while they are
+     * captured, or null to keep the recorder sample rate.
+     */
+    public Integer getTargetSampleRate() { return this.targetSampleRate; }
+
+    public CaptureSetting setTargetSampleRate(Integer targetSampleRate){
+        this.targetSampleRate = targetSampleRate;
+        return this;
+    }
+
     public Integer getRecorderChannels() {return this.recorderChannels; }
 
     public CaptureSetting setRecorderChannels(Integer recorderChannels){
@@ -218,6 +249,89 @@ public class CaptureSetting {
         return this;
     }
 
+    /**
+     * @return Whether devices that poll a file descriptor should read it
+     * through a {@link java.nio.channels.FileChannel} rather than an input
+     * stream.
+     */
+    public Boolean getUseChannelPolling() {
+        return this.useChannelPolling;
+    }
+
+    public CaptureSetting setUseChannelPolling(Boolean useChannelPolling) {
+        this.useChannelPolling = useChannelPolling;
+        return this;
+    }
+
+    /**
+     * @return How long, in microseconds, a sensor may keep samples in its
+     * hardware FIFO before delivering them, or null to have every sample
+     * delivered as it is taken.
+     */
+    public Integer getSensorReportLatency() {
+        return this.sensorReportLatency;
+    }
+
+    /**
+     * Let the sensor batch its samples in hardware, so the application
+     * processor only wakes up once per report latency. Only used on
+     * Android 4.4 and later and for sensors with a FIFO; the samples are
+     * delivered one by one otherwise.
+     *
+     * @param sensorReportLatency    The maximum report latency in
+     *                               microseconds, or null.
+     */
+    public CaptureSetting setSensorReportLatency(Integer sensorReportLatency) {
+        this.sensorReportLatency = sensorReportLatency;
+        return this;
+    }
+
+    /**
+     * @return The file every accelerometer sample is recorded to, or null
+     * to only keep one sample per update interval.
+     */
+    public File getSensorRecordingFile() {
+        return this.sensorRecordingFile;
+    }
+
+    /**
+     * Record every sample of the accelerometer to the given file, see
+     * {@link com.sana.android.plugin.data.buffer.SensorSampleFile}. The
+     * samples of the file, if any, are kept and the new ones appended.
+     */
+    public CaptureSetting setSensorRecordingFile(File sensorRecordingFile) {
+        this.sensorRecordingFile = sensorRecordingFile;
+        return this;
+    }
+
+    /**
+     * @return The types of the sensors captured together, as in
+     * {@link Sensor#getType()}, the first one being the reference the
+     * frames are aligned on.
+     */
+    public int[] getInertialSensorTypes() {
+        return this.inertialSensorTypes;
+    }
+
+    public CaptureSetting setInertialSensorTypes(int[] inertialSensorTypes) {
+        this.inertialSensorTypes = inertialSensorTypes;
+        return this;
+    }
+
+    /**
+     * @return The number of frames per second the captured sensors are
+     * interpolated to, or null for a frame per sample of the reference
+     * sensor.
+     */
+    public Integer getInertialFrameRate() {
+        return this.inertialFrameRate;
+    }
+
+    public CaptureSetting setInertialFrameRate(Integer inertialFrameRate) {
+        this.inertialFrameRate = inertialFrameRate;
+        return this;
+    }
+
     public SensorManager getSensorManager() {
         return this.sensorManager;
     }
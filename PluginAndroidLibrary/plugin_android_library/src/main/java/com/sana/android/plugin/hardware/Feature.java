@@ -54,7 +54,11 @@ public enum Feature {
             "microphone",
             BluetoothAudioDevice.class
     ),
-    ACCELEROMETER("android.hardware.sensor.accelerometer", "accelerometer", BuiltinAccelerometerDevice.class);
+    ACCELEROMETER("android.hardware.sensor.accelerometer", "accelerometer", BuiltinAccelerometerDevice.class),
+    GYROSCOPE("android.hardware.sensor.gyroscope", "gyroscope", BuiltinInertialDevice.class),
+    MAGNETOMETER("android.hardware.sensor.compass", "magnetometer", BuiltinInertialDevice.class),
+    // the accelerometer, gyroscope and magnetometer captured together
+    INERTIAL("android.hardware.sensor.accelerometer", "inertial", BuiltinInertialDevice.class);
 
     private String featureName;
     private String commonName;
@@ -130,14 +130,25 @@ public class UsbAccessoryDevice extends UsbGeneralDevice {
         }
 
         try {
-            dataWithEvent = new BinaryDataWithPollingEvent(
-                    Feature.USB_ACCESSORY,
-                    MimeType.TEXT_PLAIN,
-                    null,
-                    this,
-                    accessoryInput,
-                    bufferSize
-            );
+            if (setting != null && Boolean.TRUE.equals(setting.getUseChannelPolling())) {
+                dataWithEvent = new BinaryDataWithPollingEvent(
+                        Feature.USB_ACCESSORY,
+                        MimeType.TEXT_PLAIN,
+                        null,
+                        this,
+                        accessoryInput.getChannel(),
+                        bufferSize
+                );
+            } else {
+                dataWithEvent = new BinaryDataWithPollingEvent(
+                        Feature.USB_ACCESSORY,
+                        MimeType.TEXT_PLAIN,
+                        null,
+                        this,
+                        accessoryInput,
+                        bufferSize
+                );
+            }
         } catch (FileNotFoundException e) {
             Log.d(UsbAccessoryDevice.LOG_TAG, "file not found: " + e.toString());
         } catch (URISyntaxException e) {
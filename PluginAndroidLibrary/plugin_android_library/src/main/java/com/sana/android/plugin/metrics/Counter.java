@@ -0,0 +1,27 @@
+package com.sana.android.plugin.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A metric that only goes up, e.g. the number of bytes received by an event.
+ * Updating it never allocates.
+ */
+public class Counter {
+    private final AtomicLong value;
+
+    public Counter() {
+        this.value = new AtomicLong();
+    }
+
+    public void increment() {
+        this.value.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        this.value.addAndGet(delta);
+    }
+
+    public long getValue() {
+        return this.value.get();
+    }
+}
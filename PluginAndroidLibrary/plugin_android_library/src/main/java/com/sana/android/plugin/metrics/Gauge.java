@@ -0,0 +1,14 @@
+package com.sana.android.plugin.metrics;
+
+/**
+ * A metric whose value is read from its owner when a snapshot is taken, e.g.
+ * the number of updates waiting in a queue. Nothing is updated on the hot
+ * path.
+ */
+public interface Gauge {
+    /**
+     * Called by {@link MetricsRegistry#snapshot()} from the thread taking
+     * the snapshot. It must be cheap and must not block.
+     */
+    public long getValue();
+}
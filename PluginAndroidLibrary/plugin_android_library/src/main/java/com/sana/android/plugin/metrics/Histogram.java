@@ -0,0 +1,75 @@
+package com.sana.android.plugin.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the distribution of non-negative values such as latencies in
+ * nanoseconds. Values are counted in power-of-two buckets, so percentiles
+ * are accurate to within a factor of two, which is enough to tell a
+ * 100 microsecond hop from a 10 millisecond one. Recording a value never
+ * allocates and never locks.
+ */
+public class Histogram {
+    // Bucket 0 holds 0 and bucket i holds the values in [2^(i-1), 2^i).
+    static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public Histogram() {
+        this.buckets = new AtomicLongArray(Histogram.BUCKET_COUNT);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * @param value    The value to record. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        this.buckets.incrementAndGet(Histogram.getBucket(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        long currentMax = this.max.get();
+        while (value > currentMax && !this.max.compareAndSet(currentMax, value)) {
+            currentMax = this.max.get();
+        }
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * @return A copy of the current state. The buckets are copied one by one
+     *         while values may still be recorded, so the copy is only
+     *         approximately consistent.
+     */
+    public MetricsSnapshot.HistogramSnapshot snapshot() {
+        long[] counts = new long[Histogram.BUCKET_COUNT];
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = this.buckets.get(i);
+        }
+        return new MetricsSnapshot.HistogramSnapshot(
+                counts, this.count.get(), this.sum.get(), this.max.get());
+    }
+
+    static int getBucket(long value) {
+        return Math.min(
+                Histogram.BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    /**
+     * @return The largest value counted by the given bucket.
+     */
+    static long getBucketUpperBound(int bucket) {
+        return bucket >= Histogram.BUCKET_COUNT - 1
+                ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,159 @@
+package com.sana.android.plugin.metrics;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The process-wide registry of the metrics reported by the capture pipeline.
+ * Events, listeners and pools register their metrics once, keep a reference
+ * to them and update them directly, so the registry is never looked up on
+ * the hot path. Take a {@link #snapshot()} to read all of them at once.
+ *
+ * Metric names are dot separated. Every event and listener registers its
+ * metrics under its own scope, see {@link #createScope(String)}, and removes
+ * them with {@link #unregister(String)} when it is done. Listeners, which
+ * can be started again after they stopped, keep their metrics across
+ * restarts and register them with {@link #register(String, Counter)} every
+ * time they start.
+ */
+public class MetricsRegistry {
+    private static final String SCOPE_FORMAT = "%s-%d";
+    private static final String NAME_SEPARATOR = ".";
+
+    private static MetricsRegistry sharedInstance;
+
+    private final ConcurrentHashMap<String, Counter> counters;
+    private final ConcurrentHashMap<String, Gauge> gauges;
+    private final ConcurrentHashMap<String, Histogram> histograms;
+    private final AtomicInteger scopeCount;
+
+    private MetricsRegistry() {
+        this.counters = new ConcurrentHashMap<String, Counter>();
+        this.gauges = new ConcurrentHashMap<String, Gauge>();
+        this.histograms = new ConcurrentHashMap<String, Histogram>();
+        this.scopeCount = new AtomicInteger();
+    }
+
+    public static synchronized MetricsRegistry getInstance() {
+        if (MetricsRegistry.sharedInstance == null) {
+            MetricsRegistry.sharedInstance = new MetricsRegistry();
+        }
+        return MetricsRegistry.sharedInstance;
+    }
+
+    /**
+     * @param kind    What the scope is for, e.g. "event.BytePollingDataEvent".
+     * @return A scope name no other call returns, e.g.
+     *         "event.BytePollingDataEvent-3".
+     */
+    public String createScope(String kind) {
+        return String.format(
+                MetricsRegistry.SCOPE_FORMAT, kind, this.scopeCount.incrementAndGet());
+    }
+
+    /**
+     * @return The name of a metric in the given scope.
+     */
+    public static String getName(String scope, String metric) {
+        return scope + MetricsRegistry.NAME_SEPARATOR + metric;
+    }
+
+    /**
+     * @return The counter with the given name, created if needed.
+     */
+    public Counter counter(String name) {
+        Counter counter = this.counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = this.counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @return The histogram with the given name, created if needed.
+     */
+    public Histogram histogram(String name) {
+        Histogram histogram = this.histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = this.histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Register a counter created by the caller, replacing any counter with
+     * the same name, e.g. to register the metrics of a listener again each
+     * time it starts.
+     */
+    public void register(String name, Counter counter) {
+        this.counters.put(name, counter);
+    }
+
+    /**
+     * Register a histogram created by the caller, replacing any histogram
+     * with the same name.
+     */
+    public void register(String name, Histogram histogram) {
+        this.histograms.put(name, histogram);
+    }
+
+    /**
+     * Register a gauge, replacing any gauge with the same name.
+     */
+    public void gauge(String name, Gauge gauge) {
+        this.gauges.put(name, gauge);
+    }
+
+    /**
+     * Remove every metric in the given scope.
+     */
+    public void unregister(String scope) {
+        String prefix = scope + MetricsRegistry.NAME_SEPARATOR;
+        MetricsRegistry.removeByPrefix(this.counters, prefix);
+        MetricsRegistry.removeByPrefix(this.gauges, prefix);
+        MetricsRegistry.removeByPrefix(this.histograms, prefix);
+    }
+
+    private static void removeByPrefix(Map<String, ?> metrics, String prefix) {
+        Iterator<String> names = metrics.keySet().iterator();
+        while (names.hasNext()) {
+            if (names.next().startsWith(prefix)) {
+                names.remove();
+            }
+        }
+    }
+
+    /**
+     * Read all the metrics. This allocates the snapshot but doesn't block
+     * the threads updating the metrics, so it can be polled e.g. once per
+     * second from the application.
+     */
+    public MetricsSnapshot snapshot() {
+        HashMap<String, Long> counterValues = new HashMap<String, Long>();
+        for (Map.Entry<String, Counter> entry : this.counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().getValue());
+        }
+        HashMap<String, Long> gaugeValues = new HashMap<String, Long>();
+        for (Map.Entry<String, Gauge> entry : this.gauges.entrySet()) {
+            gaugeValues.put(entry.getKey(), entry.getValue().getValue());
+        }
+        HashMap<String, MetricsSnapshot.HistogramSnapshot> histogramValues =
+                new HashMap<String, MetricsSnapshot.HistogramSnapshot>();
+        for (Map.Entry<String, Histogram> entry : this.histograms.entrySet()) {
+            histogramValues.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new MetricsSnapshot(
+                System.nanoTime(), counterValues, gaugeValues, histogramValues);
+    }
+}
@@ -0,0 +1,136 @@
+package com.sana.android.plugin.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The values of all the registered metrics at one point in time, as returned
+ * by {@link MetricsRegistry#snapshot()}. A snapshot never changes after it
+ * has been taken.
+ */
+public class MetricsSnapshot {
+    private final long timestampNanos;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+    private final Map<String, HistogramSnapshot> histograms;
+
+    /**
+     * The state of a {@link Histogram} when the snapshot was taken.
+     */
+    public static class HistogramSnapshot {
+        private final long[] bucketCounts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        HistogramSnapshot(long[] bucketCounts, long count, long sum, long max) {
+            this.bucketCounts = bucketCounts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getSum() {
+            return this.sum;
+        }
+
+        public long getMax() {
+            return this.max;
+        }
+
+        public double getMean() {
+            return this.count == 0 ? 0 : (double) this.sum / this.count;
+        }
+
+        /**
+         * @param percentile    Between 0 and 100.
+         * @return An upper bound of the given percentile, i.e. at least that
+         *         percentage of the values are not greater than it. It is at
+         *         most twice the exact value and never more than the maximum.
+         */
+        public long getPercentile(double percentile) {
+            long total = 0;
+            for (long bucketCount : this.bucketCounts) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < this.bucketCounts.length; ++i) {
+                seen += this.bucketCounts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(Histogram.getBucketUpperBound(i), this.max);
+                }
+            }
+            return this.max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "count=%d mean=%.0f p50=%d p99=%d max=%d",
+                    this.count,
+                    this.getMean(),
+                    this.getPercentile(50),
+                    this.getPercentile(99),
+                    this.max
+            );
+        }
+    }
+
+    MetricsSnapshot(
+            long timestampNanos,
+            Map<String, Long> counters,
+            Map<String, Long> gauges,
+            Map<String, HistogramSnapshot> histograms
+    ) {
+        this.timestampNanos = timestampNanos;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.gauges = Collections.unmodifiableMap(gauges);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * @return When the snapshot was taken, from {@link System#nanoTime()}.
+     */
+    public long getTimestampNanos() {
+        return this.timestampNanos;
+    }
+
+    public Map<String, Long> getCounters() {
+        return this.counters;
+    }
+
+    public Map<String, Long> getGauges() {
+        return this.gauges;
+    }
+
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return this.histograms;
+    }
+
+    /**
+     * @return The value of the named counter or gauge, or 0 if there is no
+     *         such metric.
+     */
+    public long getValue(String name) {
+        Long value = this.counters.get(name);
+        if (value == null) {
+            value = this.gauges.get(name);
+        }
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @return The named histogram or null if there is no such metric.
+     */
+    public HistogramSnapshot getHistogram(String name) {
+        return this.histograms.get(name);
+    }
+}
@@ -0,0 +1,133 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.AccelerometerDataWithEvent;
+import com.sana.android.plugin.data.buffer.SensorSampleFile;
+import com.sana.android.plugin.data.dsp.MotionFeatures;
+import com.sana.android.plugin.data.event.AccelerometerDataEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives an {@link AccelerometerDataWithEvent} from its event's samples to
+ * the samples and motion features it records.
+ */
+public class AccelerometerDataWithEventTests extends InstrumentationTestCase {
+    private static final long TEST_FAILURE_TIMEOUT = 5;
+    private static final TimeUnit TEST_FAILURE_TIMEOUT_UNIT = TimeUnit.SECONDS;
+    private static final long INTERVAL = 20;
+    private static final long POLL_INTERVAL = 10;
+    private static final long NANOS_PER_SAMPLE = 10000000;
+
+    private AccelerometerDataWithEvent data;
+    private AccelerometerDataEvent event;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.file = File.createTempFile("AccelerometerDataWithEventTests", ".raw");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (this.data != null) {
+            this.data.dispose();
+        }
+        this.file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * @param recording    The file to record to, or null.
+     */
+    private void start(SensorSampleFile recording) {
+        this.data = new AccelerometerDataWithEvent(
+                this, AccelerometerDataWithEventTests.INTERVAL, TimeUnit.MILLISECONDS,
+                recording);
+        this.event = (AccelerometerDataEvent) this.data.getEvent();
+        this.event.startEvent();
+    }
+
+    private void offerSamples(int first, int count) {
+        for (int i = first; i < first + count; ++i) {
+            this.event.offerSample(
+                    i, 2 * i, 3 * i, i * AccelerometerDataWithEventTests.NANOS_PER_SAMPLE);
+        }
+    }
+
+    /**
+     * @return The first recorded sample with the given sequence number or a
+     *         later one, or null if none was recorded before the timeout.
+     */
+    private AccelerometerDataEvent.AccelerometerData awaitData(long sequenceNumber)
+            throws InterruptedException {
+        long deadline = System.nanoTime()
+                + AccelerometerDataWithEventTests.TEST_FAILURE_TIMEOUT_UNIT.toNanos(
+                        AccelerometerDataWithEventTests.TEST_FAILURE_TIMEOUT);
+        while (System.nanoTime() < deadline) {
+            AccelerometerDataEvent.AccelerometerData sample = this.data.pollData();
+            if (sample != null && sample.getSequenceNumber() >= sequenceNumber) {
+                return sample;
+            }
+            if (sample == null) {
+                Thread.sleep(AccelerometerDataWithEventTests.POLL_INTERVAL);
+            }
+        }
+        return null;
+    }
+
+    public void testSamplesReachListener() throws InterruptedException {
+        this.start(null);
+        this.offerSamples(0, 10);
+        AccelerometerDataEvent.AccelerometerData sample = this.awaitData(9);
+        assertNotNull(sample);
+        // Only the last sample of an interval is kept.
+        assertEquals(9, sample.getSequenceNumber());
+        assertEquals(9f, sample.getX());
+        assertEquals(18f, sample.getY());
+        assertEquals(27f, sample.getZ());
+        assertEquals(9 * AccelerometerDataWithEventTests.NANOS_PER_SAMPLE, sample.getTimestamp());
+    }
+
+    public void testFeaturesReachListener() throws InterruptedException {
+        this.start(null);
+        this.offerSamples(0, 100);
+        // The features are split across the intervals the samples arrived in.
+        long deadline = System.nanoTime()
+                + AccelerometerDataWithEventTests.TEST_FAILURE_TIMEOUT_UNIT.toNanos(
+                        AccelerometerDataWithEventTests.TEST_FAILURE_TIMEOUT);
+        long sampleCount = 0;
+        double sumX = 0;
+        while (sampleCount < 100 && System.nanoTime() < deadline) {
+            MotionFeatures features = this.data.pollFeatures();
+            if (features == null) {
+                Thread.sleep(AccelerometerDataWithEventTests.POLL_INTERVAL);
+                continue;
+            }
+            assertTrue(features.getSampleCount() > 0);
+            sampleCount += features.getSampleCount();
+            sumX += features.getMean(0) * features.getSampleCount();
+        }
+        assertEquals(100, sampleCount);
+        // Every sample counted once, whatever the interval it fell in.
+        assertEquals(99 * 100 / 2, sumX, 1e-3);
+    }
+
+    public void testRecordingStopsWhenTimeGoesBack()
+            throws InterruptedException, IOException {
+        this.start(new SensorSampleFile(this.file));
+        // The sequence numbers follow the order of arrival, not the times.
+        this.offerSamples(5, 5);
+        assertNotNull(this.awaitData(4));
+        this.offerSamples(0, 3);
+        // The listener goes on without the recording.
+        assertNotNull(this.awaitData(7));
+        assertNotNull(this.data.getRecordingError());
+        assertEquals(5, this.data.getRecording().getCount());
+    }
+}
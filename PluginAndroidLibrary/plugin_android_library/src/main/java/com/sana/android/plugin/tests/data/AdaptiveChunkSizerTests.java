@@ -0,0 +1,64 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.event.AdaptiveChunkSizer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds an {@link AdaptiveChunkSizer} with chunks arriving at a steady
+ * simulated byte rate and checks the sizes it picks.
+ */
+public class AdaptiveChunkSizerTests extends InstrumentationTestCase {
+    private static final int MIN_CHUNK_SIZE = 16;
+    private static final int MAX_CHUNK_SIZE = 4096;
+    private static final long TARGET_INTERVAL = 20;
+    private static final TimeUnit TARGET_INTERVAL_UNIT = TimeUnit.MILLISECONDS;
+    private static final int CHUNK_COUNT = 100;
+
+    private AdaptiveChunkSizer sizer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.sizer = new AdaptiveChunkSizer(
+                AdaptiveChunkSizerTests.MIN_CHUNK_SIZE,
+                AdaptiveChunkSizerTests.MAX_CHUNK_SIZE,
+                AdaptiveChunkSizerTests.TARGET_INTERVAL,
+                AdaptiveChunkSizerTests.TARGET_INTERVAL_UNIT
+        );
+    }
+
+    public void testConvergesToTargetInterval() {
+        // 8000 bytes per second is 160 bytes per 20 ms.
+        this.simulate(8000);
+        assertTrue(Math.abs(this.sizer.getChunkSize() - 160) <= 1);
+        assertEquals(8000, this.sizer.getByteRate(), 1);
+        assertTrue(this.sizer.getResizeCount() > 0);
+    }
+
+    public void testChunkSizeIsClamped() {
+        this.simulate(100);
+        assertEquals(AdaptiveChunkSizerTests.MIN_CHUNK_SIZE, this.sizer.getChunkSize());
+        this.simulate(10000000);
+        assertEquals(AdaptiveChunkSizerTests.MAX_CHUNK_SIZE, this.sizer.getChunkSize());
+    }
+
+    public void testLatencyBudget() {
+        long intervalNanos = AdaptiveChunkSizerTests.TARGET_INTERVAL_UNIT.toNanos(
+                AdaptiveChunkSizerTests.TARGET_INTERVAL);
+        assertFalse(this.sizer.isOverdue(0, intervalNanos - 1));
+        assertTrue(this.sizer.isOverdue(0, intervalNanos));
+    }
+
+    private void simulate(double bytesPerSecond) {
+        long nowNanos = 0;
+        for (int i = 0; i < AdaptiveChunkSizerTests.CHUNK_COUNT; ++i) {
+            int length = this.sizer.getChunkSize();
+            long durationNanos = (long) (length * 1e9 / bytesPerSecond);
+            this.sizer.onChunkNotified(length, nowNanos, nowNanos + durationNanos);
+            nowNanos += durationNanos;
+        }
+    }
+}
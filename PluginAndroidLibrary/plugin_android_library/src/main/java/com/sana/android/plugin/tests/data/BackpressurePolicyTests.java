@@ -0,0 +1,171 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.event.BackpressurePolicy;
+import com.sana.android.plugin.data.listener.DataListener;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.tests.mocks.MockEvent;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that a listener stuck in putData doesn't stall the event unless it
+ * was added with {@link BackpressurePolicy#BLOCK}.
+ */
+public class BackpressurePolicyTests extends InstrumentationTestCase {
+    // More than the default lane capacity, so the lane overflows.
+    private static final int UPDATE_COUNT = 1000;
+    private static final long TEST_FAILURE_TIMEOUT = 5;
+    private static final TimeUnit TEST_FAILURE_TIMEOUT_UNIT = TimeUnit.SECONDS;
+
+    private MockEvent event;
+    private StuckListener listener;
+
+    private class StuckListener implements DataListener {
+        private CountDownLatch release = new CountDownLatch(1);
+        private CountDownLatch entered = new CountDownLatch(1);
+        private AtomicInteger receivedCount = new AtomicInteger();
+        private volatile Object[] lastReceived;
+
+        @Override
+        public void putData(Object[] data) {
+            this.entered.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.lastReceived = data;
+            this.receivedCount.incrementAndGet();
+        }
+
+        @Override
+        public Object getExpectedSender() {
+            return BackpressurePolicyTests.this;
+        }
+
+        @Override
+        public void startListening() {
+        }
+
+        @Override
+        public void stopListening() {
+        }
+
+        @Override
+        public void stopListening(long timeout, TimeUnit unit) {
+        }
+
+        @Override
+        public void setExpectedSender(Object sender) {
+        }
+
+        @Override
+        public void processData(Object sender, Object[] data) {
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.event = new MockEvent(this, new ArrayList<Byte[]>());
+        this.listener = new StuckListener();
+    }
+
+    public void testDropNewest() throws InterruptedException {
+        this.event.addListener(this.listener, BackpressurePolicy.DROP_NEWEST);
+        Integer[][] updates = this.publish();
+        long dropped = this.event.getDroppedCount(this.listener);
+        assertTrue("Expected updates to be dropped.", dropped > 0);
+        int keptCount = (int) (BackpressurePolicyTests.UPDATE_COUNT - dropped);
+        this.release(keptCount);
+        assertSame(updates[keptCount - 1], this.listener.lastReceived);
+    }
+
+    public void testDropOldest() throws InterruptedException {
+        this.event.addListener(this.listener, BackpressurePolicy.DROP_OLDEST);
+        Integer[][] updates = this.publish();
+        long dropped = this.event.getDroppedCount(this.listener);
+        assertTrue("Expected updates to be dropped.", dropped > 0);
+        this.release(BackpressurePolicyTests.UPDATE_COUNT - dropped);
+        assertSame(
+                updates[BackpressurePolicyTests.UPDATE_COUNT - 1],
+                this.listener.lastReceived
+        );
+    }
+
+    public void testCoalesceLatest() throws InterruptedException {
+        this.event.addListener(this.listener, BackpressurePolicy.COALESCE_LATEST);
+        Integer[][] updates = this.publish();
+        long dropped = this.event.getDroppedCount(this.listener);
+        // The update being delivered, plus the latest one.
+        assertTrue(dropped >= BackpressurePolicyTests.UPDATE_COUNT - 2);
+        this.release(BackpressurePolicyTests.UPDATE_COUNT - dropped);
+        assertSame(
+                updates[BackpressurePolicyTests.UPDATE_COUNT - 1],
+                this.listener.lastReceived
+        );
+    }
+
+    public void testSampleEveryN() throws InterruptedException {
+        this.event.addListener(this.listener, BackpressurePolicy.sampleEveryN(10));
+        this.listener.release.countDown();
+        this.publish();
+        int keptCount = BackpressurePolicyTests.UPDATE_COUNT / 10;
+        this.release(keptCount);
+        assertEquals(
+                BackpressurePolicyTests.UPDATE_COUNT - keptCount,
+                this.event.getDroppedCount(this.listener)
+        );
+    }
+
+    public void testListenerErrorsDontStopLane() throws InterruptedException {
+        // Listeners reject invalid updates with Errors.
+        this.listener = new StuckListener() {
+            @Override
+            public void putData(Object[] data) {
+                super.putData(data);
+                throw new InvalidArgumentError(data[0].toString());
+            }
+        };
+        this.event.addListener(this.listener);
+        for (int i = 0; i < 3; ++i) {
+            this.event.notifyListeners(new Integer[] { i });
+        }
+        this.release(3);
+    }
+
+    private Integer[][] publish() throws InterruptedException {
+        Integer[][] updates = new Integer[BackpressurePolicyTests.UPDATE_COUNT][];
+        for (int i = 0; i < BackpressurePolicyTests.UPDATE_COUNT; ++i) {
+            updates[i] = new Integer[] { i };
+            this.event.notifyListeners(updates[i]);
+            if (i == 0) {
+                // Make sure the listener holds the first update, so the
+                // lane fills up with the ones right after it.
+                assertTrue(this.listener.entered.await(
+                        BackpressurePolicyTests.TEST_FAILURE_TIMEOUT,
+                        BackpressurePolicyTests.TEST_FAILURE_TIMEOUT_UNIT
+                ));
+            }
+        }
+        return updates;
+    }
+
+    private void release(long expectedCount) throws InterruptedException {
+        this.listener.release.countDown();
+        long deadline = System.nanoTime()
+                + BackpressurePolicyTests.TEST_FAILURE_TIMEOUT_UNIT.toNanos(
+                        BackpressurePolicyTests.TEST_FAILURE_TIMEOUT);
+        while (this.listener.receivedCount.get() < expectedCount
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expectedCount, this.listener.receivedCount.get());
+        this.event.dispose();
+    }
+}
@@ -0,0 +1,187 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.listener.BatchingListener;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that a {@link BatchingListener} flushes full batches at once and
+ * partial ones after the delay, but never empty ones.
+ */
+public class BatchingListenerTests extends InstrumentationTestCase {
+    private static final long TEST_FAILURE_TIMEOUT = 5;
+    private static final TimeUnit TEST_FAILURE_TIMEOUT_UNIT = TimeUnit.SECONDS;
+    private static final long DELAY = 100;
+    private static final int BATCH_SIZE = 4;
+
+    private RecordingListener listener;
+
+    private static class RecordingListener extends BatchingListener {
+        private LinkedBlockingQueue<Object[]> batches =
+                new LinkedBlockingQueue<Object[]>();
+
+        private RecordingListener(Object sender, long delay) {
+            super(sender, BatchingListenerTests.BATCH_SIZE, delay, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void processData(Object sender, Object[] data) {
+            this.batches.add(data.clone());
+        }
+
+        private Object[] take() throws InterruptedException {
+            return this.batches.poll(
+                    BatchingListenerTests.TEST_FAILURE_TIMEOUT,
+                    BatchingListenerTests.TEST_FAILURE_TIMEOUT_UNIT
+            );
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.listener.stopListening();
+        super.tearDown();
+    }
+
+    public void testFullBatchesAreNotDelayed() throws InterruptedException {
+        // The delay would fail the test if it were waited for.
+        this.listener = new RecordingListener(
+                this, BatchingListenerTests.TEST_FAILURE_TIMEOUT_UNIT.toMillis(
+                        10 * BatchingListenerTests.TEST_FAILURE_TIMEOUT));
+        this.listener.startListening();
+        this.listener.putData(new Integer[]{0, 1, 2, 3, 4, 5});
+        this.listener.putData(new Integer[]{6, 7});
+        assertEquals(
+                new Integer[]{0, 1, 2, 3}, this.listener.take());
+        assertEquals(
+                new Integer[]{4, 5, 6, 7}, this.listener.take());
+    }
+
+    public void testPartialBatchesAreDue() throws InterruptedException {
+        this.listener = new RecordingListener(this, BatchingListenerTests.DELAY);
+        this.listener.startListening();
+        long startNanos = System.nanoTime();
+        this.listener.putData(new Integer[]{0});
+        this.listener.putData(new Integer[]{1});
+        Object[] batch = this.listener.take();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        assertEquals(new Integer[]{0, 1}, batch);
+        assertTrue(elapsed >= BatchingListenerTests.DELAY);
+        // Nothing is flushed while nothing is received.
+        assertNull(this.listener.batches.poll(
+                3 * BatchingListenerTests.DELAY, TimeUnit.MILLISECONDS));
+    }
+
+    public void testStopFlushesRemainder() throws InterruptedException {
+        this.listener = new RecordingListener(
+                this, BatchingListenerTests.TEST_FAILURE_TIMEOUT_UNIT.toMillis(
+                        10 * BatchingListenerTests.TEST_FAILURE_TIMEOUT));
+        this.listener.startListening();
+        this.listener.putBytes(new byte[]{1, 2, 3, 4, 5}, 0, 5);
+        this.listener.stopListening();
+        assertEquals(new Byte[]{1, 2, 3, 4}, this.listener.batches.poll());
+        assertEquals(new Byte[]{5}, this.listener.batches.poll());
+        assertNull(this.listener.batches.poll());
+    }
+
+    public void testStopWhileReceiving() throws InterruptedException {
+        final CountDownLatch isProcessing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.listener = new RecordingListener(
+                this, BatchingListenerTests.TEST_FAILURE_TIMEOUT_UNIT.toMillis(
+                        10 * BatchingListenerTests.TEST_FAILURE_TIMEOUT)) {
+            @Override
+            public void processData(Object sender, Object[] data) {
+                isProcessing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.processData(sender, data);
+            }
+        };
+        this.listener.startListening();
+        // Several batches, the second of which waits for the first.
+        Thread receiver = new Thread() {
+            @Override
+            public void run() {
+                Integer[] data = new Integer[5 * BatchingListenerTests.BATCH_SIZE];
+                for (int i = 0; i < data.length; ++i) {
+                    data[i] = i;
+                }
+                BatchingListenerTests.this.listener.putData(data);
+            }
+        };
+        receiver.start();
+        assertTrue(isProcessing.await(
+                BatchingListenerTests.TEST_FAILURE_TIMEOUT,
+                BatchingListenerTests.TEST_FAILURE_TIMEOUT_UNIT
+        ));
+        Thread stopper = new Thread() {
+            @Override
+            public void run() {
+                BatchingListenerTests.this.listener.stopListening();
+            }
+        };
+        stopper.start();
+        // Let the stop begin before the first batch is done.
+        Thread.sleep(BatchingListenerTests.DELAY);
+        release.countDown();
+        receiver.join(BatchingListenerTests.TEST_FAILURE_TIMEOUT_UNIT.toMillis(
+                BatchingListenerTests.TEST_FAILURE_TIMEOUT));
+        stopper.join(BatchingListenerTests.TEST_FAILURE_TIMEOUT_UNIT.toMillis(
+                BatchingListenerTests.TEST_FAILURE_TIMEOUT));
+        assertFalse(receiver.isAlive());
+        assertFalse(stopper.isAlive());
+        // The batches received before the stop are full and in order.
+        assertEquals(new Integer[]{0, 1, 2, 3}, this.listener.batches.poll());
+        assertEquals(new Integer[]{4, 5, 6, 7}, this.listener.batches.poll());
+        assertNull(this.listener.batches.poll());
+    }
+
+    public void testErrorsDontStopBatches() throws InterruptedException {
+        this.listener = new RecordingListener(
+                this, BatchingListenerTests.TEST_FAILURE_TIMEOUT_UNIT.toMillis(
+                        10 * BatchingListenerTests.TEST_FAILURE_TIMEOUT)) {
+            private boolean isRejected;
+
+            @Override
+            public void processData(Object sender, Object[] data) {
+                if (!this.isRejected) {
+                    this.isRejected = true;
+                    throw new InvalidArgumentError("Rejected.");
+                }
+                super.processData(sender, data);
+            }
+        };
+        this.listener.startListening();
+        // Already listening, no second background thread.
+        this.listener.startListening();
+        Integer[] data = new Integer[4 * BatchingListenerTests.BATCH_SIZE];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = i;
+        }
+        this.listener.putData(data);
+        // Every batch after the rejected one.
+        for (int i = 1; i < 4; ++i) {
+            Object[] batch = this.listener.take();
+            assertNotNull(batch);
+            assertEquals(i * BatchingListenerTests.BATCH_SIZE, batch[0]);
+        }
+        assertNull(this.listener.batches.poll());
+    }
+
+    private static void assertEquals(Object[] expected, Object[] actual) {
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+}
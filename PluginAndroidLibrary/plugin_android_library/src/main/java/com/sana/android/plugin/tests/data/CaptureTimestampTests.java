@@ -0,0 +1,199 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.buffer.SensorFrames;
+import com.sana.android.plugin.data.buffer.SensorSamples;
+import com.sana.android.plugin.data.event.BytePollingDataEvent;
+import com.sana.android.plugin.data.event.RingBufferDataEvent;
+import com.sana.android.plugin.data.listener.TimestampedDataListener;
+import com.sana.android.plugin.tests.mocks.MockEvent;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that events stamp every update with its capture time and a
+ * sequence number.
+ */
+public class CaptureTimestampTests extends InstrumentationTestCase {
+    private static final byte[] TEST_BYTES = new byte[]{2, 3, 5, 7, 11, 13, 17};
+    private static final long TEST_CAPTURE_TIME = 123456789;
+    private static final long[] TEST_SENSOR_TIMESTAMPS = new long[]{1000, 2000};
+    private static final int MAX_UPDATES = 16;
+    private static final long TEST_FAILURE_TIMEOUT = 5;
+    private static final TimeUnit TEST_FAILURE_TIMEOUT_UNIT = TimeUnit.SECONDS;
+
+    private ArrayBlockingQueue<long[]> stamps;
+
+    /**
+     * Records the capture time and the sequence number of every update.
+     */
+    private class StampRecordingListener implements TimestampedDataListener {
+        @Override
+        public void putBytes(
+                byte[] data,
+                int offset,
+                int length,
+                long captureTimeNanos,
+                long sequenceNumber
+        ) {
+            CaptureTimestampTests.this.stamps.offer(
+                    new long[]{captureTimeNanos, sequenceNumber, length});
+        }
+
+        @Override
+        public void putData(
+                Object[] data, long captureTimeNanos, long sequenceNumber) {
+            CaptureTimestampTests.this.stamps.offer(
+                    new long[]{captureTimeNanos, sequenceNumber, data.length});
+        }
+
+        @Override
+        public void putBytes(byte[] data, int offset, int length) {
+            fail("Expected the timestamped method to be called.");
+        }
+
+        @Override
+        public void putData(Object[] data) {
+            fail("Expected the timestamped method to be called.");
+        }
+
+        @Override
+        public Object getExpectedSender() {
+            return CaptureTimestampTests.this;
+        }
+
+        @Override
+        public void startListening() {
+        }
+
+        @Override
+        public void stopListening() {
+        }
+
+        @Override
+        public void stopListening(long timeout, TimeUnit unit) {
+        }
+
+        @Override
+        public void setExpectedSender(Object sender) {
+        }
+
+        @Override
+        public void processData(Object sender, Object[] data) {
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.stamps = new ArrayBlockingQueue<long[]>(CaptureTimestampTests.MAX_UPDATES);
+    }
+
+    public void testEventStampsUpdates() throws InterruptedException {
+        MockEvent event = new MockEvent(this, new ArrayList<Byte[]>());
+        event.addListener(new StampRecordingListener());
+        long before = System.nanoTime();
+        event.notifyListeners(
+                CaptureTimestampTests.TEST_BYTES,
+                0,
+                CaptureTimestampTests.TEST_BYTES.length,
+                CaptureTimestampTests.TEST_CAPTURE_TIME
+        );
+        event.notifyListeners(new Object[]{"sample"});
+        long after = System.nanoTime();
+
+        long[] stamp = this.takeStamp();
+        assertEquals(CaptureTimestampTests.TEST_CAPTURE_TIME, stamp[0]);
+        assertEquals(0, stamp[1]);
+        stamp = this.takeStamp();
+        assertTrue(stamp[0] >= before && stamp[0] <= after);
+        assertEquals(1, stamp[1]);
+        event.dispose();
+    }
+
+    public void testSensorBatchesCarrySampleTime() throws InterruptedException {
+        MockEvent event = new MockEvent(this, new ArrayList<Byte[]>());
+        event.addListener(new StampRecordingListener());
+        float[] values = new float[6];
+        event.notifyListeners(new SensorSamples(
+                values,
+                values,
+                values,
+                CaptureTimestampTests.TEST_SENSOR_TIMESTAMPS,
+                2,
+                0
+        ));
+        event.notifyListeners(new SensorFrames(
+                new int[]{1},
+                CaptureTimestampTests.TEST_SENSOR_TIMESTAMPS,
+                values,
+                2,
+                0
+        ));
+
+        for (int sequence = 0; sequence < 2; ++sequence) {
+            long[] stamp = this.takeStamp();
+            assertEquals(CaptureTimestampTests.TEST_SENSOR_TIMESTAMPS[0], stamp[0]);
+            assertEquals(sequence, stamp[1]);
+        }
+        event.dispose();
+    }
+
+    public void testPollingEventStampsChunks() throws InterruptedException {
+        BytePollingDataEvent event = new BytePollingDataEvent(
+                this,
+                new ByteArrayInputStream(CaptureTimestampTests.TEST_BYTES),
+                BytePollingDataEvent.BUFFER_SIZE_VERY_SMALL
+        );
+        event.addListener(new StampRecordingListener());
+        long before = System.nanoTime();
+        event.startEvent();
+
+        int received = 0;
+        long previousCaptureTime = before;
+        for (int sequence = 0; received < CaptureTimestampTests.TEST_BYTES.length;
+                ++sequence) {
+            long[] stamp = this.takeStamp();
+            assertEquals(sequence, stamp[1]);
+            assertTrue(stamp[0] >= previousCaptureTime);
+            assertTrue(stamp[0] <= System.nanoTime());
+            previousCaptureTime = stamp[0];
+            received += stamp[2];
+        }
+        event.stopEvent();
+        event.dispose();
+    }
+
+    public void testRingBufferSequenceNumbers() throws InterruptedException {
+        // Updates larger than a slot take one sequence number per slot.
+        RingBufferDataEvent event = new RingBufferDataEvent(this, 4, 3);
+        event.addListener(new StampRecordingListener());
+        event.startEvent();
+        event.notifyListeners(
+                CaptureTimestampTests.TEST_BYTES,
+                0,
+                CaptureTimestampTests.TEST_BYTES.length,
+                CaptureTimestampTests.TEST_CAPTURE_TIME
+        );
+        for (int sequence = 0; sequence < 3; ++sequence) {
+            long[] stamp = this.takeStamp();
+            assertEquals(CaptureTimestampTests.TEST_CAPTURE_TIME, stamp[0]);
+            assertEquals(sequence, stamp[1]);
+        }
+        event.stopEvent();
+        event.dispose();
+    }
+
+    private long[] takeStamp() throws InterruptedException {
+        long[] stamp = this.stamps.poll(
+                CaptureTimestampTests.TEST_FAILURE_TIMEOUT,
+                CaptureTimestampTests.TEST_FAILURE_TIMEOUT_UNIT
+        );
+        assertNotNull(stamp);
+        return stamp;
+    }
+}
@@ -0,0 +1,170 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.buffer.Chunk;
+import com.sana.android.plugin.data.buffer.ChunkPool;
+import com.sana.android.plugin.data.listener.ByteDataListener;
+import com.sana.android.plugin.errors.InvalidInvocationError;
+import com.sana.android.plugin.tests.mocks.MockEvent;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the leasing and reference counting of pooled chunks, and that an
+ * event shares one chunk between its byte listeners.
+ */
+public class ChunkPoolTests extends InstrumentationTestCase {
+    private static final int CHUNK_SIZE = 16;
+    private static final int MAX_POOLED = 2;
+    private static final byte[] TEST_BYTES = new byte[]{2, 3, 5, 7, 11};
+    private static final long TEST_FAILURE_TIMEOUT = 5;
+    private static final TimeUnit TEST_FAILURE_TIMEOUT_UNIT = TimeUnit.SECONDS;
+
+    private ChunkPool pool;
+
+    private class RecordingListener implements ByteDataListener {
+        private CountDownLatch received = new CountDownLatch(1);
+        private volatile byte[] receivedArray;
+        private volatile int receivedLength;
+
+        @Override
+        public void putBytes(byte[] data, int offset, int length) {
+            this.receivedArray = data;
+            this.receivedLength = length;
+            this.received.countDown();
+        }
+
+        @Override
+        public void putData(Object[] data) {
+        }
+
+        @Override
+        public Object getExpectedSender() {
+            return ChunkPoolTests.this;
+        }
+
+        @Override
+        public void startListening() {
+        }
+
+        @Override
+        public void stopListening() {
+        }
+
+        @Override
+        public void stopListening(long timeout, TimeUnit unit) {
+        }
+
+        @Override
+        public void setExpectedSender(Object sender) {
+        }
+
+        @Override
+        public void processData(Object sender, Object[] data) {
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.pool = new ChunkPool(
+                ChunkPoolTests.CHUNK_SIZE, ChunkPoolTests.MAX_POOLED, false);
+    }
+
+    public void testReleasedChunkIsReused() {
+        Chunk chunk = this.pool.lease();
+        assertEquals(1, this.pool.getMissCount());
+        assertEquals(1, this.pool.getLeasedCount());
+        chunk.release();
+        assertEquals(0, this.pool.getLeasedCount());
+        assertEquals(1, this.pool.getPooledCount());
+
+        assertSame(chunk, this.pool.lease());
+        assertEquals(1, this.pool.getMissCount());
+        assertEquals(2, this.pool.getLeaseCount());
+        assertEquals(0, chunk.getLength());
+    }
+
+    public void testRetainedChunkStaysLeased() {
+        Chunk chunk = this.pool.lease();
+        chunk.retain();
+        chunk.release();
+        assertEquals(1, this.pool.getLeasedCount());
+        chunk.release();
+        assertEquals(0, this.pool.getLeasedCount());
+        try {
+            chunk.release();
+            fail("Expected releasing a pooled chunk to fail.");
+        } catch (InvalidInvocationError e) {
+            // Expected.
+        }
+    }
+
+    public void testSharedPoolSizeClasses() {
+        assertSame(ChunkPool.getShared(100), ChunkPool.getShared(128));
+        assertEquals(128, ChunkPool.getShared(100).getChunkSize());
+        assertEquals(256, ChunkPool.getShared(129).getChunkSize());
+        assertEquals(
+                ChunkPool.MIN_SHARED_CHUNK_SIZE,
+                ChunkPool.getShared(1).getChunkSize()
+        );
+        assertNotSame(ChunkPool.getShared(100), ChunkPool.getSharedDirect(100));
+    }
+
+    public void testDirectChunkBytes() {
+        ChunkPool directPool = new ChunkPool(
+                ChunkPoolTests.CHUNK_SIZE, ChunkPoolTests.MAX_POOLED, true);
+        Chunk chunk = directPool.lease();
+        chunk.getBuffer().put(ChunkPoolTests.TEST_BYTES);
+        chunk.setLength(ChunkPoolTests.TEST_BYTES.length);
+        byte[] copy = new byte[ChunkPoolTests.TEST_BYTES.length];
+        chunk.getBytes(0, copy, 0, copy.length);
+        for (int i = 0; i < copy.length; ++i) {
+            assertEquals(ChunkPoolTests.TEST_BYTES[i], copy[i]);
+        }
+        chunk.release();
+    }
+
+    public void testEventSharesChunkBetweenListeners()
+            throws InterruptedException {
+        MockEvent event = new MockEvent(this, new ArrayList<Byte[]>());
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        event.addListener(first);
+        event.addListener(second);
+
+        Chunk chunk = this.pool.lease();
+        System.arraycopy(
+                ChunkPoolTests.TEST_BYTES, 0,
+                chunk.array(), 0,
+                ChunkPoolTests.TEST_BYTES.length
+        );
+        chunk.setLength(ChunkPoolTests.TEST_BYTES.length);
+        event.notifyListeners(chunk);
+
+        assertTrue(first.received.await(
+                ChunkPoolTests.TEST_FAILURE_TIMEOUT,
+                ChunkPoolTests.TEST_FAILURE_TIMEOUT_UNIT
+        ));
+        assertTrue(second.received.await(
+                ChunkPoolTests.TEST_FAILURE_TIMEOUT,
+                ChunkPoolTests.TEST_FAILURE_TIMEOUT_UNIT
+        ));
+        assertSame(chunk.array(), first.receivedArray);
+        assertSame(chunk.array(), second.receivedArray);
+        assertEquals(ChunkPoolTests.TEST_BYTES.length, first.receivedLength);
+
+        // The lanes release the chunk right after delivering it.
+        long deadline = System.nanoTime()
+                + ChunkPoolTests.TEST_FAILURE_TIMEOUT_UNIT.toNanos(
+                        ChunkPoolTests.TEST_FAILURE_TIMEOUT);
+        while (this.pool.getLeasedCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, this.pool.getLeasedCount());
+        event.dispose();
+    }
+}
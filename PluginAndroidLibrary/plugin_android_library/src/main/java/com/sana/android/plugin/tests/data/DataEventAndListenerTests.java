@@ -4,12 +4,17 @@ import android.test.InstrumentationTestCase;
 import android.test.MoreAsserts;
 import android.util.Log;
 
+import com.sana.android.plugin.application.ExecutionContext;
+import com.sana.android.plugin.data.event.AdaptiveChunkSizer;
 import com.sana.android.plugin.data.event.BaseDataEvent;
 import com.sana.android.plugin.data.event.BytePollingDataEvent;
 import com.sana.android.plugin.data.event.BytePushingDataEvent;
+import com.sana.android.plugin.data.event.ChannelPollingDataEvent;
+import com.sana.android.plugin.data.event.RingBufferDataEvent;
 import com.sana.android.plugin.data.listener.DataChunkListener;
 import com.sana.android.plugin.data.listener.DataListener;
 import com.sana.android.plugin.data.listener.TimedListener;
+import com.sana.android.plugin.errors.InvalidArgumentError;
 import com.sana.android.plugin.tests.mocks.MockEvent;
 import com.sana.android.plugin.tests.mocks.MockListener;
 import com.sana.android.plugin.tests.subjects.DataChunkListenerForTest;
@@ -18,10 +23,16 @@ import com.sana.android.plugin.tests.subjects.TimedListenerForTest;
 import org.apache.commons.lang3.ArrayUtils;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -103,6 +114,100 @@ public class DataEventAndListenerTests extends InstrumentationTestCase {
         );
     }
 
+    public void testDataChunkListenerChunkSizes() throws InterruptedException {
+        final ArrayList<Integer> objectChunkSizes = new ArrayList<Integer>();
+        final ArrayList<Integer> byteChunkSizes = new ArrayList<Integer>();
+        DataChunkListener listener = new DataChunkListener(
+                this, DataEventAndListenerTests.TEST_LISTENER_BUFFER_SIZE_SMALL) {
+            @Override
+            protected void processBytes(
+                    Object sender, byte[] data, int offset, int length) {
+                byteChunkSizes.add(length);
+            }
+
+            @Override
+            public void processData(Object sender, Object[] data) {
+                objectChunkSizes.add(data.length);
+                try {
+                    DataEventAndListenerTests.this.putData(
+                            new ArrayList<Object>(Arrays.asList(data))
+                                    .toArray(new Byte[0]));
+                } catch (InterruptedException e) {
+                    fail("Interrupted while receiving data.");
+                }
+            }
+        };
+        listener.startListening();
+        // Updates smaller and larger than the buffer are cut into exact
+        // chunks, the remainder being processed when the listener stops.
+        listener.putData(ArrayUtils.subarray(this.testData, 0, 5));
+        listener.putData(ArrayUtils.subarray(
+                this.testData, 5, DataEventAndListenerTests.TEST_DATA_SIZE));
+        byte[] bytes = ArrayUtils.toPrimitive(this.testData);
+        listener.putBytes(bytes, 0, bytes.length);
+        listener.stopListening();
+        this.verifyData();
+
+        Integer[] expectedSizes = new Integer[]{8, 8, 1};
+        MoreAsserts.assertEquals(
+                expectedSizes, objectChunkSizes.toArray(new Integer[0]));
+        MoreAsserts.assertEquals(
+                expectedSizes, byteChunkSizes.toArray(new Integer[0]));
+    }
+
+    public void testDataChunkListenerKeepsChunks() {
+        final ArrayList<Object[]> chunks = new ArrayList<Object[]>();
+        DataChunkListener listener = new DataChunkListener(
+                this, DataEventAndListenerTests.TEST_LISTENER_BUFFER_SIZE_SMALL) {
+            @Override
+            public void processData(Object sender, Object[] data) {
+                chunks.add(data);
+            }
+        };
+        listener.startListening();
+        listener.putData(this.testData);
+        listener.stopListening();
+        // Every chunk kept by processData still holds its own elements.
+        ArrayList<Object> received = new ArrayList<Object>();
+        for (Object[] chunk : chunks) {
+            received.addAll(Arrays.asList(chunk));
+        }
+        MoreAsserts.assertEquals(this.testData, received.toArray());
+    }
+
+    public void testDataChunkListenerSurvivesErrors() throws InterruptedException {
+        final ArrayList<Object[]> chunks = new ArrayList<Object[]>();
+        // One pending chunk at most, so a dead background thread would
+        // block the receiver.
+        final DataChunkListener listener = new DataChunkListener(this, 2, 1) {
+            @Override
+            public void processData(Object sender, Object[] data) {
+                if (chunks.isEmpty()) {
+                    chunks.add(null);
+                    throw new InvalidArgumentError("Rejected.");
+                }
+                chunks.add(data);
+            }
+        };
+        listener.startListening();
+        Thread receiver = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 8; ++i) {
+                    listener.putData(new Object[]{i});
+                }
+                listener.stopListening();
+            }
+        };
+        receiver.start();
+        receiver.join(DataEventAndListenerTests.TEST_FAILURE_TIMEOUT_UNIT.toMillis(
+                DataEventAndListenerTests.TEST_FAILURE_TIMEOUT));
+        assertFalse(receiver.isAlive());
+        // Every chunk after the rejected one.
+        assertEquals(4, chunks.size());
+        MoreAsserts.assertEquals(new Object[]{6, 7}, chunks.get(3));
+    }
+
     public void testTimedListener() throws InterruptedException {
         this.testEventAndListener(
                 new MockEvent(this, this.getTestDataSets()),
@@ -110,6 +215,262 @@ public class DataEventAndListenerTests extends InstrumentationTestCase {
         );
     }
 
+    public void testTimedListenerBatches() throws InterruptedException {
+        final ArrayBlockingQueue<Object[]> batches =
+                new ArrayBlockingQueue<Object[]>(DataEventAndListenerTests.TEST_DATA_SIZE);
+        TimedListener listener = new TimedListener(
+                this,
+                DataEventAndListenerTests.STOP_LISTENER_TIMEOUT / 4,
+                DataEventAndListenerTests.TEST_LISTENER_TIME_UNIT
+        ) {
+            @Override
+            public void processData(Object sender, Object[] data) {
+                if (data.length > 0) {
+                    batches.offer(data);
+                }
+            }
+        };
+        listener.startListening();
+        // All the updates of an interval are processed as one batch.
+        for (int offset = 0; offset < this.testData.length; offset += 5) {
+            listener.putData(ArrayUtils.subarray(this.testData, offset, offset + 5));
+        }
+        Object[] batch = batches.poll(
+                DataEventAndListenerTests.TEST_FAILURE_TIMEOUT,
+                DataEventAndListenerTests.TEST_FAILURE_TIMEOUT_UNIT
+        );
+        listener.stopListening();
+        assertNotNull(batch);
+        MoreAsserts.assertEquals(this.testData, batch);
+    }
+
+    public void testTimedListenerDrainedBuffer() throws InterruptedException {
+        final ArrayBlockingQueue<Object[]> batches =
+                new ArrayBlockingQueue<Object[]>(DataEventAndListenerTests.TEST_DATA_SIZE);
+        TimedListener listener = new TimedListener(
+                this,
+                DataEventAndListenerTests.STOP_LISTENER_TIMEOUT / 4,
+                DataEventAndListenerTests.TEST_LISTENER_TIME_UNIT
+        ) {
+            @Override
+            protected void processObjects(Object sender, Object[] data, int count) {
+                // The buffer may be larger than the batch.
+                assertTrue(data.length >= count);
+                batches.offer(ArrayUtils.subarray(data, 0, count));
+            }
+
+            @Override
+            public void processData(Object sender, Object[] data) {
+            }
+        };
+        listener.startListening();
+        listener.putData(ArrayUtils.subarray(this.testData, 0, 5));
+        listener.putData(ArrayUtils.subarray(this.testData, 5, this.testData.length));
+        Object[] batch = batches.poll(
+                DataEventAndListenerTests.TEST_FAILURE_TIMEOUT,
+                DataEventAndListenerTests.TEST_FAILURE_TIMEOUT_UNIT
+        );
+        listener.stopListening();
+        MoreAsserts.assertEquals(this.testData, batch);
+    }
+
+    public void testTimedListenerNeverBlocks() throws InterruptedException {
+        final ArrayBlockingQueue<Object[]> batches =
+                new ArrayBlockingQueue<Object[]>(DataEventAndListenerTests.TEST_DATA_SIZE);
+        TimedListener listener = new TimedListener(
+                this,
+                DataEventAndListenerTests.STOP_LISTENER_TIMEOUT / 4,
+                DataEventAndListenerTests.TEST_LISTENER_TIME_UNIT,
+                4
+        ) {
+            @Override
+            public void processData(Object sender, Object[] data) {
+                if (data.length > 0) {
+                    batches.offer(data);
+                }
+            }
+        };
+        // Ignored before listening.
+        listener.putData(new Object[]{0});
+        listener.startListening();
+        listener.putData(new Object[]{1, 2, 3});
+        // Full, dropped instead of waiting for the next interval.
+        listener.putData(new Object[]{4, 5});
+        assertEquals(1, listener.getDroppedCount());
+        Object[] batch = batches.poll(
+                DataEventAndListenerTests.TEST_FAILURE_TIMEOUT,
+                DataEventAndListenerTests.TEST_FAILURE_TIMEOUT_UNIT
+        );
+        listener.stopListening();
+        MoreAsserts.assertEquals(new Object[]{1, 2, 3}, batch);
+        // Ignored once stopped, even past the capacity.
+        for (int i = 0; i < 10; ++i) {
+            listener.putData(new Object[]{i});
+        }
+        assertEquals(1, listener.getDroppedCount());
+    }
+
+    public void testSlowTimedListenersDontDelayOthers() throws InterruptedException {
+        // More slow listeners than timer threads, all busy at once.
+        final CountDownLatch release = new CountDownLatch(1);
+        TimedListener[] slowListeners =
+                new TimedListener[ExecutionContext.TIMER_THREAD_COUNT + 2];
+        for (int i = 0; i < slowListeners.length; ++i) {
+            slowListeners[i] = new TimedListener(this, 1, TimeUnit.MILLISECONDS) {
+                @Override
+                public void processData(Object sender, Object[] data) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            slowListeners[i].startListening();
+        }
+        final CountDownLatch intervals = new CountDownLatch(3);
+        TimedListener listener = new TimedListener(this, 10, TimeUnit.MILLISECONDS) {
+            @Override
+            public void processData(Object sender, Object[] data) {
+                intervals.countDown();
+            }
+        };
+        listener.startListening();
+        boolean isProcessed = intervals.await(
+                DataEventAndListenerTests.TEST_FAILURE_TIMEOUT,
+                DataEventAndListenerTests.TEST_FAILURE_TIMEOUT_UNIT
+        );
+        release.countDown();
+        listener.stopListening();
+        for (TimedListener slowListener : slowListeners) {
+            slowListener.stopListening();
+        }
+        assertTrue(isProcessed);
+    }
+
+    public void testPollingEventWithDataChunkListener()
+            throws InterruptedException {
+        this.testEventAndListener(
+                this.getPollingEvent(), this.getDataChunkListener());
+    }
+
+    public void testPushingEventWithTimedListener()
+            throws InterruptedException {
+        this.testEventAndListener(
+                this.getPushingEvent(), this.getTimedListener());
+    }
+
+    public void testNotificationOrder() throws InterruptedException {
+        // One notification per byte, so the order only holds if every
+        // chunk reaches the listener in the order it was published.
+        this.testEventAndListener(
+                new BytePushingDataEvent(this, this.is, 1),
+                new MockListener(this)
+        );
+    }
+
+    public void testRingBufferEvent() throws InterruptedException {
+        // A ring much smaller than the data, so the producer has to wait
+        // for the listener to free slots.
+        RingBufferDataEvent event = new RingBufferDataEvent(this, 2, 3);
+        DataListener listener = this.getDataChunkListener();
+        event.addListener(listener);
+        listener.startListening();
+        event.startEvent();
+        byte[] data = ArrayUtils.toPrimitive(this.testData);
+        for (int offset = 0; offset < data.length; offset += 5) {
+            event.notifyListeners(
+                    data, offset, Math.min(5, data.length - offset));
+        }
+        event.stopEvent();
+        listener.stopListening();
+        event.dispose();
+        this.verifyData();
+    }
+
+    public void testRingBufferProducerTimeout() throws InterruptedException {
+        // A listener stuck on its first update never frees the only slot.
+        final CountDownLatch release = new CountDownLatch(1);
+        RingBufferDataEvent event = new RingBufferDataEvent(this, 1, 3);
+        DataListener listener = new MockListener(this) {
+            @Override
+            public void putData(Object[] data) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        event.addListener(listener);
+        event.startEvent();
+        event.notifyListeners(new Object[]{1});
+        long startNanos = System.nanoTime();
+        event.notifyListeners(new Object[]{2});
+        long waited = System.nanoTime() - startNanos;
+        // The producer gives up instead of waiting forever.
+        assertEquals(1, event.getDroppedUpdateCount());
+        assertTrue(waited >= TimeUnit.SECONDS.toNanos(RingBufferDataEvent.PRODUCER_TIMEOUT));
+        release.countDown();
+        event.stopEvent();
+        event.dispose();
+    }
+
+    public void testAdaptivePollingEvent() throws InterruptedException {
+        this.testEventAndListener(
+                new BytePollingDataEvent(
+                        this,
+                        this.is,
+                        new AdaptiveChunkSizer(
+                                BytePollingDataEvent.BUFFER_SIZE_SINGLE,
+                                BytePollingDataEvent.BUFFER_SIZE_SMALL,
+                                DataEventAndListenerTests.TEST_LISTENER_INTERVAL_SMALL,
+                                DataEventAndListenerTests.TEST_LISTENER_TIME_UNIT
+                        )
+                ),
+                this.getDataChunkListener()
+        );
+    }
+
+    public void testChannelPollingEvent() throws InterruptedException {
+        this.testEventAndListener(
+                new ChannelPollingDataEvent(
+                        this,
+                        Channels.newChannel(this.is),
+                        BytePollingDataEvent.BUFFER_SIZE_VERY_SMALL
+                ),
+                this.getDataChunkListener()
+        );
+    }
+
+    public void testFileChannelPollingEvent()
+            throws InterruptedException, IOException {
+        // A file channel supports scatter reads straight into the chunks.
+        File file = File.createTempFile(
+                DataEventAndListenerTests.LOG_TAG,
+                null,
+                this.getInstrumentation().getTargetContext().getCacheDir()
+        );
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(ArrayUtils.toPrimitive(this.testData));
+        out.close();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            this.testEventAndListener(
+                    new ChannelPollingDataEvent(
+                            this,
+                            in.getChannel(),
+                            BytePollingDataEvent.BUFFER_SIZE_VERY_SMALL,
+                            2
+                    ),
+                    this.getDataChunkListener()
+            );
+        } finally {
+            in.close();
+            file.delete();
+        }
+    }
+
     public void testEventAndListener(BaseDataEvent event, DataListener listener
     ) throws InterruptedException {
         event.addListener(listener);
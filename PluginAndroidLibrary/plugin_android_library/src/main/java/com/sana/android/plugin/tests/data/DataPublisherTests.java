@@ -0,0 +1,165 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.event.DataPublisher;
+import com.sana.android.plugin.data.event.DataSubscriber;
+import com.sana.android.plugin.data.event.DataSubscription;
+import com.sana.android.plugin.data.event.NotificationDispatcher;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.tests.mocks.MockEvent;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that a {@link DataSubscriber} only receives the updates it
+ * requested, and that the event waits for it when it is behind.
+ */
+public class DataPublisherTests extends InstrumentationTestCase {
+    private static final long TEST_FAILURE_TIMEOUT = 5;
+    private static final TimeUnit TEST_FAILURE_TIMEOUT_UNIT = TimeUnit.SECONDS;
+    // How long to wait before concluding that nothing else arrives.
+    private static final long QUIET_PERIOD = 200;
+
+    private MockEvent event;
+    private RecordingSubscriber subscriber;
+
+    private static class RecordingSubscriber implements DataSubscriber {
+        private LinkedBlockingQueue<Object[]> received =
+                new LinkedBlockingQueue<Object[]>();
+        private DataSubscription subscription;
+        private long initialRequest;
+
+        private RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(DataSubscription subscription) {
+            this.subscription = subscription;
+            if (this.initialRequest > 0) {
+                subscription.request(this.initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(Object sender, Object[] data) {
+            this.received.add(data);
+        }
+
+        private Object[] take() throws InterruptedException {
+            return this.received.poll(
+                    DataPublisherTests.TEST_FAILURE_TIMEOUT,
+                    DataPublisherTests.TEST_FAILURE_TIMEOUT_UNIT
+            );
+        }
+
+        private Object[] poll() throws InterruptedException {
+            return this.received.poll(
+                    DataPublisherTests.QUIET_PERIOD, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.event = new MockEvent(this, new ArrayList<Byte[]>());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.event.dispose();
+        super.tearDown();
+    }
+
+    public void testOnlyRequestedUpdates() throws InterruptedException {
+        this.subscriber = new RecordingSubscriber(2);
+        new DataPublisher(this.event).subscribe(this.subscriber);
+        for (int i = 0; i < 5; ++i) {
+            this.event.notifyListeners(new Integer[]{i});
+        }
+        assertEquals(0, this.subscriber.take()[0]);
+        assertEquals(1, this.subscriber.take()[0]);
+        assertNull(this.subscriber.poll());
+        this.subscriber.subscription.request(3);
+        for (int i = 2; i < 5; ++i) {
+            assertEquals(i, this.subscriber.take()[0]);
+        }
+        assertNull(this.subscriber.poll());
+        try {
+            this.subscriber.subscription.request(0);
+            fail("Requests must be positive.");
+        } catch (InvalidArgumentError e) {
+        }
+    }
+
+    public void testEventWaitsForDemand() throws InterruptedException {
+        final int updateCount = NotificationDispatcher.DEFAULT_LANE_CAPACITY + 10;
+        final AtomicInteger notifiedCount = new AtomicInteger();
+        this.subscriber = new RecordingSubscriber(0);
+        new DataPublisher(this.event).subscribe(this.subscriber);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < updateCount; ++i) {
+                    DataPublisherTests.this.event.notifyListeners(new Integer[]{i});
+                    notifiedCount.incrementAndGet();
+                }
+            }
+        });
+        producer.start();
+        Thread.sleep(DataPublisherTests.QUIET_PERIOD);
+        // The lane is full and nothing was requested.
+        assertEquals(NotificationDispatcher.DEFAULT_LANE_CAPACITY, notifiedCount.get());
+        assertTrue(this.subscriber.received.isEmpty());
+
+        this.subscriber.subscription.request(Long.MAX_VALUE);
+        producer.join(DataPublisherTests.TEST_FAILURE_TIMEOUT_UNIT.toMillis(
+                DataPublisherTests.TEST_FAILURE_TIMEOUT));
+        assertEquals(updateCount, notifiedCount.get());
+        for (int i = 0; i < updateCount; ++i) {
+            assertEquals(i, this.subscriber.take()[0]);
+        }
+    }
+
+    public void testCancel() throws InterruptedException {
+        this.subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        new DataPublisher(this.event).subscribe(this.subscriber);
+        this.event.notifyListeners(new Integer[]{0});
+        assertEquals(0, this.subscriber.take()[0]);
+        this.subscriber.subscription.cancel();
+        this.event.notifyListeners(new Integer[]{1});
+        assertNull(this.subscriber.poll());
+    }
+
+    public void testCancelWhileEventWaits() throws InterruptedException {
+        final int updateCount = NotificationDispatcher.DEFAULT_LANE_CAPACITY + 10;
+        final AtomicInteger notifiedCount = new AtomicInteger();
+        this.subscriber = new RecordingSubscriber(0);
+        new DataPublisher(this.event).subscribe(this.subscriber);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < updateCount; ++i) {
+                    DataPublisherTests.this.event.notifyListeners(new Integer[]{i});
+                    notifiedCount.incrementAndGet();
+                }
+            }
+        });
+        producer.start();
+        Thread.sleep(DataPublisherTests.QUIET_PERIOD);
+        assertEquals(NotificationDispatcher.DEFAULT_LANE_CAPACITY, notifiedCount.get());
+
+        // The event goes on, and the pending updates are discarded.
+        this.subscriber.subscription.cancel();
+        producer.join(DataPublisherTests.TEST_FAILURE_TIMEOUT_UNIT.toMillis(
+                DataPublisherTests.TEST_FAILURE_TIMEOUT));
+        assertFalse(producer.isAlive());
+        assertEquals(updateCount, notifiedCount.get());
+        this.subscriber.subscription.request(Long.MAX_VALUE);
+        assertNull(this.subscriber.poll());
+    }
+}
@@ -0,0 +1,77 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.application.ExecutionContext;
+import com.sana.android.plugin.data.listener.TimedListener;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks that the shared threads outlive the tasks and listeners using them.
+ */
+public class ExecutionContextTests extends InstrumentationTestCase {
+    private static final long TEST_FAILURE_TIMEOUT = 5;
+    private static final TimeUnit TEST_FAILURE_TIMEOUT_UNIT = TimeUnit.SECONDS;
+    private static final long INTERVAL = 20;
+
+    public void testThreadsAreReused() throws InterruptedException {
+        final AtomicReference<Thread> first = new AtomicReference<Thread>();
+        final AtomicReference<Thread> second = new AtomicReference<Thread>();
+        this.run(first);
+        // Let the thread go back to the pool.
+        Thread.sleep(ExecutionContextTests.INTERVAL);
+        this.run(second);
+        assertSame(first.get(), second.get());
+        assertTrue(first.get().isDaemon());
+    }
+
+    public void testTimedListenerRestarts() throws InterruptedException {
+        final AtomicInteger intervals = new AtomicInteger();
+        TimedListener listener = new TimedListener(
+                this, ExecutionContextTests.INTERVAL, TimeUnit.MILLISECONDS) {
+            @Override
+            public void processData(Object sender, Object[] data) {
+                intervals.incrementAndGet();
+            }
+        };
+        for (int session = 0; session < 2; ++session) {
+            int before = intervals.get();
+            listener.startListening();
+            Thread.sleep(5 * ExecutionContextTests.INTERVAL);
+            listener.stopListening();
+            assertTrue(intervals.get() > before);
+        }
+        int stopped = intervals.get();
+        Thread.sleep(5 * ExecutionContextTests.INTERVAL);
+        assertEquals(stopped, intervals.get());
+    }
+
+    public void testShutdown() throws InterruptedException {
+        ExecutionContext context = ExecutionContext.getInstance();
+        context.shutdown();
+        assertTrue(context.awaitTermination(
+                ExecutionContextTests.TEST_FAILURE_TIMEOUT,
+                ExecutionContextTests.TEST_FAILURE_TIMEOUT_UNIT
+        ));
+        assertNotSame(context, ExecutionContext.getInstance());
+    }
+
+    private void run(final AtomicReference<Thread> thread)
+            throws InterruptedException {
+        Future<?> task = ExecutionContext.getInstance().submit(new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+            }
+        });
+        assertTrue(ExecutionContext.await(
+                task,
+                ExecutionContextTests.TEST_FAILURE_TIMEOUT,
+                ExecutionContextTests.TEST_FAILURE_TIMEOUT_UNIT
+        ));
+    }
+}
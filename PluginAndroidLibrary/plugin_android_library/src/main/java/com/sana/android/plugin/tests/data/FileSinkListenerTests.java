@@ -0,0 +1,92 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+import android.test.MoreAsserts;
+
+import com.sana.android.plugin.data.listener.FileSinkListener;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes known updates through a {@link FileSinkListener} and reads the
+ * file back.
+ */
+public class FileSinkListenerTests extends InstrumentationTestCase {
+    private static final int FLUSH_SIZE = 7;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.file = File.createTempFile("FileSinkListenerTests", ".raw");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.file.delete();
+        super.tearDown();
+    }
+
+    public void testUpdatesAcrossFlushes() throws IOException {
+        byte[] expected = new byte[100];
+        for (int i = 0; i < expected.length; ++i) {
+            expected[i] = (byte) i;
+        }
+        FileSinkListener sink = new FileSinkListener(
+                this, this.file, false, FileSinkListenerTests.FLUSH_SIZE, 2);
+        sink.startListening();
+        int offset = 0;
+        for (int length = 1; offset + length <= 90; offset += length++) {
+            sink.putBytes(expected, offset, length);
+        }
+        Object[] rest = new Object[expected.length - offset];
+        for (int i = 0; i < rest.length; ++i) {
+            rest[i] = expected[offset + i];
+        }
+        sink.putData(rest);
+        sink.stopListening();
+        assertNull(sink.getError());
+        MoreAsserts.assertEquals(expected, FileUtils.readFileToByteArray(this.file));
+        // Updates after stopping are ignored.
+        sink.putBytes(expected, 0, 1);
+        assertEquals(expected.length, this.file.length());
+    }
+
+    public void testRestart() throws IOException {
+        FileSinkListener sink = new FileSinkListener(
+                this, this.file, false, FileSinkListenerTests.FLUSH_SIZE, 0);
+        byte[] expected = new byte[40];
+        for (int i = 0; i < expected.length; ++i) {
+            expected[i] = (byte) i;
+        }
+        // Each run fills several buffers, and the second one appends.
+        for (int run = 0; run < 2; ++run) {
+            sink.startListening();
+            sink.putBytes(expected, run * 20, 20);
+            sink.stopListening();
+            assertNull(sink.getError());
+        }
+        MoreAsserts.assertEquals(expected, FileUtils.readFileToByteArray(this.file));
+    }
+
+    public void testAppend() throws IOException {
+        FileUtils.writeByteArrayToFile(this.file, new byte[]{1, 2});
+        FileSinkListener sink = new FileSinkListener(
+                this, this.file, true, FileSinkListenerTests.FLUSH_SIZE, 0);
+        sink.startListening();
+        sink.putBytes(new byte[]{3, 4, 5}, 1, 2);
+        try {
+            sink.putData(new Object[]{6});
+            fail("Only bytes can be written.");
+        } catch (InvalidArgumentError e) {
+        }
+        sink.stopListening();
+        MoreAsserts.assertEquals(
+                new byte[]{1, 2, 4, 5}, FileUtils.readFileToByteArray(this.file));
+    }
+}
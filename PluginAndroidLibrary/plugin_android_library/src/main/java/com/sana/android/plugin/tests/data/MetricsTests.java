@@ -0,0 +1,259 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.event.RingBufferDataEvent;
+import com.sana.android.plugin.data.listener.ByteDataListener;
+import com.sana.android.plugin.data.listener.DataChunkListener;
+import com.sana.android.plugin.data.listener.TimedListener;
+import com.sana.android.plugin.data.listener.WindowedListener;
+import com.sana.android.plugin.metrics.Gauge;
+import com.sana.android.plugin.metrics.Histogram;
+import com.sana.android.plugin.metrics.MetricsRegistry;
+import com.sana.android.plugin.metrics.MetricsSnapshot;
+import com.sana.android.plugin.tests.mocks.MockEvent;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the metric types and the metrics reported by events and their
+ * listener lanes.
+ */
+public class MetricsTests extends InstrumentationTestCase {
+    private static final byte[] TEST_BYTES = new byte[]{2, 3, 5, 7, 11};
+    private static final int NOTIFICATION_COUNT = 3;
+    private static final long TEST_FAILURE_TIMEOUT = 5;
+    private static final TimeUnit TEST_FAILURE_TIMEOUT_UNIT = TimeUnit.SECONDS;
+
+    private MetricsRegistry registry;
+
+    private class CountingListener implements ByteDataListener {
+        private CountDownLatch received =
+                new CountDownLatch(MetricsTests.NOTIFICATION_COUNT);
+
+        @Override
+        public void putBytes(byte[] data, int offset, int length) {
+            this.received.countDown();
+        }
+
+        @Override
+        public void putData(Object[] data) {
+        }
+
+        @Override
+        public Object getExpectedSender() {
+            return MetricsTests.this;
+        }
+
+        @Override
+        public void startListening() {
+        }
+
+        @Override
+        public void stopListening() {
+        }
+
+        @Override
+        public void stopListening(long timeout, TimeUnit unit) {
+        }
+
+        @Override
+        public void setExpectedSender(Object sender) {
+        }
+
+        @Override
+        public void processData(Object sender, Object[] data) {
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.registry = MetricsRegistry.getInstance();
+    }
+
+    public void testHistogramPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i);
+        }
+        MetricsSnapshot.HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(5050, snapshot.getSum());
+        assertEquals(100, snapshot.getMax());
+        assertEquals(50.5, snapshot.getMean(), 0.001);
+        // Percentiles are bucket upper bounds, within a factor of two.
+        long median = snapshot.getPercentile(50);
+        assertTrue(median >= 50 && median <= 100);
+        assertEquals(100, snapshot.getPercentile(100));
+        assertEquals(0, new Histogram().snapshot().getPercentile(99));
+    }
+
+    public void testCounterAndGaugeSnapshot() {
+        String scope = this.registry.createScope("test");
+        this.registry.counter(MetricsRegistry.getName(scope, "count")).add(7);
+        this.registry.counter(MetricsRegistry.getName(scope, "count")).increment();
+        this.registry.gauge(MetricsRegistry.getName(scope, "level"), new Gauge() {
+            @Override
+            public long getValue() {
+                return 42;
+            }
+        });
+
+        MetricsSnapshot snapshot = this.registry.snapshot();
+        assertEquals(8, snapshot.getValue(MetricsRegistry.getName(scope, "count")));
+        assertEquals(42, snapshot.getValue(MetricsRegistry.getName(scope, "level")));
+
+        this.registry.unregister(scope);
+        snapshot = this.registry.snapshot();
+        assertFalse(snapshot.getCounters().containsKey(
+                MetricsRegistry.getName(scope, "count")));
+        assertFalse(snapshot.getGauges().containsKey(
+                MetricsRegistry.getName(scope, "level")));
+    }
+
+    public void testEventMetrics() throws InterruptedException {
+        MockEvent event = new MockEvent(this, new ArrayList<Byte[]>());
+        CountingListener listener = new CountingListener();
+        event.addListener(listener);
+        for (int i = 0; i < MetricsTests.NOTIFICATION_COUNT; ++i) {
+            event.notifyListeners(
+                    MetricsTests.TEST_BYTES, 0, MetricsTests.TEST_BYTES.length);
+        }
+        assertTrue(listener.received.await(
+                MetricsTests.TEST_FAILURE_TIMEOUT,
+                MetricsTests.TEST_FAILURE_TIMEOUT_UNIT
+        ));
+
+        String scope = event.getMetricsScope();
+        MetricsSnapshot snapshot = this.registry.snapshot();
+        assertEquals(
+                MetricsTests.NOTIFICATION_COUNT,
+                snapshot.getValue(MetricsRegistry.getName(scope, "chunksIn"))
+        );
+        assertEquals(
+                MetricsTests.NOTIFICATION_COUNT * MetricsTests.TEST_BYTES.length,
+                snapshot.getValue(MetricsRegistry.getName(scope, "bytesIn"))
+        );
+        assertEquals(
+                0, snapshot.getValue(MetricsRegistry.getName(scope, "dropped")));
+        // The latency is recorded right after the delivery, so it may lag
+        // behind the listener slightly.
+        long deadline = System.nanoTime()
+                + MetricsTests.TEST_FAILURE_TIMEOUT_UNIT.toNanos(
+                        MetricsTests.TEST_FAILURE_TIMEOUT);
+        MetricsSnapshot.HistogramSnapshot latency =
+                this.findLaneLatency(snapshot, scope);
+        while (latency.getCount() < MetricsTests.NOTIFICATION_COUNT
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            latency = this.findLaneLatency(this.registry.snapshot(), scope);
+        }
+        assertEquals(MetricsTests.NOTIFICATION_COUNT, latency.getCount());
+
+        event.dispose();
+        snapshot = this.registry.snapshot();
+        for (String name : snapshot.getHistograms().keySet()) {
+            assertFalse(name.startsWith(scope));
+        }
+        for (String name : snapshot.getGauges().keySet()) {
+            assertFalse(name.startsWith(scope));
+        }
+    }
+
+    public void testRingListenersHaveNoLanes() throws InterruptedException {
+        // The listeners of a ring read the ring itself.
+        RingBufferDataEvent event = new RingBufferDataEvent(this);
+        CountingListener listener = new CountingListener();
+        event.addListener(listener);
+        event.startEvent();
+        for (int i = 0; i < MetricsTests.NOTIFICATION_COUNT; ++i) {
+            event.notifyListeners(
+                    MetricsTests.TEST_BYTES, 0, MetricsTests.TEST_BYTES.length);
+        }
+        assertTrue(listener.received.await(
+                MetricsTests.TEST_FAILURE_TIMEOUT,
+                MetricsTests.TEST_FAILURE_TIMEOUT_UNIT
+        ));
+
+        String lanePrefix = event.getMetricsScope() + ".listener.";
+        MetricsSnapshot snapshot = this.registry.snapshot();
+        for (String name : snapshot.getHistograms().keySet()) {
+            assertFalse(name.startsWith(lanePrefix));
+        }
+        for (String name : snapshot.getGauges().keySet()) {
+            assertFalse(name.startsWith(lanePrefix));
+        }
+        event.stopEvent();
+        event.dispose();
+    }
+
+    public void testListenerMetricsAcrossRestarts() {
+        TimedListener listener = new TimedListener(this, 1, TimeUnit.HOURS, 1) {
+            @Override
+            public void processData(Object sender, Object[] data) {
+            }
+        };
+        String dropped = MetricsRegistry.getName(listener.getMetricsScope(), "dropped");
+        // The update kept from the first run still fills the capacity in
+        // the second one.
+        long[] expectedDrops = new long[]{1, 3};
+        for (long expected : expectedDrops) {
+            listener.startListening();
+            listener.putData(new Object[]{expected});
+            listener.putData(new Object[]{expected});
+            // The same counter is registered again by the second start.
+            assertEquals(expected, this.registry.snapshot().getValue(dropped));
+            listener.stopListening();
+            assertFalse(this.registry.snapshot().getCounters().containsKey(dropped));
+        }
+    }
+
+    public void testChunkListenerMetricsAcrossRestarts() {
+        DataChunkListener listener = new DataChunkListener(this, 1) {
+            @Override
+            public void processData(Object sender, Object[] data) {
+            }
+        };
+        String chunksOut = MetricsRegistry.getName(listener.getMetricsScope(), "chunksOut");
+        for (int run = 0; run < 2; ++run) {
+            listener.startListening();
+            assertEquals(run, this.registry.snapshot().getValue(chunksOut));
+            listener.putData(new Object[]{run});
+            listener.stopListening();
+            assertFalse(this.registry.snapshot().getCounters().containsKey(chunksOut));
+        }
+    }
+
+    public void testWindowedListenerMetricsAcrossRestarts() {
+        WindowedListener listener = new WindowedListener(this, 2, 2) {
+            @Override
+            public void processData(Object sender, Object[] data) {
+            }
+        };
+        String windowsOut = MetricsRegistry.getName(listener.getMetricsScope(), "windowsOut");
+        for (int run = 0; run < 2; ++run) {
+            listener.startListening();
+            listener.putBytes(new byte[]{1, 2}, 0, 2);
+            assertEquals(run + 1, this.registry.snapshot().getValue(windowsOut));
+            listener.stopListening();
+            assertFalse(this.registry.snapshot().getCounters().containsKey(windowsOut));
+        }
+    }
+
+    private MetricsSnapshot.HistogramSnapshot findLaneLatency(
+            MetricsSnapshot snapshot, String eventScope) {
+        for (Map.Entry<String, MetricsSnapshot.HistogramSnapshot> entry
+                : snapshot.getHistograms().entrySet()) {
+            if (entry.getKey().startsWith(eventScope + ".listener.")
+                    && entry.getKey().endsWith(".latencyNanos")) {
+                return entry.getValue();
+            }
+        }
+        fail("No latency histogram registered for the listener.");
+        return null;
+    }
+}
@@ -0,0 +1,91 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.dsp.MotionFeatureExtractor;
+import com.sana.android.plugin.data.dsp.MotionFeatures;
+import com.sana.android.plugin.data.dsp.RunningStatistics;
+import com.sana.android.plugin.data.dsp.ZeroCrossingCounter;
+
+import java.util.Random;
+
+/**
+ * Feeds the motion features synthetic accelerations whose statistics,
+ * crossings and steps are known.
+ */
+public class MotionFeatureTests extends InstrumentationTestCase {
+    private static final float GRAVITY = 9.81f;
+    private static final int SAMPLE_RATE = 100;
+    private static final long NANOS_PER_SAMPLE = 1000000000L / MotionFeatureTests.SAMPLE_RATE;
+
+    public void testRunningStatistics() {
+        // Small jitter around a large mean, where the textbook formula
+        // loses its precision.
+        double[] values = new double[10000];
+        Random random = new Random(0);
+        RunningStatistics statistics = new RunningStatistics();
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = 1e6 + random.nextGaussian() * 1e-2;
+            statistics.add(values[i]);
+        }
+        double mean = 0;
+        for (double value : values) {
+            mean += value / values.length;
+        }
+        double variance = 0;
+        for (double value : values) {
+            variance += (value - mean) * (value - mean) / values.length;
+        }
+        assertEquals(values.length, statistics.getCount());
+        assertEquals(mean, statistics.getMean(), 1e-6);
+        assertEquals(variance, statistics.getVariance(), variance * 1e-6);
+        assertEquals(mean, statistics.getRms(), 1e-3);
+
+        statistics.reset();
+        assertEquals(0, statistics.getCount());
+        assertEquals(0, statistics.getVariance(), 0);
+    }
+
+    public void testZeroCrossingHysteresis() {
+        ZeroCrossingCounter counter = new ZeroCrossingCounter(0.5);
+        double[] values = new double[]{1, 0.2, -0.2, 0.3, -1, -0.1, 0.1, 2, -2};
+        for (double value : values) {
+            counter.add(value);
+        }
+        // 1 to -1, -1 to 2 and 2 to -2; the noise inside the band is ignored.
+        assertEquals(3, counter.getCrossingCount());
+    }
+
+    public void testWalking() {
+        MotionFeatureExtractor extractor = new MotionFeatureExtractor();
+        // Standing still for a second lets the baseline settle on gravity.
+        for (int i = 0; i < MotionFeatureTests.SAMPLE_RATE; ++i) {
+            extractor.add(0, 0, MotionFeatureTests.GRAVITY, i * MotionFeatureTests.NANOS_PER_SAMPLE);
+        }
+        MotionFeatures still = extractor.takeFeatures();
+        assertEquals(MotionFeatureTests.SAMPLE_RATE, still.getSampleCount());
+        assertEquals(MotionFeatureTests.GRAVITY, still.getMean(2), 1e-5);
+        assertEquals(0, still.getVariance(2), 1e-9);
+        assertEquals(0, still.getStepCount());
+
+        // Then walking at two steps per second for five seconds, with small
+        // bounces after every heel strike.
+        int start = MotionFeatureTests.SAMPLE_RATE;
+        for (int i = 0; i < 5 * MotionFeatureTests.SAMPLE_RATE; ++i) {
+            double t = (double) i / MotionFeatureTests.SAMPLE_RATE;
+            double bounce = 0.6 * Math.sin(2 * Math.PI * 16 * t);
+            float z = (float) (MotionFeatureTests.GRAVITY
+                    + 3 * Math.sin(2 * Math.PI * 2 * t) + bounce);
+            extractor.add(0, 0, z, (start + i) * MotionFeatureTests.NANOS_PER_SAMPLE);
+        }
+        MotionFeatures walking = extractor.takeFeatures();
+        assertEquals(5 * MotionFeatureTests.SAMPLE_RATE, walking.getSampleCount());
+        assertEquals(10, walking.getStepCount(), 1);
+        assertEquals(3.6, walking.getMaxStepPeak(), 0.5);
+        assertTrue(walking.getMagnitudeStandardDeviation() > 2);
+        // Two crossings of gravity per step.
+        assertEquals(4, walking.getZeroCrossingRate(), 0.5);
+
+        assertNull(extractor.takeFeatures());
+    }
+}
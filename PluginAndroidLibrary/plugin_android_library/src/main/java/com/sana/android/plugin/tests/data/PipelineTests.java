@@ -0,0 +1,163 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+import android.test.MoreAsserts;
+
+import com.sana.android.plugin.data.listener.ByteDataListener;
+import com.sana.android.plugin.data.listener.DataListener;
+import com.sana.android.plugin.data.pipeline.Mapper;
+import com.sana.android.plugin.data.pipeline.Pipeline;
+import com.sana.android.plugin.data.pipeline.Predicate;
+import com.sana.android.plugin.errors.InvalidInvocationError;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs known updates through {@link Pipeline}s and checks what reaches the
+ * listeners at the end.
+ */
+public class PipelineTests extends InstrumentationTestCase {
+    private static final Mapper DOUBLE = new Mapper() {
+        @Override
+        public Object map(Object element) {
+            return 2 * (Integer) element;
+        }
+    };
+    private static final Predicate EVEN = new Predicate() {
+        @Override
+        public boolean accept(Object element) {
+            return (Integer) element % 2 == 0;
+        }
+    };
+
+    /**
+     * Keeps every update it receives.
+     */
+    private static class RecordingListener implements ByteDataListener {
+        private ArrayList<Object> elements = new ArrayList<Object>();
+        private int updates = 0;
+        private int byteUpdates = 0;
+        private boolean isListening = false;
+
+        @Override
+        public void putBytes(byte[] data, int offset, int length) {
+            ++this.byteUpdates;
+            for (int i = offset; i < offset + length; ++i) {
+                this.elements.add(data[i]);
+            }
+        }
+
+        @Override
+        public void putData(Object[] data) {
+            ++this.updates;
+            for (Object element : data) {
+                this.elements.add(element);
+            }
+        }
+
+        @Override
+        public void processData(Object sender, Object[] data) {
+        }
+
+        @Override
+        public void setExpectedSender(Object sender) {
+        }
+
+        @Override
+        public Object getExpectedSender() {
+            return null;
+        }
+
+        @Override
+        public void startListening() {
+            this.isListening = true;
+        }
+
+        @Override
+        public void stopListening() {
+            this.isListening = false;
+        }
+
+        @Override
+        public void stopListening(long timeout, TimeUnit unit) {
+            this.isListening = false;
+        }
+    }
+
+    public void testFusedStages() {
+        RecordingListener listener = new RecordingListener();
+        Pipeline pipeline = new Pipeline(this)
+                .filter(PipelineTests.EVEN)
+                .decimate(2)
+                .map(PipelineTests.DOUBLE)
+                .to(listener);
+        pipeline.startListening();
+        assertTrue(listener.isListening);
+        pipeline.putData(new Object[]{0, 1, 2, 3, 4, 5, 6, 7});
+        // Nothing passes the filter, so nothing is sent.
+        pipeline.putData(new Object[]{9, 11});
+        pipeline.putData(new Object[]{8, 10, 12});
+        pipeline.stopListening();
+        assertFalse(listener.isListening);
+        assertEquals(2, listener.updates);
+        MoreAsserts.assertEquals(
+                new Object[]{0, 8, 16, 24}, listener.elements.toArray());
+    }
+
+    public void testWindows() {
+        final ArrayList<Object[]> windows = new ArrayList<Object[]>();
+        Pipeline pipeline = new Pipeline(this)
+                .window(3, 2)
+                .map(new Mapper() {
+                    @Override
+                    public Object map(Object element) {
+                        windows.add((Object[]) element);
+                        return ((Object[]) element).length;
+                    }
+                });
+        pipeline.startListening();
+        pipeline.putData(new Object[]{0, 1, 2, 3});
+        pipeline.putData(new Object[]{4, 5, 6});
+        pipeline.stopListening();
+        assertEquals(3, windows.size());
+        for (int i = 0; i < windows.size(); ++i) {
+            MoreAsserts.assertEquals(
+                    new Object[]{2 * i, 2 * i + 1, 2 * i + 2}, windows.get(i));
+        }
+    }
+
+    public void testFanOutAndMerge() {
+        Object otherSender = new Object();
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        Pipeline pipeline = new Pipeline(this)
+                .map(PipelineTests.DOUBLE)
+                .to(first, second);
+        DataListener input = pipeline.input(otherSender);
+        assertSame(otherSender, input.getExpectedSender());
+        pipeline.startListening();
+        pipeline.putData(new Object[]{1, 2});
+        input.putData(new Object[]{3});
+        pipeline.stopListening();
+        MoreAsserts.assertEquals(new Object[]{2, 4, 6}, first.elements.toArray());
+        MoreAsserts.assertEquals(new Object[]{2, 4, 6}, second.elements.toArray());
+    }
+
+    public void testBytesWithoutStages() {
+        RecordingListener listener = new RecordingListener();
+        Pipeline pipeline = new Pipeline(this).to(listener);
+        pipeline.startListening();
+        pipeline.putBytes(new byte[]{1, 2, 3, 4}, 1, 2);
+        try {
+            pipeline.decimate(2);
+            fail("Stages can't be added while listening.");
+        } catch (InvalidInvocationError e) {
+        }
+        pipeline.stopListening();
+        assertEquals(1, listener.byteUpdates);
+        assertEquals(0, listener.updates);
+        MoreAsserts.assertEquals(
+                new Object[]{(byte) 2, (byte) 3}, listener.elements.toArray());
+    }
+}
@@ -0,0 +1,102 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.dsp.PolyphaseResampler;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+
+import java.util.Random;
+
+/**
+ * Resamples synthetic signals from the 44100 Hz audio rate to 8000 Hz.
+ */
+public class PolyphaseResamplerTests extends InstrumentationTestCase {
+    private static final int INPUT_RATE = 44100;
+    private static final int OUTPUT_RATE = 8000;
+
+    public void testPassbandAndStopband() {
+        assertEquals(1, this.getOutputAmplitude(200), 0.02);
+        assertEquals(1, this.getOutputAmplitude(2000), 0.02);
+        // Above the 4000 Hz output Nyquist frequency.
+        assertTrue(this.getOutputAmplitude(6000) < 0.01);
+    }
+
+    public void testBuffersOfAnySize() {
+        float[] input = new float[10000];
+        Random random = new Random(0);
+        for (int i = 0; i < input.length; ++i) {
+            input[i] = random.nextFloat() - 0.5f;
+        }
+        PolyphaseResampler whole = new PolyphaseResampler(
+                PolyphaseResamplerTests.INPUT_RATE, PolyphaseResamplerTests.OUTPUT_RATE);
+        float[] expected = new float[whole.getMaxOutputLength(input.length)];
+        int expectedLength = whole.process(input, 0, input.length, expected, 0);
+        assertEquals(input.length * 8000 / 44100, expectedLength, 1);
+
+        PolyphaseResampler chunked = new PolyphaseResampler(
+                PolyphaseResamplerTests.INPUT_RATE, PolyphaseResamplerTests.OUTPUT_RATE);
+        float[] actual = new float[expected.length];
+        int actualLength = 0;
+        for (int offset = 0; offset < input.length; ) {
+            int length = Math.min(1 + random.nextInt(700), input.length - offset);
+            float[] output = new float[chunked.getMaxOutputLength(length)];
+            int count = chunked.process(input, offset, length, output, 0);
+            System.arraycopy(output, 0, actual, actualLength, count);
+            actualLength += count;
+            offset += length;
+        }
+        assertEquals(expectedLength, actualLength);
+        for (int i = 0; i < expectedLength; ++i) {
+            assertEquals(expected[i], actual[i], 1e-6f);
+        }
+    }
+
+    public void testStereoPcm16() {
+        PolyphaseResampler resampler = new PolyphaseResampler(
+                PolyphaseResamplerTests.INPUT_RATE, PolyphaseResamplerTests.OUTPUT_RATE, 2);
+        // A constant 1000 on the left channel and -2000 on the right.
+        byte[] input = new byte[4 * 4410];
+        for (int i = 0; i < input.length; i += 4) {
+            input[i] = (byte) 1000;
+            input[i + 1] = (byte) (1000 >> 8);
+            input[i + 2] = (byte) -2000;
+            input[i + 3] = (byte) (-2000 >> 8);
+        }
+        byte[] output = new byte[2 * resampler.getMaxOutputLength(input.length / 2)];
+        int length = resampler.processPcm16(input, 0, input.length, output, 0);
+        assertEquals(4 * 800, length);
+        // Past the delay of the filter.
+        for (int i = length / 2; i < length; i += 4) {
+            assertEquals(1000, (short) ((output[i + 1] << 8) | (output[i] & 0xff)), 2);
+            assertEquals(-2000, (short) ((output[i + 3] << 8) | (output[i + 2] & 0xff)), 2);
+        }
+        short[] shorts = new short[]{1, 2, 3};
+        try {
+            resampler.process(shorts, 0, shorts.length, new short[8], 0);
+            fail("Partial frames must be rejected.");
+        } catch (InvalidArgumentError e) {
+        }
+    }
+
+    /**
+     * @return The amplitude of the output of the resampler once it settled,
+     *         computed from its RMS, for a unit sine wave at the given
+     *         frequency.
+     */
+    private double getOutputAmplitude(double frequency) {
+        PolyphaseResampler resampler = new PolyphaseResampler(
+                PolyphaseResamplerTests.INPUT_RATE, PolyphaseResamplerTests.OUTPUT_RATE);
+        float[] input = new float[PolyphaseResamplerTests.INPUT_RATE / 2];
+        for (int i = 0; i < input.length; ++i) {
+            input[i] = (float) Math.sin(
+                    2 * Math.PI * frequency * i / PolyphaseResamplerTests.INPUT_RATE);
+        }
+        float[] output = new float[resampler.getMaxOutputLength(input.length)];
+        int length = resampler.process(input, 0, input.length, output, 0);
+        double energy = 0;
+        for (int i = length / 2; i < length; ++i) {
+            energy += output[i] * output[i];
+        }
+        return Math.sqrt(2 * energy / (length - length / 2));
+    }
+}
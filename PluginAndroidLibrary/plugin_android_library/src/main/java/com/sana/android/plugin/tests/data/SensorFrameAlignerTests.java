@@ -0,0 +1,100 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.buffer.SensorFrames;
+import com.sana.android.plugin.data.buffer.SensorSamples;
+import com.sana.android.plugin.data.dsp.SensorFrameAligner;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that the samples of several sensors are merged into frames in
+ * timestamp order, interpolated between their neighbours.
+ */
+public class SensorFrameAlignerTests extends InstrumentationTestCase {
+    private static final int[] SENSOR_TYPES = new int[]{1, 4};
+    private static final long MAX_SKEW = 1000;
+    private static final float TOLERANCE = 1e-4f;
+
+    /**
+     * @return Samples whose x values equal their timestamps.
+     */
+    private static SensorSamples ramp(long... timestamps) {
+        float[] values = new float[timestamps.length];
+        for (int i = 0; i < timestamps.length; ++i) {
+            values[i] = timestamps[i];
+        }
+        return new SensorSamples(
+                values, values, values, timestamps, timestamps.length, 0);
+    }
+
+    public void testFramesWaitForEverySensor() {
+        SensorFrameAligner aligner = new SensorFrameAligner(
+                SensorFrameAlignerTests.SENSOR_TYPES,
+                0,
+                SensorFrameAlignerTests.MAX_SKEW,
+                TimeUnit.NANOSECONDS
+        );
+        aligner.add(0, SensorFrameAlignerTests.ramp(100, 200, 300));
+        aligner.add(1, SensorFrameAlignerTests.ramp(50, 250));
+        // The frame at 300 waits for the second sensor.
+        SensorFrames frames = aligner.poll(false);
+        assertEquals(2, frames.getCount());
+        assertEquals(100, frames.getTimestamps()[0]);
+        assertEquals(200, frames.getTimestamps()[1]);
+        assertEquals(100f, frames.getValue(0, 0, 0), SensorFrameAlignerTests.TOLERANCE);
+        assertEquals(100f, frames.getValue(0, 1, 0), SensorFrameAlignerTests.TOLERANCE);
+        assertEquals(200f, frames.getValue(1, 1, 2), SensorFrameAlignerTests.TOLERANCE);
+        assertNull(aligner.poll(false));
+
+        aligner.add(1, SensorFrameAlignerTests.ramp(350));
+        frames = aligner.poll(false);
+        assertEquals(1, frames.getCount());
+        assertEquals(2, frames.getFirstSequenceNumber());
+        assertEquals(300f, frames.getValue(0, 1, 1), SensorFrameAlignerTests.TOLERANCE);
+    }
+
+    public void testCommonRate() {
+        SensorFrameAligner aligner = new SensorFrameAligner(
+                SensorFrameAlignerTests.SENSOR_TYPES,
+                30,
+                SensorFrameAlignerTests.MAX_SKEW,
+                TimeUnit.NANOSECONDS
+        );
+        aligner.add(0, SensorFrameAlignerTests.ramp(0, 100, 200));
+        aligner.add(1, SensorFrameAlignerTests.ramp(10, 70, 130));
+        SensorFrames frames = aligner.poll(false);
+        // 0, 30, ..., 120, covered by both sensors.
+        assertEquals(5, frames.getCount());
+        for (int i = 0; i < frames.getCount(); ++i) {
+            long t = 30 * i;
+            assertEquals(t, frames.getTimestamps()[i]);
+            assertEquals((float) t, frames.getValue(i, 0, 0), SensorFrameAlignerTests.TOLERANCE);
+        }
+        // The second sensor is held before its first sample.
+        assertEquals(10f, frames.getValue(0, 1, 0), SensorFrameAlignerTests.TOLERANCE);
+        assertEquals(90f, frames.getValue(3, 1, 0), SensorFrameAlignerTests.TOLERANCE);
+
+        // The rest, up to the newest sample, without the second sensor.
+        frames = aligner.poll(true);
+        assertEquals(2, frames.getCount());
+        assertEquals(180, frames.getTimestamps()[1]);
+        assertEquals(130f, frames.getValue(1, 1, 0), SensorFrameAlignerTests.TOLERANCE);
+    }
+
+    public void testLaggingSensorIsSkipped() {
+        SensorFrameAligner aligner = new SensorFrameAligner(
+                SensorFrameAlignerTests.SENSOR_TYPES,
+                0,
+                SensorFrameAlignerTests.MAX_SKEW,
+                TimeUnit.NANOSECONDS
+        );
+        aligner.add(0, SensorFrameAlignerTests.ramp(0, 500, 2000));
+        SensorFrames frames = aligner.poll(false);
+        // The second sensor never sent anything, only the frames more than
+        // the maximum skew behind the newest sample are made.
+        assertEquals(2, frames.getCount());
+        assertTrue(Float.isNaN(frames.getValue(1, 1, 0)));
+    }
+}
@@ -0,0 +1,133 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.buffer.SensorSampleFile;
+import com.sana.android.plugin.data.buffer.SensorSamples;
+import com.sana.android.plugin.errors.InvalidArgumentError;
+import com.sana.android.plugin.errors.InvalidInvocationError;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Records samples across several segments of a {@link SensorSampleFile}
+ * and reads them back.
+ */
+public class SensorSampleFileTests extends InstrumentationTestCase {
+    private static final int SEGMENT_RECORDS = 7;
+    private static final long PERIOD = 10;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.file = File.createTempFile("SensorSampleFileTests", ".raw");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * @return <code>count</code> samples from the index <code>first</code>
+     *         on, whose values derive from their index.
+     */
+    private static SensorSamples makeSamples(int first, int count) {
+        float[] x = new float[count];
+        float[] y = new float[count];
+        float[] z = new float[count];
+        long[] timestamps = new long[count];
+        for (int i = 0; i < count; ++i) {
+            x[i] = first + i;
+            y[i] = -(first + i);
+            z[i] = (first + i) / 2f;
+            timestamps[i] = (first + i) * SensorSampleFileTests.PERIOD;
+        }
+        return new SensorSamples(x, y, z, timestamps, count, first);
+    }
+
+    private static void assertSamples(int first, int count, SensorSamples samples) {
+        assertEquals(count, samples.getCount());
+        assertEquals(first, samples.getFirstSequenceNumber());
+        for (int i = 0; i < count; ++i) {
+            assertEquals((first + i) * SensorSampleFileTests.PERIOD, samples.getTimestamps()[i]);
+            assertEquals((float) first + i, samples.getX()[i]);
+            assertEquals((float) -(first + i), samples.getY()[i]);
+            assertEquals((first + i) / 2f, samples.getZ()[i]);
+        }
+    }
+
+    public void testReadByTimeRange() throws IOException {
+        SensorSampleFile recording = new SensorSampleFile(
+                this.file, SensorSampleFileTests.SEGMENT_RECORDS);
+        recording.append(SensorSampleFileTests.makeSamples(0, 20));
+        recording.append(SensorSampleFileTests.makeSamples(20, 5));
+        assertEquals(25, recording.getCount());
+        SensorSampleFileTests.assertSamples(0, 25, recording.read(0, 25));
+        // [45, 125) holds the samples at 50 to 120, across three segments.
+        SensorSampleFileTests.assertSamples(5, 8, recording.readRange(45, 125));
+        SensorSampleFileTests.assertSamples(24, 1, recording.readRange(240, 1000));
+        assertEquals(0, recording.readRange(1000, 2000).getCount());
+        assertEquals(0, recording.readRange(100, 50).getCount());
+        try {
+            recording.read(20, 6);
+            fail("Only recorded samples can be read.");
+        } catch (InvalidArgumentError e) {
+        }
+        try {
+            recording.append(0, 0, 0, 0);
+            fail("Timestamps must not decrease.");
+        } catch (InvalidArgumentError e) {
+        }
+        recording.close();
+        // The unused end of the last segment is cut.
+        assertEquals(25 * SensorSampleFile.RECORD_SIZE, this.file.length());
+        try {
+            recording.read(0, 1);
+            fail("The file is closed.");
+        } catch (InvalidInvocationError e) {
+        }
+    }
+
+    public void testReopenAndAppend() throws IOException {
+        SensorSampleFile recording = new SensorSampleFile(
+                this.file, SensorSampleFileTests.SEGMENT_RECORDS);
+        recording.append(SensorSampleFileTests.makeSamples(0, 10));
+        recording.close();
+
+        recording = new SensorSampleFile(this.file, SensorSampleFileTests.SEGMENT_RECORDS);
+        assertEquals(10, recording.getCount());
+        try {
+            recording.append(0, 0, 0, 0);
+            fail("Timestamps must not decrease across reopening.");
+        } catch (InvalidArgumentError e) {
+        }
+        recording.append(SensorSampleFileTests.makeSamples(10, 10));
+        SensorSampleFileTests.assertSamples(0, 20, recording.read(0, 20));
+        recording.close();
+        assertEquals(20 * SensorSampleFile.RECORD_SIZE, this.file.length());
+    }
+
+    public void testReopenAfterCrash() throws IOException {
+        SensorSampleFile recording = new SensorSampleFile(
+                this.file, SensorSampleFileTests.SEGMENT_RECORDS);
+        recording.append(SensorSampleFileTests.makeSamples(0, 10));
+        recording.close();
+        // A file that wasn't closed ends with the zeros of its last segment.
+        RandomAccessFile access = new RandomAccessFile(this.file, "rw");
+        access.setLength(2 * SensorSampleFileTests.SEGMENT_RECORDS * SensorSampleFile.RECORD_SIZE);
+        access.close();
+
+        recording = new SensorSampleFile(this.file, SensorSampleFileTests.SEGMENT_RECORDS);
+        assertEquals(10, recording.getCount());
+        recording.append(SensorSampleFileTests.makeSamples(10, 2));
+        SensorSampleFileTests.assertSamples(0, 12, recording.read(0, 12));
+        recording.close();
+        assertEquals(12 * SensorSampleFile.RECORD_SIZE, this.file.length());
+    }
+}
@@ -0,0 +1,206 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.buffer.SensorSampleRing;
+import com.sana.android.plugin.data.buffer.SensorSamples;
+import com.sana.android.plugin.data.event.RingBufferDataEvent;
+import com.sana.android.plugin.data.listener.DataListener;
+import com.sana.android.plugin.data.listener.SensorSampleListener;
+import com.sana.android.plugin.tests.mocks.MockEvent;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the primitive storage of sensor samples, and that an event only
+ * creates sample objects for the listeners that need them.
+ */
+public class SensorSampleRingTests extends InstrumentationTestCase {
+    private static final int CAPACITY = 4;
+    private static final long TEST_FAILURE_TIMEOUT = 5;
+    private static final TimeUnit TEST_FAILURE_TIMEOUT_UNIT = TimeUnit.SECONDS;
+
+    private SensorSampleRing ring;
+
+    private class RecordingListener implements DataListener {
+        protected LinkedBlockingQueue<Object> received =
+                new LinkedBlockingQueue<Object>();
+
+        @Override
+        public void putData(Object[] data) {
+            this.received.add(data);
+        }
+
+        @Override
+        public Object getExpectedSender() {
+            return SensorSampleRingTests.this;
+        }
+
+        @Override
+        public void setExpectedSender(Object sender) {
+        }
+
+        @Override
+        public void startListening() {
+        }
+
+        @Override
+        public void stopListening() {
+        }
+
+        @Override
+        public void stopListening(long timeout, TimeUnit unit) {
+        }
+
+        @Override
+        public void processData(Object sender, Object[] data) {
+        }
+
+        protected Object take() throws InterruptedException {
+            return this.received.poll(
+                    SensorSampleRingTests.TEST_FAILURE_TIMEOUT,
+                    SensorSampleRingTests.TEST_FAILURE_TIMEOUT_UNIT
+            );
+        }
+    }
+
+    private class SampleRecordingListener
+            extends RecordingListener implements SensorSampleListener {
+        @Override
+        public void putSamples(SensorSamples samples) {
+            this.received.add(samples);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.ring = new SensorSampleRing(SensorSampleRingTests.CAPACITY);
+    }
+
+    private void offer(int sample) {
+        this.ring.offer(sample, 10 * sample, 100 * sample, sample);
+    }
+
+    public void testBatchesWrapAround() {
+        assertNull(this.ring.poll(SensorSampleRingTests.CAPACITY));
+        for (int i = 0; i < 3; ++i) {
+            this.offer(i);
+        }
+        assertEquals(2, this.ring.poll(2).getCount());
+        for (int i = 3; i < 6; ++i) {
+            this.offer(i);
+        }
+        SensorSamples samples = this.ring.poll(SensorSampleRingTests.CAPACITY);
+        assertEquals(4, samples.getCount());
+        assertEquals(2, samples.getFirstSequenceNumber());
+        for (int i = 0; i < samples.getCount(); ++i) {
+            assertEquals(2f + i, samples.getX()[i]);
+            assertEquals(10f * (2 + i), samples.getY()[i]);
+            assertEquals(100f * (2 + i), samples.getZ()[i]);
+            assertEquals(2L + i, samples.getTimestamps()[i]);
+        }
+        assertEquals(0, this.ring.size());
+    }
+
+    public void testFullRingDropsNewSamples() {
+        for (int i = 0; i < SensorSampleRingTests.CAPACITY; ++i) {
+            this.offer(i);
+        }
+        assertFalse(this.ring.offer(0, 0, 0, 0));
+        assertEquals(1, this.ring.getDroppedCount());
+        SensorSamples samples = this.ring.poll(SensorSampleRingTests.CAPACITY);
+        assertEquals(0f, samples.getX()[0]);
+        assertEquals(3f, samples.getX()[SensorSampleRingTests.CAPACITY - 1]);
+    }
+
+    public void testDropsLeaveGaps() {
+        for (int i = 0; i < SensorSampleRingTests.CAPACITY; ++i) {
+            this.offer(i);
+        }
+        // Samples 4 and 5 are dropped.
+        this.offer(4);
+        this.offer(5);
+        assertEquals(2, this.ring.poll(2).getCount());
+        this.offer(6);
+        this.offer(7);
+        // The batch stops before the gap, and the next starts after it.
+        SensorSamples samples = this.ring.poll(SensorSampleRingTests.CAPACITY);
+        assertEquals(2, samples.getCount());
+        assertEquals(2, samples.getFirstSequenceNumber());
+        samples = this.ring.poll(SensorSampleRingTests.CAPACITY);
+        assertEquals(2, samples.getCount());
+        assertEquals(6, samples.getFirstSequenceNumber());
+        assertEquals(6f, samples.getX()[0]);
+        assertNull(this.ring.poll(SensorSampleRingTests.CAPACITY));
+    }
+
+    public void testAwaitBatch() throws InterruptedException {
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < SensorSampleRingTests.CAPACITY; ++i) {
+                    SensorSampleRingTests.this.offer(i);
+                }
+            }
+        });
+        producer.start();
+        assertTrue(this.ring.awaitSamples(
+                SensorSampleRingTests.CAPACITY,
+                SensorSampleRingTests.TEST_FAILURE_TIMEOUT,
+                SensorSampleRingTests.TEST_FAILURE_TIMEOUT_UNIT
+        ));
+        assertEquals(SensorSampleRingTests.CAPACITY, this.ring.size());
+        // A partial batch is only taken after the timeout.
+        this.ring.poll(1);
+        assertFalse(this.ring.awaitSamples(
+                SensorSampleRingTests.CAPACITY, 10, TimeUnit.MILLISECONDS));
+        producer.join();
+    }
+
+    public void testWakeUp() throws InterruptedException {
+        this.ring.wakeUp();
+        // Would wait forever.
+        assertFalse(this.ring.awaitSamples(1, 0, TimeUnit.NANOSECONDS));
+    }
+
+    public void testObjectsOnlyForLegacyListeners() throws InterruptedException {
+        MockEvent event = new MockEvent(this, new ArrayList<Byte[]>());
+        SampleRecordingListener sampleListener = new SampleRecordingListener();
+        RecordingListener legacyListener = new RecordingListener();
+        event.addListener(sampleListener);
+        event.addListener(legacyListener);
+        this.offer(1);
+        this.offer(2);
+        SensorSamples samples = this.ring.poll(SensorSampleRingTests.CAPACITY);
+        event.notifyListeners(samples);
+        assertSame(samples, sampleListener.take());
+        // The coordinates, interleaved.
+        Object[] objects = (Object[]) legacyListener.take();
+        assertEquals(6, objects.length);
+        assertEquals(1f, objects[0]);
+        assertEquals(10f, objects[1]);
+        assertEquals(200f, objects[5]);
+        event.dispose();
+    }
+
+    public void testRingBufferEventPublishesBatches() throws InterruptedException {
+        RingBufferDataEvent event = new RingBufferDataEvent(this);
+        SampleRecordingListener sampleListener = new SampleRecordingListener();
+        RecordingListener legacyListener = new RecordingListener();
+        event.addListener(sampleListener);
+        event.addListener(legacyListener);
+        event.startEvent();
+        this.offer(1);
+        SensorSamples samples = this.ring.poll(SensorSampleRingTests.CAPACITY);
+        event.notifyListeners(samples);
+        assertSame(samples, sampleListener.take());
+        Object[] objects = (Object[]) legacyListener.take();
+        assertEquals(3, objects.length);
+        assertEquals(100f, objects[2]);
+        event.stopEvent();
+        event.dispose();
+    }
+}
@@ -0,0 +1,124 @@
+package com.sana.android.plugin.tests.data;
+
+import android.test.InstrumentationTestCase;
+
+import com.sana.android.plugin.data.dsp.WindowFunction;
+import com.sana.android.plugin.data.listener.WindowedListener;
+
+import java.util.ArrayList;
+
+/**
+ * Checks the windows cut by a {@link WindowedListener} from a known
+ * sequence of samples.
+ */
+public class WindowedListenerTests extends InstrumentationTestCase {
+    private static final float DELTA = 1e-6f;
+
+    /**
+     * Keeps a copy of every window.
+     */
+    private class RecordingListener extends WindowedListener {
+        private ArrayList<float[]> windows = new ArrayList<float[]>();
+
+        public RecordingListener(
+                int windowSize,
+                int hop,
+                WindowFunction function,
+                SampleFormat sampleFormat
+        ) {
+            super(WindowedListenerTests.this, windowSize, hop, function, sampleFormat);
+        }
+
+        @Override
+        protected void processWindow(
+                Object sender, float[] samples, int offset, int length) {
+            float[] window = new float[length];
+            System.arraycopy(samples, offset, window, 0, length);
+            this.windows.add(window);
+        }
+
+        @Override
+        public void processData(Object sender, Object[] data) {
+        }
+    }
+
+    public void testOverlappingWindows() {
+        RecordingListener listener = this.feed(4, 2, 10);
+        assertEquals(4, listener.windows.size());
+        for (int i = 0; i < listener.windows.size(); ++i) {
+            this.assertWindow(listener.windows.get(i), 2 * i);
+        }
+    }
+
+    public void testHopLargerThanWindow() {
+        RecordingListener listener = this.feed(2, 3, 8);
+        assertEquals(3, listener.windows.size());
+        for (int i = 0; i < listener.windows.size(); ++i) {
+            this.assertWindow(listener.windows.get(i), 3 * i);
+        }
+    }
+
+    public void testWindowFunction() {
+        float[] hann = WindowFunction.HANN.getCoefficients(5);
+        assertEquals(0, hann[0], WindowedListenerTests.DELTA);
+        assertEquals(1, hann[2], WindowedListenerTests.DELTA);
+        assertEquals(0, hann[4], WindowedListenerTests.DELTA);
+        assertEquals(0.08f, WindowFunction.HAMMING.getCoefficients(5)[0],
+                WindowedListenerTests.DELTA);
+
+        RecordingListener listener = new RecordingListener(
+                5, 5, WindowFunction.HANN, WindowedListener.SampleFormat.SIGNED_8BIT);
+        listener.startListening();
+        listener.putData(new Object[]{2, 2, 2, 2, 2});
+        assertEquals(1, listener.windows.size());
+        for (int i = 0; i < hann.length; ++i) {
+            assertEquals(2 * hann[i], listener.windows.get(0)[i],
+                    WindowedListenerTests.DELTA);
+        }
+        listener.stopListening();
+    }
+
+    public void testPcm16Samples() {
+        RecordingListener listener = new RecordingListener(
+                3,
+                3,
+                WindowFunction.RECTANGULAR,
+                WindowedListener.SampleFormat.PCM_16BIT
+        );
+        listener.startListening();
+        // 16384, -32768 and 256, little endian, split within a sample.
+        byte[] bytes = new byte[]{0x00, 0x40, 0x00, (byte) 0x80, 0x00, 0x01};
+        listener.putBytes(bytes, 0, 3);
+        listener.putBytes(bytes, 3, 3);
+        assertEquals(1, listener.windows.size());
+        float[] window = listener.windows.get(0);
+        assertEquals(0.5f, window[0], WindowedListenerTests.DELTA);
+        assertEquals(-1f, window[1], WindowedListenerTests.DELTA);
+        assertEquals(256 / 32768f, window[2], WindowedListenerTests.DELTA);
+        listener.stopListening();
+    }
+
+    /**
+     * Put the samples 0, 1, ... one update each into a new listener.
+     */
+    private RecordingListener feed(int windowSize, int hop, int sampleCount) {
+        RecordingListener listener = new RecordingListener(
+                windowSize,
+                hop,
+                WindowFunction.RECTANGULAR,
+                WindowedListener.SampleFormat.SIGNED_8BIT
+        );
+        listener.startListening();
+        for (int i = 0; i < sampleCount; ++i) {
+            listener.putData(new Object[]{i});
+        }
+        listener.stopListening();
+        return listener;
+    }
+
+    private void assertWindow(float[] window, int firstSample) {
+        for (int i = 0; i < window.length; ++i) {
+            assertEquals(firstSample + i, window[i], WindowedListenerTests.DELTA);
+        }
+    }
+}